@@ -0,0 +1,110 @@
+package com.hoten.delaunay.examples;
+
+import com.hoten.delaunay.voronoi.Center;
+import com.hoten.delaunay.voronoi.Corner;
+import com.hoten.delaunay.voronoi.Edge;
+import com.hoten.delaunay.voronoi.VoronoiGraph;
+import com.hoten.delaunay.voronoi.nodename.as3delaunay.Voronoi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * ConcurrencyStressDriver.java
+ * <p>
+ * Generates the same set of maps once on the calling thread and then
+ * repeatedly on a pool of worker threads, for every Voronoi backend, and
+ * compares a fingerprint of each resulting graph. Exits with status 1 if any
+ * concurrent run differs from its single-threaded reference.
+ * <p>
+ * Usage: ConcurrencyStressDriver [threads] [maps] [sites] [rounds]
+ */
+public class ConcurrencyStressDriver {
+
+    public static void main(String[] args) throws Exception {
+        final int threads = args.length > 0 ? Integer.parseInt(args[0]) : Math.max(4, Runtime.getRuntime().availableProcessors());
+        final int maps = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        final int numSites = args.length > 2 ? Integer.parseInt(args[2]) : 4000;
+        final int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+        final int bounds = 1000;
+        final int numLloydRelaxations = 2;
+
+        int failures = 0;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (Voronoi.Backend backend : Voronoi.Backend.values()) {
+                final long[] expected = new long[maps];
+                long t0 = System.nanoTime();
+                for (int i = 0; i < maps; i++) {
+                    expected[i] = fingerprint(generate(backend, bounds, numSites, numLloydRelaxations, i));
+                }
+                System.out.printf("%s: %d maps sequentially in %.0fms%n", backend, maps, (System.nanoTime() - t0) / 1e6);
+
+                for (int round = 0; round < rounds; round++) {
+                    t0 = System.nanoTime();
+                    final List<Future<Long>> results = new ArrayList<>();
+                    for (int i = 0; i < maps; i++) {
+                        final long seed = i;
+                        results.add(executor.submit(() -> fingerprint(generate(backend, bounds, numSites, numLloydRelaxations, seed))));
+                    }
+                    for (int i = 0; i < maps; i++) {
+                        final long actual = results.get(i).get();
+                        if (actual != expected[i]) {
+                            System.out.printf("%s: map %d differs in round %d (%x != %x)%n", backend, i, round, actual, expected[i]);
+                            failures++;
+                        }
+                    }
+                    System.out.printf("%s: round %d, %d maps on %d threads in %.0fms%n", backend, round, maps, threads, (System.nanoTime() - t0) / 1e6);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        System.out.println(failures == 0 ? "all concurrent maps match" : failures + " mismatches");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static VoronoiGraph generate(Voronoi.Backend backend, int bounds, int numSites, int numLloydRelaxations, long seed) {
+        final Random r = new Random(seed);
+        final Voronoi v = new Voronoi(numSites, bounds, bounds, r, null, backend);
+        return new TestGraphImpl(v, numLloydRelaxations, r);
+    }
+
+    private static long fingerprint(VoronoiGraph graph) {
+        long h = 1;
+        for (Center c : graph.centers) {
+            h = mix(h, c.loc.x, c.loc.y, c.elevation, c.moisture);
+            h = 31 * h + (c.ocean ? 1 : 0) + (c.water ? 2 : 0) + (c.coast ? 4 : 0) + (c.border ? 8 : 0);
+            h = 31 * h + c.biome.ordinal();
+            for (Center n : c.neighbors) {
+                h = 31 * h + n.index;
+            }
+        }
+        for (Corner c : graph.corners) {
+            h = mix(h, c.loc.x, c.loc.y, c.elevation, c.moisture);
+            h = 31 * h + c.river;
+            h = 31 * h + (c.downslope == null ? -1 : c.downslope.index);
+            for (Corner n : c.adjacent) {
+                h = 31 * h + n.index;
+            }
+        }
+        for (Edge e : graph.edges) {
+            h = 31 * h + e.river;
+            h = 31 * h + (e.v0 == null ? -1 : e.v0.index);
+            h = 31 * h + (e.v1 == null ? -1 : e.v1.index);
+        }
+        return h;
+    }
+
+    private static long mix(long h, double... values) {
+        for (double v : values) {
+            h = 31 * h + Double.doubleToLongBits(v);
+        }
+        return h;
+    }
+}
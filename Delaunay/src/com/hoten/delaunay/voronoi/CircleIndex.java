@@ -0,0 +1,117 @@
+package com.hoten.delaunay.voronoi;
+
+import controller.generation.TerrainCircle;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * CircleIndex.java
+ * <p>
+ * Uniform grid over a set of circles, for testing whether a point lies in
+ * any of them. Every circle is listed in the squares its bounding box
+ * overlaps, with squares about as wide as the mean circle, so a point is
+ * only tested against the few circles of its square instead of all of them.
+ * The squares are stored like {@link CompactGraph.Adjacency}. Immutable.
+ */
+public final class CircleIndex {
+
+    // at most this many squares along a side, however small the circles
+    private static final int MAX_SQUARES = 256;
+
+    private final double[] x;
+    private final double[] y;
+    private final double[] radiusSquared;
+    private final double minX;
+    private final double minY;
+    private final double maxX;
+    private final double maxY;
+    private final double size;
+    private final int columns;
+    private final int rows;
+    private final int[] offset;
+    private final int[] circles;
+
+    public CircleIndex(List<TerrainCircle> list) {
+        final int n = list.size();
+        x = new double[n];
+        y = new double[n];
+        radiusSquared = new double[n];
+        double minX = Double.MAX_VALUE;
+        double minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE;
+        double maxY = -Double.MAX_VALUE;
+        double diameters = 0;
+        for (int i = 0; i < n; i++) {
+            final TerrainCircle circle = list.get(i);
+            x[i] = circle.m.x;
+            y[i] = circle.m.y;
+            final double r = circle.r;
+            radiusSquared[i] = r * r;
+            minX = Math.min(minX, x[i] - r);
+            minY = Math.min(minY, y[i] - r);
+            maxX = Math.max(maxX, x[i] + r);
+            maxY = Math.max(maxY, y[i] + r);
+            diameters += 2 * Math.abs(r);
+        }
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        final double extent = Math.max(maxX - minX, maxY - minY);
+        size = n == 0 ? 1 : Math.max(Math.max(diameters / n, extent / MAX_SQUARES), Double.MIN_NORMAL);
+        columns = n == 0 ? 1 : Math.max(1, (int) Math.ceil((maxX - minX) / size));
+        rows = n == 0 ? 1 : Math.max(1, (int) Math.ceil((maxY - minY) / size));
+
+        // two rounds over the bounding boxes: count per square, then fill
+        offset = new int[columns * rows + 1];
+        for (int i = 0; i < n; i++) {
+            final double r = Math.sqrt(radiusSquared[i]);
+            for (int row = row(y[i] - r); row <= row(y[i] + r); row++) {
+                for (int column = column(x[i] - r); column <= column(x[i] + r); column++) {
+                    offset[row * columns + column + 1]++;
+                }
+            }
+        }
+        for (int s = 0; s < columns * rows; s++) {
+            offset[s + 1] += offset[s];
+        }
+        circles = new int[offset[columns * rows]];
+        final int[] fill = Arrays.copyOf(offset, columns * rows);
+        for (int i = 0; i < n; i++) {
+            final double r = Math.sqrt(radiusSquared[i]);
+            for (int row = row(y[i] - r); row <= row(y[i] + r); row++) {
+                for (int column = column(x[i] - r); column <= column(x[i] + r); column++) {
+                    circles[fill[row * columns + column]++] = i;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return whether (px, py) lies strictly inside any of the circles
+     */
+    public boolean contains(double px, double py) {
+        if (!(px >= minX && px <= maxX && py >= minY && py <= maxY)) {
+            return false;
+        }
+        final int square = row(py) * columns + column(px);
+        for (int k = offset[square]; k < offset[square + 1]; k++) {
+            final int i = circles[k];
+            final double dx = px - x[i];
+            final double dy = py - y[i];
+            if (dx * dx + dy * dy < radiusSquared[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int column(double px) {
+        return Math.min(Math.max((int) Math.floor((px - minX) / size), 0), columns - 1);
+    }
+
+    private int row(double py) {
+        return Math.min(Math.max((int) Math.floor((py - minY) / size), 0), rows - 1);
+    }
+}
@@ -0,0 +1,354 @@
+package com.hoten.delaunay.voronoi;
+
+import com.hoten.delaunay.geom.Point;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * CompactGraph.java
+ * <p>
+ * Struct-of-arrays representation of the terrain graph. Every node is
+ * addressed by its index; attributes are kept in primitive columns and the
+ * adjacency lists of Center/Corner are stored in CSR form (one offset array
+ * plus one index array per relation). The generation passes of
+ * {@link VoronoiGraph} run on these arrays. The Center/Corner/Edge objects
+ * are not a view over them but a copy filled by {@link #publish}; the graph
+ * drops the arrays afterwards, so a finished graph is held once, as objects,
+ * and is copied back with {@link #of(List, List, List)} to run passes again.
+ * <p>
+ * Missing references (e.g. the Voronoi ends of an invisible edge) are stored
+ * as -1.
+ */
+public final class CompactGraph {
+
+    /**
+     * Compressed sparse row adjacency: the neighbors of node i are
+     * index[offset[i]] .. index[offset[i + 1] - 1], in insertion order.
+     */
+    public static final class Adjacency {
+
+        final public int[] offset;
+        final public int[] index;
+
+        public Adjacency(int[] offset, int[] index) {
+            this.offset = offset;
+            this.index = index;
+        }
+
+        public int begin(int node) {
+            return offset[node];
+        }
+
+        public int end(int node) {
+            return offset[node + 1];
+        }
+
+        public int degree(int node) {
+            return offset[node + 1] - offset[node];
+        }
+    }
+
+    final public int numCenters;
+    final public int numCorners;
+    final public int numEdges;
+
+    // centers
+    final public double[] centerX;
+    final public double[] centerY;
+    final public double[] centerElevation;
+    final public double[] centerMoisture;
+    final public BitSet centerBorder;
+    final public BitSet centerOcean;
+    final public BitSet centerWater;
+    final public BitSet centerCoast;
+
+    // corners
+    final public double[] cornerX;
+    final public double[] cornerY;
+    final public double[] cornerElevation;
+    final public double[] cornerMoisture;
+    final public int[] cornerDownslope;
+    final public int[] cornerRiver;
+    final public int[] cornerWatershed;
+    final public int[] cornerWatershedSize;
+    final public BitSet cornerBorder;
+    final public BitSet cornerOcean;
+    final public BitSet cornerWater;
+    final public BitSet cornerCoast;
+
+    // edges
+    final public int[] edgeD0;
+    final public int[] edgeD1;
+    final public int[] edgeV0;
+    final public int[] edgeV1;
+    final public int[] edgeRiver;
+
+    // relations
+    final public Adjacency neighbors;  // center -> center
+    final public Adjacency corners;    // center -> corner
+    final public Adjacency borders;    // center -> edge
+    final public Adjacency touches;    // corner -> center
+    final public Adjacency adjacent;   // corner -> corner
+    final public Adjacency protrudes;  // corner -> edge
+
+    // LongIntHashMap.pair of the ends -> lowest edge index joining them
+    private final LongIntHashMap edgeByCenters;
+    private final LongIntHashMap edgeByCorners;
+
+    CompactGraph(int numCenters, int numCorners, int numEdges,
+            Adjacency neighbors, Adjacency corners, Adjacency borders,
+            Adjacency touches, Adjacency adjacent, Adjacency protrudes) {
+        this.numCenters = numCenters;
+        this.numCorners = numCorners;
+        this.numEdges = numEdges;
+
+        centerX = new double[numCenters];
+        centerY = new double[numCenters];
+        centerElevation = new double[numCenters];
+        centerMoisture = new double[numCenters];
+        centerBorder = new BitSet(numCenters);
+        centerOcean = new BitSet(numCenters);
+        centerWater = new BitSet(numCenters);
+        centerCoast = new BitSet(numCenters);
+
+        cornerX = new double[numCorners];
+        cornerY = new double[numCorners];
+        cornerElevation = new double[numCorners];
+        cornerMoisture = new double[numCorners];
+        cornerDownslope = new int[numCorners];
+        cornerRiver = new int[numCorners];
+        cornerWatershed = new int[numCorners];
+        cornerWatershedSize = new int[numCorners];
+        cornerBorder = new BitSet(numCorners);
+        cornerOcean = new BitSet(numCorners);
+        cornerWater = new BitSet(numCorners);
+        cornerCoast = new BitSet(numCorners);
+
+        edgeD0 = new int[numEdges];
+        edgeD1 = new int[numEdges];
+        edgeV0 = new int[numEdges];
+        edgeV1 = new int[numEdges];
+        edgeRiver = new int[numEdges];
+
+        this.neighbors = neighbors;
+        this.corners = corners;
+        this.borders = borders;
+        this.touches = touches;
+        this.adjacent = adjacent;
+        this.protrudes = protrudes;
+
+        edgeByCenters = new LongIntHashMap(numEdges);
+        edgeByCorners = new LongIntHashMap(numEdges);
+    }
+
+    /**
+     * Copies an object graph into its array form. Adjacency order is kept, so
+     * passes running on the arrays visit nodes in the same order as the
+     * object lists.
+     */
+    public static CompactGraph of(List<Center> centers, List<Corner> corners, List<Edge> edges) {
+        return of(centers, corners, edges,
+                adjacency(centers, c -> c.neighbors, c -> c.index),
+                adjacency(centers, c -> c.corners, c -> c.index),
+                adjacency(corners, c -> c.touches, c -> c.index),
+                adjacency(corners, c -> c.adjacent, c -> c.index));
+    }
+
+    /**
+     * Same as {@link #of(List, List, List)} with the node to node relations
+     * already in array form; they must match the object lists.
+     */
+    public static CompactGraph of(List<Center> centers, List<Corner> corners, List<Edge> edges,
+            Adjacency neighbors, Adjacency centerCorners, Adjacency touches, Adjacency adjacent) {
+        CompactGraph g = new CompactGraph(centers.size(), corners.size(), edges.size(),
+                neighbors,
+                centerCorners,
+                adjacency(centers, c -> c.borders, e -> e.index),
+                touches,
+                adjacent,
+                adjacency(corners, c -> c.protrudes, e -> e.index));
+
+        for (Center c : centers) {
+            g.centerX[c.index] = c.loc.x;
+            g.centerY[c.index] = c.loc.y;
+            g.centerElevation[c.index] = c.elevation;
+            g.centerMoisture[c.index] = c.moisture;
+            g.centerBorder.set(c.index, c.border);
+            g.centerOcean.set(c.index, c.ocean);
+            g.centerWater.set(c.index, c.water);
+            g.centerCoast.set(c.index, c.coast);
+        }
+        for (Corner c : corners) {
+            g.cornerX[c.index] = c.loc.x;
+            g.cornerY[c.index] = c.loc.y;
+            g.cornerElevation[c.index] = c.elevation;
+            g.cornerMoisture[c.index] = c.moisture;
+            g.cornerDownslope[c.index] = c.downslope == null ? -1 : c.downslope.index;
+            g.cornerRiver[c.index] = c.river;
+            g.cornerWatershed[c.index] = c.watershed == null ? -1 : c.watershed.index;
+            g.cornerWatershedSize[c.index] = c.watershedSize;
+            g.cornerBorder.set(c.index, c.border);
+            g.cornerOcean.set(c.index, c.ocean);
+            g.cornerWater.set(c.index, c.water);
+            g.cornerCoast.set(c.index, c.coast);
+        }
+        for (Edge e : edges) {
+            g.edgeD0[e.index] = e.d0 == null ? -1 : e.d0.index;
+            g.edgeD1[e.index] = e.d1 == null ? -1 : e.d1.index;
+            g.edgeV0[e.index] = e.v0 == null ? -1 : e.v0.index;
+            g.edgeV1[e.index] = e.v1 == null ? -1 : e.v1.index;
+            g.edgeRiver[e.index] = e.river;
+        }
+        g.indexEdges();
+        return g;
+    }
+
+    //edges in index order, so the first edge of a pair wins like in a scan of borders / protrudes
+    void indexEdges() {
+        for (int e = 0; e < numEdges; e++) {
+            if (edgeD0[e] >= 0 && edgeD1[e] >= 0) {
+                edgeByCenters.putIfAbsent(LongIntHashMap.pair(edgeD0[e], edgeD1[e]), e);
+            }
+            if (edgeV0[e] >= 0 && edgeV1[e] >= 0) {
+                edgeByCorners.putIfAbsent(LongIntHashMap.pair(edgeV0[e], edgeV1[e]), e);
+            }
+        }
+    }
+
+    /**
+     * Creates the object view of this graph in the given empty lists, the
+     * reverse of {@link #of(List, List, List)}.
+     */
+    public void materialize(List<Center> centers, List<Corner> corners, List<Edge> edges) {
+        for (int i = 0; i < numCenters; i++) {
+            Center c = new Center(new Point(centerX[i], centerY[i]));
+            c.index = i;
+            centers.add(c);
+        }
+        for (int i = 0; i < numCorners; i++) {
+            Corner c = new Corner();
+            c.index = i;
+            c.loc = new Point(cornerX[i], cornerY[i]);
+            corners.add(c);
+        }
+        for (int i = 0; i < numEdges; i++) {
+            Edge e = new Edge();
+            e.index = i;
+            e.d0 = edgeD0[i] < 0 ? null : centers.get(edgeD0[i]);
+            e.d1 = edgeD1[i] < 0 ? null : centers.get(edgeD1[i]);
+            e.v0 = edgeV0[i] < 0 ? null : corners.get(edgeV0[i]);
+            e.v1 = edgeV1[i] < 0 ? null : corners.get(edgeV1[i]);
+            edges.add(e);
+        }
+        fill(centers, neighbors, centers, c -> c.neighbors);
+        fill(centers, this.corners, corners, c -> c.corners);
+        fill(centers, borders, edges, c -> c.borders);
+        fill(corners, touches, centers, c -> c.touches);
+        fill(corners, adjacent, corners, c -> c.adjacent);
+        fill(corners, protrudes, edges, c -> c.protrudes);
+        publish(centers, corners, edges);
+    }
+
+    /**
+     * Writes the array state back into the object view. Locations are only
+     * replaced if they moved, so Points handed out earlier stay valid.
+     */
+    public void publish(List<Center> centers, List<Corner> corners, List<Edge> edges) {
+        for (Center c : centers) {
+            int i = c.index;
+            if (c.loc.x != centerX[i] || c.loc.y != centerY[i]) {
+                c.loc = new Point(centerX[i], centerY[i]);
+            }
+            c.elevation = centerElevation[i];
+            c.moisture = centerMoisture[i];
+            c.border = centerBorder.get(i);
+            c.ocean = centerOcean.get(i);
+            c.water = centerWater.get(i);
+            c.coast = centerCoast.get(i);
+        }
+        for (Corner c : corners) {
+            int i = c.index;
+            if (c.loc.x != cornerX[i] || c.loc.y != cornerY[i]) {
+                c.loc = new Point(cornerX[i], cornerY[i]);
+            }
+            c.elevation = cornerElevation[i];
+            c.moisture = cornerMoisture[i];
+            c.downslope = cornerDownslope[i] < 0 ? null : corners.get(cornerDownslope[i]);
+            c.river = cornerRiver[i];
+            c.watershed = cornerWatershed[i] < 0 ? null : corners.get(cornerWatershed[i]);
+            c.watershedSize = cornerWatershedSize[i];
+            c.border = cornerBorder.get(i);
+            c.ocean = cornerOcean.get(i);
+            c.water = cornerWater.get(i);
+            c.coast = cornerCoast.get(i);
+        }
+        for (Edge e : edges) {
+            if (e.v0 != null && e.v1 != null) {
+                e.setVornoi(e.v0, e.v1);
+            }
+            e.river = edgeRiver[e.index];
+        }
+    }
+
+    private interface Relation<N, T> {
+        List<T> of(N node);
+    }
+
+    private static <N, T> void fill(List<N> nodes, Adjacency adjacency, List<T> items, Relation<N, T> relation) {
+        for (int n = 0; n < nodes.size(); n++) {
+            List<T> list = relation.of(nodes.get(n));
+            for (int k = adjacency.begin(n); k < adjacency.end(n); k++) {
+                list.add(items.get(adjacency.index[k]));
+            }
+        }
+    }
+
+    private interface Index<T> {
+        int of(T item);
+    }
+
+    private static <N, T> Adjacency adjacency(List<N> nodes, Relation<N, T> relation, Index<T> index) {
+        int[] offset = new int[nodes.size() + 1];
+        for (int i = 0; i < nodes.size(); i++) {
+            offset[i + 1] = offset[i] + relation.of(nodes.get(i)).size();
+        }
+        int[] indices = new int[offset[nodes.size()]];
+        int k = 0;
+        for (N node : nodes) {
+            for (T item : relation.of(node)) {
+                indices[k++] = index.of(item);
+            }
+        }
+        return new Adjacency(offset, indices);
+    }
+
+    /**
+     * Collects the land corners (neither ocean nor coast) in index order.
+     */
+    public int[] landCorners() {
+        int[] list = new int[numCorners];
+        int n = 0;
+        for (int i = 0; i < numCorners; i++) {
+            if (!cornerOcean.get(i) && !cornerCoast.get(i)) {
+                list[n++] = i;
+            }
+        }
+        return Arrays.copyOf(list, n);
+    }
+
+    /**
+     * @return the edge joining corners c and d, or -1
+     */
+    public int edgeBetweenCorners(int c, int d) {
+        return edgeByCorners.get(LongIntHashMap.pair(c, d), -1);
+    }
+
+    /**
+     * @return the edge separating centers c and d, or -1
+     */
+    public int edgeBetweenCenters(int c, int d) {
+        return edgeByCenters.get(LongIntHashMap.pair(c, d), -1);
+    }
+}
@@ -21,5 +21,7 @@ public class Corner {
     public boolean water, ocean, coast;
     public Corner downslope;
     public int river;
+    public Corner watershed;
+    public int watershedSize;
     public double moisture;
 }
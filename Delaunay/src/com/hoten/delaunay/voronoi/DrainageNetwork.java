@@ -0,0 +1,131 @@
+package com.hoten.delaunay.voronoi;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * DrainageNetwork.java
+ * <p>
+ * The forest formed by the downslope pointers of the corners, put into flow
+ * order once. After that every pass is a single linear sweep:
+ * {@link #accumulate} from the sources down, so each corner has received
+ * everything upstream of it before passing it on, and {@link #watersheds}
+ * from the sinks up, so each corner finds the outlet of its downslope already
+ * resolved.
+ * <p>
+ * The flow order comes from sorting the corners by elevation (one parallel
+ * sort of packed primitive keys). Downslope only guarantees "not higher", so
+ * a corner is held back while anything upstream of it is still to come,
+ * which fixes up plateaus. Sinks (ocean, coast, local minima) end a flow
+ * path; a ring of corners of equal elevation draining into each other is
+ * opened up by making one of them a sink.
+ */
+final class DrainageNetwork {
+
+    private final int[] downslope;
+    private final BitSet sinks;
+    private final int[] order;
+
+    /**
+     * @param elevation elevation of every corner
+     * @param downslope the corner each corner drains into, itself for minima
+     * @param sinks corners that don't pass anything on, is not modified
+     */
+    DrainageNetwork(double[] elevation, int[] downslope, BitSet sinks) {
+        this.downslope = downslope;
+        this.sinks = (BitSet) sinks.clone();
+        this.order = new int[elevation.length];
+
+        // number of corners draining directly into each corner
+        final int[] pending = new int[elevation.length];
+        for (int c = 0; c < elevation.length; c++) {
+            if (passesOn(c)) {
+                pending[downslope[c]]++;
+            }
+        }
+
+        final int[] byElevation = byElevation(elevation);
+        final BitSet heldBack = new BitSet(elevation.length);
+        int n = 0;
+        for (int i = byElevation.length - 1; i >= 0; i--) {
+            final int c = byElevation[i];
+            if (pending[c] == 0) {
+                n = emit(c, n, pending, heldBack);
+            } else {
+                heldBack.set(c);
+            }
+        }
+        // everything still held back is part of a ring
+        for (int i = byElevation.length - 1; i >= 0 && n < order.length; i--) {
+            final int c = byElevation[i];
+            if (heldBack.get(c) && pending[c] > 0) {
+                this.sinks.set(c);
+                final int down = downslope[c];
+                if (--pending[down] == 0) {
+                    n = emit(down, n, pending, heldBack);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the value of every corner to all corners downstream of it, up to
+     * and including the sink it drains into.
+     */
+    void accumulate(int[] values) {
+        for (final int c : order) {
+            if (passesOn(c)) {
+                values[downslope[c]] += values[c];
+            }
+        }
+    }
+
+    /**
+     * Stores for every corner the sink it drains into, and for every sink
+     * the number of corners draining into it (itself included).
+     */
+    void watersheds(int[] watershed, int[] size) {
+        Arrays.fill(size, 0);
+        for (int i = order.length - 1; i >= 0; i--) {
+            final int c = order[i];
+            watershed[c] = passesOn(c) ? watershed[downslope[c]] : c;
+            size[watershed[c]]++;
+        }
+    }
+
+    private boolean passesOn(int c) {
+        return !sinks.get(c) && downslope[c] != c;
+    }
+
+    //appends c, then follows its downslope while that was waiting for c only
+    private int emit(int c, int n, int[] pending, BitSet heldBack) {
+        while (true) {
+            order[n++] = c;
+            heldBack.clear(c);
+            if (!passesOn(c)) {
+                return n;
+            }
+            final int down = downslope[c];
+            if (--pending[down] > 0 || !heldBack.get(down)) {
+                return n;
+            }
+            c = down;
+        }
+    }
+
+    //corner indices by ascending elevation, packed into one primitive key each so they can be sorted in parallel
+    private static int[] byElevation(double[] elevation) {
+        final long[] keys = new long[elevation.length];
+        for (int c = 0; c < elevation.length; c++) {
+            int bits = Float.floatToIntBits((float) elevation[c]);
+            bits ^= (bits >> 31) & 0x7fffffff;  // negative floats sort reversed
+            keys[c] = ((long) bits << 32) | c;
+        }
+        Arrays.parallelSort(keys);
+        final int[] order = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            order[i] = (int) keys[i];
+        }
+        return order;
+    }
+}
@@ -0,0 +1,32 @@
+package com.hoten.delaunay.voronoi;
+
+/**
+ * GenerationListener.java
+ * <p>
+ * Gets told on the generating thread whenever map generation enters the next
+ * stage. Throwing a {@link java.util.concurrent.CancellationException} from
+ * {@link #stage} aborts the generation at that point, which is how
+ * superseded background runs are stopped.
+ */
+public interface GenerationListener {
+
+    /**
+     * The stages of a map build, in order. POINTS and MESH are run by the
+     * callers around {@link VoronoiGraph}, the others by its constructor.
+     */
+    enum Stage {
+        POINTS,
+        RELAXATION,
+        GRAPH,
+        ELEVATION,
+        RIVERS,
+        MOISTURE,
+        BIOMES,
+        MESH
+    }
+
+    GenerationListener NONE = stage -> {
+    };
+
+    void stage(Stage stage);
+}
@@ -0,0 +1,401 @@
+package com.hoten.delaunay.voronoi;
+
+import com.hoten.delaunay.geom.Rectangle;
+import com.hoten.delaunay.voronoi.nodename.as3delaunay.Voronoi;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.EnumMap;
+
+/**
+ * GraphFile.java
+ * <p>
+ * Binary save format of a finished {@link VoronoiGraph}: every column of its
+ * {@link CompactGraph} (coordinates, elevation, moisture, flags, downslope,
+ * rivers, watersheds), the six relations in CSR form, the biome of every
+ * center and the parameters the map was generated with.
+ * <p>
+ * Layout, little endian: magic, version, the header fields, a section table
+ * (column id, byte offset, element count) and the columns, each starting at
+ * a multiple of 8 bytes. Flags are stored as the long words of a BitSet.
+ * <p>
+ * {@link #open} reads only the header and the section table; single columns
+ * can be read as views with {@link #doubles}, {@link #ints} and
+ * {@link #bits}. Loading a graph is eager though: {@link #compact} copies
+ * every column onto the heap and
+ * {@link VoronoiGraph#VoronoiGraph(GraphFile, Class)} builds all centers,
+ * corners and edges from that copy, so the file can be dropped afterwards.
+ */
+public final class GraphFile {
+
+    public static final int MAGIC = 0x56475246;  // "VGRF"
+    public static final int VERSION = 1;
+
+    private enum Kind {
+        DOUBLE(8), INT(4), BITS(8);
+
+        final int bytes;
+
+        Kind(int bytes) {
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * The sections of the file; the ordinal is the id written into the
+     * section table, so new columns may only be appended.
+     */
+    public enum Column {
+        CENTER_X(Kind.DOUBLE), CENTER_Y(Kind.DOUBLE), CENTER_ELEVATION(Kind.DOUBLE), CENTER_MOISTURE(Kind.DOUBLE),
+        CENTER_BORDER(Kind.BITS), CENTER_OCEAN(Kind.BITS), CENTER_WATER(Kind.BITS), CENTER_COAST(Kind.BITS),
+        CENTER_BIOME(Kind.INT),
+        CORNER_X(Kind.DOUBLE), CORNER_Y(Kind.DOUBLE), CORNER_ELEVATION(Kind.DOUBLE), CORNER_MOISTURE(Kind.DOUBLE),
+        CORNER_DOWNSLOPE(Kind.INT), CORNER_RIVER(Kind.INT), CORNER_WATERSHED(Kind.INT), CORNER_WATERSHED_SIZE(Kind.INT),
+        CORNER_BORDER(Kind.BITS), CORNER_OCEAN(Kind.BITS), CORNER_WATER(Kind.BITS), CORNER_COAST(Kind.BITS),
+        EDGE_D0(Kind.INT), EDGE_D1(Kind.INT), EDGE_V0(Kind.INT), EDGE_V1(Kind.INT), EDGE_RIVER(Kind.INT),
+        NEIGHBORS_OFFSET(Kind.INT), NEIGHBORS_INDEX(Kind.INT),
+        CORNERS_OFFSET(Kind.INT), CORNERS_INDEX(Kind.INT),
+        BORDERS_OFFSET(Kind.INT), BORDERS_INDEX(Kind.INT),
+        TOUCHES_OFFSET(Kind.INT), TOUCHES_INDEX(Kind.INT),
+        ADJACENT_OFFSET(Kind.INT), ADJACENT_INDEX(Kind.INT),
+        PROTRUDES_OFFSET(Kind.INT), PROTRUDES_INDEX(Kind.INT);
+
+        private final Kind kind;
+
+        Column(Kind kind) {
+            this.kind = kind;
+        }
+    }
+
+    // generation parameters
+    final public long seed;
+    final public int numLloydRelaxations;
+    final public Voronoi.Backend backend;
+    final public VoronoiGraph.Generation_Type generationType;
+    final public int bumps;
+    final public double startAngle;
+    final public double dipAngle;
+    final public double dipWidth;
+    final public Rectangle bounds;
+    final public String biomeType;  // class name of the biome enum, "" if there are no biomes
+
+    final public int numCenters;
+    final public int numCorners;
+    final public int numEdges;
+
+    private final ByteBuffer data;
+    private final EnumMap<Column, long[]> sections = new EnumMap<>(Column.class);  // offset, count
+    private CompactGraph compact;
+
+    private GraphFile(ByteBuffer data) throws IOException {
+        this.data = data.order(ByteOrder.LITTLE_ENDIAN);
+        if (data.getInt() != MAGIC) {
+            throw new IOException("not a graph file");
+        }
+        int version = data.getInt();
+        if (version != VERSION) {
+            throw new IOException("unsupported graph file version " + version + ", expected " + VERSION);
+        }
+        seed = data.getLong();
+        numLloydRelaxations = data.getInt();
+        backend = Voronoi.Backend.valueOf(getString(data));
+        generationType = VoronoiGraph.Generation_Type.valueOf(getString(data));
+        bumps = data.getInt();
+        startAngle = data.getDouble();
+        dipAngle = data.getDouble();
+        dipWidth = data.getDouble();
+        bounds = new Rectangle(data.getDouble(), data.getDouble(), data.getDouble(), data.getDouble());
+        biomeType = getString(data);
+        numCenters = data.getInt();
+        numCorners = data.getInt();
+        numEdges = data.getInt();
+
+        final int numSections = data.getInt();
+        final Column[] columns = Column.values();
+        for (int i = 0; i < numSections; i++) {
+            final int id = data.getInt();
+            final long offset = data.getLong();
+            final long count = data.getInt();
+            if (id < 0 || id >= columns.length) {
+                throw new IOException("unknown section " + id);
+            }
+            if (offset < 0 || offset + count * columns[id].kind.bytes > data.capacity()) {
+                throw new IOException("section " + columns[id] + " exceeds the file");
+            }
+            sections.put(columns[id], new long[]{offset, count});
+        }
+        for (Column column : columns) {
+            if (!sections.containsKey(column)) {
+                throw new IOException("missing section " + column);
+            }
+        }
+    }
+
+    /**
+     * Maps the file and reads its header. The mapping stays valid after the
+     * channel is closed.
+     */
+    public static GraphFile open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new GraphFile(mapped);
+        }
+    }
+
+    /**
+     * Saves the graph with the parameters it was generated from.
+     */
+    public static void write(Path path, VoronoiGraph graph, long seed, int numLloydRelaxations, Voronoi.Backend backend)
+            throws IOException {
+        final CompactGraph g = graph.compact();
+        final int[] biomes = new int[g.numCenters];
+        String biomeType = "";
+        for (Center c : graph.centers) {
+            biomes[c.index] = c.biome == null ? -1 : c.biome.ordinal();
+            if (c.biome != null) {
+                biomeType = c.biome.getDeclaringClass().getName();
+            }
+        }
+
+        final ByteBuffer header = ByteBuffer.allocate(4096).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putLong(seed);
+        header.putInt(numLloydRelaxations);
+        putString(header, backend.name());
+        putString(header, graph.generationType.name());
+        header.putInt(graph.bumps);
+        header.putDouble(graph.startAngle);
+        header.putDouble(graph.dipAngle);
+        header.putDouble(graph.dipWidth);
+        header.putDouble(graph.bounds.x);
+        header.putDouble(graph.bounds.y);
+        header.putDouble(graph.bounds.width);
+        header.putDouble(graph.bounds.height);
+        putString(header, biomeType);
+        header.putInt(g.numCenters);
+        header.putInt(g.numCorners);
+        header.putInt(g.numEdges);
+
+        final Column[] columns = Column.values();
+        final Object[] values = new Object[columns.length];
+        final long[] offsets = new long[columns.length];
+        long offset = align(header.position() + 4 + columns.length * 16L);
+        header.putInt(columns.length);
+        for (Column column : columns) {
+            values[column.ordinal()] = columnOf(column, g, biomes);
+            offsets[column.ordinal()] = offset;
+            header.putInt(column.ordinal());
+            header.putLong(offset);
+            header.putInt(count(values[column.ordinal()]));
+            offset = align(offset + (long) count(values[column.ordinal()]) * column.kind.bytes);
+        }
+        header.flip();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, header, 0);
+            for (Column column : columns) {
+                writeFully(channel, bytesOf(values[column.ordinal()]), offsets[column.ordinal()]);
+            }
+        }
+    }
+
+    /**
+     * @return a read only view of a DOUBLE column
+     */
+    public DoubleBuffer doubles(Column column) {
+        return section(column, Kind.DOUBLE).asDoubleBuffer();
+    }
+
+    /**
+     * @return a read only view of an INT column
+     */
+    public IntBuffer ints(Column column) {
+        return section(column, Kind.INT).asIntBuffer();
+    }
+
+    /**
+     * @return a read only view of the words of a BITS column
+     */
+    public LongBuffer bits(Column column) {
+        return section(column, Kind.BITS).asLongBuffer();
+    }
+
+    /**
+     * Copies all columns into a CompactGraph on the heap; done once, later
+     * calls return the same instance.
+     */
+    public synchronized CompactGraph compact() {
+        if (compact != null) {
+            return compact;
+        }
+        final CompactGraph g = new CompactGraph(numCenters, numCorners, numEdges,
+                adjacency(Column.NEIGHBORS_OFFSET, Column.NEIGHBORS_INDEX),
+                adjacency(Column.CORNERS_OFFSET, Column.CORNERS_INDEX),
+                adjacency(Column.BORDERS_OFFSET, Column.BORDERS_INDEX),
+                adjacency(Column.TOUCHES_OFFSET, Column.TOUCHES_INDEX),
+                adjacency(Column.ADJACENT_OFFSET, Column.ADJACENT_INDEX),
+                adjacency(Column.PROTRUDES_OFFSET, Column.PROTRUDES_INDEX));
+        doubles(Column.CENTER_X).get(g.centerX);
+        doubles(Column.CENTER_Y).get(g.centerY);
+        doubles(Column.CENTER_ELEVATION).get(g.centerElevation);
+        doubles(Column.CENTER_MOISTURE).get(g.centerMoisture);
+        g.centerBorder.or(BitSet.valueOf(bits(Column.CENTER_BORDER)));
+        g.centerOcean.or(BitSet.valueOf(bits(Column.CENTER_OCEAN)));
+        g.centerWater.or(BitSet.valueOf(bits(Column.CENTER_WATER)));
+        g.centerCoast.or(BitSet.valueOf(bits(Column.CENTER_COAST)));
+
+        doubles(Column.CORNER_X).get(g.cornerX);
+        doubles(Column.CORNER_Y).get(g.cornerY);
+        doubles(Column.CORNER_ELEVATION).get(g.cornerElevation);
+        doubles(Column.CORNER_MOISTURE).get(g.cornerMoisture);
+        ints(Column.CORNER_DOWNSLOPE).get(g.cornerDownslope);
+        ints(Column.CORNER_RIVER).get(g.cornerRiver);
+        ints(Column.CORNER_WATERSHED).get(g.cornerWatershed);
+        ints(Column.CORNER_WATERSHED_SIZE).get(g.cornerWatershedSize);
+        g.cornerBorder.or(BitSet.valueOf(bits(Column.CORNER_BORDER)));
+        g.cornerOcean.or(BitSet.valueOf(bits(Column.CORNER_OCEAN)));
+        g.cornerWater.or(BitSet.valueOf(bits(Column.CORNER_WATER)));
+        g.cornerCoast.or(BitSet.valueOf(bits(Column.CORNER_COAST)));
+
+        ints(Column.EDGE_D0).get(g.edgeD0);
+        ints(Column.EDGE_D1).get(g.edgeD1);
+        ints(Column.EDGE_V0).get(g.edgeV0);
+        ints(Column.EDGE_V1).get(g.edgeV1);
+        ints(Column.EDGE_RIVER).get(g.edgeRiver);
+        g.indexEdges();
+        compact = g;
+        return g;
+    }
+
+    private ByteBuffer section(Column column, Kind kind) {
+        if (column.kind != kind) {
+            throw new IllegalArgumentException(column + " is not a " + kind + " column");
+        }
+        final long[] section = sections.get(column);
+        final ByteBuffer view = data.asReadOnlyBuffer();
+        view.position((int) section[0]);
+        view.limit((int) (section[0] + section[1] * kind.bytes));
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private CompactGraph.Adjacency adjacency(Column offset, Column index) {
+        final IntBuffer offsets = ints(offset);
+        final IntBuffer indices = ints(index);
+        final int[] o = new int[offsets.remaining()];
+        final int[] i = new int[indices.remaining()];
+        offsets.get(o);
+        indices.get(i);
+        return new CompactGraph.Adjacency(o, i);
+    }
+
+    private static Object columnOf(Column column, CompactGraph g, int[] biomes) {
+        switch (column) {
+            case CENTER_X: return g.centerX;
+            case CENTER_Y: return g.centerY;
+            case CENTER_ELEVATION: return g.centerElevation;
+            case CENTER_MOISTURE: return g.centerMoisture;
+            case CENTER_BORDER: return words(g.centerBorder, g.numCenters);
+            case CENTER_OCEAN: return words(g.centerOcean, g.numCenters);
+            case CENTER_WATER: return words(g.centerWater, g.numCenters);
+            case CENTER_COAST: return words(g.centerCoast, g.numCenters);
+            case CENTER_BIOME: return biomes;
+            case CORNER_X: return g.cornerX;
+            case CORNER_Y: return g.cornerY;
+            case CORNER_ELEVATION: return g.cornerElevation;
+            case CORNER_MOISTURE: return g.cornerMoisture;
+            case CORNER_DOWNSLOPE: return g.cornerDownslope;
+            case CORNER_RIVER: return g.cornerRiver;
+            case CORNER_WATERSHED: return g.cornerWatershed;
+            case CORNER_WATERSHED_SIZE: return g.cornerWatershedSize;
+            case CORNER_BORDER: return words(g.cornerBorder, g.numCorners);
+            case CORNER_OCEAN: return words(g.cornerOcean, g.numCorners);
+            case CORNER_WATER: return words(g.cornerWater, g.numCorners);
+            case CORNER_COAST: return words(g.cornerCoast, g.numCorners);
+            case EDGE_D0: return g.edgeD0;
+            case EDGE_D1: return g.edgeD1;
+            case EDGE_V0: return g.edgeV0;
+            case EDGE_V1: return g.edgeV1;
+            case EDGE_RIVER: return g.edgeRiver;
+            case NEIGHBORS_OFFSET: return g.neighbors.offset;
+            case NEIGHBORS_INDEX: return g.neighbors.index;
+            case CORNERS_OFFSET: return g.corners.offset;
+            case CORNERS_INDEX: return g.corners.index;
+            case BORDERS_OFFSET: return g.borders.offset;
+            case BORDERS_INDEX: return g.borders.index;
+            case TOUCHES_OFFSET: return g.touches.offset;
+            case TOUCHES_INDEX: return g.touches.index;
+            case ADJACENT_OFFSET: return g.adjacent.offset;
+            case ADJACENT_INDEX: return g.adjacent.index;
+            case PROTRUDES_OFFSET: return g.protrudes.offset;
+            case PROTRUDES_INDEX: return g.protrudes.index;
+            default: throw new IllegalArgumentException("no data for " + column);
+        }
+    }
+
+    //fixed length, BitSet.toLongArray drops trailing zero words
+    private static long[] words(BitSet bits, int size) {
+        final long[] words = new long[(size + 63) / 64];
+        final long[] set = bits.toLongArray();
+        System.arraycopy(set, 0, words, 0, set.length);
+        return words;
+    }
+
+    private static int count(Object column) {
+        if (column instanceof double[]) {
+            return ((double[]) column).length;
+        }
+        if (column instanceof long[]) {
+            return ((long[]) column).length;
+        }
+        return ((int[]) column).length;
+    }
+
+    private static ByteBuffer bytesOf(Object column) {
+        final ByteBuffer bytes;
+        if (column instanceof double[]) {
+            bytes = ByteBuffer.allocate(8 * count(column)).order(ByteOrder.LITTLE_ENDIAN);
+            bytes.asDoubleBuffer().put((double[]) column);
+        } else if (column instanceof long[]) {
+            bytes = ByteBuffer.allocate(8 * count(column)).order(ByteOrder.LITTLE_ENDIAN);
+            bytes.asLongBuffer().put((long[]) column);
+        } else {
+            bytes = ByteBuffer.allocate(4 * count(column)).order(ByteOrder.LITTLE_ENDIAN);
+            bytes.asIntBuffer().put((int[]) column);
+        }
+        return bytes;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer bytes, long position) throws IOException {
+        while (bytes.hasRemaining()) {
+            position += channel.write(bytes, position);
+        }
+    }
+
+    private static long align(long offset) {
+        return (offset + 7) & ~7L;
+    }
+
+    private static void putString(ByteBuffer buffer, String s) {
+        final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.getShort() & 0xffff];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,184 @@
+package com.hoten.delaunay.voronoi;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * GraphFlood.java
+ * <p>
+ * Propagation of values over a {@link CompactGraph.Adjacency}, for the
+ * terrain passes that spread something outwards from a set of source nodes
+ * (distance from the coast, moisture from rivers and lakes, ocean fill).
+ * <p>
+ * {@link #breadthFirst} visits every reachable node once, in BFS order, using
+ * a flat int queue. {@link #settle} is Dijkstra with a binary heap of node
+ * indices: every node is settled exactly once, with the best value any path
+ * from a source gives it. For the result to equal that of repeated relaxation
+ * until nothing changes, the step must be monotone and must never improve a
+ * value (value + cost for minimum, factor * value with factor <= 1 for
+ * maximum) - then the values are identical, floating point included.
+ * <p>
+ * The buffers are kept between calls, so one instance can run several passes
+ * over graphs of the same size. Not thread safe.
+ */
+public final class GraphFlood {
+
+    /**
+     * The value a node receives from its neighbor over one edge.
+     */
+    public interface Step {
+        double apply(int from, int to, double value);
+    }
+
+    /**
+     * Called for every edge leaving a visited node whose end hasn't been
+     * visited yet; returns whether to visit that node.
+     */
+    public interface Visitor {
+        boolean visit(int from, int to);
+    }
+
+    // heapPosition of nodes not (yet) in the heap
+    private static final int UNSEEN = -1;
+    private static final int SETTLED = -2;
+
+    private final int size;
+    private final BitSet done;
+    private int[] queue;
+    private int[] heapPosition;
+
+    /**
+     * @param size number of nodes, indices are 0 .. size - 1
+     */
+    public GraphFlood(int size) {
+        this.size = size;
+        this.done = new BitSet(size);
+    }
+
+    /**
+     * Visits the graph breadth first, starting from sources[0 .. numSources - 1]
+     * which count as visited.
+     */
+    public void breadthFirst(CompactGraph.Adjacency adjacency, int[] sources, int numSources, Visitor visitor) {
+        final int[] queue = queue();
+        done.clear();
+        int tail = 0;
+        for (int i = 0; i < numSources; i++) {
+            if (!done.get(sources[i])) {
+                done.set(sources[i]);
+                queue[tail++] = sources[i];
+            }
+        }
+        for (int head = 0; head < tail; head++) {
+            final int node = queue[head];
+            for (int k = adjacency.begin(node); k < adjacency.end(node); k++) {
+                final int next = adjacency.index[k];
+                if (!done.get(next) && visitor.visit(node, next)) {
+                    done.set(next);
+                    queue[tail++] = next;
+                }
+            }
+        }
+    }
+
+    /**
+     * Settles every node reachable from the sources with the smallest
+     * (minimum = true) or largest value over all paths. values must hold the
+     * start value of every source and a value no path beats (e.g.
+     * Double.MAX_VALUE resp. 0) everywhere else; it receives the result.
+     */
+    public void settle(CompactGraph.Adjacency adjacency, double[] values, int[] sources, int numSources, boolean minimum, Step step) {
+        final int[] heap = queue();
+        if (heapPosition == null) {
+            heapPosition = new int[size];
+        }
+        Arrays.fill(heapPosition, UNSEEN);
+
+        int n = 0;
+        for (int i = 0; i < numSources; i++) {
+            final int node = sources[i];
+            if (heapPosition[node] == UNSEEN) {
+                heap[n] = node;
+                heapPosition[node] = n++;
+            }
+        }
+        for (int i = n / 2 - 1; i >= 0; i--) {
+            down(heap, n, i, values, minimum);
+        }
+
+        while (n > 0) {
+            final int node = heap[0];
+            heapPosition[node] = SETTLED;
+            if (--n > 0) {
+                heap[0] = heap[n];
+                heapPosition[heap[0]] = 0;
+                down(heap, n, 0, values, minimum);
+            }
+
+            for (int k = adjacency.begin(node); k < adjacency.end(node); k++) {
+                final int next = adjacency.index[k];
+                int position = heapPosition[next];
+                if (position == SETTLED) {
+                    continue;
+                }
+                final double value = step.apply(node, next, values[node]);
+                if (minimum ? value < values[next] : value > values[next]) {
+                    values[next] = value;
+                    if (position == UNSEEN) {
+                        position = n++;
+                        heap[position] = next;
+                        heapPosition[next] = position;
+                    }
+                    up(heap, position, values, minimum);
+                }
+            }
+        }
+    }
+
+    private int[] queue() {
+        if (queue == null) {
+            queue = new int[size];
+        }
+        return queue;
+    }
+
+    private static boolean before(double a, double b, boolean minimum) {
+        return minimum ? a < b : a > b;
+    }
+
+    private void up(int[] heap, int position, double[] values, boolean minimum) {
+        final int node = heap[position];
+        while (position > 0) {
+            final int parent = (position - 1) >>> 1;
+            if (!before(values[node], values[heap[parent]], minimum)) {
+                break;
+            }
+            heap[position] = heap[parent];
+            heapPosition[heap[position]] = position;
+            position = parent;
+        }
+        heap[position] = node;
+        heapPosition[node] = position;
+    }
+
+    private void down(int[] heap, int n, int position, double[] values, boolean minimum) {
+        final int node = heap[position];
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= n) {
+                break;
+            }
+            if (child + 1 < n && before(values[heap[child + 1]], values[heap[child]], minimum)) {
+                child++;
+            }
+            if (!before(values[heap[child]], values[node], minimum)) {
+                break;
+            }
+            heap[position] = heap[child];
+            heapPosition[heap[position]] = position;
+            position = child;
+        }
+        heap[position] = node;
+        heapPosition[node] = position;
+    }
+}
@@ -0,0 +1,56 @@
+package com.hoten.delaunay.voronoi;
+
+/**
+ * IndexSort.java
+ * <p>
+ * Stable merge sort of node indices by a primitive key column. Used instead
+ * of Collections.sort on boxed node lists; equal keys keep their input order.
+ */
+final class IndexSort {
+
+    private static final int INSERTION_THRESHOLD = 32;
+
+    private IndexSort() {
+    }
+
+    /**
+     * Sorts idx ascending by key[idx[i]].
+     */
+    static void sort(int[] idx, double[] key) {
+        int[] tmp = new int[idx.length];
+        sort(idx, tmp, key, 0, idx.length);
+    }
+
+    private static void sort(int[] idx, int[] tmp, double[] key, int from, int to) {
+        if (to - from <= INSERTION_THRESHOLD) {
+            for (int i = from + 1; i < to; i++) {
+                int v = idx[i];
+                double k = key[v];
+                int j = i - 1;
+                while (j >= from && key[idx[j]] > k) {
+                    idx[j + 1] = idx[j];
+                    j--;
+                }
+                idx[j + 1] = v;
+            }
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        sort(idx, tmp, key, from, mid);
+        sort(idx, tmp, key, mid, to);
+        if (!(key[idx[mid - 1]] > key[idx[mid]])) {
+            return;
+        }
+        System.arraycopy(idx, from, tmp, from, to - from);
+        int i = from, j = mid, k = from;
+        while (i < mid && j < to) {
+            idx[k++] = key[tmp[j]] < key[tmp[i]] ? tmp[j++] : tmp[i++];
+        }
+        while (i < mid) {
+            idx[k++] = tmp[i++];
+        }
+        while (j < to) {
+            idx[k++] = tmp[j++];
+        }
+    }
+}
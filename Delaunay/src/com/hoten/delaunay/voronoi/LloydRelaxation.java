@@ -0,0 +1,179 @@
+package com.hoten.delaunay.voronoi;
+
+import com.hoten.delaunay.geom.Point;
+import com.hoten.delaunay.voronoi.nodename.as3delaunay.Voronoi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * LloydRelaxation.java
+ * <p>
+ * Moves every site to the centroid of its Voronoi cell and rebuilds the
+ * diagram, a given number of times. Centroids are computed on a fork-join pool
+ * over fixed-size site partitions.
+ * <p>
+ * The result does not depend on the number of cores: each cell is reduced by
+ * exactly one task, in polygon order, into its own slot, and the partitions
+ * are cut at fixed GRAIN boundaries. Passing a pool with parallelism 1 (or
+ * null) runs everything on the calling thread and gives the same graph.
+ */
+public final class LloydRelaxation {
+
+    public static final int GRAIN = 1024;
+
+    private final ForkJoinPool pool;
+    private final List<long[]> timings = new ArrayList<>();
+
+    public LloydRelaxation() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param pool the pool to compute centroids on, or null to stay on the
+     *             calling thread
+     */
+    public LloydRelaxation(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Runs the relaxation and returns the final diagram. The site Points of
+     * the input diagram are moved in place, like the original loop did.
+     */
+    public Voronoi relax(Voronoi v, int iterations) {
+        for (int i = 0; i < iterations; i++) {
+            final long t0 = System.nanoTime();
+            final ArrayList<Point> points = v.siteCoords();
+            final double[] cx = new double[points.size()];
+            final double[] cy = new double[points.size()];
+            final CentroidTask task = new CentroidTask(v, points, cx, cy, 0, points.size(), pool != null);
+            if (pool == null) {
+                task.compute();
+            } else {
+                pool.invoke(task);
+            }
+            for (int j = 0; j < cx.length; j++) {
+                Point p = points.get(j);
+                p.x = cx[j];
+                p.y = cy[j];
+            }
+            final long t1 = System.nanoTime();
+            v = new Voronoi(points, null, v.get_plotBounds(), v.getBackend());
+            final long t2 = System.nanoTime();
+            timings.add(new long[]{t1 - t0, t2 - t1});
+        }
+        return v;
+    }
+
+    public int getIterations() {
+        return timings.size();
+    }
+
+    /**
+     * @return nanoseconds spent computing centroids in the given iteration
+     */
+    public long getCentroidNanos(int iteration) {
+        return timings.get(iteration)[0];
+    }
+
+    /**
+     * @return nanoseconds spent rebuilding the diagram in the given iteration
+     */
+    public long getRebuildNanos(int iteration) {
+        return timings.get(iteration)[1];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("lloyd");
+        for (int i = 0; i < timings.size(); i++) {
+            sb.append(String.format(" [%d: centroids %.1fms, voronoi %.1fms]", i, getCentroidNanos(i) / 1e6, getRebuildNanos(i) / 1e6));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Area-weighted centroid of a simple polygon. Degenerate polygons fall
+     * back to the vertex mean, empty ones to the given point.
+     */
+    public static void centroid(List<Point> polygon, Point fallback, double[] out) {
+        final int n = polygon.size();
+        if (n == 0) {
+            out[0] = fallback.x;
+            out[1] = fallback.y;
+            return;
+        }
+        // work relative to the first vertex to keep the cross products small
+        final double ox = polygon.get(0).x;
+        final double oy = polygon.get(0).y;
+        double area = 0;
+        double x = 0;
+        double y = 0;
+        double mx = 0;
+        double my = 0;
+        for (int i = 0; i < n; i++) {
+            Point a = polygon.get(i);
+            Point b = polygon.get(i + 1 == n ? 0 : i + 1);
+            double ax = a.x - ox, ay = a.y - oy;
+            double bx = b.x - ox, by = b.y - oy;
+            double cross = ax * by - bx * ay;
+            area += cross;
+            x += (ax + bx) * cross;
+            y += (ay + by) * cross;
+            mx += a.x;
+            my += a.y;
+        }
+        if (Math.abs(area) < 1e-12) {
+            out[0] = mx / n;
+            out[1] = my / n;
+        } else {
+            out[0] = ox + x / (3 * area);
+            out[1] = oy + y / (3 * area);
+        }
+    }
+
+    private static final class CentroidTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Voronoi v;
+        private final List<Point> points;
+        private final double[] cx;
+        private final double[] cy;
+        private final int from;
+        private final int to;
+        private final boolean fork;
+
+        CentroidTask(Voronoi v, List<Point> points, double[] cx, double[] cy, int from, int to, boolean fork) {
+            this.v = v;
+            this.points = points;
+            this.cx = cx;
+            this.cy = cy;
+            this.from = from;
+            this.to = to;
+            this.fork = fork;
+        }
+
+        @Override
+        protected void compute() {
+            if (fork && to - from > GRAIN) {
+                // split at a multiple of GRAIN so partitions never depend on the pool
+                int chunks = (to - from + GRAIN - 1) / GRAIN;
+                int mid = from + (chunks / 2) * GRAIN;
+                invokeAll(new CentroidTask(v, points, cx, cy, from, mid, true),
+                        new CentroidTask(v, points, cx, cy, mid, to, true));
+                return;
+            }
+            final double[] c = new double[2];
+            for (int i = from; i < to; i++) {
+                Point p = points.get(i);
+                centroid(v.region(p), p, c);
+                cx[i] = c[0];
+                cy[i] = c[1];
+            }
+        }
+    }
+}
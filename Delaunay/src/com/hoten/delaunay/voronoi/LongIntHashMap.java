@@ -0,0 +1,104 @@
+package com.hoten.delaunay.voronoi;
+
+import java.util.Arrays;
+
+/**
+ * LongIntHashMap.java
+ * <p>
+ * Open addressing hash map from long keys to non-negative int values, with
+ * linear probing and no boxing. Used for the edge lookup tables of
+ * {@link CompactGraph}, keyed by a {@link #pair} of node indices, and for
+ * merging corners while the graph is built. There is no removal.
+ */
+public final class LongIntHashMap {
+
+    private static final int EMPTY = -1;
+
+    private long[] keys;
+    private int[] values;
+    private int size;
+
+    public LongIntHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, EMPTY);
+    }
+
+    /**
+     * Packs an unordered pair of indices into one key; pair(a, b) == pair(b, a).
+     */
+    public static long pair(int a, int b) {
+        return a < b ? ((long) a << 32) | b : ((long) b << 32) | a;
+    }
+
+    /**
+     * @return the value of key, or missing if there is none
+     */
+    public int get(long key, int missing) {
+        final int mask = keys.length - 1;
+        for (int slot = hash(key) & mask; values[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return values[slot];
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Stores value unless key is already present.
+     *
+     * @return the value now stored for key
+     */
+    public int putIfAbsent(long key, int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("negative value " + value);
+        }
+        final int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        for (; values[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return values[slot];
+            }
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size * 2 > keys.length) {
+            grow();
+        }
+        return value;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void grow() {
+        final long[] oldKeys = keys;
+        final int[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldValues.length * 2];
+        Arrays.fill(values, EMPTY);
+        final int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != EMPTY) {
+                int slot = hash(oldKeys[i]) & mask;
+                while (values[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    //murmur3 finalizer, spreads the index pairs over the low bits
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb93fe53a87ebL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
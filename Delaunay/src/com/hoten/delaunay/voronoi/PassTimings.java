@@ -0,0 +1,161 @@
+package com.hoten.delaunay.voronoi;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * PassTimings.java
+ * <p>
+ * Wall clock time of the named generation passes of a {@link VoronoiGraph},
+ * in the order they ran, and optionally the bytes each pass allocated.
+ * <p>
+ * Allocations are counted per thread by the JVM, so only when
+ * {@link #setCountingAllocations} is on and only those of the thread running
+ * the pass: what a pass hands to a pool (the relaxation, the parallel
+ * normals) is missing. Counting costs two calls into the ThreadMXBean per
+ * pass; when it is off a pass costs two System.nanoTime() calls, as before.
+ */
+public final class PassTimings {
+
+    // the passes of a VoronoiGraph, roughly in the order they run
+    public static final String RELAXATION = "relaxation";
+    public static final String GRAPH = "graph";
+    public static final String IMPROVE_CORNERS = "improve corners";
+    public static final String SHAPE = "shape";
+    public static final String SAMPLE_FIELD = "sample field";
+    public static final String CORNER_ELEVATIONS = "corner elevations";
+    public static final String OCEAN_COAST_LAND = "ocean, coast, land";
+    public static final String REDISTRIBUTE_ELEVATIONS = "redistribute elevations";
+    public static final String POLYGON_ELEVATIONS = "polygon elevations";
+    public static final String DOWNSLOPES = "downslopes";
+    public static final String WATERSHEDS = "watersheds";
+    public static final String RIVERS = "rivers";
+    public static final String CORNER_MOISTURE = "corner moisture";
+    public static final String REDISTRIBUTE_MOISTURE = "redistribute moisture";
+    public static final String POLYGON_MOISTURE = "polygon moisture";
+    public static final String PUBLISH = "publish";
+    public static final String BIOMES = "biomes";
+    public static final String LOAD = "load";
+    public static final String MATERIALIZE = "materialize";
+    // the passes of the map around the graph
+    public static final String POINTS = "points";
+    public static final String TERRAIN_MESH = "terrain mesh";
+    public static final String TERRAIN_LOD = "terrain lod";
+    public static final String TERRAIN_UPDATE = "terrain update";
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static volatile boolean countingAllocations;
+
+    private final Map<String, Long> nanos = new LinkedHashMap<>();
+    private final Map<String, Long> bytes = new LinkedHashMap<>();
+
+    /**
+     * Turns the counting of allocated bytes on or off for all passes timed
+     * from now on. Ignored if the JVM can't count them.
+     */
+    public static void setCountingAllocations(boolean counting) {
+        countingAllocations = counting && THREADS instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemoryEnabled();
+    }
+
+    public static boolean isCountingAllocations() {
+        return countingAllocations;
+    }
+
+    /**
+     * Runs the pass and records how long it took.
+     */
+    public void time(String pass, Runnable runnable) {
+        time(pass, () -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    /**
+     * Runs the pass, records how long it took and returns its result.
+     */
+    public <T> T time(String pass, Supplier<T> supplier) {
+        final boolean counting = countingAllocations;
+        final long b0 = counting ? allocatedBytes() : 0;
+        final long t0 = System.nanoTime();
+        final T result = supplier.get();
+        record(pass, System.nanoTime() - t0, counting ? allocatedBytes() - b0 : -1);
+        return result;
+    }
+
+    /**
+     * Adds a pass measured elsewhere.
+     *
+     * @param allocated bytes allocated by the pass, negative if not counted
+     */
+    public void record(String pass, long nanoseconds, long allocated) {
+        nanos.merge(pass, nanoseconds, Long::sum);
+        if (allocated >= 0) {
+            bytes.merge(pass, allocated, Long::sum);
+        }
+    }
+
+    /**
+     * Adds all passes of the other timings, e.g. those of the graph to the
+     * ones of the whole map.
+     */
+    public void addAll(PassTimings other) {
+        other.nanos.forEach((pass, t) -> nanos.merge(pass, t, Long::sum));
+        other.bytes.forEach((pass, b) -> bytes.merge(pass, b, Long::sum));
+    }
+
+    /**
+     * @return nanoseconds spent in the given pass, 0 if it didn't run
+     */
+    public long getNanos(String pass) {
+        return nanos.getOrDefault(pass, 0L);
+    }
+
+    /**
+     * @return bytes allocated by the given pass, -1 if they weren't counted
+     */
+    public long getBytes(String pass) {
+        return bytes.getOrDefault(pass, -1L);
+    }
+
+    /**
+     * Forgets all passes, before the graph is worked on again.
+     */
+    public void clear() {
+        nanos.clear();
+        bytes.clear();
+    }
+
+    public Map<String, Long> asMap() {
+        return Collections.unmodifiableMap(nanos);
+    }
+
+    /**
+     * @return the allocated bytes of the passes they were counted for
+     */
+    public Map<String, Long> allocationsAsMap() {
+        return Collections.unmodifiableMap(bytes);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("passes");
+        nanos.forEach((pass, t) -> {
+            sb.append(String.format(" [%s %.1fms", pass, t / 1e6));
+            if (bytes.containsKey(pass)) {
+                sb.append(String.format(" %.1fMB", bytes.get(pass) / 1e6));
+            }
+            sb.append(']');
+        });
+        return sb.toString();
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,115 @@
+package com.hoten.delaunay.voronoi;
+
+import com.hoten.delaunay.geom.Rectangle;
+
+import java.util.Arrays;
+
+/**
+ * SiteIndex.java
+ * <p>
+ * Uniform grid over the sites of a diagram, for finding the cell a point
+ * lies in: that is the cell of the nearest site. The grid has about two
+ * sites per square, so a query looks at a handful of squares around the
+ * point and stops as soon as nothing outside the squares seen can be closer.
+ * The squares are stored like {@link CompactGraph.Adjacency}, one offset per
+ * square into one array of site indices. Immutable, so it may be shared
+ * between threads.
+ */
+public final class SiteIndex {
+
+    private static final double SITES_PER_SQUARE = 2;
+
+    private final double[] x;
+    private final double[] y;
+    private final double minX;
+    private final double minY;
+    private final double size;
+    private final int columns;
+    private final int rows;
+    private final int[] offset;
+    private final int[] sites;
+
+    /**
+     * @param x      site positions, which must not change afterwards
+     * @param y      site positions, which must not change afterwards
+     * @param bounds the area the sites lie in
+     */
+    public SiteIndex(double[] x, double[] y, Rectangle bounds) {
+        this.x = x;
+        this.y = y;
+        minX = bounds.x;
+        minY = bounds.y;
+        size = Math.max(Math.sqrt(bounds.width * bounds.height * SITES_PER_SQUARE / Math.max(1, x.length)), Double.MIN_NORMAL);
+        columns = Math.max(1, (int) Math.ceil(bounds.width / size));
+        rows = Math.max(1, (int) Math.ceil(bounds.height / size));
+
+        final int[] squareOf = new int[x.length];
+        offset = new int[columns * rows + 1];
+        for (int i = 0; i < x.length; i++) {
+            squareOf[i] = row(y[i]) * columns + column(x[i]);
+            offset[squareOf[i] + 1]++;
+        }
+        for (int s = 0; s < columns * rows; s++) {
+            offset[s + 1] += offset[s];
+        }
+        sites = new int[x.length];
+        final int[] fill = Arrays.copyOf(offset, columns * rows);
+        for (int i = 0; i < x.length; i++) {
+            sites[fill[squareOf[i]]++] = i;
+        }
+    }
+
+    /**
+     * @return the index of the site nearest to (px, py), the lowest one of
+     * equally near sites, or -1 if there are none
+     */
+    public int nearest(double px, double py) {
+        final int column = column(px);
+        final int row = row(py);
+        int best = -1;
+        double bestDistance = Double.MAX_VALUE;
+        for (int ring = 0; ; ring++) {
+            final int left = column - ring;
+            final int right = column + ring;
+            final int top = row - ring;
+            final int bottom = row + ring;
+            for (int r = Math.max(top, 0); r <= Math.min(bottom, rows - 1); r++) {
+                // the whole row on the top and bottom of the ring, just its ends elsewhere
+                final int step = r == top || r == bottom ? 1 : Math.max(1, right - left);
+                for (int c = left; c <= right; c += step) {
+                    if (c < 0 || c >= columns) {
+                        continue;
+                    }
+                    final int square = r * columns + c;
+                    for (int k = offset[square]; k < offset[square + 1]; k++) {
+                        final int i = sites[k];
+                        final double dx = x[i] - px;
+                        final double dy = y[i] - py;
+                        final double distance = dx * dx + dy * dy;
+                        if (distance < bestDistance || (distance == bestDistance && i < best)) {
+                            best = i;
+                            bestDistance = distance;
+                        }
+                    }
+                }
+            }
+            if (left <= 0 && right >= columns - 1 && top <= 0 && bottom >= rows - 1) {
+                return best;
+            }
+            // nothing outside the squares seen so far is nearer than this
+            final double reach = Math.min(Math.min(px - (minX + left * size), minX + (right + 1) * size - px),
+                    Math.min(py - (minY + top * size), minY + (bottom + 1) * size - py));
+            if (best >= 0 && reach > 0 && bestDistance < reach * reach) {
+                return best;
+            }
+        }
+    }
+
+    private int column(double px) {
+        return Math.min(Math.max((int) Math.floor((px - minX) / size), 0), columns - 1);
+    }
+
+    private int row(double py) {
+        return Math.min(Math.max((int) Math.floor((py - minY) / size), 0), rows - 1);
+    }
+}
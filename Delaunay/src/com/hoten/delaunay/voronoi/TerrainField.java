@@ -0,0 +1,42 @@
+package com.hoten.delaunay.voronoi;
+
+/**
+ * TerrainField.java
+ * <p>
+ * Elevation and moisture as plain functions of the position, for maps built
+ * in tiles ({@link VoronoiGraph.Generation_Type#TILED}). A tile samples the
+ * field at its corners instead of deriving anything from its own bounds, so
+ * two tiles covering the same spot agree on it. Implementations must be
+ * deterministic and thread safe, tiles are built in parallel.
+ */
+public interface TerrainField {
+
+    /**
+     * @return the height above sea level, 0 .. 1 on land and negative in
+     * the water
+     */
+    double elevation(double x, double y);
+
+    /**
+     * @return the moisture of land, 0 .. 1
+     */
+    double moisture(double x, double y);
+
+    /**
+     * @return this field seen from a tile whose local origin lies at (x, y)
+     */
+    default TerrainField translate(double x, double y) {
+        final TerrainField field = this;
+        return new TerrainField() {
+            @Override
+            public double elevation(double px, double py) {
+                return field.elevation(px + x, py + y);
+            }
+
+            @Override
+            public double moisture(double px, double py) {
+                return field.moisture(px + x, py + y);
+            }
+        };
+    }
+}
@@ -5,13 +5,18 @@ import controller.generation.TerrainCircle;
 
 import com.hoten.delaunay.geom.Point;
 import com.hoten.delaunay.geom.Rectangle;
-import com.hoten.delaunay.voronoi.nodename.as3delaunay.LineSegment;
+import com.hoten.delaunay.voronoi.nodename.as3delaunay.DualEdges;
 import com.hoten.delaunay.voronoi.nodename.as3delaunay.Voronoi;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.util.*;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
 
 /**
  * VoronoiGraph.java
@@ -24,15 +29,23 @@ public abstract class VoronoiGraph {
     final public ArrayList<Corner> corners = new ArrayList<>();
     final public ArrayList<Center> centers = new ArrayList<>();
     final public Rectangle bounds;
-    final public BufferedImage pixelCenterMap;
+    // the arrays the passes run on; null once they are published to the objects
+    private CompactGraph compact;
+    final public LloydRelaxation relaxation;
+    final public PassTimings passes = new PassTimings();
     final int bumps;
     final double startAngle;
     final double dipAngle;
     final double dipWidth;
     final Generation_Type generationType;
-    final List<TerrainCircle> circles;
+    List<TerrainCircle> circles;
 
     final private Random r;
+    final private GraphFlood flood;
+    private DrainageNetwork drainage;
+    // corners outside the island shape, before the ocean and the coast are known
+    final private BitSet shapeWater;
+    private volatile SiteIndex siteIndex;
     protected Color OCEAN, RIVER, LAKE, BEACH;
     double[][] noise;
     double ISLAND_FACTOR = 1;  // 1.0 means no small islands; 2.0 leads to a lot
@@ -40,10 +53,20 @@ public abstract class VoronoiGraph {
 
     public enum Generation_Type{
         RANDOM,
-        DRAWNCIRCLES
+        DRAWNCIRCLES,
+        TILED
     }
 
     public VoronoiGraph(Voronoi v, int numLloydRelaxations, Random r, Generation_Type generationType, List<TerrainCircle> circles) {
+        this(v, numLloydRelaxations, r, generationType, circles, GenerationListener.NONE);
+    }
+
+    /**
+     * @param listener told before each stage; may abort the build by throwing
+     *                 a CancellationException
+     */
+    public VoronoiGraph(Voronoi v, int numLloydRelaxations, Random r, Generation_Type generationType, List<TerrainCircle> circles,
+            GenerationListener listener) {
         this.generationType = generationType;
         this.circles = circles;
         if(generationType==Generation_Type.DRAWNCIRCLES && circles == null){
@@ -57,40 +80,206 @@ public abstract class VoronoiGraph {
         dipAngle = r.nextDouble() * 2 * Math.PI;
         dipWidth = r.nextDouble() * .5 + .2;
         bounds = v.get_plotBounds();
-        for (int i = 0; i < numLloydRelaxations; i++) {
-            ArrayList<Point> points = v.siteCoords();
-            for (Point p : points) {
-                ArrayList<Point> region = v.region(p);
-                double x = 0;
-                double y = 0;
-                for (Point c : region) {
-                    x += c.x;
-                    y += c.y;
+        relaxation = new LloydRelaxation();
+        listener.stage(GenerationListener.Stage.RELAXATION);
+        final Voronoi relaxed = passes.time(PassTimings.RELAXATION, () -> relaxation.relax(v, numLloydRelaxations));
+        listener.stage(GenerationListener.Stage.GRAPH);
+        compact = passes.time(PassTimings.GRAPH, () -> buildGraph(relaxed));
+        flood = new GraphFlood(Math.max(compact.numCorners, compact.numCenters));
+        passes.time(PassTimings.IMPROVE_CORNERS, this::improveCorners);
+
+        listener.stage(GenerationListener.Stage.ELEVATION);
+        shapeWater = new BitSet(compact.numCorners);
+        passes.time(PassTimings.SHAPE, () -> assignShape(null));
+        assignTerrain(listener);
+        release();
+    }
+
+    /**
+     * Draws the island of a {@link Generation_Type#DRAWNCIRCLES} map again
+     * for an edited list of circles, keeping the diagram and the graph. Only
+     * the corners inside circles that were added or removed are tested
+     * against the shape again. Everything that follows from the shape is
+     * assigned anew over the whole graph, though: the elevation floods in
+     * from the border and is redistributed by rank, rivers drain to the
+     * coast and moisture is ranked as well, so a single circle may shift
+     * values far from it. Those are linear passes over the graph, a fraction
+     * of what the diagram, the relaxations and the graph of a new map cost.
+     * <p>
+     * The result is that of a new map with the same sites and circles.
+     *
+     * @param circles the complete new list, which must not be modified
+     *                afterwards
+     * @return the centers whose elevation or biome changed or that have a
+     * corner whose elevation changed, which is all their terrain depends on
+     * @throws IllegalStateException if the map wasn't drawn or was loaded
+     */
+    public BitSet redraw(List<TerrainCircle> circles) {
+        if (!canRedraw()) {
+            throw new IllegalStateException("only generated maps drawn from circles can be redrawn");
+        }
+        final CompactGraph g = compact = CompactGraph.of(centers, corners, edges);
+        try {
+            final double[] centerElevation = g.centerElevation.clone();
+            final double[] cornerElevation = g.cornerElevation.clone();
+            final Enum<?>[] biomes = new Enum<?>[g.numCenters];
+            for (Center center : centers) {
+                biomes[center.index] = center.biome;
+            }
+
+            final List<TerrainCircle> changed = new ArrayList<>();
+            for (TerrainCircle circle : circles) {
+                if (!this.circles.contains(circle)) {
+                    changed.add(circle);
                 }
-                x /= region.size();
-                y /= region.size();
-                p.x = x;
-                p.y = y;
             }
-            v = new Voronoi(points, null, v.get_plotBounds());
+            for (TerrainCircle circle : this.circles) {
+                if (!circles.contains(circle)) {
+                    changed.add(circle);
+                }
+            }
+            this.circles = circles;
+            passes.clear();
+            passes.time(PassTimings.SHAPE, () -> assignShape(changed));
+            g.centerBorder.clear();
+            g.centerOcean.clear();
+            Arrays.fill(g.cornerRiver, 0);
+            Arrays.fill(g.edgeRiver, 0);
+            assignTerrain(GenerationListener.NONE);
+
+            final BitSet dirty = new BitSet(g.numCenters);
+            for (Center center : centers) {
+                final int i = center.index;
+                boolean same = centerElevation[i] == g.centerElevation[i] && biomes[i] == center.biome;
+                for (int k = g.corners.begin(i); same && k < g.corners.end(i); k++) {
+                    same = cornerElevation[g.corners.index[k]] == g.cornerElevation[g.corners.index[k]];
+                }
+                dirty.set(i, !same);
+            }
+            return dirty;
+        } finally {
+            release();
         }
-        buildGraph(v);
-        improveCorners();
+    }
+
+    /**
+     * @return whether {@link #redraw} works on this map
+     */
+    public boolean canRedraw() {
+        return generationType == Generation_Type.DRAWNCIRCLES && shapeWater != null;
+    }
 
-        assignCornerElevations();
-        assignOceanCoastAndLand();
-        redistributeElevations(landCorners());
-        assignPolygonElevations();
+    //the passes from the island shape to the biomes
+    private void assignTerrain(GenerationListener listener) {
+        passes.time(PassTimings.CORNER_ELEVATIONS, this::assignCornerElevations);
+        passes.time(PassTimings.OCEAN_COAST_LAND, this::assignOceanCoastAndLand);
+        passes.time(PassTimings.REDISTRIBUTE_ELEVATIONS, () -> redistributeElevations(compact.landCorners()));
+        passes.time(PassTimings.POLYGON_ELEVATIONS, this::assignPolygonElevations);
+
+        listener.stage(GenerationListener.Stage.RIVERS);
+        passes.time(PassTimings.DOWNSLOPES, this::calculateDownslopes);
+        passes.time(PassTimings.WATERSHEDS, this::calculateWatersheds);
+        passes.time(PassTimings.RIVERS, this::createRivers);
+        listener.stage(GenerationListener.Stage.MOISTURE);
+        passes.time(PassTimings.CORNER_MOISTURE, this::assignCornerMoisture);
+        passes.time(PassTimings.REDISTRIBUTE_MOISTURE, () -> redistributeMoisture(compact.landCorners()));
+        passes.time(PassTimings.POLYGON_MOISTURE, this::assignPolygonMoisture);
+        listener.stage(GenerationListener.Stage.BIOMES);
+        passes.time(PassTimings.PUBLISH, () -> compact.publish(centers, corners, edges));
+        passes.time(PassTimings.BIOMES, this::assignBiomes);
+    }
+
+    /**
+     * Builds one tile of an unbounded map. Elevation and moisture are sampled
+     * from the field at the corners rather than derived from the distance to
+     * the bounds, so tiles whose graphs agree somewhere also agree on the
+     * terrain there. Everything that needs the whole map is left out: all
+     * water is ocean, there are no rivers and nothing is redistributed.
+     *
+     * @param field sampled in the coordinates of the diagram
+     */
+    public VoronoiGraph(Voronoi v, int numLloydRelaxations, TerrainField field, GenerationListener listener) {
+        this.generationType = Generation_Type.TILED;
+        this.circles = null;
+        this.shapeWater = null;
+        this.r = null;
+        bumps = 0;
+        startAngle = 0;
+        dipAngle = 0;
+        dipWidth = 0;
+        bounds = v.get_plotBounds();
+        relaxation = new LloydRelaxation();
+        listener.stage(GenerationListener.Stage.RELAXATION);
+        final Voronoi relaxed = passes.time(PassTimings.RELAXATION, () -> relaxation.relax(v, numLloydRelaxations));
+        listener.stage(GenerationListener.Stage.GRAPH);
+        compact = passes.time(PassTimings.GRAPH, () -> buildGraph(relaxed));
+        flood = new GraphFlood(Math.max(compact.numCorners, compact.numCenters));
+        passes.time(PassTimings.IMPROVE_CORNERS, this::improveCorners);
+
+        listener.stage(GenerationListener.Stage.ELEVATION);
+        passes.time(PassTimings.SAMPLE_FIELD, () -> sampleField(field));
+        passes.time(PassTimings.OCEAN_COAST_LAND, this::assignFieldOceanCoastAndLand);
+        passes.time(PassTimings.POLYGON_ELEVATIONS, this::assignPolygonElevations);
+
+        listener.stage(GenerationListener.Stage.RIVERS);
+        passes.time(PassTimings.DOWNSLOPES, this::calculateDownslopes);
+        listener.stage(GenerationListener.Stage.MOISTURE);
+        passes.time(PassTimings.POLYGON_MOISTURE, this::assignPolygonMoisture);
+        listener.stage(GenerationListener.Stage.BIOMES);
+        passes.time(PassTimings.PUBLISH, () -> compact.publish(centers, corners, edges));
+        passes.time(PassTimings.BIOMES, this::assignBiomes);
+        release();
+    }
 
-        calculateDownslopes();
-        //calculateWatersheds();
-        createRivers();
-        assignCornerMoisture();
-        redistributeMoisture(landCorners());
-        assignPolygonMoisture();
-        assignBiomes();
+    /**
+     * Restores a graph saved by {@link GraphFile#write} without running any
+     * of the generation passes. All columns are copied and every center,
+     * corner and edge is built up front.
+     *
+     * @param biomeType the enum the saved biomes belong to
+     */
+    protected VoronoiGraph(GraphFile file, Class<? extends Enum<?>> biomeType) {
+        if (!file.biomeType.isEmpty() && !file.biomeType.equals(biomeType.getName())) {
+            throw new IllegalArgumentException("the saved biomes are " + file.biomeType + ", not " + biomeType.getName());
+        }
+        this.generationType = file.generationType;
+        this.circles = null;
+        this.shapeWater = null;
+        this.r = null;
+        bumps = file.bumps;
+        startAngle = file.startAngle;
+        dipAngle = file.dipAngle;
+        dipWidth = file.dipWidth;
+        bounds = file.bounds;
+        relaxation = new LloydRelaxation();
+        compact = passes.time(PassTimings.LOAD, file::compact);
+        flood = new GraphFlood(Math.max(compact.numCorners, compact.numCenters));
+        passes.time(PassTimings.MATERIALIZE, () -> compact.materialize(centers, corners, edges));
+        passes.time(PassTimings.BIOMES, () -> {
+            final Enum<?>[] biomes = biomeType.getEnumConstants();
+            final IntBuffer ids = file.ints(GraphFile.Column.CENTER_BIOME);
+            for (Center center : centers) {
+                final int id = ids.get(center.index);
+                center.biome = id < 0 ? null : biomes[id];
+            }
+        });
+        release();
+    }
 
-        pixelCenterMap = new BufferedImage((int) bounds.width, (int) bounds.width, BufferedImage.TYPE_4BYTE_ABGR);
+    /**
+     * The graph in array form. The arrays the passes ran on are dropped once
+     * they are published, so the objects are the only copy of a finished
+     * graph and this copies them anew.
+     */
+    CompactGraph compact() {
+        final CompactGraph g = compact;
+        return g != null ? g : CompactGraph.of(centers, corners, edges);
+    }
+
+    // drops the arrays and what refers to them, the objects hold everything from now on
+    private void release() {
+        compact = null;
+        drainage = null;
     }
 
     abstract protected Enum getBiome(Center p);
@@ -100,22 +289,54 @@ public abstract class VoronoiGraph {
     abstract public IMaterial getColorAsMaterial(Enum biome);
 
     private void improveCorners() {
-        Point[] newP = new Point[corners.size()];
-        for (Corner c : corners) {
-            if (c.border) {
-                newP[c.index] = c.loc;
+        final CompactGraph g = compact;
+        final CompactGraph.Adjacency touches = g.touches;
+        final double[] newX = new double[g.numCorners];
+        final double[] newY = new double[g.numCorners];
+        for (int c = 0; c < g.numCorners; c++) {
+            if (g.cornerBorder.get(c)) {
+                newX[c] = g.cornerX[c];
+                newY[c] = g.cornerY[c];
             } else {
                 double x = 0;
                 double y = 0;
-                for (Center center : c.touches) {
-                    x += center.loc.x;
-                    y += center.loc.y;
+                for (int k = touches.begin(c); k < touches.end(c); k++) {
+                    x += g.centerX[touches.index[k]];
+                    y += g.centerY[touches.index[k]];
+                }
+                newX[c] = x / touches.degree(c);
+                newY[c] = y / touches.degree(c);
+            }
+        }
+        System.arraycopy(newX, 0, g.cornerX, 0, g.numCorners);
+        System.arraycopy(newY, 0, g.cornerY, 0, g.numCorners);
+    }
+
+    /**
+     * The cell under a point, e.g. for picking: the one of the nearest
+     * center. Near the borders of a cell that may differ from its polygon
+     * by the averaging of the corners. The index behind it is built on the
+     * first call.
+     *
+     * @return the center, for points outside the bounds the nearest one
+     */
+    public Center getCenterAt(double x, double y) {
+        SiteIndex index = siteIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = siteIndex;
+                if (index == null) {
+                    final double[] cx = new double[centers.size()];
+                    final double[] cy = new double[centers.size()];
+                    for (Center c : centers) {
+                        cx[c.index] = c.loc.x;
+                        cy[c.index] = c.loc.y;
+                    }
+                    index = siteIndex = new SiteIndex(cx, cy, bounds);
                 }
-                newP[c.index] = new Point(x / c.touches.size(), y / c.touches.size());
             }
         }
-        corners.stream().forEach((c) -> c.loc = newP[c.index]);
-        edges.stream().filter((e) -> (e.v0 != null && e.v1 != null)).forEach((e) -> e.setVornoi(e.v0, e.v1));
+        return centers.get(index.nearest(x, y));
     }
 
     public Edge edgeWithCenters(Center c1, Center c2) {
@@ -239,12 +460,9 @@ public abstract class VoronoiGraph {
             }
         }
 
-        Graphics2D pixelCenterGraphics = pixelCenterMap.createGraphics();
-
         //draw via triangles
         for (Center c : centers) {
             drawPolygon(g, c, drawBiomes ? getColor(c.biome) : defaultColors[c.index]);
-            drawPolygon(pixelCenterGraphics, c, new Color(c.index));
         }
 
         for (Edge e : edges) {
@@ -273,35 +491,35 @@ public abstract class VoronoiGraph {
         g.drawRect((int) bounds.x, (int) bounds.y, (int) bounds.width, (int) bounds.height);
     }
 
-    private void buildGraph(Voronoi v) {
-        final HashMap<Point, Center> pointCenterMap = new HashMap<>();
+    //fills centers, corners and edges and returns their array form
+    private CompactGraph buildGraph(Voronoi v) {
         final ArrayList<Point> points = v.siteCoords();
         points.stream().forEach((p) -> {
             Center c = new Center();
             c.loc = p;
             c.index = centers.size();
             centers.add(c);
-            pointCenterMap.put(p, c);
         });
 
-        //bug fix
-        centers.stream().forEach((c) -> v.region(c.loc));
-
-        final ArrayList<com.hoten.delaunay.voronoi.nodename.as3delaunay.Edge> libedges = v.edges();
-        final HashMap<Integer, Corner> pointCornerMap = new HashMap<>();
-
-        for (com.hoten.delaunay.voronoi.nodename.as3delaunay.Edge libedge : libedges) {
-            final LineSegment vEdge = libedge.voronoiEdge();
-            final LineSegment dEdge = libedge.delaunayLine();
+        final DualEdges libedges = v.dualEdges();
+        final double[] ends = libedges.ends;
+        final LongIntHashMap pointCornerMap = new LongIntHashMap(libedges.size);
+        final Relation neighbors = new Relation(2 * libedges.size);
+        final Relation adjacent = new Relation(2 * libedges.size);
+        final Relation cornersOf = new Relation(4 * libedges.size);
+        final Relation touches = new Relation(4 * libedges.size);
 
+        for (int i = 0; i < libedges.size; i++) {
             final Edge edge = new Edge();
             edge.index = edges.size();
             edges.add(edge);
 
-            edge.v0 = makeCorner(pointCornerMap, vEdge.p0);
-            edge.v1 = makeCorner(pointCornerMap, vEdge.p1);
-            edge.d0 = pointCenterMap.get(dEdge.p0);
-            edge.d1 = pointCenterMap.get(dEdge.p1);
+            if (libedges.isVisible(i)) {
+                edge.v0 = makeCorner(pointCornerMap, new Point(ends[4 * i], ends[4 * i + 1]));
+                edge.v1 = makeCorner(pointCornerMap, new Point(ends[4 * i + 2], ends[4 * i + 3]));
+            }
+            edge.d0 = centers.get(libedges.sites[2 * i]);
+            edge.d1 = centers.get(libedges.sites[2 * i + 1]);
 
             // Centers point to edges. Corners point to edges.
             if (edge.d0 != null) {
@@ -319,106 +537,197 @@ public abstract class VoronoiGraph {
 
             // Centers point to centers.
             if (edge.d0 != null && edge.d1 != null) {
-                addToCenterList(edge.d0.neighbors, edge.d1);
-                addToCenterList(edge.d1.neighbors, edge.d0);
+                neighbors.add(edge.d0.index, edge.d1.index);
+                neighbors.add(edge.d1.index, edge.d0.index);
             }
 
             // Corners point to corners
             if (edge.v0 != null && edge.v1 != null) {
-                addToCornerList(edge.v0.adjacent, edge.v1);
-                addToCornerList(edge.v1.adjacent, edge.v0);
+                adjacent.add(edge.v0.index, edge.v1.index);
+                adjacent.add(edge.v1.index, edge.v0.index);
             }
 
             // Centers point to corners
             if (edge.d0 != null) {
-                addToCornerList(edge.d0.corners, edge.v0);
-                addToCornerList(edge.d0.corners, edge.v1);
+                cornersOf.add(edge.d0.index, edge.v0);
+                cornersOf.add(edge.d0.index, edge.v1);
             }
             if (edge.d1 != null) {
-                addToCornerList(edge.d1.corners, edge.v0);
-                addToCornerList(edge.d1.corners, edge.v1);
+                cornersOf.add(edge.d1.index, edge.v0);
+                cornersOf.add(edge.d1.index, edge.v1);
             }
 
             // Corners point to centers
             if (edge.v0 != null) {
-                addToCenterList(edge.v0.touches, edge.d0);
-                addToCenterList(edge.v0.touches, edge.d1);
+                touches.add(edge.v0.index, edge.d0);
+                touches.add(edge.v0.index, edge.d1);
             }
             if (edge.v1 != null) {
-                addToCenterList(edge.v1.touches, edge.d0);
-                addToCenterList(edge.v1.touches, edge.d1);
+                touches.add(edge.v1.index, edge.d0);
+                touches.add(edge.v1.index, edge.d1);
             }
         }
+
+        final CompactGraph.Adjacency centerNeighbors = neighbors.unique(centers.size(), centers.size());
+        final CompactGraph.Adjacency centerCorners = cornersOf.unique(centers.size(), corners.size());
+        final CompactGraph.Adjacency cornerAdjacent = adjacent.unique(corners.size(), corners.size());
+        final CompactGraph.Adjacency cornerTouches = touches.unique(corners.size(), centers.size());
+        fill(centers, centerNeighbors, centers, c -> c.neighbors);
+        fill(centers, centerCorners, corners, c -> c.corners);
+        fill(corners, cornerAdjacent, corners, c -> c.adjacent);
+        fill(corners, cornerTouches, centers, c -> c.touches);
+        return CompactGraph.of(centers, corners, edges, centerNeighbors, centerCorners, cornerTouches, cornerAdjacent);
     }
 
-    // Helper functions for the following for loop; ideally these
-    // would be inlined
-    private void addToCornerList(ArrayList<Corner> list, Corner c) {
-        if (c != null && !list.contains(c)) {
-            list.add(c);
+    private static <N, T> void fill(List<N> nodes, CompactGraph.Adjacency adjacency, List<T> items, Function<N, List<T>> list) {
+        for (int n = 0; n < nodes.size(); n++) {
+            final List<T> dst = list.apply(nodes.get(n));
+            for (int k = adjacency.begin(n); k < adjacency.end(n); k++) {
+                dst.add(items.get(adjacency.index[k]));
+            }
         }
     }
 
-    private void addToCenterList(ArrayList<Center> list, Center c) {
-        if (c != null && !list.contains(c)) {
-            list.add(c);
+    /**
+     * One of the node to node relations built by buildGraph, collected as
+     * (owner, target) pairs in the order they are found. unique() bucket
+     * sorts the pairs by owner, which keeps that order, and drops repeated
+     * targets of an owner, so every list ends up like appending each target
+     * the first time it is seen.
+     */
+    private static final class Relation {
+
+        private int[] owners;
+        private int[] targets;
+        private int size;
+
+        Relation(int expectedSize) {
+            owners = new int[expectedSize];
+            targets = new int[expectedSize];
+        }
+
+        void add(int owner, Center target) {
+            if (target != null) {
+                add(owner, target.index);
+            }
+        }
+
+        void add(int owner, Corner target) {
+            if (target != null) {
+                add(owner, target.index);
+            }
+        }
+
+        void add(int owner, int target) {
+            if (size == owners.length) {
+                owners = Arrays.copyOf(owners, 2 * size + 1);
+                targets = Arrays.copyOf(targets, 2 * size + 1);
+            }
+            owners[size] = owner;
+            targets[size] = target;
+            size++;
+        }
+
+        /**
+         * @return the pairs as adjacency of numOwners nodes, without repeated
+         * targets
+         */
+        CompactGraph.Adjacency unique(int numOwners, int numTargets) {
+            final int[] start = new int[numOwners + 1];
+            for (int i = 0; i < size; i++) {
+                start[owners[i] + 1]++;
+            }
+            for (int n = 0; n < numOwners; n++) {
+                start[n + 1] += start[n];
+            }
+            final int[] sorted = new int[size];
+            final int[] fill = Arrays.copyOf(start, numOwners);
+            for (int i = 0; i < size; i++) {
+                sorted[fill[owners[i]]++] = targets[i];
+            }
+
+            // seen[t] == n + 1 while owner n is being deduplicated; compacts in place
+            final int[] seen = new int[numTargets];
+            final int[] offset = new int[numOwners + 1];
+            int k = 0;
+            for (int n = 0; n < numOwners; n++) {
+                for (int i = start[n]; i < start[n + 1]; i++) {
+                    if (seen[sorted[i]] != n + 1) {
+                        seen[sorted[i]] = n + 1;
+                        sorted[k++] = sorted[i];
+                    }
+                }
+                offset[n + 1] = k;
+            }
+            return new CompactGraph.Adjacency(offset, Arrays.copyOf(sorted, k));
         }
     }
 
     //ensures that each corner is represented by only one corner object
-    private Corner makeCorner(HashMap<Integer, Corner> pointCornerMap, Point p) {
+    private Corner makeCorner(LongIntHashMap pointCornerMap, Point p) {
         if (p == null) {
             return null;
         }
-        int index = (int) ((int) p.x + (int) (p.y) * bounds.width * 2);
-        Corner c = pointCornerMap.get(index);
-        if (c == null) {
-            c = new Corner();
-            c.loc = p;
-            c.border = bounds.liesOnAxes(p);
-            c.index = corners.size();
-            corners.add(c);
-            pointCornerMap.put(index, c);
+        int key = (int) ((int) p.x + (int) (p.y) * bounds.width * 2);
+        int index = pointCornerMap.putIfAbsent(key, corners.size());
+        if (index < corners.size()) {
+            return corners.get(index);
         }
+        Corner c = new Corner();
+        c.loc = p;
+        c.border = bounds.liesOnAxes(p);
+        c.index = corners.size();
+        corners.add(c);
         return c;
     }
 
+    //distance from the border, where stepping between two land corners costs a lot more than touching water
     private void assignCornerElevations() {
-        LinkedList<Corner> queue = new LinkedList<>();
-        for (Corner c : corners) {
-            c.water = isWater(c.loc);
-            if (c.border) {
-                c.elevation = 0;
-                queue.add(c);
+        final CompactGraph g = compact;
+        final double[] elevation = g.cornerElevation;
+        final BitSet water = g.cornerWater;
+        final int[] sources = new int[g.numCorners];
+        int numSources = 0;
+        for (int c = 0; c < g.numCorners; c++) {
+            water.set(c, shapeWater.get(c));
+            if (g.cornerBorder.get(c)) {
+                elevation[c] = 0;
+                sources[numSources++] = c;
             } else {
-                c.elevation = Double.MAX_VALUE;
+                elevation[c] = Double.MAX_VALUE;
             }
         }
 
-        while (!queue.isEmpty()) {
-            Corner c = queue.pop();
-            for (Corner a : c.adjacent) {
-                double newElevation = 0.01 + c.elevation;
-                if (!c.water && !a.water) {
-                    newElevation += 1;
-                }
-                if (newElevation < a.elevation) {
-                    a.elevation = newElevation;
-                    queue.add(a);
-                }
+        flood.settle(g.adjacent, elevation, sources, numSources, true, (from, to, e) -> {
+            double newElevation = 0.01 + e;
+            if (!water.get(from) && !water.get(to)) {
+                newElevation += 1;
+            }
+            return newElevation;
+        });
+    }
+
+    //tests the corners against the island shape, all of them or only those inside the changed circles
+    private void assignShape(List<TerrainCircle> changed) {
+        final CompactGraph g = compact;
+        final CircleIndex dirty = changed == null ? null : new CircleIndex(changed);
+        final CircleIndex drawn = generationType == Generation_Type.DRAWNCIRCLES ? new CircleIndex(circles) : null;
+        for (int c = 0; c < g.numCorners; c++) {
+            if (dirty == null || dirty.contains(g.cornerX[c], g.cornerY[c])) {
+                shapeWater.set(c, isWater(g.cornerX[c], g.cornerY[c], drawn));
             }
         }
     }
 
     //only the radial implementation of amitp's map generation
     //TODO implement more island shapes
-    private boolean isWater(Point p) {
+    private boolean isWater(double x, double y, CircleIndex drawn) {
         switch (generationType){
 
             case RANDOM:
-                return centralIsland(p);
+                return centralIsland(x, y);
             case DRAWNCIRCLES:
-                return drawnShapes(circles,p);
+                return !drawn.contains(x, y);
             default:
                 return false;
         }
@@ -439,8 +748,8 @@ public abstract class VoronoiGraph {
          return !(body && !eye1 && !eye2);*/
     }
 
-    private boolean centralIsland(Point p){
-        p = new Point(2 * (p.x / bounds.width - 0.5), 2 * (p.y / bounds.height - 0.5));
+    private boolean centralIsland(double x, double y){
+        Point p = new Point(2 * (x / bounds.width - 0.5), 2 * (y / bounds.height - 0.5));
 
         double angle = Math.atan2(p.y, p.x);
         double length = 0.5 * (Math.max(Math.abs(p.x), Math.abs(p.y)) + p.length());
@@ -455,206 +764,232 @@ public abstract class VoronoiGraph {
         return !(length < r1 || (length > r1 * ISLAND_FACTOR && length < r2));
     }
 
-    private boolean drawnShapes(List<TerrainCircle> circles,Point p){
-
-        for (TerrainCircle circle : circles) {
-           if( Math.pow(p.x - circle.m.x,2) + Math.pow(p.y - circle.m.y,2) < Math.pow(circle.r,2)){
-               return false;
-           }
-        }
-        return true;
-    }
-
     private void assignOceanCoastAndLand() {
-        LinkedList<Center> queue = new LinkedList<>();
+        final CompactGraph g = compact;
+        final CompactGraph.Adjacency cornersOf = g.corners;
+        final CompactGraph.Adjacency neighbors = g.neighbors;
+        final int[] border = new int[g.numCenters];
+        int numBorder = 0;
         final double waterThreshold = .3;
-        for (final Center center : centers) {
+        for (int center = 0; center < g.numCenters; center++) {
             int numWater = 0;
-            for (final Corner c : center.corners) {
-                if (c.border) {
-                    center.border = center.water = center.ocean = true;
-                    queue.add(center);
+            for (int k = cornersOf.begin(center); k < cornersOf.end(center); k++) {
+                int c = cornersOf.index[k];
+                if (g.cornerBorder.get(c) && !g.centerBorder.get(center)) {
+                    g.centerBorder.set(center);
+                    g.centerOcean.set(center);
+                    border[numBorder++] = center;
                 }
-                if (c.water) {
+                if (g.cornerWater.get(c)) {
                     numWater++;
                 }
             }
-            center.water = center.ocean || ((double) numWater / center.corners.size() >= waterThreshold);
+            g.centerWater.set(center, g.centerOcean.get(center) || ((double) numWater / cornersOf.degree(center) >= waterThreshold));
         }
-        while (!queue.isEmpty()) {
-            final Center center = queue.pop();
-            for (final Center n : center.neighbors) {
-                if (n.water && !n.ocean) {
-                    n.ocean = true;
-                    queue.add(n);
-                }
+        flood.breadthFirst(neighbors, border, numBorder, (from, n) -> {
+            if (g.centerWater.get(n) && !g.centerOcean.get(n)) {
+                g.centerOcean.set(n);
+                return true;
             }
-        }
-        for (Center center : centers) {
+            return false;
+        });
+        assignCoast();
+    }
+
+    //coast centers have both ocean and land neighbors, corners follow from the centers they touch
+    private void assignCoast() {
+        final CompactGraph g = compact;
+        final CompactGraph.Adjacency neighbors = g.neighbors;
+        final CompactGraph.Adjacency touches = g.touches;
+        for (int center = 0; center < g.numCenters; center++) {
             boolean oceanNeighbor = false;
             boolean landNeighbor = false;
-            for (Center n : center.neighbors) {
-                oceanNeighbor |= n.ocean;
-                landNeighbor |= !n.water;
+            for (int k = neighbors.begin(center); k < neighbors.end(center); k++) {
+                int n = neighbors.index[k];
+                oceanNeighbor |= g.centerOcean.get(n);
+                landNeighbor |= !g.centerWater.get(n);
             }
-            center.coast = oceanNeighbor && landNeighbor;
+            g.centerCoast.set(center, oceanNeighbor && landNeighbor);
         }
 
-        for (Corner c : corners) {
+        for (int c = 0; c < g.numCorners; c++) {
             int numOcean = 0;
             int numLand = 0;
-            for (Center center : c.touches) {
-                numOcean += center.ocean ? 1 : 0;
-                numLand += !center.water ? 1 : 0;
+            for (int k = touches.begin(c); k < touches.end(c); k++) {
+                int center = touches.index[k];
+                numOcean += g.centerOcean.get(center) ? 1 : 0;
+                numLand += !g.centerWater.get(center) ? 1 : 0;
             }
-            c.ocean = numOcean == c.touches.size();
-            c.coast = numOcean > 0 && numLand > 0;
-            c.water = c.border || ((numLand != c.touches.size()) && !c.coast);
+            int numTouches = touches.degree(c);
+            boolean coast = numOcean > 0 && numLand > 0;
+            g.cornerOcean.set(c, numOcean == numTouches);
+            g.cornerCoast.set(c, coast);
+            g.cornerWater.set(c, g.cornerBorder.get(c) || ((numLand != numTouches) && !coast));
         }
     }
 
-    private ArrayList<Corner> landCorners() {
-        final ArrayList<Corner> list = new ArrayList<>();
-        for (Corner c : corners) {
-            if (!c.ocean && !c.coast) {
-                list.add(c);
-            }
+    private void sampleField(TerrainField field) {
+        final CompactGraph g = compact;
+        for (int c = 0; c < g.numCorners; c++) {
+            final double elevation = field.elevation(g.cornerX[c], g.cornerY[c]);
+            g.cornerWater.set(c, elevation < 0);
+            g.cornerElevation[c] = Math.min(Math.max(elevation, 0), 1);
+            g.cornerMoisture[c] = Math.min(Math.max(field.moisture(g.cornerX[c], g.cornerY[c]), 0), 1);
         }
-        return list;
     }
 
-    private void redistributeElevations(ArrayList<Corner> landCorners) {
-        Collections.sort(landCorners, (o1, o2) -> {
-            if (o1.elevation > o2.elevation) {
-                return 1;
-            } else if (o1.elevation < o2.elevation) {
-                return -1;
+    //like assignOceanCoastAndLand, but without the flood from the bounds: water cells are ocean wherever they are
+    private void assignFieldOceanCoastAndLand() {
+        final CompactGraph g = compact;
+        final CompactGraph.Adjacency cornersOf = g.corners;
+        final double waterThreshold = .3;
+        for (int center = 0; center < g.numCenters; center++) {
+            int numWater = 0;
+            for (int k = cornersOf.begin(center); k < cornersOf.end(center); k++) {
+                if (g.cornerWater.get(cornersOf.index[k])) {
+                    numWater++;
+                }
             }
-            return 0;
-        });
+            g.centerWater.set(center, (double) numWater / cornersOf.degree(center) >= waterThreshold);
+            g.centerOcean.set(center, g.centerWater.get(center));
+        }
+        assignCoast();
+
+        for (int c = 0; c < g.numCorners; c++) {
+            if (g.cornerOcean.get(c) || g.cornerCoast.get(c)) {
+                g.cornerElevation[c] = 0.0;
+                g.cornerMoisture[c] = 1.0;
+            }
+        }
+    }
+
+    private void redistributeElevations(int[] landCorners) {
+        final CompactGraph g = compact;
+        IndexSort.sort(landCorners, g.cornerElevation);
 
         final double SCALE_FACTOR = 1.1;
-        for (int i = 0; i < landCorners.size(); i++) {
-            double y = (double) i / landCorners.size();
+        for (int i = 0; i < landCorners.length; i++) {
+            double y = (double) i / landCorners.length;
             double x = Math.sqrt(SCALE_FACTOR) - Math.sqrt(SCALE_FACTOR * (1 - y));
             x = Math.min(x, 1);
-            landCorners.get(i).elevation = x;
+            g.cornerElevation[landCorners[i]] = x;
         }
 
-        for (Corner c : corners) {
-            if (c.ocean || c.coast) {
-                c.elevation = 0.0;
+        for (int c = 0; c < g.numCorners; c++) {
+            if (g.cornerOcean.get(c) || g.cornerCoast.get(c)) {
+                g.cornerElevation[c] = 0.0;
             }
         }
     }
 
     private void assignPolygonElevations() {
-        for (Center center : centers) {
+        averageOverCorners(compact.cornerElevation, compact.centerElevation);
+    }
+
+    //each center gets the mean of its corners' values
+    private void averageOverCorners(double[] cornerValues, double[] centerValues) {
+        final CompactGraph.Adjacency cornersOf = compact.corners;
+        for (int center = 0; center < compact.numCenters; center++) {
             double total = 0;
-            for (Corner c : center.corners) {
-                total += c.elevation;
+            for (int k = cornersOf.begin(center); k < cornersOf.end(center); k++) {
+                total += cornerValues[cornersOf.index[k]];
             }
-            center.elevation = total / center.corners.size();
+            centerValues[center] = total / cornersOf.degree(center);
         }
     }
 
     private void calculateDownslopes() {
-        for (Corner c : corners) {
-            Corner down = c;
-            //System.out.println("ME: " + c.elevation);
-            for (Corner a : c.adjacent) {
-                //System.out.println(a.elevation);
-                if (a.elevation <= down.elevation) {
+        final CompactGraph g = compact;
+        final CompactGraph.Adjacency adjacent = g.adjacent;
+        final double[] elevation = g.cornerElevation;
+        for (int c = 0; c < g.numCorners; c++) {
+            int down = c;
+            for (int k = adjacent.begin(c); k < adjacent.end(c); k++) {
+                int a = adjacent.index[k];
+                if (elevation[a] <= elevation[down]) {
                     down = a;
                 }
             }
-            c.downslope = down;
+            g.cornerDownslope[c] = down;
         }
     }
 
+    //the coast corner each corner drains into, and how many corners drain into each
+    private void calculateWatersheds() {
+        final CompactGraph g = compact;
+        final BitSet sinks = new BitSet(g.numCorners);
+        sinks.or(g.cornerOcean);
+        sinks.or(g.cornerCoast);
+        drainage = new DrainageNetwork(g.cornerElevation, g.cornerDownslope, sinks);
+        drainage.watersheds(g.cornerWatershed, g.cornerWatershedSize);
+    }
+
+    //rain falls on the land corners between 0.3 and 0.9 and flows down to the
+    //coast; one river per bounds.width / 2 corners worth of rain, which is the
+    //expected count of river walks started upstream of a corner by the former
+    //random placement
     private void createRivers() {
-        for (int i = 0; i < bounds.width / 2; i++) {
-            Corner c = corners.get(r.nextInt(corners.size()));
-            if (c.ocean || c.elevation < 0.3 || c.elevation > 0.9) {
-                continue;
-            }
-            // Bias rivers to go west: if (q.downslope.x > q.x) continue;
-            while (!c.coast) {
-                if (c == c.downslope) {
-                    break;
-                }
-                Edge edge = lookupEdgeFromCorner(c, c.downslope);
-                if (!edge.v0.water || !edge.v1.water) {
-                    edge.river++;
-                    c.river++;
-                    c.downslope.river++;  // TODO: fix double count
-                }
-                c = c.downslope;
+        final CompactGraph g = compact;
+        final int[] flow = new int[g.numCorners];
+        for (int c = 0; c < g.numCorners; c++) {
+            if (!g.cornerOcean.get(c) && g.cornerElevation[c] >= 0.3 && g.cornerElevation[c] <= 0.9) {
+                flow[c] = 1;
             }
         }
-    }
+        drainage.accumulate(flow);
 
-    private Edge lookupEdgeFromCorner(Corner c, Corner downslope) {
-        for (Edge e : c.protrudes) {
-            if (e.v0 == downslope || e.v1 == downslope) {
-                return e;
+        final double riversPerCorner = bounds.width / 2 / (double) g.numCorners;
+        for (int c = 0; c < g.numCorners; c++) {
+            final int down = g.cornerDownslope[c];
+            final int river = (int) (flow[c] * riversPerCorner);
+            if (river == 0 || c == down || g.cornerCoast.get(c) || g.cornerOcean.get(c)) {
+                continue;
+            }
+            int edge = g.edgeBetweenCorners(c, down);
+            if (!g.cornerWater.get(g.edgeV0[edge]) || !g.cornerWater.get(g.edgeV1[edge])) {
+                g.edgeRiver[edge] += river;
+                g.cornerRiver[c] += river;
+                g.cornerRiver[down] += river;  // TODO: fix double count
             }
         }
-        return null;
     }
 
+    //fresh water spreads from lakes and rivers, losing a tenth per step
     private void assignCornerMoisture() {
-        LinkedList<Corner> queue = new LinkedList<>();
-        for (Corner c : corners) {
-            if ((c.water || c.river > 0) && !c.ocean) {
-                c.moisture = c.river > 0 ? Math.min(3.0, (0.2 * c.river)) : 1.0;
-                queue.push(c);
+        final CompactGraph g = compact;
+        final double[] moisture = g.cornerMoisture;
+        final int[] sources = new int[g.numCorners];
+        int numSources = 0;
+        for (int c = 0; c < g.numCorners; c++) {
+            int river = g.cornerRiver[c];
+            if ((g.cornerWater.get(c) || river > 0) && !g.cornerOcean.get(c)) {
+                moisture[c] = river > 0 ? Math.min(3.0, (0.2 * river)) : 1.0;
+                sources[numSources++] = c;
             } else {
-                c.moisture = 0.0;
+                moisture[c] = 0.0;
             }
         }
 
-        while (!queue.isEmpty()) {
-            Corner c = queue.pop();
-            for (Corner a : c.adjacent) {
-                double newM = .9 * c.moisture;
-                if (newM > a.moisture) {
-                    a.moisture = newM;
-                    queue.add(a);
-                }
-            }
-        }
+        flood.settle(g.adjacent, moisture, sources, numSources, false, (from, to, m) -> .9 * m);
 
         // Salt water
-        for (Corner c : corners) {
-            if (c.ocean || c.coast) {
-                c.moisture = 1.0;
+        for (int c = 0; c < g.numCorners; c++) {
+            if (g.cornerOcean.get(c) || g.cornerCoast.get(c)) {
+                moisture[c] = 1.0;
             }
         }
     }
 
-    private void redistributeMoisture(ArrayList<Corner> landCorners) {
-        Collections.sort(landCorners, (o1, o2) -> {
-            if (o1.moisture > o2.moisture) {
-                return 1;
-            } else if (o1.moisture < o2.moisture) {
-                return -1;
-            }
-            return 0;
-        });
-        for (int i = 0; i < landCorners.size(); i++) {
-            landCorners.get(i).moisture = (double) i / landCorners.size();
+    private void redistributeMoisture(int[] landCorners) {
+        final CompactGraph g = compact;
+        IndexSort.sort(landCorners, g.cornerMoisture);
+        for (int i = 0; i < landCorners.length; i++) {
+            g.cornerMoisture[landCorners[i]] = (double) i / landCorners.length;
         }
     }
 
     private void assignPolygonMoisture() {
-        for (Center center : centers) {
-            double total = 0;
-            for (Corner c : center.corners) {
-                total += c.moisture;
-            }
-            center.moisture = total / center.corners.size();
-        }
+        averageOverCorners(compact.cornerMoisture, compact.centerMoisture);
     }
 
     private void assignBiomes() {
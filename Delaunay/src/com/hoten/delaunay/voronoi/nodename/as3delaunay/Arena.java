@@ -0,0 +1,25 @@
+package com.hoten.delaunay.voronoi.nodename.as3delaunay;
+
+import java.util.ArrayDeque;
+
+/**
+ * Arena.java
+ * <p>
+ * Recycling pools and counters of a single Fortune computation. Every
+ * {@link Voronoi} owns one and hands it to the factories of Site, Edge,
+ * Halfedge and Vertex, so diagrams built at the same time on different
+ * threads never share objects. Disposed objects go back to the arena they
+ * were created from.
+ * <p>
+ * An arena is only ever touched by the thread building its diagram and is
+ * not synchronized.
+ */
+final class Arena {
+
+    final ArrayDeque<Site> sites = new ArrayDeque<>();
+    final ArrayDeque<Edge> edges = new ArrayDeque<>();
+    final ArrayDeque<Halfedge> halfedges = new ArrayDeque<>();
+    final ArrayDeque<Vertex> vertices = new ArrayDeque<>();
+    int nedges = 0;
+    int nvertices = 0;
+}
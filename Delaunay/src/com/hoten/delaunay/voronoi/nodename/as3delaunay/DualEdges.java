@@ -0,0 +1,27 @@
+package com.hoten.delaunay.voronoi.nodename.as3delaunay;
+
+/**
+ * DualEdges.java
+ * <p>
+ * Backend independent edge table of a Voronoi diagram. Edge i separates the
+ * sites sites[2i] and sites[2i + 1] (indices into {@link Voronoi#siteCoords()})
+ * and its Voronoi segment, clipped to the plot bounds, runs from
+ * (ends[4i], ends[4i + 1]) to (ends[4i + 2], ends[4i + 3]). All four ends are
+ * NaN if no part of the segment lies inside the bounds.
+ */
+public final class DualEdges {
+
+    final public int size;
+    final public int[] sites;
+    final public double[] ends;
+
+    public DualEdges(int size, int[] sites, double[] ends) {
+        this.size = size;
+        this.sites = sites;
+        this.ends = ends;
+    }
+
+    public boolean isVisible(int edge) {
+        return !Double.isNaN(ends[4 * edge]);
+    }
+}
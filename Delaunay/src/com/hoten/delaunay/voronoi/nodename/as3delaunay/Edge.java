@@ -4,7 +4,6 @@ import com.hoten.delaunay.geom.Point;
 import com.hoten.delaunay.geom.Rectangle;
 
 import java.util.HashMap;
-import java.util.Stack;
 
 /**
  * The line segment connecting the two Sites is part of the Delaunay
@@ -15,9 +14,8 @@ import java.util.Stack;
  */
 public final class Edge {
 
-    final public static Edge DELETED = new Edge();
-    final private static Stack<Edge> _pool = new Stack<>();
-    private static int _nedges = 0;
+    final public static Edge DELETED = new Edge(null);
+    private final Arena _arena;
     // the equation of the edge: ax + by = c
     public double a, b, c;
     // the two Voronoi vertices that the edge connects
@@ -31,19 +29,21 @@ public final class Edge {
     private HashMap<LR, Site> _sites;
     private int _edgeIndex;
 
-    private Edge() {
-        _edgeIndex = _nedges++;
+    private Edge(Arena arena) {
+        _arena = arena;
+        _edgeIndex = arena == null ? -1 : arena.nedges++;
         init();
     }
 
     /**
      * This is the only way to create a new Edge
      *
+     * @param arena
      * @param site0
      * @param site1
      * @return
      */
-    public static Edge createBisectingEdge(Site site0, Site site1) {
+    static Edge createBisectingEdge(Arena arena, Site site0, Site site1) {
         double dx, dy, absdx, absdy;
         double a, b, c;
 
@@ -62,7 +62,7 @@ public final class Edge {
             c /= dy;
         }
 
-        Edge edge = Edge.create();
+        Edge edge = Edge.create(arena);
 
         edge.set_leftSite(site0);
         edge.set_rightSite(site1);
@@ -80,13 +80,13 @@ public final class Edge {
         return edge;
     }
 
-    private static Edge create() {
+    private static Edge create(Arena arena) {
         Edge edge;
-        if (_pool.size() > 0) {
-            edge = _pool.pop();
+        if (!arena.edges.isEmpty()) {
+            edge = arena.edges.pop();
             edge.init();
         } else {
-            edge = new Edge();
+            edge = new Edge(arena);
         }
         return edge;
     }
@@ -232,7 +232,9 @@ public final class Edge {
         _sites.clear();
         _sites = null;
 
-        _pool.push(this);
+        if (_arena != null) {
+            _arena.edges.push(this);
+        }
     }
 
     private void init() {
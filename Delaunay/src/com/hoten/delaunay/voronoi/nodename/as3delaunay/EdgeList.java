@@ -13,7 +13,7 @@ public final class EdgeList implements IDisposable {
     private int _hashsize;
     private ArrayList<Halfedge> _hash;
 
-    public EdgeList(double xmin, double deltax, int sqrt_nsites) {
+    EdgeList(Arena arena, double xmin, double deltax, int sqrt_nsites) {
         _xmin = xmin;
         _deltax = deltax;
         _hashsize = 2 * sqrt_nsites;
@@ -21,8 +21,8 @@ public final class EdgeList implements IDisposable {
         _hash = new ArrayList<>(_hashsize);
 
         // two dummy Halfedges:
-        leftEnd = Halfedge.createDummy();
-        rightEnd = Halfedge.createDummy();
+        leftEnd = Halfedge.createDummy(arena);
+        rightEnd = Halfedge.createDummy(arena);
         leftEnd.edgeListLeftNeighbor = null;
         leftEnd.edgeListRightNeighbor = rightEnd;
         rightEnd.edgeListLeftNeighbor = leftEnd;
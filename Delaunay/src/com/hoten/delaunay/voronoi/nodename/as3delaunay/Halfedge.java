@@ -2,11 +2,9 @@ package com.hoten.delaunay.voronoi.nodename.as3delaunay;
 
 import com.hoten.delaunay.geom.Point;
 
-import java.util.Stack;
-
 public final class Halfedge {
 
-    private static Stack<Halfedge> _pool = new Stack<>();
+    private Arena _arena;
     public Halfedge edgeListLeftNeighbor, edgeListRightNeighbor;
     public Halfedge nextInPriorityQueue;
     public Edge edge;
@@ -19,16 +17,14 @@ public final class Halfedge {
         init(edge, lr);
     }
 
-    public static Halfedge create(Edge edge, LR lr) {
-        if (_pool.size() > 0) {
-            return _pool.pop().init(edge, lr);
-        } else {
-            return new Halfedge(edge, lr);
-        }
+    static Halfedge create(Arena arena, Edge edge, LR lr) {
+        Halfedge halfedge = arena.halfedges.isEmpty() ? new Halfedge(edge, lr) : arena.halfedges.pop().init(edge, lr);
+        halfedge._arena = arena;
+        return halfedge;
     }
 
-    public static Halfedge createDummy() {
-        return create(null, null);
+    static Halfedge createDummy(Arena arena) {
+        return create(arena, null, null);
     }
 
     private Halfedge init(Edge edge, LR lr) {
@@ -56,7 +52,7 @@ public final class Halfedge {
         edge = null;
         leftRight = null;
         vertex = null;
-        _pool.push(this);
+        recycle();
     }
 
     public void reallyDispose() {
@@ -66,7 +62,13 @@ public final class Halfedge {
         edge = null;
         leftRight = null;
         vertex = null;
-        _pool.push(this);
+        recycle();
+    }
+
+    private void recycle() {
+        if (_arena != null) {
+            _arena.halfedges.push(this);
+        }
     }
 
     public boolean isLeftOf(Point p) {
@@ -13,8 +13,10 @@ public final class HalfedgePriorityQueue // also known as heap
     private int _hashsize;
     private double _ymin;
     private double _deltay;
+    private final Arena _arena;
 
-    public HalfedgePriorityQueue(double ymin, double deltay, int sqrt_nsites) {
+    HalfedgePriorityQueue(Arena arena, double ymin, double deltay, int sqrt_nsites) {
+        _arena = arena;
         _ymin = ymin;
         _deltay = deltay;
         _hashsize = 4 * sqrt_nsites;
@@ -38,7 +40,7 @@ public final class HalfedgePriorityQueue // also known as heap
         _hash = new ArrayList<>(_hashsize);
         // dummy Halfedge at the top of each hash
         for (i = 0; i < _hashsize; ++i) {
-            _hash.add(Halfedge.createDummy());
+            _hash.add(Halfedge.createDummy(_arena));
             _hash.get(i).nextInPriorityQueue = null;
         }
     }
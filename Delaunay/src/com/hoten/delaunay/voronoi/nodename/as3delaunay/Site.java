@@ -6,12 +6,11 @@ import com.hoten.delaunay.geom.Rectangle;
 import java.awt.*;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Stack;
 
 public final class Site implements ICoord {
 
     final private static double EPSILON = .005;
-    private static Stack<Site> _pool = new Stack<>();
+    private Arena _arena;
     public Color color;
     public double weight;
     // the edges that define this Site's Voronoi region:
@@ -27,12 +26,10 @@ public final class Site implements ICoord {
         init(p, index, weight, color);
     }
 
-    public static Site create(Point p, int index, double weight, Color color) {
-        if (_pool.size() > 0) {
-            return _pool.pop().init(p, index, weight, color);
-        } else {
-            return new Site(p, index, weight, color);
-        }
+    static Site create(Arena arena, Point p, int index, double weight, Color color) {
+        Site site = arena.sites.isEmpty() ? new Site(p, index, weight, color) : arena.sites.pop().init(p, index, weight, color);
+        site._arena = arena;
+        return site;
     }
 
     public static void sortSites(ArrayList<Site> sites) {
@@ -102,7 +99,9 @@ public final class Site implements ICoord {
     public void dispose() {
         _coord = null;
         clear();
-        _pool.push(this);
+        if (_arena != null) {
+            _arena.sites.push(this);
+        }
     }
 
     private void clear() {
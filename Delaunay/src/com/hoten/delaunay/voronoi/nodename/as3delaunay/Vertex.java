@@ -2,13 +2,10 @@ package com.hoten.delaunay.voronoi.nodename.as3delaunay;
 
 import com.hoten.delaunay.geom.Point;
 
-import java.util.Stack;
-
 final public class Vertex extends Object implements ICoord {
 
     final public static Vertex VERTEX_AT_INFINITY = new Vertex(Double.NaN, Double.NaN);
-    final private static Stack<Vertex> _pool = new Stack<>();
-    private static int _nvertices = 0;
+    private Arena _arena;
     private Point _coord;
     private int _vertexIndex;
 
@@ -16,27 +13,25 @@ final public class Vertex extends Object implements ICoord {
         init(x, y);
     }
 
-    private static Vertex create(double x, double y) {
+    private static Vertex create(Arena arena, double x, double y) {
 
         if (Double.isNaN(x) || Double.isNaN(y)) {
             return VERTEX_AT_INFINITY;
         }
-        if (_pool.size() > 0) {
-
-            return _pool.pop().init(x, y);
-        } else {
-            return new Vertex(x, y);
-        }
+        Vertex vertex = arena.vertices.isEmpty() ? new Vertex(x, y) : arena.vertices.pop().init(x, y);
+        vertex._arena = arena;
+        return vertex;
     }
 
     /**
      * This is the only way to make a Vertex
      *
+     * @param arena
      * @param halfedge0
      * @param halfedge1
      * @return
      */
-    public static Vertex intersect(Halfedge halfedge0, Halfedge halfedge1) {
+    static Vertex intersect(Arena arena, Halfedge halfedge0, Halfedge halfedge1) {
         Edge edge0, edge1, edge;
         Halfedge halfedge;
         double determinant, intersectionX, intersectionY;
@@ -73,7 +68,7 @@ final public class Vertex extends Object implements ICoord {
             return null;
         }
 
-        return Vertex.create(intersectionX, intersectionY);
+        return Vertex.create(arena, intersectionX, intersectionY);
     }
 
     @Override
@@ -91,12 +86,16 @@ final public class Vertex extends Object implements ICoord {
     }
 
     public void dispose() {
+        // the shared sentinel is never recycled
+        if (_arena == null) {
+            return;
+        }
         _coord = null;
-        _pool.push(this);
+        _arena.vertices.push(this);
     }
 
     public void setIndex() {
-        _vertexIndex = _nvertices++;
+        _vertexIndex = _arena.nvertices++;
     }
 
     @Override
@@ -30,14 +30,46 @@ package com.hoten.delaunay.voronoi.nodename.as3delaunay;
 
 import com.hoten.delaunay.geom.Point;
 import com.hoten.delaunay.geom.Rectangle;
+import com.hoten.delaunay.voronoi.sweephull.Delaunator;
+import com.hoten.delaunay.voronoi.sweephull.VoronoiDual;
 
 import java.awt.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Random;
 
 public final class Voronoi {
 
+    /**
+     * The algorithm computing the diagram. Both produce the same diagram (up
+     * to rounding); the site order of {@link #siteCoords()} and the edge order
+     * of {@link #dualEdges()} differ.
+     */
+    public enum Backend {
+        /**
+         * Fortune's sweep on Site/Edge/Halfedge objects.
+         */
+        FORTUNE,
+        /**
+         * Sweep-hull Delaunay triangulation on flat arrays, the Voronoi
+         * diagram is derived as its dual. Much faster on large site counts.
+         * siteCoords, region(s) and dualEdges read the arrays; the Site and
+         * Edge objects the other queries work on are built from the
+         * triangulation on first use.
+         */
+        SWEEP_HULL
+    }
+
+    // FORTUNE keeps existing callers and seeds as they were; -Dvoronoi.backend=SWEEP_HULL opts them in
+    private static volatile Backend defaultBackend = Backend.valueOf(System.getProperty("voronoi.backend", Backend.FORTUNE.name()));
+
+    private final Backend _backend;
+    private ArrayList<Point> _points;
+    private HashMap<Point, Integer> _indexByLocation;
+    private VoronoiDual _dual;
+
+    private Arena _arena;
     private SiteList _sites;
     private HashMap<Point, Site> _sitesIndexedByLocation;
     private ArrayList<Triangle> _triangles;
@@ -47,28 +79,56 @@ public final class Voronoi {
     private Rectangle _plotBounds;
 
     public Voronoi(ArrayList<Point> points, ArrayList<Color> colors, Rectangle plotBounds) {
+        this(points, colors, plotBounds, defaultBackend);
+    }
+
+    public Voronoi(ArrayList<Point> points, ArrayList<Color> colors, Rectangle plotBounds, Backend backend) {
+        _backend = backend;
         init(points, colors, plotBounds);
-        fortunesAlgorithm();
     }
 
     public Voronoi(ArrayList<Point> points, ArrayList<Color> colors) {
+        this(points, colors, boundsOf(points), defaultBackend);
+    }
+
+    public Voronoi(int numSites, double maxWidth, double maxHeight, Random r, ArrayList<Color> colors) {
+        this(numSites, maxWidth, maxHeight, r, colors, defaultBackend);
+    }
+
+    public Voronoi(int numSites, double maxWidth, double maxHeight, Random r, ArrayList<Color> colors, Backend backend) {
+        this(randomPoints(numSites, maxWidth, maxHeight, r), colors, new Rectangle(0, 0, maxWidth, maxHeight), backend);
+    }
+
+    private static Rectangle boundsOf(ArrayList<Point> points) {
         double maxWidth = 0, maxHeight = 0;
         for (Point p : points) {
             maxWidth = Math.max(maxWidth, p.x);
             maxHeight = Math.max(maxHeight, p.y);
         }
-        System.out.println(maxWidth + "," + maxHeight);
-        init(points, colors, new Rectangle(0, 0, maxWidth, maxHeight));
-        fortunesAlgorithm();
+        return new Rectangle(0, 0, maxWidth, maxHeight);
     }
 
-    public Voronoi(int numSites, double maxWidth, double maxHeight, Random r, ArrayList<Color> colors) {
+    private static ArrayList<Point> randomPoints(int numSites, double maxWidth, double maxHeight, Random r) {
         ArrayList<Point> points = new ArrayList<>();
         for (int i = 0; i < numSites; i++) {
             points.add(new Point(r.nextDouble() * maxWidth, r.nextDouble() * maxHeight));
         }
-        init(points, colors, new Rectangle(0, 0, maxWidth, maxHeight));
-        fortunesAlgorithm();
+        return points;
+    }
+
+    /**
+     * The backend used by the constructors which don't take one.
+     */
+    public static Backend getDefaultBackend() {
+        return defaultBackend;
+    }
+
+    public static void setDefaultBackend(Backend backend) {
+        defaultBackend = backend;
+    }
+
+    public Backend getBackend() {
+        return _backend;
     }
 
     public static int compareByYThenX(Site s1, Site s2) {
@@ -131,15 +191,129 @@ public final class Voronoi {
         }
         _plotBounds = null;
         _sitesIndexedByLocation = null;
+        _arena = null;
+        _points = null;
+        _indexByLocation = null;
+        _dual = null;
     }
 
     private void init(ArrayList<Point> points, ArrayList<Color> colors, Rectangle plotBounds) {
+        _plotBounds = plotBounds;
+        if (_backend == Backend.SWEEP_HULL) {
+            _points = new ArrayList<>(points);
+            _indexByLocation = new HashMap<>();
+            final double[] coords = new double[2 * points.size()];
+            for (int i = 0; i < points.size(); i++) {
+                Point p = points.get(i);
+                coords[2 * i] = p.x;
+                coords[2 * i + 1] = p.y;
+                _indexByLocation.put(p, i);
+            }
+            _dual = new VoronoiDual(coords, plotBounds);
+            return;
+        }
+        _arena = new Arena();
         _sites = new SiteList();
         _sitesIndexedByLocation = new HashMap<>();
         addSites(points, colors);
-        _plotBounds = plotBounds;
         _triangles = new ArrayList<>();
         _edges = new ArrayList<>();
+        fortunesAlgorithm();
+    }
+
+    /**
+     * SWEEP_HULL: creates the sites and edges Fortune's algorithm would have
+     * from the triangulation, once. Every Delaunay edge becomes the bisector
+     * of its two sites, ending in the circumcenters of the triangles on
+     * either side, or open towards the outside on the hull.
+     */
+    private synchronized void requireEdges() {
+        if (_backend != Backend.SWEEP_HULL || _edges != null) {
+            return;
+        }
+        final Delaunator delaunay = _dual.delaunay;
+        final double[] coords = delaunay.coords;
+        final int[] triangles = delaunay.triangles;
+        final int[] halfedges = delaunay.halfedges;
+
+        _arena = new Arena();
+        _sites = new SiteList();
+        _sitesIndexedByLocation = new HashMap<>();
+        final Site[] sites = new Site[_points.size()];
+        for (int i = 0; i < sites.length; i++) {
+            Point p = _points.get(i);
+            // sites moved apart by the triangulation sit where they were moved to
+            Point at = p.x == coords[2 * i] && p.y == coords[2 * i + 1] ? p : new Point(coords[2 * i], coords[2 * i + 1]);
+            sites[i] = Site.create(_arena, at, i, 0, null);
+            _sites.push(sites[i]);
+            _sitesIndexedByLocation.put(p, sites[i]);
+        }
+
+        _triangles = new ArrayList<>();
+        _edges = new ArrayList<>();
+        if (triangles.length == 0) {
+            // collinear sites: bisectors open at both ends
+            for (int k = 0; k + 1 < delaunay.hull.length; k++) {
+                addEdge(sites[delaunay.hull[k]], sites[delaunay.hull[k + 1]], null, null, 0, 0);
+            }
+            return;
+        }
+        final Vertex[] vertices = new Vertex[triangles.length / 3];
+        for (int e = 0; e < triangles.length; e++) {
+            final int opposite = halfedges[e];
+            if (opposite != -1 && opposite < e) {
+                continue;
+            }
+            final int p = triangles[e];
+            final int q = triangles[Delaunator.nextHalfedge(e)];
+            final Vertex v0 = vertex(vertices, e / 3);
+            if (opposite != -1) {
+                addEdge(sites[p], sites[q], v0, vertex(vertices, opposite / 3), 0, 0);
+            } else {
+                // hull edge: open in the direction perpendicular to pq, away from the third point
+                final int r = triangles[Delaunator.prevHalfedge(e)];
+                double dx = -(coords[2 * q + 1] - coords[2 * p + 1]);
+                double dy = coords[2 * q] - coords[2 * p];
+                if (dx * (coords[2 * r] - coords[2 * p]) + dy * (coords[2 * r + 1] - coords[2 * p + 1]) > 0) {
+                    dx = -dx;
+                    dy = -dy;
+                }
+                addEdge(sites[p], sites[q], v0, null, dx, dy);
+            }
+        }
+    }
+
+    private Vertex vertex(Vertex[] vertices, int triangle) {
+        if (vertices[triangle] == null) {
+            vertices[triangle] = new Vertex(_dual.circumcenters[2 * triangle], _dual.circumcenters[2 * triangle + 1]);
+        }
+        return vertices[triangle];
+    }
+
+    /**
+     * Adds the bisector of two sites from v0 to v1; a null v1 means it is
+     * open in direction (dx, dy), both null that it is open at both ends.
+     */
+    private void addEdge(Site site0, Site site1, Vertex v0, Vertex v1, double dx, double dy) {
+        Edge edge = Edge.createBisectingEdge(_arena, site0, site1);
+        // clipVertices expects the end with the smaller y (if a == 1) or x
+        // as the right vertex if a == 1 and b >= 0, as the left one otherwise
+        Vertex low = v0;
+        Vertex high = v1;
+        if (v1 == null) {
+            if ((edge.a == 1.0 ? dy : dx) < 0) {
+                low = null;
+                high = v0;
+            }
+        } else if (edge.a == 1.0 ? v1.get_y() < v0.get_y() : v1.get_x() < v0.get_x()) {
+            low = v1;
+            high = v0;
+        }
+        final boolean lowIsRight = edge.a == 1.0 && edge.b >= 0.0;
+        edge.setVertex(lowIsRight ? LR.RIGHT : LR.LEFT, low);
+        edge.setVertex(lowIsRight ? LR.LEFT : LR.RIGHT, high);
+        edge.clipVertices(_plotBounds);
+        _edges.add(edge);
     }
 
     private void addSites(ArrayList<Point> points, ArrayList<Color> colors) {
@@ -151,16 +325,55 @@ public final class Voronoi {
 
     private void addSite(Point p, Color color, int index) {
         double weight = Math.random() * 100;
-        Site site = Site.create(p, index, weight, color);
+        Site site = Site.create(_arena, p, index, weight, color);
         _sites.push(site);
         _sitesIndexedByLocation.put(p, site);
     }
 
     public ArrayList<Edge> edges() {
+        requireEdges();
         return _edges;
     }
 
+    /**
+     * Flat edge table of the diagram, available with every backend. Site
+     * indices refer to the order of {@link #siteCoords()}.
+     */
+    public DualEdges dualEdges() {
+        if (_backend == Backend.SWEEP_HULL) {
+            return _dual.edges();
+        }
+        final ArrayList<Point> coords = _sites.siteCoords();
+        final HashMap<Point, Integer> index = new HashMap<>(coords.size() * 2);
+        for (int i = 0; i < coords.size(); i++) {
+            index.put(coords.get(i), i);
+        }
+        final int n = _edges.size();
+        final int[] sites = new int[2 * n];
+        final double[] ends = new double[4 * n];
+        for (int i = 0; i < n; i++) {
+            Edge edge = _edges.get(i);
+            sites[2 * i] = index.get(edge.get_leftSite().get_coord());
+            sites[2 * i + 1] = index.get(edge.get_rightSite().get_coord());
+            if (edge.get_visible()) {
+                Point p0 = edge.get_clippedEnds().get(LR.LEFT);
+                Point p1 = edge.get_clippedEnds().get(LR.RIGHT);
+                ends[4 * i] = p0.x;
+                ends[4 * i + 1] = p0.y;
+                ends[4 * i + 2] = p1.x;
+                ends[4 * i + 3] = p1.y;
+            } else {
+                Arrays.fill(ends, 4 * i, 4 * i + 4, Double.NaN);
+            }
+        }
+        return new DualEdges(n, sites, ends);
+    }
+
     public ArrayList<Point> region(Point p) {
+        if (_backend == Backend.SWEEP_HULL) {
+            Integer i = _indexByLocation.get(p);
+            return i == null ? new ArrayList<>() : _dual.region(i);
+        }
         Site site = _sitesIndexedByLocation.get(p);
         if (site == null) {
             return new ArrayList<>();
@@ -170,6 +383,7 @@ public final class Voronoi {
 
     // TODO: bug: if you call this before you call region(), something goes wrong :(
     public ArrayList<Point> neighborSitesForSite(Point coord) {
+        requireEdges();
         ArrayList<Point> points = new ArrayList<>();
         Site site = _sitesIndexedByLocation.get(coord);
         if (site == null) {
@@ -183,15 +397,20 @@ public final class Voronoi {
     }
 
     public ArrayList<Circle> circles() {
+        requireEdges();
         return _sites.circles();
     }
 
     private ArrayList<Edge> selectEdgesForSitePoint(Point coord, ArrayList<Edge> edgesToTest) {
         ArrayList<Edge> filtered = new ArrayList<>();
+        // by site rather than coordinate, the site of a moved duplicate sits elsewhere
+        Site site = _sitesIndexedByLocation.get(coord);
+        if (site == null) {
+            return filtered;
+        }
 
         for (Edge e : edgesToTest) {
-            if (((e.get_leftSite() != null && e.get_leftSite().get_coord() == coord)
-                    || (e.get_rightSite() != null && e.get_rightSite().get_coord() == coord))) {
+            if (e.get_leftSite() == site || e.get_rightSite() == site) {
                 filtered.add(e);
             }
         }
@@ -229,14 +448,17 @@ public final class Voronoi {
     }
 
     public ArrayList<LineSegment> voronoiBoundaryForSite(Point coord) {
+        requireEdges();
         return visibleLineSegments(selectEdgesForSitePoint(coord, _edges));
     }
 
     public ArrayList<LineSegment> delaunayLinesForSite(Point coord) {
+        requireEdges();
         return delaunayLinesForEdges(selectEdgesForSitePoint(coord, _edges));
     }
 
     public ArrayList<LineSegment> voronoiDiagram() {
+        requireEdges();
         return visibleLineSegments(_edges);
     }
 
@@ -245,6 +467,7 @@ public final class Voronoi {
      return delaunayLinesForEdges(selectNonIntersectingEdges(keepOutMask, _edges));
      }*/
     public ArrayList<LineSegment> hull() {
+        requireEdges();
         return delaunayLinesForEdges(hullEdges());
     }
 
@@ -272,6 +495,7 @@ public final class Voronoi {
      }*/
 
     public ArrayList<Point> hullPointsInOrder() {
+        requireEdges();
         ArrayList<Edge> hullEdges = hullEdges();
 
         ArrayList<Point> points = new ArrayList<>();
@@ -302,6 +526,13 @@ public final class Voronoi {
      return kruskal(segments, type);
      }*/
     public ArrayList<ArrayList<Point>> regions() {
+        if (_backend == Backend.SWEEP_HULL) {
+            ArrayList<ArrayList<Point>> regions = new ArrayList<>(_points.size());
+            for (int i = 0; i < _points.size(); i++) {
+                regions.add(_dual.region(i));
+            }
+            return regions;
+        }
         return _sites.regions(_plotBounds);
     }
 
@@ -317,6 +548,9 @@ public final class Voronoi {
      return _sites.nearestSitePoint(proximityMap, x, y);
      }*/
     public ArrayList<Point> siteCoords() {
+        if (_backend == Backend.SWEEP_HULL) {
+            return new ArrayList<>(_points);
+        }
         return _sites.siteCoords();
     }
 
@@ -331,8 +565,8 @@ public final class Voronoi {
         Rectangle dataBounds = _sites.getSitesBounds();
 
         int sqrt_nsites = (int) Math.sqrt(_sites.get_length() + 4);
-        HalfedgePriorityQueue heap = new HalfedgePriorityQueue(dataBounds.y, dataBounds.height, sqrt_nsites);
-        EdgeList edgeList = new EdgeList(dataBounds.x, dataBounds.width, sqrt_nsites);
+        HalfedgePriorityQueue heap = new HalfedgePriorityQueue(_arena, dataBounds.y, dataBounds.height, sqrt_nsites);
+        EdgeList edgeList = new EdgeList(_arena, dataBounds.x, dataBounds.width, sqrt_nsites);
         ArrayList<Halfedge> halfEdges = new ArrayList<>();
         ArrayList<Vertex> vertices = new ArrayList<>();
 
@@ -359,18 +593,18 @@ public final class Voronoi {
                 //trace("new Site is in region of existing site: " + bottomSite);
 
                 // Step 9:
-                edge = Edge.createBisectingEdge(bottomSite, newSite);
+                edge = Edge.createBisectingEdge(_arena, bottomSite, newSite);
                 //trace("new edge: " + edge);
                 _edges.add(edge);
 
-                bisector = Halfedge.create(edge, LR.LEFT);
+                bisector = Halfedge.create(_arena, edge, LR.LEFT);
                 halfEdges.add(bisector);
                 // inserting two Halfedges into edgeList constitutes Step 10:
                 // insert bisector to the right of lbnd:
                 edgeList.insert(lbnd, bisector);
 
                 // first half of Step 11:
-                if ((vertex = Vertex.intersect(lbnd, bisector)) != null) {
+                if ((vertex = Vertex.intersect(_arena, lbnd, bisector)) != null) {
                     vertices.add(vertex);
                     heap.remove(lbnd);
                     lbnd.vertex = vertex;
@@ -379,14 +613,14 @@ public final class Voronoi {
                 }
 
                 lbnd = bisector;
-                bisector = Halfedge.create(edge, LR.RIGHT);
+                bisector = Halfedge.create(_arena, edge, LR.RIGHT);
                 halfEdges.add(bisector);
                 // second Halfedge for Step 10:
                 // insert bisector to the right of lbnd:
                 edgeList.insert(lbnd, bisector);
 
                 // second half of Step 11:
-                if ((vertex = Vertex.intersect(bisector, rbnd)) != null) {
+                if ((vertex = Vertex.intersect(_arena, bisector, rbnd)) != null) {
                     vertices.add(vertex);
                     bisector.vertex = vertex;
                     bisector.ystar = vertex.get_y() + newSite.dist(vertex);
@@ -420,20 +654,20 @@ public final class Voronoi {
                     topSite = tempSite;
                     leftRight = LR.RIGHT;
                 }
-                edge = Edge.createBisectingEdge(bottomSite, topSite);
+                edge = Edge.createBisectingEdge(_arena, bottomSite, topSite);
                 _edges.add(edge);
-                bisector = Halfedge.create(edge, leftRight);
+                bisector = Halfedge.create(_arena, edge, leftRight);
                 halfEdges.add(bisector);
                 edgeList.insert(llbnd, bisector);
                 edge.setVertex(LR.other(leftRight), v);
-                if ((vertex = Vertex.intersect(llbnd, bisector)) != null) {
+                if ((vertex = Vertex.intersect(_arena, llbnd, bisector)) != null) {
                     vertices.add(vertex);
                     heap.remove(llbnd);
                     llbnd.vertex = vertex;
                     llbnd.ystar = vertex.get_y() + bottomSite.dist(vertex);
                     heap.insert(llbnd);
                 }
-                if ((vertex = Vertex.intersect(bisector, rrbnd)) != null) {
+                if ((vertex = Vertex.intersect(_arena, bisector, rrbnd)) != null) {
                     vertices.add(vertex);
                     bisector.vertex = vertex;
                     bisector.ystar = vertex.get_y() + bottomSite.dist(vertex);
@@ -0,0 +1,566 @@
+package com.hoten.delaunay.voronoi.sweephull;
+
+/*
+ * Sweep-hull Delaunay triangulation working on flat arrays. Java port of
+ * delaunator by Vladimir Agafonkin / Mapbox (https://github.com/mapbox/delaunator).
+ *
+ * ISC License
+ *
+ * Copyright (c) 2017, Mapbox
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any purpose
+ * with or without fee is hereby granted, provided that the above copyright notice
+ * and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND ISC DISCLAIMS ALL WARRANTIES WITH REGARD TO
+ * THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS.
+ * IN NO EVENT SHALL ISC BE LIABLE FOR ANY SPECIAL, DIRECT, INDIRECT, OR
+ * CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING FROM LOSS OF USE, DATA
+ * OR PROFITS, WHETHER IN AN ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION,
+ * ARISING OUT OF OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+import java.util.Arrays;
+
+/**
+ * Delaunay triangulation of the points coords[2i], coords[2i + 1].
+ * <p>
+ * Triangle t consists of the half-edges 3t, 3t + 1 and 3t + 2;
+ * triangles[e] is the point half-edge e starts at and halfedges[e] the
+ * opposite half-edge in the adjacent triangle, or -1 on the convex hull.
+ * hull lists the hull points in traversal order.
+ */
+public final class Delaunator {
+
+    private static final double EPSILON = Math.ulp(1.0);
+
+    final public double[] coords;
+    final public int[] triangles;
+    final public int[] halfedges;
+    final public int[] hull;
+
+    private final int[] _triangles;
+    private final int[] _halfedges;
+    private int trianglesLen;
+
+    private final int hashSize;
+    private final int[] hullPrev;
+    private final int[] hullNext;
+    private final int[] hullTri;
+    private final int[] hullHash;
+    private int hullStart;
+    private double cx;
+    private double cy;
+
+    private int[] edgeStack = new int[512];
+
+    public Delaunator(double[] coords) {
+        final int n = coords.length >> 1;
+        this.coords = coords;
+
+        final int maxTriangles = Math.max(2 * n - 5, 0);
+        _triangles = new int[maxTriangles * 3];
+        _halfedges = new int[maxTriangles * 3];
+
+        hashSize = (int) Math.ceil(Math.sqrt(n));
+        hullPrev = new int[n];
+        hullNext = new int[n];
+        hullTri = new int[n];
+        hullHash = new int[Math.max(hashSize, 1)];
+
+        hull = triangulate(n);
+        triangles = Arrays.copyOf(_triangles, trianglesLen);
+        halfedges = Arrays.copyOf(_halfedges, trianglesLen);
+    }
+
+    /**
+     * @return the half-edge following e in its triangle
+     */
+    public static int nextHalfedge(int e) {
+        return e % 3 == 2 ? e - 2 : e + 1;
+    }
+
+    /**
+     * @return the half-edge preceding e in its triangle
+     */
+    public static int prevHalfedge(int e) {
+        return e % 3 == 0 ? e + 2 : e - 1;
+    }
+
+    private int[] triangulate(int n) {
+        if (n == 0) {
+            return new int[0];
+        }
+        final int[] ids = new int[n];
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            final double x = coords[2 * i];
+            final double y = coords[2 * i + 1];
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
+            ids[i] = i;
+        }
+        final double centerX = (minX + maxX) / 2;
+        final double centerY = (minY + maxY) / 2;
+
+        // pick a seed point close to the center
+        int i0 = 0;
+        double minDist = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            final double d = dist(centerX, centerY, coords[2 * i], coords[2 * i + 1]);
+            if (d < minDist) {
+                i0 = i;
+                minDist = d;
+            }
+        }
+        final double i0x = coords[2 * i0];
+        final double i0y = coords[2 * i0 + 1];
+
+        // find the point closest to the seed
+        int i1 = -1;
+        minDist = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            if (i == i0) {
+                continue;
+            }
+            final double d = dist(i0x, i0y, coords[2 * i], coords[2 * i + 1]);
+            if (d < minDist && d > 0) {
+                i1 = i;
+                minDist = d;
+            }
+        }
+        if (i1 == -1) {
+            return collinearHull(n, ids);
+        }
+        double i1x = coords[2 * i1];
+        double i1y = coords[2 * i1 + 1];
+
+        // find the third point which forms the smallest circumcircle with the first two
+        int i2 = -1;
+        double minRadius = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            if (i == i0 || i == i1) {
+                continue;
+            }
+            final double r = circumradius(i0x, i0y, i1x, i1y, coords[2 * i], coords[2 * i + 1]);
+            if (r < minRadius) {
+                i2 = i;
+                minRadius = r;
+            }
+        }
+        if (i2 == -1 || minRadius == Double.POSITIVE_INFINITY) {
+            return collinearHull(n, ids);
+        }
+        double i2x = coords[2 * i2];
+        double i2y = coords[2 * i2 + 1];
+
+        // swap the order of the seed points for a consistent orientation
+        if (orient(i0x, i0y, i1x, i1y, i2x, i2y) < 0) {
+            final int i = i1;
+            final double x = i1x;
+            final double y = i1y;
+            i1 = i2;
+            i1x = i2x;
+            i1y = i2y;
+            i2 = i;
+            i2x = x;
+            i2y = y;
+        }
+
+        final double[] center = new double[2];
+        circumcenter(i0x, i0y, i1x, i1y, i2x, i2y, center);
+        cx = center[0];
+        cy = center[1];
+
+        final double[] dists = new double[n];
+        for (int i = 0; i < n; i++) {
+            dists[i] = dist(coords[2 * i], coords[2 * i + 1], cx, cy);
+        }
+
+        // sort the points by distance from the seed triangle circumcenter
+        quicksort(ids, dists, 0, n - 1);
+
+        // set up the seed triangle as the starting hull
+        hullStart = i0;
+        int hullSize = 3;
+
+        hullNext[i0] = hullPrev[i2] = i1;
+        hullNext[i1] = hullPrev[i0] = i2;
+        hullNext[i2] = hullPrev[i1] = i0;
+
+        hullTri[i0] = 0;
+        hullTri[i1] = 1;
+        hullTri[i2] = 2;
+
+        Arrays.fill(hullHash, -1);
+        hullHash[hashKey(i0x, i0y)] = i0;
+        hullHash[hashKey(i1x, i1y)] = i1;
+        hullHash[hashKey(i2x, i2y)] = i2;
+
+        trianglesLen = 0;
+        addTriangle(i0, i1, i2, -1, -1, -1);
+
+        double xp = 0;
+        double yp = 0;
+        for (int k = 0; k < n; k++) {
+            final int i = ids[k];
+            final double x = coords[2 * i];
+            final double y = coords[2 * i + 1];
+
+            // skip near-duplicate points
+            if (k > 0 && Math.abs(x - xp) <= EPSILON && Math.abs(y - yp) <= EPSILON) {
+                continue;
+            }
+            xp = x;
+            yp = y;
+
+            // skip seed triangle points
+            if (i == i0 || i == i1 || i == i2) {
+                continue;
+            }
+
+            // find a visible edge on the convex hull using edge hash
+            int start = 0;
+            for (int j = 0, key = hashKey(x, y); j < hashSize; j++) {
+                start = hullHash[(key + j) % hashSize];
+                if (start != -1 && start != hullNext[start]) {
+                    break;
+                }
+            }
+
+            start = hullPrev[start];
+            int e = start;
+            int q;
+            while (true) {
+                q = hullNext[e];
+                if (orient(x, y, coords[2 * e], coords[2 * e + 1], coords[2 * q], coords[2 * q + 1]) < 0) {
+                    break;
+                }
+                e = q;
+                if (e == start) {
+                    e = -1;
+                    break;
+                }
+            }
+            if (e == -1) {
+                continue; // likely a near-duplicate point; skip it
+            }
+
+            // add the first triangle from the point
+            int t = addTriangle(e, i, hullNext[e], -1, -1, hullTri[e]);
+
+            // recursively flip triangles from the point until they satisfy the Delaunay condition
+            hullTri[i] = legalize(t + 2);
+            hullTri[e] = t; // keep track of boundary triangles on the hull
+            hullSize++;
+
+            // walk forward through the hull, adding more triangles and flipping recursively
+            int next = hullNext[e];
+            while (true) {
+                q = hullNext[next];
+                if (orient(x, y, coords[2 * next], coords[2 * next + 1], coords[2 * q], coords[2 * q + 1]) >= 0) {
+                    break;
+                }
+                t = addTriangle(next, i, q, hullTri[i], -1, hullTri[next]);
+                hullTri[i] = legalize(t + 2);
+                hullNext[next] = next; // mark as removed
+                hullSize--;
+                next = q;
+            }
+
+            // walk backward from the other side, adding more triangles and flipping
+            if (e == start) {
+                while (true) {
+                    q = hullPrev[e];
+                    if (orient(x, y, coords[2 * q], coords[2 * q + 1], coords[2 * e], coords[2 * e + 1]) >= 0) {
+                        break;
+                    }
+                    t = addTriangle(q, i, e, -1, hullTri[e], hullTri[q]);
+                    legalize(t + 2);
+                    hullTri[q] = t;
+                    hullNext[e] = e; // mark as removed
+                    hullSize--;
+                    e = q;
+                }
+            }
+
+            // update the hull indices
+            hullStart = hullPrev[i] = e;
+            hullNext[e] = hullPrev[next] = i;
+            hullNext[i] = next;
+
+            // save the two new edges in the hash table
+            hullHash[hashKey(x, y)] = i;
+            hullHash[hashKey(coords[2 * e], coords[2 * e + 1])] = e;
+        }
+
+        final int[] result = new int[hullSize];
+        for (int i = 0, e = hullStart; i < hullSize; i++) {
+            result[i] = e;
+            e = hullNext[e];
+        }
+        return result;
+    }
+
+    // all points are collinear (or coincide): no triangles, the hull is the
+    // sorted list of distinct points
+    private int[] collinearHull(int n, int[] ids) {
+        final double[] dists = new double[n];
+        final double x0 = coords[0];
+        final double y0 = coords[1];
+        for (int i = 0; i < n; i++) {
+            dists[i] = coords[2 * i] - x0;
+            if (dists[i] == 0) {
+                dists[i] = coords[2 * i + 1] - y0;
+            }
+        }
+        quicksort(ids, dists, 0, n - 1);
+        final int[] result = new int[n];
+        int j = 0;
+        double d0 = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            final int id = ids[i];
+            if (dists[id] > d0) {
+                result[j++] = id;
+                d0 = dists[id];
+            }
+        }
+        trianglesLen = 0;
+        return Arrays.copyOf(result, j);
+    }
+
+    private int hashKey(double x, double y) {
+        return (int) (Math.floor(pseudoAngle(x - cx, y - cy) * hashSize) % hashSize);
+    }
+
+    private int legalize(int a) {
+        int i = 0;
+        int ar;
+
+        // recursion eliminated with a growable stack
+        while (true) {
+            final int b = _halfedges[a];
+
+            /* if the pair of triangles doesn't satisfy the Delaunay condition
+             * (p1 is inside the circumcircle of [p0, pl, pr]), flip them,
+             * then do the same check/flip recursively for the new pair of triangles
+             */
+            final int a0 = a - a % 3;
+            ar = a0 + (a + 2) % 3;
+
+            if (b == -1) { // convex hull edge
+                if (i == 0) {
+                    break;
+                }
+                a = edgeStack[--i];
+                continue;
+            }
+
+            final int b0 = b - b % 3;
+            final int al = a0 + (a + 1) % 3;
+            final int bl = b0 + (b + 2) % 3;
+
+            final int p0 = _triangles[ar];
+            final int pr = _triangles[a];
+            final int pl = _triangles[al];
+            final int p1 = _triangles[bl];
+
+            final boolean illegal = inCircle(
+                    coords[2 * p0], coords[2 * p0 + 1],
+                    coords[2 * pr], coords[2 * pr + 1],
+                    coords[2 * pl], coords[2 * pl + 1],
+                    coords[2 * p1], coords[2 * p1 + 1]);
+
+            if (illegal) {
+                _triangles[a] = p1;
+                _triangles[b] = p0;
+
+                final int hbl = _halfedges[bl];
+
+                // edge swapped on the other side of the hull (rare); fix the halfedge reference
+                if (hbl == -1) {
+                    int e = hullStart;
+                    do {
+                        if (hullTri[e] == bl) {
+                            hullTri[e] = a;
+                            break;
+                        }
+                        e = hullPrev[e];
+                    } while (e != hullStart);
+                }
+                link(a, hbl);
+                link(b, _halfedges[ar]);
+                link(ar, bl);
+
+                final int br = b0 + (b + 1) % 3;
+
+                if (i == edgeStack.length) {
+                    edgeStack = Arrays.copyOf(edgeStack, edgeStack.length * 2);
+                }
+                edgeStack[i++] = br;
+            } else {
+                if (i == 0) {
+                    break;
+                }
+                a = edgeStack[--i];
+            }
+        }
+
+        return ar;
+    }
+
+    private void link(int a, int b) {
+        _halfedges[a] = b;
+        if (b != -1) {
+            _halfedges[b] = a;
+        }
+    }
+
+    // add a new triangle given vertex indices and adjacent half-edge ids
+    private int addTriangle(int i0, int i1, int i2, int a, int b, int c) {
+        final int t = trianglesLen;
+        _triangles[t] = i0;
+        _triangles[t + 1] = i1;
+        _triangles[t + 2] = i2;
+        link(t, a);
+        link(t + 1, b);
+        link(t + 2, c);
+        trianglesLen += 3;
+        return t;
+    }
+
+    // monotonically increases with real angle, but doesn't need expensive trigonometry
+    private static double pseudoAngle(double dx, double dy) {
+        final double p = dx / (Math.abs(dx) + Math.abs(dy));
+        return (dy > 0 ? 3 - p : 1 + p) / 4; // [0..1]
+    }
+
+    private static double dist(double ax, double ay, double bx, double by) {
+        final double dx = ax - bx;
+        final double dy = ay - by;
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * Orientation of the triangle a, b, c: positive for one winding, negative
+     * for the other and 0 if the points are collinear.
+     */
+    static double orient(double ax, double ay, double bx, double by, double cx, double cy) {
+        return (ay - cy) * (bx - cx) - (ax - cx) * (by - cy);
+    }
+
+    private static boolean inCircle(double ax, double ay, double bx, double by, double cx, double cy, double px, double py) {
+        final double dx = ax - px;
+        final double dy = ay - py;
+        final double ex = bx - px;
+        final double ey = by - py;
+        final double fx = cx - px;
+        final double fy = cy - py;
+
+        final double ap = dx * dx + dy * dy;
+        final double bp = ex * ex + ey * ey;
+        final double cp = fx * fx + fy * fy;
+
+        return dx * (ey * cp - bp * fy)
+                - dy * (ex * cp - bp * fx)
+                + ap * (ex * fy - ey * fx) < 0;
+    }
+
+    private static double circumradius(double ax, double ay, double bx, double by, double cx, double cy) {
+        final double dx = bx - ax;
+        final double dy = by - ay;
+        final double ex = cx - ax;
+        final double ey = cy - ay;
+
+        final double bl = dx * dx + dy * dy;
+        final double cl = ex * ex + ey * ey;
+        final double d = 0.5 / (dx * ey - dy * ex);
+
+        final double x = (ey * bl - dy * cl) * d;
+        final double y = (dx * cl - ex * bl) * d;
+
+        final double r = x * x + y * y;
+        return Double.isNaN(r) ? Double.POSITIVE_INFINITY : r;
+    }
+
+    /**
+     * Writes the circumcenter of the triangle a, b, c to out[0], out[1].
+     */
+    public static void circumcenter(double ax, double ay, double bx, double by, double cx, double cy, double[] out) {
+        final double dx = bx - ax;
+        final double dy = by - ay;
+        final double ex = cx - ax;
+        final double ey = cy - ay;
+
+        final double bl = dx * dx + dy * dy;
+        final double cl = ex * ex + ey * ey;
+        final double d = 0.5 / (dx * ey - dy * ex);
+
+        out[0] = ax + (ey * bl - dy * cl) * d;
+        out[1] = ay + (dx * cl - ex * bl) * d;
+    }
+
+    private static void quicksort(int[] ids, double[] dists, int left, int right) {
+        if (right - left <= 20) {
+            for (int i = left + 1; i <= right; i++) {
+                final int temp = ids[i];
+                final double tempDist = dists[temp];
+                int j = i - 1;
+                while (j >= left && dists[ids[j]] > tempDist) {
+                    ids[j + 1] = ids[j--];
+                }
+                ids[j + 1] = temp;
+            }
+        } else {
+            final int median = (left + right) >> 1;
+            int i = left + 1;
+            int j = right;
+            swap(ids, median, i);
+            if (dists[ids[left]] > dists[ids[right]]) {
+                swap(ids, left, right);
+            }
+            if (dists[ids[i]] > dists[ids[right]]) {
+                swap(ids, i, right);
+            }
+            if (dists[ids[left]] > dists[ids[i]]) {
+                swap(ids, left, i);
+            }
+
+            final int temp = ids[i];
+            final double tempDist = dists[temp];
+            while (true) {
+                do {
+                    i++;
+                } while (dists[ids[i]] < tempDist);
+                do {
+                    j--;
+                } while (dists[ids[j]] > tempDist);
+                if (j < i) {
+                    break;
+                }
+                swap(ids, i, j);
+            }
+            ids[left + 1] = ids[j];
+            ids[j] = temp;
+
+            if (right - i + 1 >= j - left) {
+                quicksort(ids, dists, i, right);
+                quicksort(ids, dists, left, j - 1);
+            } else {
+                quicksort(ids, dists, left, j - 1);
+                quicksort(ids, dists, i, right);
+            }
+        }
+    }
+
+    private static void swap(int[] arr, int i, int j) {
+        final int tmp = arr[i];
+        arr[i] = arr[j];
+        arr[j] = tmp;
+    }
+}
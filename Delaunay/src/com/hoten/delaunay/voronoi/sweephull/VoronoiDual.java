@@ -0,0 +1,335 @@
+package com.hoten.delaunay.voronoi.sweephull;
+
+import com.hoten.delaunay.geom.Point;
+import com.hoten.delaunay.geom.Rectangle;
+import com.hoten.delaunay.voronoi.nodename.as3delaunay.DualEdges;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * VoronoiDual.java
+ * <p>
+ * Voronoi diagram derived from a {@link Delaunator} triangulation: every
+ * triangle contributes its circumcenter as a Voronoi vertex, every Delaunay
+ * edge a Voronoi edge between the circumcenters of its two triangles. Hull
+ * edges become rays pointing away from the hull. Everything is clipped to the
+ * plot bounds.
+ * <p>
+ * Delaunator skips points lying on top of one another, which would leave
+ * them without a cell. Such points are moved apart by a tiny step and the
+ * triangulation is repeated, so every site gets a cell; {@link #delaunay}
+ * holds the moved coordinates.
+ * <p>
+ * All queries only read the arrays built in the constructor, so they may be
+ * called from several threads.
+ */
+public final class VoronoiDual {
+
+    // step a skipped point is moved by, relative to the larger side of the bounds
+    private static final double SEPARATION = 1e-9;
+    private static final int MAX_SEPARATION_ROUNDS = 8;
+    private static final double GOLDEN_ANGLE = Math.PI * (3 - Math.sqrt(5));
+
+    final public Delaunator delaunay;
+    final public double[] circumcenters;
+    private final int[] inedges;
+    private final Rectangle bounds;
+
+    public VoronoiDual(double[] coords, Rectangle bounds) {
+        this.bounds = bounds;
+        final int n = coords.length >> 1;
+        Delaunator triangulation = new Delaunator(coords);
+        int[] in = inedges(triangulation, n);
+        for (int round = 1; round <= MAX_SEPARATION_ROUNDS; round++) {
+            final double[] moved = separateSkipped(triangulation, in, round);
+            if (moved == null) {
+                break;
+            }
+            triangulation = new Delaunator(moved);
+            in = inedges(triangulation, n);
+        }
+        delaunay = triangulation;
+        inedges = in;
+
+        final double[] points = delaunay.coords;
+        final int[] triangles = delaunay.triangles;
+
+        circumcenters = new double[triangles.length / 3 * 2];
+        final double[] c = new double[2];
+        for (int t = 0, k = 0; t < triangles.length; t += 3, k += 2) {
+            final int a = triangles[t];
+            final int b = triangles[t + 1];
+            final int d = triangles[t + 2];
+            Delaunator.circumcenter(points[2 * a], points[2 * a + 1], points[2 * b], points[2 * b + 1],
+                    points[2 * d], points[2 * d + 1], c);
+            circumcenters[k] = c[0];
+            circumcenters[k + 1] = c[1];
+        }
+    }
+
+    /**
+     * One incoming half-edge per point, -1 for points left out; the hull one
+     * for hull points, so a walk around the point starting there visits every
+     * triangle.
+     */
+    private static int[] inedges(Delaunator d, int n) {
+        final int[] triangles = d.triangles;
+        final int[] halfedges = d.halfedges;
+        final int[] inedges = new int[n];
+        Arrays.fill(inedges, -1);
+        for (int e = 0; e < halfedges.length; e++) {
+            final int p = triangles[Delaunator.nextHalfedge(e)];
+            if (halfedges[e] == -1 || inedges[p] == -1) {
+                inedges[p] = e;
+            }
+        }
+        return inedges;
+    }
+
+    /**
+     * Moves every point the triangulation left out by round steps, each in
+     * its own direction and mirrored back into the bounds.
+     *
+     * @return the moved coordinates, or null if no point was left out
+     */
+    private double[] separateSkipped(Delaunator d, int[] inedges, int round) {
+        final int n = inedges.length;
+        final boolean[] kept = new boolean[n];
+        if (d.triangles.length == 0) {
+            for (int p : d.hull) {
+                kept[p] = true;
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                kept[i] = inedges[i] != -1;
+            }
+        }
+        double[] moved = null;
+        final double step = round * SEPARATION * Math.max(Math.max(bounds.width, bounds.height), 1);
+        for (int i = 0; i < n; i++) {
+            if (kept[i]) {
+                continue;
+            }
+            if (moved == null) {
+                moved = d.coords.clone();
+            }
+            double dx = step * Math.cos(i * GOLDEN_ANGLE);
+            double dy = step * Math.sin(i * GOLDEN_ANGLE);
+            if (!bounds.inBounds(moved[2 * i] + dx, moved[2 * i + 1])) {
+                dx = -dx;
+            }
+            if (!bounds.inBounds(moved[2 * i], moved[2 * i + 1] + dy)) {
+                dy = -dy;
+            }
+            moved[2 * i] += dx;
+            moved[2 * i + 1] += dy;
+        }
+        return moved;
+    }
+
+    /**
+     * @return one entry per Delaunay edge, in half-edge order
+     */
+    public DualEdges edges() {
+        final double[] coords = delaunay.coords;
+        final int[] triangles = delaunay.triangles;
+        final int[] halfedges = delaunay.halfedges;
+        final int[] hull = delaunay.hull;
+
+        final int max = triangles.length == 0 ? Math.max(hull.length - 1, 0) : (triangles.length + hull.length) / 2;
+        final int[] sites = new int[2 * max];
+        final double[] ends = new double[4 * max];
+        int size = 0;
+
+        if (triangles.length == 0) {
+            // collinear sites: the edges are the bisectors of consecutive hull points
+            for (int k = 0; k + 1 < hull.length; k++, size++) {
+                final int a = hull[k];
+                final int b = hull[k + 1];
+                final double mx = (coords[2 * a] + coords[2 * b]) / 2;
+                final double my = (coords[2 * a + 1] + coords[2 * b + 1]) / 2;
+                final double dx = -(coords[2 * b + 1] - coords[2 * a + 1]);
+                final double dy = coords[2 * b] - coords[2 * a];
+                sites[2 * size] = a;
+                sites[2 * size + 1] = b;
+                clip(mx, my, dx, dy, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, ends, 4 * size);
+            }
+            return new DualEdges(size, sites, ends);
+        }
+
+        for (int e = 0; e < triangles.length; e++) {
+            final int opposite = halfedges[e];
+            if (opposite != -1 && opposite < e) {
+                continue;
+            }
+            final int p = triangles[e];
+            final int q = triangles[Delaunator.nextHalfedge(e)];
+            final double x0 = circumcenters[2 * (e / 3)];
+            final double y0 = circumcenters[2 * (e / 3) + 1];
+            sites[2 * size] = p;
+            sites[2 * size + 1] = q;
+            if (opposite != -1) {
+                final double x1 = circumcenters[2 * (opposite / 3)];
+                final double y1 = circumcenters[2 * (opposite / 3) + 1];
+                clip(x0, y0, x1 - x0, y1 - y0, 0, 1, ends, 4 * size);
+            } else {
+                // hull edge: a ray perpendicular to pq, away from the third point
+                final int r = triangles[Delaunator.prevHalfedge(e)];
+                double dx = -(coords[2 * q + 1] - coords[2 * p + 1]);
+                double dy = coords[2 * q] - coords[2 * p];
+                if (dx * (coords[2 * r] - coords[2 * p]) + dy * (coords[2 * r + 1] - coords[2 * p + 1]) > 0) {
+                    dx = -dx;
+                    dy = -dy;
+                }
+                clip(x0, y0, dx, dy, 0, Double.POSITIVE_INFINITY, ends, 4 * size);
+            }
+            size++;
+        }
+        return new DualEdges(size, sites, ends);
+    }
+
+    /**
+     * The Voronoi cell of site i clipped to the bounds, counterclockwise like
+     * the regions of the Fortune backend. Empty only for a site that could
+     * not be separated from the one it lies on.
+     */
+    public ArrayList<Point> region(int i) {
+        final double[] coords = delaunay.coords;
+        final int[] neighbors = neighbors(i);
+        if (neighbors == null) {
+            return new ArrayList<>();
+        }
+
+        double[] poly = {bounds.x, bounds.y, bounds.right, bounds.y, bounds.right, bounds.bottom, bounds.x, bounds.bottom};
+        int size = 4;
+        double[] next = new double[16];
+
+        final double px = coords[2 * i];
+        final double py = coords[2 * i + 1];
+        for (int j : neighbors) {
+            // keep the half plane closer to i than to j
+            final double dx = coords[2 * j] - px;
+            final double dy = coords[2 * j + 1] - py;
+            final double mx = px + dx / 2;
+            final double my = py + dy / 2;
+            if (next.length < 2 * (size + 1)) {
+                next = new double[4 * (size + 1)];
+            }
+            int m = 0;
+            for (int k = 0; k < size; k++) {
+                final int l = k + 1 == size ? 0 : k + 1;
+                final double ax = poly[2 * k], ay = poly[2 * k + 1];
+                final double bx = poly[2 * l], by = poly[2 * l + 1];
+                final double fa = (ax - mx) * dx + (ay - my) * dy;
+                final double fb = (bx - mx) * dx + (by - my) * dy;
+                if (fa <= 0) {
+                    next[m++] = ax;
+                    next[m++] = ay;
+                }
+                if ((fa < 0 && fb > 0) || (fa > 0 && fb < 0)) {
+                    final double t = fa / (fa - fb);
+                    next[m++] = ax + t * (bx - ax);
+                    next[m++] = ay + t * (by - ay);
+                }
+            }
+            final double[] tmp = poly;
+            poly = next;
+            next = tmp;
+            size = m / 2;
+            if (size == 0) {
+                break;
+            }
+        }
+
+        final ArrayList<Point> region = new ArrayList<>(size);
+        for (int k = 0; k < size; k++) {
+            region.add(new Point(poly[2 * k], poly[2 * k + 1]));
+        }
+        return region;
+    }
+
+    /**
+     * @return the Delaunay neighbors of site i, or null if it is not part of
+     * the triangulation
+     */
+    private int[] neighbors(int i) {
+        final int[] triangles = delaunay.triangles;
+        final int[] halfedges = delaunay.halfedges;
+        if (triangles.length == 0) {
+            final int[] hull = delaunay.hull;
+            for (int k = 0; k < hull.length; k++) {
+                if (hull[k] == i) {
+                    if (hull.length == 1) {
+                        return new int[0];
+                    }
+                    if (k == 0) {
+                        return new int[]{hull[1]};
+                    }
+                    if (k == hull.length - 1) {
+                        return new int[]{hull[k - 1]};
+                    }
+                    return new int[]{hull[k - 1], hull[k + 1]};
+                }
+            }
+            return null;
+        }
+
+        final int e0 = inedges[i];
+        if (e0 == -1) {
+            return null;
+        }
+        int[] result = new int[8];
+        int n = 0;
+        int e = e0;
+        do {
+            if (n + 2 > result.length) {
+                result = Arrays.copyOf(result, result.length * 2);
+            }
+            result[n++] = triangles[e];
+            final int out = Delaunator.nextHalfedge(e);
+            e = halfedges[out];
+            if (e == -1) {
+                result[n++] = triangles[Delaunator.nextHalfedge(out)];
+                break;
+            }
+        } while (e != e0);
+        return Arrays.copyOf(result, n);
+    }
+
+    /**
+     * Clips the segment (x, y) + t * (dx, dy), t0 <= t <= t1, to the bounds
+     * (Liang-Barsky) and writes its ends to out[o .. o + 3], or NaN if
+     * nothing is left.
+     */
+    private void clip(double x, double y, double dx, double dy, double t0, double t1, double[] out, int o) {
+        final double[] p = {-dx, dx, -dy, dy};
+        final double[] q = {x - bounds.x, bounds.right - x, y - bounds.y, bounds.bottom - y};
+        boolean visible = !Double.isNaN(x + y + dx + dy) && !Double.isInfinite(x + y);
+        for (int k = 0; k < 4 && visible; k++) {
+            if (p[k] == 0) {
+                visible = q[k] >= 0;
+            } else {
+                final double r = q[k] / p[k];
+                if (p[k] < 0) {
+                    t0 = Math.max(t0, r);
+                } else {
+                    t1 = Math.min(t1, r);
+                }
+                visible = t0 <= t1;
+            }
+        }
+        if (!visible) {
+            Arrays.fill(out, o, o + 4, Double.NaN);
+            return;
+        }
+        out[o] = clamp(x + t0 * dx, bounds.x, bounds.right);
+        out[o + 1] = clamp(y + t0 * dy, bounds.y, bounds.bottom);
+        out[o + 2] = clamp(x + t1 * dx, bounds.x, bounds.right);
+        out[o + 3] = clamp(y + t1 * dy, bounds.y, bounds.bottom);
+    }
+
+    private static double clamp(double v, double min, double max) {
+        return v < min ? min : v > max ? max : v;
+    }
+}
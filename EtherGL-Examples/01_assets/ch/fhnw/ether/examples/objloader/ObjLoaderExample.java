@@ -68,7 +68,7 @@ public class ObjLoaderExample {
 				final List<IMesh> meshes = new ArrayList<>();
 				new ObjReader(obj).getMeshes().forEach(mesh -> meshes.add(mesh));
 				System.out.println("number of meshes before merging: " + meshes.size());
-				final List<IMesh> merged = MeshUtilities.mergeMeshes(meshes);
+				final List<IMesh> merged = MeshUtilities.mergeMeshesIndexed(meshes, false);
 				System.out.println("number of meshes after merging: " + merged.size());
 				scene.add3DObjects(merged);
 			} catch (IOException e) {
@@ -171,6 +171,10 @@ public class DefaultController implements IController {
 		return renderManager;
 	}
 
+	public final IRenderer getRenderer() {
+		return renderer;
+	}
+
 	@Override
 	public void animate(IAnimationAction action) {
 		scheduler.animate(action);
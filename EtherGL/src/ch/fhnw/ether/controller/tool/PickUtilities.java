@@ -82,6 +82,8 @@ public final class PickUtilities {
 		IMesh mesh = (IMesh)object;
 		IGeometry geometry = mesh.getGeometry();
 		float[] data = mesh.getTransformedPositionData();
+		if (geometry.getIndices() != null)
+			data = GeometryUtilities.expand(data, 3, geometry.getIndices(), geometry.getData()[0].length / 3);
 		
 		d = Float.POSITIVE_INFINITY;
 		switch (geometry.getType()) {
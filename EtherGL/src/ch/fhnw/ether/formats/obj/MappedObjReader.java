@@ -0,0 +1,560 @@
+/*
+ * Copyright (c) 2013 - 2015 Stefan Muller Arisona, Simon Schubiger, Samuel von Stachelski
+ * Copyright (c) 2013 - 2015 FHNW & ETH Zurich
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *  Neither the name of FHNW / ETH Zurich nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package ch.fhnw.ether.formats.obj;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import ch.fhnw.ether.formats.AbstractModelReader;
+import ch.fhnw.ether.scene.mesh.DefaultMesh;
+import ch.fhnw.ether.scene.mesh.IMesh;
+import ch.fhnw.ether.scene.mesh.geometry.DefaultGeometry;
+import ch.fhnw.ether.scene.mesh.geometry.IGeometry;
+import ch.fhnw.ether.scene.mesh.geometry.IGeometry.Primitive;
+import ch.fhnw.ether.scene.mesh.material.IMaterial;
+import ch.fhnw.ether.scene.mesh.material.ShadedMaterial;
+import ch.fhnw.util.IntList;
+import ch.fhnw.util.color.RGB;
+import ch.fhnw.util.math.geometry.GeometryUtilities;
+
+/**
+ * OBJ reader for large files, producing the same meshes as {@link ObjReader}
+ * (one per group, with the group's material) without creating objects per
+ * vertex or face.
+ * 
+ * The file is memory mapped and cut into chunks at line breaks. The chunks are
+ * parsed in parallel, bytes are tokenized directly into the shared primitive
+ * position, normal and texture coordinate arrays; a first parallel pass counts
+ * the vertex lines of every chunk, so each chunk knows where its vertices go
+ * and relative indices can be resolved on the spot. Groups and materials are
+ * resolved in file order afterwards, then the triangles of all groups are
+ * written in parallel. Only polygons with more than three corners go through
+ * {@link GeometryUtilities#triangulate}.
+ * 
+ * Files are limited to 2 GB.
+ */
+public final class MappedObjReader extends AbstractModelReader {
+	private static final int CHUNK_SIZE = 1 << 20;
+	private static final double[] POW10 = new double[23];
+
+	static {
+		POW10[0] = 1;
+		for (int i = 1; i < POW10.length; ++i)
+			POW10[i] = 10 * POW10[i - 1];
+	}
+
+	// a directive that changes the current group or material, before face
+	private static final class Event {
+		final int face;
+		final String type;
+		final String name;
+
+		Event(int face, String type, String name) {
+			this.face = face;
+			this.type = type;
+			this.name = name;
+		}
+	}
+
+	private static final class Chunk {
+		final int start;
+		final int end;
+		int numVertices;
+		int numNormals;
+		int numTexCoords;
+		int firstVertex;
+		int firstNormal;
+		int firstTexCoord;
+		// per face: number of corners, then vertex, texture coordinate and normal index per corner, -1 if missing
+		final IntList faces = new IntList();
+		final List<Event> events = new ArrayList<>();
+
+		Chunk(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+	}
+
+	// faces [from, to) of a chunk, written to a group starting at corner offset
+	private static final class Segment {
+		final GroupData group;
+		final Chunk chunk;
+		final int from;
+		final int to;
+		final int offset;
+		final Map<Integer, IntList> polygons;
+
+		Segment(GroupData group, Chunk chunk, int from, int to, int offset, Map<Integer, IntList> polygons) {
+			this.group = group;
+			this.chunk = chunk;
+			this.from = from;
+			this.to = to;
+			this.offset = offset;
+			this.polygons = polygons;
+		}
+	}
+
+	private static final class GroupData {
+		final String name;
+		final List<Segment> segments = new ArrayList<>();
+		Material material;
+		int numCorners;
+		boolean hasNormals;
+		boolean hasTexCoords;
+		float[] positions;
+		float[] normals;
+		float[] texCoords;
+
+		GroupData(String name) {
+			this.name = name;
+		}
+	}
+
+	private final List<IMesh> meshes = new ArrayList<>();
+	private final ByteBuffer data;
+	private float[] positions;
+	private float[] normals;
+	private float[] texCoords;
+
+	public MappedObjReader(File file) throws IOException {
+		super(file.toURI().toURL());
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException("obj file too large: " + file);
+			data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		decode(getResource().getFile());
+	}
+
+	@Override
+	public List<IMesh> getMeshes() {
+		return Collections.unmodifiableList(meshes);
+	}
+
+	private void decode(String path) {
+		List<Chunk> chunks = split();
+
+		chunks.parallelStream().forEach(this::count);
+		int numVertices = 0;
+		int numNormals = 0;
+		int numTexCoords = 0;
+		for (Chunk chunk : chunks) {
+			chunk.firstVertex = numVertices;
+			chunk.firstNormal = numNormals;
+			chunk.firstTexCoord = numTexCoords;
+			numVertices += chunk.numVertices;
+			numNormals += chunk.numNormals;
+			numTexCoords += chunk.numTexCoords;
+		}
+		positions = new float[3 * numVertices];
+		normals = new float[3 * numNormals];
+		texCoords = new float[2 * numTexCoords];
+		final int totalTexCoords = numTexCoords;
+		chunks.parallelStream().forEach(chunk -> parse(chunk, totalTexCoords));
+
+		List<GroupData> groups = group(path, chunks);
+		groups.parallelStream().forEach(group -> {
+			group.positions = new float[3 * group.numCorners];
+			group.normals = group.hasNormals ? new float[3 * group.numCorners] : null;
+			group.texCoords = group.hasTexCoords ? new float[2 * group.numCorners] : null;
+		});
+		groups.stream().flatMap(group -> group.segments.stream()).parallel().forEach(this::emit);
+
+		Map<Material, IMaterial> materials = new IdentityHashMap<>();
+		for (GroupData group : groups) {
+			if (group.numCorners == 0)
+				continue;
+
+			// TODO: proper material handling
+			Material mat = group.material;
+			IMaterial material = materials.get(mat);
+			if (material == null) {
+				if (mat != null) {
+					material = new ShadedMaterial(RGB.BLACK, mat.getKa(), mat.getKd(), mat.getKs(), mat.getShininess(), 1, 1, mat.getTexture());
+					material.setName(mat.getName());
+				} else {
+					material = new ShadedMaterial(RGB.WHITE);
+				}
+				materials.put(mat, material);
+			}
+
+			float[] tn = group.hasNormals ? group.normals : GeometryUtilities.calculateNormals(group.positions);
+			IGeometry geometry;
+			if (group.hasTexCoords)
+				geometry = DefaultGeometry.createVNM(Primitive.TRIANGLES, group.positions, tn, group.texCoords);
+			else
+				geometry = DefaultGeometry.createVN(Primitive.TRIANGLES, group.positions, tn);
+
+			DefaultMesh mesh = new DefaultMesh(material, geometry);
+			mesh.setName(path + '/' + group.name);
+			meshes.add(mesh);
+		}
+	}
+
+	private List<Chunk> split() {
+		List<Chunk> chunks = new ArrayList<>();
+		int start = 0;
+		final int size = data.limit();
+		while (start < size) {
+			int end = Math.min(size, start + CHUNK_SIZE);
+			while (end < size && data.get(end - 1) != '\n')
+				end++;
+			chunks.add(new Chunk(start, end));
+			start = end;
+		}
+		return chunks;
+	}
+
+	private void count(Chunk chunk) {
+		for (int i = chunk.start; i < chunk.end; i = nextLine(i, chunk.end)) {
+			i = skipBlanks(i, chunk.end);
+			if (i + 1 < chunk.end && data.get(i) == 'v') {
+				byte b = data.get(i + 1);
+				if (isBlank(b))
+					chunk.numVertices++;
+				else if (b == 'n' && i + 2 < chunk.end && isBlank(data.get(i + 2)))
+					chunk.numNormals++;
+				else if (b == 't' && i + 2 < chunk.end && isBlank(data.get(i + 2)))
+					chunk.numTexCoords++;
+			}
+		}
+	}
+
+	private void parse(Chunk chunk, int totalTexCoords) {
+		final int end = chunk.end;
+		final float[] values = new float[3];
+		int vertex = chunk.firstVertex;
+		int normal = chunk.firstNormal;
+		int texCoord = chunk.firstTexCoord;
+		final int[] position = new int[1];
+		for (int i = chunk.start; i < end; i = nextLine(i, end)) {
+			i = skipBlanks(i, end);
+			if (i >= end)
+				break;
+			int word = wordEnd(i, end);
+			byte b = data.get(i);
+			if (b == 'v' && word == i + 1) {
+				readFloats(word, end, values, 3, true);
+				System.arraycopy(values, 0, positions, 3 * vertex++, 3);
+			} else if (b == 'v' && word == i + 2 && data.get(i + 1) == 'n') {
+				readFloats(word, end, values, 3, true);
+				System.arraycopy(values, 0, normals, 3 * normal++, 3);
+			} else if (b == 'v' && word == i + 2 && data.get(i + 1) == 't') {
+				// OBJ origin is at upper left, OpenGL origin is at lower left, like ObjTexCoordParser
+				if (readFloats(word, end, values, 2, false) == 2)
+					values[1] = 1 - values[1];
+				System.arraycopy(values, 0, texCoords, 2 * texCoord++, 2);
+			} else if (b == 'f' && word == i + 1) {
+				final IntList faces = chunk.faces;
+				final int countAt = faces.size();
+				faces.add(0);
+				int corners = 0;
+				position[0] = word;
+				while (true) {
+					int p = skipBlanks(position[0], end);
+					if (p >= end || isLineEnd(data.get(p)))
+						break;
+					position[0] = p;
+					int v = readIndex(position, end, vertex);
+					int t = -1;
+					int n = -1;
+					if (position[0] < end && data.get(position[0]) == '/') {
+						position[0]++;
+						if (position[0] < end && data.get(position[0]) != '/' && !isBlank(data.get(position[0])) && !isLineEnd(data.get(position[0]))) {
+							t = readIndex(position, end, texCoord);
+							// some exporters write 1 for a missing texture coordinate, see ObjFaceParser
+							if (t >= totalTexCoords)
+								t = -1;
+						}
+						if (position[0] < end && data.get(position[0]) == '/') {
+							position[0]++;
+							n = readIndex(position, end, normal);
+						}
+					}
+					faces.add(v);
+					faces.add(t);
+					faces.add(n);
+					corners++;
+					position[0] = wordEnd(position[0], end);
+				}
+				if (corners < 3)
+					faces._setSize(countAt);
+				else
+					faces.set(countAt, corners);
+			} else if (b != '#') {
+				String type = text(i, word);
+				if (type.equals("g") || type.equals("o") || type.equals("usemtl") || type.equals("mtllib")) {
+					int nameStart = skipBlanks(word, end);
+					String name = nameStart < end && !isLineEnd(data.get(nameStart)) ? text(nameStart, wordEnd(nameStart, end)) : null;
+					chunk.events.add(new Event(chunk.faces.size(), type, name));
+				}
+			}
+		}
+	}
+
+	// resolves groups and materials in file order and counts the triangle corners of every group
+	private List<GroupData> group(String path, List<Chunk> chunks) {
+		final WavefrontObject materials = new WavefrontObject(path);
+		final List<GroupData> groups = new ArrayList<>();
+		GroupData current = null;
+		for (Chunk chunk : chunks) {
+			int from = 0;
+			for (Event event : chunk.events) {
+				current = addFaces(groups, current, chunk, from, event.face);
+				from = event.face;
+				switch (event.type) {
+				case "g":
+				case "o":
+					current = new GroupData(event.name == null ? "default" : event.name);
+					groups.add(current);
+					break;
+				case "usemtl":
+					if (current == null) {
+						current = new GroupData("default");
+						groups.add(current);
+					}
+					current.material = materials.getMaterials().get(event.name);
+					break;
+				case "mtllib":
+					if (event.name != null) {
+						MtlFileParser parser = new MtlFileParser(new MtlLineParserFactory(materials));
+						parser.setWords(new String[] { event.type, event.name });
+						parser.parse(materials);
+					}
+					break;
+				}
+			}
+			current = addFaces(groups, current, chunk, from, chunk.faces.size());
+		}
+		return groups;
+	}
+
+	private GroupData addFaces(List<GroupData> groups, GroupData group, Chunk chunk, int from, int to) {
+		if (from == to)
+			return group;
+		if (group == null) {
+			group = new GroupData("default");
+			groups.add(group);
+		}
+		final int[] faces = chunk.faces._getArray();
+		if (group.numCorners == 0 && group.segments.isEmpty()) {
+			group.hasTexCoords = hasAny(faces, from, 1);
+			group.hasNormals = hasAny(faces, from, 2);
+		}
+		Map<Integer, IntList> polygons = null;
+		int corners = 0;
+		for (int f = from; f < to; f += 1 + 3 * faces[f]) {
+			int n = faces[f];
+			if (n == 3) {
+				corners += 3;
+			} else {
+				float[] polygon = new float[3 * n];
+				for (int i = 0; i < n; ++i)
+					System.arraycopy(positions, 3 * faces[f + 1 + 3 * i], polygon, 3 * i, 3);
+				IntList triangulation = GeometryUtilities.triangulate(polygon);
+				if (polygons == null)
+					polygons = new HashMap<>();
+				polygons.put(f, triangulation);
+				corners += triangulation.size();
+			}
+		}
+		group.segments.add(new Segment(group, chunk, from, to, group.numCorners, polygons));
+		group.numCorners += corners;
+		return group;
+	}
+
+	private void emit(Segment segment) {
+		final GroupData group = segment.group;
+		final int[] faces = segment.chunk.faces._getArray();
+		int k = segment.offset;
+		for (int f = segment.from; f < segment.to; f += 1 + 3 * faces[f]) {
+			IntList polygon = segment.polygons == null ? null : segment.polygons.get(f);
+			int n = polygon == null ? 3 : polygon.size();
+			for (int i = 0; i < n; ++i, ++k) {
+				int c = f + 1 + 3 * (polygon == null ? i : polygon.get(i));
+				System.arraycopy(positions, 3 * faces[c], group.positions, 3 * k, 3);
+				if (group.hasTexCoords && faces[c + 1] >= 0)
+					System.arraycopy(texCoords, 2 * faces[c + 1], group.texCoords, 2 * k, 2);
+				if (group.hasNormals) {
+					if (faces[c + 2] >= 0)
+						System.arraycopy(normals, 3 * faces[c + 2], group.normals, 3 * k, 3);
+					else
+						group.normals[3 * k + 2] = 1;
+				}
+			}
+		}
+	}
+
+	// whether the first face at f has the attribute (1 texture coordinate, 2 normal) at any corner
+	private static boolean hasAny(int[] faces, int f, int attribute) {
+		for (int i = 0; i < faces[f]; ++i) {
+			if (faces[f + 1 + 3 * i + attribute] >= 0)
+				return true;
+		}
+		return false;
+	}
+
+	// reads a 1-based or negative (relative to count) index starting at position[0], returns it 0-based
+	private int readIndex(int[] position, int end, int count) {
+		int i = position[0];
+		boolean negative = false;
+		if (i < end && data.get(i) == '-') {
+			negative = true;
+			i++;
+		}
+		int value = 0;
+		for (byte b; i < end && (b = data.get(i)) >= '0' && b <= '9'; i++)
+			value = 10 * value + (b - '0');
+		position[0] = i;
+		return negative ? count - value : value - 1;
+	}
+
+	// reads up to count numbers into values, missing ones are 0 unless required; returns how many were read
+	private int readFloats(int i, int end, float[] values, int count, boolean required) {
+		Arrays.fill(values, 0);
+		for (int j = 0; j < count; ++j) {
+			i = skipBlanks(i, end);
+			if (i >= end || isLineEnd(data.get(i))) {
+				if (required)
+					throw new IllegalArgumentException("missing coordinate at byte " + i);
+				return j;
+			}
+			int word = wordEnd(i, end);
+			values[j] = parseFloat(i, word);
+			i = word;
+		}
+		return count;
+	}
+
+	// plain decimal numbers are parsed in place, anything else (nan, inf, hex) by Float.parseFloat
+	private float parseFloat(final int start, int end) {
+		int i = start;
+		boolean negative = false;
+		byte b = data.get(i);
+		if (b == '-' || b == '+') {
+			negative = b == '-';
+			i++;
+		}
+		long mantissa = 0;
+		int exponent = 0;
+		int digits = 0;
+		boolean any = false;
+		for (; i < end && (b = data.get(i)) >= '0' && b <= '9'; i++, any = true) {
+			if (digits < 18) {
+				mantissa = 10 * mantissa + (b - '0');
+				if (mantissa != 0)
+					digits++;
+			} else {
+				exponent++;
+			}
+		}
+		if (i < end && data.get(i) == '.') {
+			for (i++; i < end && (b = data.get(i)) >= '0' && b <= '9'; i++, any = true) {
+				if (digits < 18) {
+					mantissa = 10 * mantissa + (b - '0');
+					exponent--;
+					if (mantissa != 0)
+						digits++;
+				}
+			}
+		}
+		if (any && i < end && ((b = data.get(i)) == 'e' || b == 'E')) {
+			i++;
+			boolean negativeExponent = false;
+			if (i < end && ((b = data.get(i)) == '-' || b == '+')) {
+				negativeExponent = b == '-';
+				i++;
+			}
+			int e = 0;
+			for (; i < end && (b = data.get(i)) >= '0' && b <= '9'; i++)
+				e = Math.min(10 * e + (b - '0'), 1000);
+			exponent += negativeExponent ? -e : e;
+		}
+		if (!any || i != end)
+			return Float.parseFloat(text(start, end));
+		double value = mantissa;
+		if (exponent < 0)
+			value /= pow10(-exponent);
+		else if (exponent > 0)
+			value *= pow10(exponent);
+		return (float) (negative ? -value : value);
+	}
+
+	// exact up to 1e22
+	private static double pow10(int exponent) {
+		return exponent < POW10.length ? POW10[exponent] : Math.pow(10, exponent);
+	}
+
+	private String text(int start, int end) {
+		byte[] bytes = new byte[end - start];
+		for (int i = 0; i < bytes.length; ++i)
+			bytes[i] = data.get(start + i);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private int nextLine(int i, int end) {
+		while (i < end && data.get(i) != '\n')
+			i++;
+		return i + 1;
+	}
+
+	private int skipBlanks(int i, int end) {
+		while (i < end && isBlank(data.get(i)))
+			i++;
+		return i;
+	}
+
+	private int wordEnd(int i, int end) {
+		byte b;
+		while (i < end && !isBlank(b = data.get(i)) && !isLineEnd(b))
+			i++;
+		return i;
+	}
+
+	private static boolean isBlank(byte b) {
+		return b == ' ' || b == '\t';
+	}
+
+	private static boolean isLineEnd(byte b) {
+		return b == '\n' || b == '\r';
+	}
+}
@@ -2,47 +2,235 @@ package ch.fhnw.ether.formats.obj;
 
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.PrintWriter;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
 
 import ch.fhnw.ether.scene.mesh.IMesh;
+import ch.fhnw.ether.scene.mesh.geometry.IGeometry;
+import ch.fhnw.ether.scene.mesh.geometry.IGeometry.IGeometryAttribute;
 import ch.fhnw.ether.scene.mesh.geometry.IGeometry.Primitive;
-import ch.fhnw.util.math.Vec3;
 
+/**
+ * Streams triangle meshes into an OBJ file. Every mesh is written as soon as
+ * it is added: one group with its distinct positions (and normals, if the mesh
+ * has any) followed by indexed faces. Only the current mesh is held in memory,
+ * text goes through one reused buffer straight to the file channel.
+ *
+ * Coordinates are written in fixed point with up to six decimals. Equal
+ * vertices are merged within a mesh, not across meshes.
+ */
 public final class ObjWriter {
-	private final List<IMesh> meshes = new ArrayList<>();
-	private final PrintWriter out;
-	private final WavefrontObject obj;
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final int MAX_LINE = 256;
+	private static final int DECIMALS = 1000000;
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private int numPositions;
+	private int numNormals;
 
 	public ObjWriter(File file) throws FileNotFoundException {
-		this.out = new PrintWriter(file);
-		this.obj = new WavefrontObject(file.getAbsolutePath());
+		this.channel = new FileOutputStream(file).getChannel();
 	}
 
 	public void addMesh(IMesh mesh) {
 		if (mesh.getGeometry().getType() != Primitive.TRIANGLES)
 			return;
-		
-		meshes.add(mesh);
-		Group g = new Group(mesh.getName());
-		obj.setCurrentGroup(g);
-		final List<Vec3> vs = obj.getVertices();
-		float[] data = mesh.getTransformedPositionData();
-		for (int i = 0; i < data.length; i += 9) {
-			int[] vi = new int[3];
-			vs.add(new Vec3(data[i + 0], data[i + 1], data[i + 2]));
-			vi[0] = vs.size();
-			vs.add(new Vec3(data[i + 3], data[i + 4], data[i + 5]));
-			vi[1] = vs.size();
-			vs.add(new Vec3(data[i + 6], data[i + 7], data[i + 8]));
-			vi[2] = vs.size();
-			g.addFace(new Face(vi, null, null));			
+
+		float[][] data = mesh.getTransformedGeometryData();
+		float[] positions = data[0];
+		float[] normals = null;
+		IGeometryAttribute[] attributes = mesh.getGeometry().getAttributes();
+		for (int i = 1; i < attributes.length; ++i) {
+			if (attributes[i].equals(IGeometry.NORMAL_ARRAY))
+				normals = data[i];
+		}
+
+		try {
+			line();
+			putAscii("g ").putAscii(String.valueOf(mesh.getName())).put('\n');
+			int[] v = index(positions, false);
+			int[] n = normals == null ? null : index(normals, true);
+			int[] indices = mesh.getGeometry().getIndices();
+			int count = indices == null ? v.length : indices.length;
+			for (int i = 0; i < count; i += 3) {
+				line();
+				put('f');
+				for (int j = i; j < i + 3; ++j) {
+					int k = indices == null ? j : indices[j];
+					put(' ').putInt(v[k]);
+					if (n != null)
+						putAscii("//").putInt(n[k]);
+				}
+				put('\n');
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
 		}
 	}
 
+	/**
+	 * Flushes the remaining output and closes the file.
+	 */
 	public void write() {
-		obj.write(out);
-		out.close();
+		try {
+			flush();
+			channel.close();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	// writes the distinct triples as v or vn lines, returns the 1-based file index of every triple
+	private int[] index(float[] values, boolean normals) throws IOException {
+		final String prefix = normals ? "vn " : "v ";
+		final int count = values.length / 3;
+		final int[] index = new int[count];
+		final TripleTable table = new TripleTable(count / 4);
+		int next = normals ? numNormals : numPositions;
+		for (int i = 0; i < count; ++i) {
+			int existing = table.putIfAbsent(values, 3 * i, next + 1);
+			if (existing < 0) {
+				index[i] = ++next;
+				line();
+				putAscii(prefix).putFloat(values[3 * i]).put(' ').putFloat(values[3 * i + 1]).put(' ').putFloat(values[3 * i + 2]).put('\n');
+			} else {
+				index[i] = existing;
+			}
+		}
+		if (normals)
+			numNormals = next;
+		else
+			numPositions = next;
+		return index;
+	}
+
+	private void line() throws IOException {
+		if (buffer.remaining() < MAX_LINE)
+			flush();
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	private ObjWriter put(char c) {
+		buffer.put((byte) c);
+		return this;
+	}
+
+	private ObjWriter putAscii(String s) throws IOException {
+		for (int i = 0; i < s.length(); ++i) {
+			if (buffer.remaining() == 0)
+				flush();
+			buffer.put((byte) s.charAt(i));
+		}
+		return this;
+	}
+
+	private ObjWriter putInt(long value) {
+		if (value < 0) {
+			put('-');
+			value = -value;
+		}
+		long divisor = 1;
+		while (divisor <= value / 10)
+			divisor *= 10;
+		for (; divisor > 0; divisor /= 10)
+			put((char) ('0' + value / divisor % 10));
+		return this;
+	}
+
+	private ObjWriter putFloat(float value) throws IOException {
+		if (Float.isNaN(value) || Float.isInfinite(value) || Math.abs(value) >= 1e12f)
+			return putAscii(Float.toString(value));
+		long scaled = Math.round(Math.abs((double) value) * DECIMALS);
+		if (value < 0 && scaled != 0)
+			put('-');
+		putInt(scaled / DECIMALS);
+		int fraction = (int) (scaled % DECIMALS);
+		if (fraction != 0) {
+			put('.');
+			for (int divisor = DECIMALS / 10; fraction != 0; divisor /= 10) {
+				put((char) ('0' + fraction / divisor));
+				fraction %= divisor;
+			}
+		}
+		return this;
+	}
+
+	// open addressing map from the bits of a float triple to a non-negative int
+	private static final class TripleTable {
+		private int[] keys;
+		private int[] values;
+		private int size;
+
+		TripleTable(int expected) {
+			allocate(Integer.highestOneBit(Math.max(4, expected * 2 - 1)) << 1);
+		}
+
+		// returns the value stored for the triple at data[offset], or -1 after storing value
+		int putIfAbsent(float[] data, int offset, int value) {
+			// + 0f turns -0 into 0, so both get the same entry
+			int x = Float.floatToIntBits(data[offset] + 0f);
+			int y = Float.floatToIntBits(data[offset + 1] + 0f);
+			int z = Float.floatToIntBits(data[offset + 2] + 0f);
+			int mask = values.length - 1;
+			int slot = slot(x, y, z);
+			for (; values[slot] >= 0; slot = (slot + 1) & mask) {
+				if (keys[3 * slot] == x && keys[3 * slot + 1] == y && keys[3 * slot + 2] == z)
+					return values[slot];
+			}
+			store(slot, x, y, z, value);
+			if (++size * 2 > values.length)
+				grow();
+			return -1;
+		}
+
+		private void grow() {
+			int[] oldKeys = keys;
+			int[] oldValues = values;
+			allocate(2 * oldValues.length);
+			int mask = values.length - 1;
+			for (int i = 0; i < oldValues.length; ++i) {
+				if (oldValues[i] < 0)
+					continue;
+				int slot = slot(oldKeys[3 * i], oldKeys[3 * i + 1], oldKeys[3 * i + 2]);
+				while (values[slot] >= 0)
+					slot = (slot + 1) & mask;
+				store(slot, oldKeys[3 * i], oldKeys[3 * i + 1], oldKeys[3 * i + 2], oldValues[i]);
+			}
+		}
+
+		private void allocate(int capacity) {
+			keys = new int[3 * capacity];
+			values = new int[capacity];
+			Arrays.fill(values, -1);
+		}
+
+		private void store(int slot, int x, int y, int z, int value) {
+			keys[3 * slot] = x;
+			keys[3 * slot + 1] = y;
+			keys[3 * slot + 2] = z;
+			values[slot] = value;
+		}
+
+		private int slot(int x, int y, int z) {
+			return mix(x * 31 * 31 + y * 31 + z) & (values.length - 1);
+		}
+
+		private static int mix(int h) {
+			h ^= h >>> 16;
+			h *= 0x85ebca6b;
+			h ^= h >>> 13;
+			return h;
+		}
 	}
-}
\ No newline at end of file
+}
@@ -52,18 +52,29 @@ public abstract class AbstractRenderer implements IRenderer {
 	}
 
 	protected final RenderGlobals globals = new RenderGlobals();
+	protected final FrustumCuller culler = new FrustumCuller();
+	protected final StateSorter sorter = new StateSorter();
 
 	private ShadowVolumes shadowVolumes;
 
 	public AbstractRenderer() {
 	}
 
+	public FrustumCuller getCuller() {
+		return culler;
+	}
+
+	public StateSorter getSorter() {
+		return sorter;
+	}
+
+	/**
+	 * Renders the renderables of the pass that the culler let through, sorted
+	 * by state; call {@link FrustumCuller#cull} and {@link StateSorter#begin}
+	 * for the view first.
+	 */
 	protected void renderObjects(GL3 gl, IRenderTargetState state, Queue pass) {
-		for (Renderable renderable : state.getRenderables()) {
-			if (renderable.getQueue() == pass) {
-				renderable.render(gl);
-			}
-		}
+		sorter.render(gl, state.getViewCameraState(), pass, culler.getVisible(pass));
 	}
 
 	protected void renderShadowVolumes(GL3 gl, IRenderTargetState state, Queue pass) {
@@ -34,7 +34,9 @@ import java.util.Collections;
 import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import com.jogamp.opengl.GL3;
 
@@ -51,12 +53,21 @@ import ch.fhnw.ether.scene.mesh.IMesh;
 import ch.fhnw.ether.scene.mesh.geometry.IGeometry;
 import ch.fhnw.ether.scene.mesh.material.IMaterial;
 import ch.fhnw.ether.view.IView;
+import ch.fhnw.util.UpdateRequest.IUpdateListener;
+import ch.fhnw.util.UpdateRequest.IUpdateTracker;
 import ch.fhnw.util.math.Mat4;
 
 /**
  * Default render manager. This would also be the place to do various
  * optimizations such as geometry / material merging etc. Currently
  * straightforward, as provided by scene.
+ * <p>
+ * The render state is kept up to date incrementally: the manager listens to
+ * the update requests of the meshes in the scene and of their materials and
+ * geometries, and only looks at the meshes that were added or asked for an
+ * update since the last render state. The list of renderables is copied
+ * when meshes come or go, never modified, so render states handed out before
+ * stay valid.
  *
  * @author radar
  */
@@ -72,12 +83,20 @@ public class DefaultRenderManager implements IRenderManager {
 
 	private static final class SceneMeshState {
 		Renderable renderable;
+		IUpdateListener listener;
+	}
+
+	// the meshes in the scene sharing a material or geometry
+	private static final class SceneUsers {
+		final List<IMesh> meshes = new ArrayList<>(1);
+		IUpdateListener listener;
 	}
 	
 	private static final class RenderUpdate implements IRenderUpdate {
 		public final Renderable renderable;
 		public final Object[] materialData;
 		public final float[][] geometryData;
+		public final int[] geometryIndices;
 
 		public RenderUpdate(Renderable renderable, IMesh mesh, boolean materialChanged, boolean geometryChanged) {
 			this.renderable = renderable;
@@ -86,15 +105,18 @@ public class DefaultRenderManager implements IRenderManager {
 			else
 				materialData = null;
 
-			if (geometryChanged)
+			if (geometryChanged) {
 				geometryData = mesh.getTransformedGeometryData();
-			else
+				geometryIndices = mesh.getGeometry().getIndices();
+			} else {
 				geometryData = null;
+				geometryIndices = null;
+			}
 		}
 		
 		@Override
 		public void update(GL3 gl) {
-			renderable.update(gl, materialData, geometryData);
+			renderable.update(gl, materialData, geometryData, geometryIndices);
 		}
 	}
 
@@ -103,13 +125,19 @@ public class DefaultRenderManager implements IRenderManager {
 	private final class SceneState {
 		final Map<IView, SceneViewState> views = new IdentityHashMap<>();
 		final List<ILight> lights = new ArrayList<>(Collections.singletonList(ILight.DEFAULT_LIGHT));
-		final Set<IMaterial> materials = Collections.newSetFromMap(new IdentityHashMap<>());
-		final Set<IGeometry> geometries = Collections.newSetFromMap(new IdentityHashMap<>());
+		final Map<IMaterial, SceneUsers> materials = new IdentityHashMap<>();
+		final Map<IGeometry, SceneUsers> geometries = new IdentityHashMap<>();
 		final Map<IMesh, SceneMeshState> meshes = new IdentityHashMap<>();
-		
-		List<Renderable> renderables = new ArrayList<>();
 
-		boolean rebuildMeshes = false;
+		// meshes, materials and geometries that requested an update, from any thread
+		final Queue<IUpdateTracker> dirty = new ConcurrentLinkedQueue<>();
+		final List<Renderable> added = new ArrayList<>();
+		final Set<Renderable> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+
+		List<Renderable> renderables = Collections.emptyList();
+
+		volatile int meshesScanned;
+		volatile int meshesUpdated;
 
 		SceneState() {
 		}
@@ -162,15 +190,49 @@ public class DefaultRenderManager implements IRenderManager {
 		}
 
 		void addMesh(IMesh mesh) {
-			if (meshes.putIfAbsent(mesh, new SceneMeshState()) != null)
+			SceneMeshState state = new SceneMeshState();
+			if (meshes.putIfAbsent(mesh, state) != null)
 				throw new IllegalArgumentException("mesh already in renderer: " + mesh);
-			rebuildMeshes = true;
+			state.listener = listen(mesh);
+			addUser(materials, mesh.getMaterial(), mesh);
+			addUser(geometries, mesh.getGeometry(), mesh);
+			dirty.add(mesh);
 		}
 
 		void removeMesh(IMesh mesh) {
-			if (meshes.remove(mesh) == null)
+			SceneMeshState state = meshes.remove(mesh);
+			if (state == null)
 				throw new IllegalArgumentException("mesh not in renderer: " + mesh);
-			rebuildMeshes = true;
+			mesh.getUpdater().removeListener(state.listener);
+			removeUser(materials, mesh.getMaterial(), mesh);
+			removeUser(geometries, mesh.getGeometry(), mesh);
+			if (state.renderable != null)
+				removed.add(state.renderable);
+		}
+
+		private IUpdateListener listen(IUpdateTracker tracker) {
+			IUpdateListener listener = request -> dirty.add(tracker);
+			tracker.getUpdater().addListener(listener);
+			return listener;
+		}
+
+		private <T extends IUpdateTracker> void addUser(Map<T, SceneUsers> users, T tracker, IMesh mesh) {
+			SceneUsers u = users.get(tracker);
+			if (u == null) {
+				u = new SceneUsers();
+				u.listener = listen(tracker);
+				users.put(tracker, u);
+			}
+			u.meshes.add(mesh);
+		}
+
+		private <T extends IUpdateTracker> void removeUser(Map<T, SceneUsers> users, T tracker, IMesh mesh) {
+			SceneUsers u = users.get(tracker);
+			u.meshes.remove(mesh);
+			if (u.meshes.isEmpty()) {
+				tracker.getUpdater().removeListener(u.listener);
+				users.remove(tracker);
+			}
 		}
 
 		/**
@@ -180,53 +242,74 @@ public class DefaultRenderManager implements IRenderManager {
 		 * returned render state is always realized, otherwise the states will
 		 * get out of sync resulting in undefined overall state.
 		 * 
+		 * Only the meshes added since the last call and those whose mesh,
+		 * material or geometry requested an update are looked at.
+		 * 
 		 * @param renderer
 		 * @return
 		 */
-		// TODO: there's a lot of room for optimization here: don't rebuild
-		// lists that haven't changed etc.... for now we just don't care...
 		IRenderState create(IRenderer renderer) {
 
 			// 1. add meshes and mesh updates to render state
-			final List<IRenderUpdate> updates = new ArrayList<>();
-			if (rebuildMeshes) {
-				renderables = new ArrayList<>();
-				materials.clear();
-				geometries.clear();
-				meshes.forEach((mesh, state) -> {
-					materials.add(mesh.getMaterial());
-					geometries.add(mesh.getGeometry());
-				});
+			final Set<IMesh> touched = Collections.newSetFromMap(new IdentityHashMap<>());
+			final List<IMesh> scan = new ArrayList<>();
+			for (IUpdateTracker tracker; (tracker = dirty.poll()) != null;) {
+				if (tracker instanceof IMesh) {
+					IMesh mesh = (IMesh) tracker;
+					if (meshes.containsKey(mesh) && touched.add(mesh))
+						scan.add(mesh);
+				} else {
+					SceneUsers users = materials.get(tracker);
+					if (users == null)
+						users = geometries.get(tracker);
+					if (users != null) {
+						for (IMesh mesh : users.meshes) {
+							if (touched.add(mesh))
+								scan.add(mesh);
+						}
+					}
+				}
 			}
-			meshes.forEach((mesh, state) -> {
-				IMaterial material = mesh.getMaterial();
-				IGeometry geometry = mesh.getGeometry();
 
-				boolean materialChanged;
-				boolean geometryChanged;
+			final List<IRenderUpdate> updates = new ArrayList<>();
+			final Set<IMaterial> changedMaterials = Collections.newSetFromMap(new IdentityHashMap<>());
+			final Set<IGeometry> changedGeometries = Collections.newSetFromMap(new IdentityHashMap<>());
+			for (IMesh mesh : scan) {
+				SceneMeshState state = meshes.get(mesh);
+				// a material or geometry shared by several meshes is cleared by the first one
+				boolean materialChanged = changed(mesh.getMaterial(), changedMaterials);
+				boolean geometryChanged = changed(mesh.getGeometry(), changedGeometries) | mesh.getUpdater().testAndClear();
 				if (state.renderable == null) {
 					// TODO: optionally we could do the first update() on
 					// drawable already here, using a shared context.
 					state.renderable = renderer.createRenderable(mesh);
+					added.add(state.renderable);
 					materialChanged = true;
 					geometryChanged = true;
-				} else {
-					materialChanged = material.getUpdater().test();
-					geometryChanged = geometry.getUpdater().test() || mesh.getUpdater().testAndClear();
 				}
 
 				if (materialChanged || geometryChanged) {
 					updates.add(new RenderUpdate(state.renderable, mesh, materialChanged, geometryChanged));
 				}
-				if (rebuildMeshes)
-					renderables.add(state.renderable);
-			});
-			// second loop required to clear view flags
-			materials.forEach(material -> material.getUpdater().clear());
-			geometries.forEach(geometry -> geometry.getUpdater().clear());
-			
+			}
+			meshesScanned = scan.size();
+			meshesUpdated = updates.size();
+
+			// copy on write, earlier render states keep their list
+			if (!added.isEmpty() || !removed.isEmpty()) {
+				List<Renderable> next = new ArrayList<>(renderables.size() + added.size());
+				for (Renderable renderable : renderables) {
+					if (!removed.contains(renderable))
+						next.add(renderable);
+				}
+				next.addAll(added);
+				renderables = Collections.unmodifiableList(next);
+				added.clear();
+				removed.clear();
+			}
+
 			// seal collections
-			final List<Renderable> renderRenderables = Collections.unmodifiableList(renderables);
+			final List<Renderable> renderRenderables = renderables;
 			final List<IRenderUpdate> renderUpdates = Collections.unmodifiableList(updates);
 
 			
@@ -271,7 +354,6 @@ public class DefaultRenderManager implements IRenderManager {
 
 
 			// 4. hey, we're done!
-			rebuildMeshes = false;
 			return new IRenderState() {
 				@Override
 				public List<IRenderUpdate> getRenderUpdates() {
@@ -286,6 +368,10 @@ public class DefaultRenderManager implements IRenderManager {
 		}
 	}
 
+	private static <T extends IUpdateTracker> boolean changed(T tracker, Set<T> changed) {
+		return changed.contains(tracker) || (tracker.getUpdater().testAndClear() && changed.add(tracker));
+	}
+
 	private final IController controller;
 	private final IRenderer renderer;
 
@@ -360,6 +446,22 @@ public class DefaultRenderManager implements IRenderManager {
 		sceneState.removeMesh(mesh);
 	}
 
+	/**
+	 * @return number of meshes looked at for the last render state: those
+	 *         added and those that requested an update
+	 */
+	public int getMeshesScanned() {
+		return sceneState.meshesScanned;
+	}
+
+	/**
+	 * @return number of meshes whose material or geometry was updated in the
+	 *         last render state
+	 */
+	public int getMeshesUpdated() {
+		return sceneState.meshesUpdated;
+	}
+
 	@Override
 	public Runnable getRenderRunnable() {
 		return () -> {
@@ -0,0 +1,352 @@
+/*
+ * Copyright (c) 2013 - 2015 Stefan Muller Arisona, Simon Schubiger, Samuel von Stachelski
+ * Copyright (c) 2013 - 2015 FHNW & ETH Zurich
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *  Neither the name of FHNW / ETH Zurich nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package ch.fhnw.ether.render;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import ch.fhnw.ether.scene.camera.IViewCameraState;
+import ch.fhnw.ether.scene.mesh.IMesh.Queue;
+import ch.fhnw.util.math.Mat4;
+
+/**
+ * Decides which renderables of a view are inside its view frustum, by their
+ * world space bounds, before they are handed to the queues.
+ * <p>
+ * FLAT tests every renderable against the frustum planes. HIERARCHICAL tests
+ * a bounding volume hierarchy over the renderables whose bounds did not change
+ * since they were created, skipping or accepting whole subtrees; the ones
+ * that moved before are tested one by one. The hierarchy is rebuilt when
+ * renderables come or go, and refitted when one of its renderables moves.
+ * <p>
+ * Renderables without bounds and those of the device and screen space
+ * queues are always drawn. Visible renderables keep their order within a
+ * queue. Used on the render thread only; the counts of the last view can be
+ * read from anywhere.
+ */
+public final class FrustumCuller {
+	public enum Mode {
+		OFF, FLAT, HIERARCHICAL
+	}
+
+	private static final int LEAF_SIZE = 4;
+	// world units a box may lie outside a plane and still be drawn, against rounding
+	private static final float SLACK = 1e-3f;
+	private static final Queue[] QUEUES = Queue.values();
+
+	private volatile Mode mode = Mode.FLAT;
+	private volatile int numDrawn;
+	private volatile int numCulled;
+	private volatile int numTested;
+
+	// a x + b y + c z + d >= 0 inside, for left, right, bottom, top, near, far
+	private final float[] planes = new float[24];
+	private final List<List<Renderable>> visible = new ArrayList<>();
+	private int stamp;
+	private int tested;
+
+	// the renderables the hierarchy was built for
+	private List<Renderable> builtFor;
+	private Hierarchy hierarchy;
+	private final List<Renderable> loose = new ArrayList<>();
+
+	public FrustumCuller() {
+		for (int i = 0; i < QUEUES.length; ++i)
+			visible.add(new ArrayList<>());
+	}
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	public void setMode(Mode mode) {
+		this.mode = mode;
+	}
+
+	/**
+	 * @return number of renderables drawn in the last view, of the queues
+	 *         that are culled
+	 */
+	public int getNumDrawn() {
+		return numDrawn;
+	}
+
+	/**
+	 * @return number of renderables culled in the last view
+	 */
+	public int getNumCulled() {
+		return numCulled;
+	}
+
+	/**
+	 * @return number of bounds (renderables and hierarchy nodes) tested
+	 *         against the frustum in the last view
+	 */
+	public int getNumTested() {
+		return numTested;
+	}
+
+	/**
+	 * Culls the renderables for the view; {@link #getVisible} returns the
+	 * result until the next call.
+	 */
+	public void cull(IViewCameraState vcs, List<Renderable> renderables) {
+		visible.forEach(List::clear);
+		Mode mode = this.mode;
+		if (mode == Mode.OFF) {
+			int drawn = 0;
+			for (Renderable renderable : renderables) {
+				visible.get(renderable.getQueue().ordinal()).add(renderable);
+				if (isCulled(renderable))
+					drawn++;
+			}
+			numDrawn = drawn;
+			numCulled = 0;
+			numTested = 0;
+			return;
+		}
+
+		extractPlanes(vcs.getViewProjMatrix());
+		stamp++;
+		tested = 0;
+		if (mode == Mode.HIERARCHICAL) {
+			if (renderables != builtFor) {
+				build(renderables);
+			} else if (hierarchy != null && hierarchy.stale) {
+				hierarchy.refit();
+			}
+			if (hierarchy != null)
+				visit(hierarchy, 0, (1 << 6) - 1);
+			loose.forEach(this::test);
+		} else {
+			renderables.forEach(this::test);
+		}
+
+		int drawn = 0;
+		int culled = 0;
+		for (Renderable renderable : renderables) {
+			if (!isCulled(renderable)) {
+				visible.get(renderable.getQueue().ordinal()).add(renderable);
+			} else if (renderable.visibleStamp == stamp) {
+				visible.get(renderable.getQueue().ordinal()).add(renderable);
+				drawn++;
+			} else {
+				culled++;
+			}
+		}
+		numDrawn = drawn;
+		numCulled = culled;
+		numTested = tested;
+	}
+
+	/**
+	 * @return the visible renderables of the queue, in the order they were
+	 *         given in
+	 */
+	public List<Renderable> getVisible(Queue queue) {
+		return visible.get(queue.ordinal());
+	}
+
+	private static boolean isCulled(Renderable renderable) {
+		Queue queue = renderable.getQueue();
+		return queue != Queue.DEVICE_SPACE_OVERLAY && queue != Queue.SCREEN_SPACE_OVERLAY && renderable.bounds != null;
+	}
+
+	private void test(Renderable renderable) {
+		if (isCulled(renderable)) {
+			tested++;
+			if (classify(renderable.bounds, 0, (1 << 6) - 1) >= 0)
+				renderable.visibleStamp = stamp;
+		}
+	}
+
+	private void visit(Hierarchy h, int node, int mask) {
+		tested++;
+		int m = classify(h.bounds, 6 * node, mask);
+		if (m < 0)
+			return;
+		if (m == 0 || h.child[node] < 0) {
+			// entirely inside, or a leaf: nothing left to test above the renderables
+			for (int i = h.first[node]; i < h.first[node] + h.count[node]; ++i) {
+				Renderable renderable = h.items[i];
+				if (m == 0 || classify(renderable.bounds, 0, m) >= 0)
+					renderable.visibleStamp = stamp;
+				else
+					tested++;
+			}
+			return;
+		}
+		visit(h, h.child[node], m);
+		visit(h, h.child[node] + 1, m);
+	}
+
+	// -1 if the box at offset is outside one of the planes in mask, otherwise
+	// the planes of mask it straddles
+	private int classify(float[] box, int offset, int mask) {
+		int straddled = 0;
+		for (int p = 0; p < 6; ++p) {
+			if ((mask & (1 << p)) == 0)
+				continue;
+			float a = planes[4 * p], b = planes[4 * p + 1], c = planes[4 * p + 2], d = planes[4 * p + 3];
+			// the corner farthest along the plane normal, then the nearest
+			float far = a * box[offset + (a > 0 ? 3 : 0)] + b * box[offset + (b > 0 ? 4 : 1)] + c * box[offset + (c > 0 ? 5 : 2)] + d;
+			if (far < -SLACK)
+				return -1;
+			float near = a * box[offset + (a > 0 ? 0 : 3)] + b * box[offset + (b > 0 ? 1 : 4)] + c * box[offset + (c > 0 ? 2 : 5)] + d;
+			if (near < 0)
+				straddled |= 1 << p;
+		}
+		return straddled;
+	}
+
+	// Gribb & Hartmann: the planes are sums and differences of the rows,
+	// normalized so distances are in world units
+	private void extractPlanes(Mat4 m) {
+		float[][] rows = {
+				{ m.m00, m.m01, m.m02, m.m03 },
+				{ m.m10, m.m11, m.m12, m.m13 },
+				{ m.m20, m.m21, m.m22, m.m23 } };
+		float[] w = { m.m30, m.m31, m.m32, m.m33 };
+		for (int p = 0; p < 6; ++p) {
+			float[] row = rows[p / 2];
+			float sign = p % 2 == 0 ? 1 : -1;
+			for (int k = 0; k < 4; ++k)
+				planes[4 * p + k] = w[k] + sign * row[k];
+			float length = (float) Math.sqrt(planes[4 * p] * planes[4 * p] + planes[4 * p + 1] * planes[4 * p + 1] + planes[4 * p + 2] * planes[4 * p + 2]);
+			if (length > 0) {
+				for (int k = 0; k < 4; ++k)
+					planes[4 * p + k] /= length;
+			}
+		}
+	}
+
+	private void build(List<Renderable> renderables) {
+		if (hierarchy != null)
+			Arrays.stream(hierarchy.items).forEach(renderable -> renderable.hierarchy = null);
+		builtFor = renderables;
+		loose.clear();
+		List<Renderable> fixed = new ArrayList<>();
+		for (Renderable renderable : renderables) {
+			if (!isCulled(renderable))
+				continue;
+			// moved since it was created, so probably will again
+			if (renderable.boundsUpdates > 1)
+				loose.add(renderable);
+			else
+				fixed.add(renderable);
+		}
+		hierarchy = fixed.isEmpty() ? null : new Hierarchy(fixed.toArray(new Renderable[fixed.size()]));
+	}
+
+	// nodes in a flat array, children after their parent, the two children of a node next to each other
+	static final class Hierarchy {
+		final Renderable[] items;
+		final float[] bounds;
+		final int[] first;
+		final int[] count;
+		final int[] child;
+		int numNodes;
+		boolean stale;
+
+		Hierarchy(Renderable[] items) {
+			this.items = items;
+			// median splits leave at least two renderables per leaf
+			int maxNodes = 2 * items.length + 1;
+			bounds = new float[6 * maxNodes];
+			first = new int[maxNodes];
+			count = new int[maxNodes];
+			child = new int[maxNodes];
+			numNodes = 1;
+			split(0, 0, items.length);
+			for (Renderable renderable : items)
+				renderable.hierarchy = this;
+		}
+
+		private void split(int node, int lo, int hi) {
+			first[node] = lo;
+			count[node] = hi - lo;
+			child[node] = -1;
+			union(node, lo, hi);
+			if (hi - lo <= LEAF_SIZE)
+				return;
+
+			// median of the centers along the longest side
+			int axis = 0;
+			for (int k = 1; k < 3; ++k) {
+				if (extent(node, k) > extent(node, axis))
+					axis = k;
+			}
+			final int a = axis;
+			Arrays.sort(items, lo, hi, Comparator.comparingDouble(renderable -> renderable.bounds[a] + renderable.bounds[a + 3]));
+			int mid = (lo + hi) >>> 1;
+			int left = numNodes;
+			numNodes += 2;
+			child[node] = left;
+			split(left, lo, mid);
+			split(left + 1, mid, hi);
+		}
+
+		void refit() {
+			for (int node = numNodes - 1; node >= 0; --node) {
+				if (child[node] < 0) {
+					union(node, first[node], first[node] + count[node]);
+				} else {
+					int l = 6 * child[node], r = l + 6, o = 6 * node;
+					for (int k = 0; k < 3; ++k) {
+						bounds[o + k] = Math.min(bounds[l + k], bounds[r + k]);
+						bounds[o + k + 3] = Math.max(bounds[l + k + 3], bounds[r + k + 3]);
+					}
+				}
+			}
+			stale = false;
+		}
+
+		private void union(int node, int lo, int hi) {
+			int o = 6 * node;
+			for (int k = 0; k < 3; ++k) {
+				bounds[o + k] = Float.POSITIVE_INFINITY;
+				bounds[o + k + 3] = Float.NEGATIVE_INFINITY;
+			}
+			for (int i = lo; i < hi; ++i) {
+				float[] b = items[i].bounds;
+				for (int k = 0; k < 3; ++k) {
+					bounds[o + k] = Math.min(bounds[o + k], b[k]);
+					bounds[o + k + 3] = Math.max(bounds[o + k + 3], b[k + 3]);
+				}
+			}
+		}
+
+		private float extent(int node, int axis) {
+			return bounds[6 * node + axis + 3] - bounds[6 * node + axis];
+		}
+	}
+}
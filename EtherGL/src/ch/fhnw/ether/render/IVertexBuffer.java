@@ -35,7 +35,18 @@ public interface IVertexBuffer {
 	
 	int getNumVertices();
 
-	void bind(GL3 gl);
+	/**
+	 * @return number of VBOs the vertices are split across, each drawn on
+	 *         its own
+	 */
+	int getNumBuffers();
+
+	void bind(GL3 gl, int index);
+
+	/**
+	 * Draws the primitives of the VBO bound with {@link #bind}.
+	 */
+	void draw(GL3 gl, int mode, int index);
 
 	void unbind(GL3 gl);
 
@@ -29,6 +29,7 @@
 
 package ch.fhnw.ether.render;
 
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Set;
 import java.util.function.Supplier;
@@ -38,29 +39,62 @@ import com.jogamp.opengl.GL3;
 import ch.fhnw.ether.render.shader.IShader;
 import ch.fhnw.ether.scene.attribute.IAttribute;
 import ch.fhnw.ether.scene.mesh.IMesh;
+import ch.fhnw.ether.scene.mesh.InstancedMesh;
+import ch.fhnw.ether.scene.mesh.geometry.IGeometry.IGeometryAttribute;
+import ch.fhnw.ether.scene.mesh.material.IMaterial;
 
 public final class Renderable {
 	private final IShader shader;
 	private final VertexBuffer buffer;
 	private final IMesh.Queue queue;
 	private final Set<IMesh.Flag> flags;
+	// renderables of the same material have the same uniforms, if both are
+	// instanced or neither is
+	private final IMaterial material;
+	private final boolean instanced;
+	// where the instance transforms are in the geometry data, -1 if not instanced
+	private final int instanceTransformIndex;
+
+	// world space bounds of the last geometry update, min x, y, z, max x, y, z;
+	// null while unknown. the rest belongs to the FrustumCuller.
+	float[] bounds;
+	int boundsUpdates;
+	int visibleStamp;
+	FrustumCuller.Hierarchy hierarchy;
 
 	public Renderable(IMesh mesh, Map<IAttribute, Supplier<?>> globals) {
 		this(null, mesh, globals);
 	}
 
 	public Renderable(IShader shader, IMesh mesh, Map<IAttribute, Supplier<?>> globals) {
-		this.shader = ShaderBuilder.create(shader, mesh.getMaterial(), globals);
-		this.buffer = new VertexBuffer(this.shader, mesh.getGeometry().getAttributes());
+		IGeometryAttribute[] attributes = mesh.getGeometry().getAttributes();
+		IGeometryAttribute[] instanceAttributes = mesh.getInstanceAttributes();
+		this.shader = ShaderBuilder.create(shader, mesh.getMaterial(), instanceAttributes, globals);
+		this.buffer = new VertexBuffer(this.shader, attributes, instanceAttributes);
+		this.instanced = instanceAttributes.length > 0;
+		int transforms = Arrays.asList(instanceAttributes).indexOf(InstancedMesh.INSTANCE_TRANSFORM_ARRAY);
+		this.instanceTransformIndex = transforms < 0 ? -1 : attributes.length + transforms;
 		this.queue = mesh.getQueue();
 		this.flags = mesh.getFlags();
+		this.material = mesh.getMaterial();
 	}
 
-	public void update(GL3 gl, Object[] materialData, float[][] geometryData) {
+	/**
+	 * @param geometryIndices the indices of the geometry, null if it is not
+	 *                        indexed; ignored without geometry data
+	 */
+	public void update(GL3 gl, Object[] materialData, float[][] geometryData, int[] geometryIndices) {
 		if (materialData != null)
 			shader.update(gl, materialData);
-		if (geometryData != null)
-			buffer.update(gl, geometryData);
+		if (geometryData != null) {
+			buffer.update(gl, geometryData, geometryIndices);
+			bounds = bounds(geometryData[0]);
+			if (bounds != null && instanceTransformIndex >= 0)
+				bounds = bounds(bounds, geometryData[instanceTransformIndex]);
+			boundsUpdates++;
+			if (hierarchy != null)
+				hierarchy.stale = true;
+		}
 	}
 
 	public void render(GL3 gl) {
@@ -81,6 +115,62 @@ public final class Renderable {
 		return buffer;
 	}
 
+	IShader getShader() {
+		return shader;
+	}
+
+	IMaterial getMaterial() {
+		return material;
+	}
+
+	boolean isInstanced() {
+		return instanced;
+	}
+
+	// the positions come first
+	private static float[] bounds(float[] positions) {
+		if (positions.length == 0)
+			return null;
+		float[] b = { Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+				Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY };
+		for (int i = 0; i < positions.length; i += 3) {
+			for (int k = 0; k < 3; ++k) {
+				b[k] = Math.min(b[k], positions[i + k]);
+				b[k + 3] = Math.max(b[k + 3], positions[i + k]);
+			}
+		}
+		return b;
+	}
+
+	// the union of the local bounds under the column major instance
+	// transforms, null without instances
+	private static float[] bounds(float[] local, float[] transforms) {
+		if (transforms.length == 0)
+			return null;
+		float[] b = { Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+				Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY };
+		float[] center = new float[3];
+		float[] extent = new float[3];
+		for (int k = 0; k < 3; ++k) {
+			center[k] = 0.5f * (local[k] + local[k + 3]);
+			extent[k] = 0.5f * (local[k + 3] - local[k]);
+		}
+		for (int i = 0; i < transforms.length; i += 16) {
+			for (int r = 0; r < 3; ++r) {
+				float c = transforms[i + 12 + r];
+				float e = 0;
+				for (int k = 0; k < 3; ++k) {
+					float m = transforms[i + 4 * k + r];
+					c += m * center[k];
+					e += Math.abs(m) * extent[k];
+				}
+				b[r] = Math.min(b[r], c - e);
+				b[r + 3] = Math.max(b[r + 3], c + e);
+			}
+		}
+		return b;
+	}
+
 	@Override
 	public String toString() {
 		return "renderable[queue=" + getQueue() + " shader=" + shader + " buffer=" + buffer + "]";
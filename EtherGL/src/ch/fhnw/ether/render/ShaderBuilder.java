@@ -43,6 +43,8 @@ import ch.fhnw.ether.render.shader.builtin.ShadedTriangleShader;
 import ch.fhnw.ether.render.shader.builtin.UnshadedTriangleShader;
 import ch.fhnw.ether.render.variable.IShaderUniform;
 import ch.fhnw.ether.scene.attribute.IAttribute;
+import ch.fhnw.ether.scene.mesh.IMesh;
+import ch.fhnw.ether.scene.mesh.geometry.IGeometry.IGeometryAttribute;
 import ch.fhnw.ether.scene.mesh.material.ColorMapMaterial;
 import ch.fhnw.ether.scene.mesh.material.ColorMaterial;
 import ch.fhnw.ether.scene.mesh.material.ICustomMaterial;
@@ -75,8 +77,16 @@ public final class ShaderBuilder {
 		}
 	}
 
-	@SuppressWarnings("unchecked")
 	public static <S extends IShader> S create(S shader, IMaterial material, Map<IAttribute, Supplier<?>> globals) {
+		return create(shader, material, IMesh.NO_ATTRIBUTES, globals);
+	}
+
+	/**
+	 * Creates the shader for a mesh drawn instanced, whose instances provide
+	 * the given attributes, see {@link IMesh#getInstanceAttributes()}.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <S extends IShader> S create(S shader, IMaterial material, IGeometryAttribute[] instanceAttributes, Map<IAttribute, Supplier<?>> globals) {
 		Attributes attributes = new Attributes();
 
 		// add material & geometry attributes
@@ -89,6 +99,10 @@ public final class ShaderBuilder {
 				attributes.provide(required, null);
 		}
 
+		// add instance attributes
+		for (IGeometryAttribute provided : instanceAttributes)
+			attributes.provide(provided, null);
+
 		// add global attributes
 		if (globals != null)
 			globals.forEach((attribute, supplier) -> attributes.provide(attribute, new Pair<>(-1, supplier)));
@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2013 - 2015 Stefan Muller Arisona, Simon Schubiger, Samuel von Stachelski
+ * Copyright (c) 2013 - 2015 FHNW & ETH Zurich
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *  Neither the name of FHNW / ETH Zurich nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package ch.fhnw.ether.render;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.jogamp.opengl.GL3;
+
+import ch.fhnw.ether.render.gl.Program;
+import ch.fhnw.ether.render.shader.IShader;
+import ch.fhnw.ether.scene.camera.IViewCameraState;
+import ch.fhnw.ether.scene.mesh.IMesh.Queue;
+import ch.fhnw.util.math.Mat4;
+
+/**
+ * Draws the renderables of a queue ordered by a 64 bit key, so that those
+ * sharing a program and a material come one after another, and binds only
+ * what differs from the renderable before.
+ * <p>
+ * The key holds the queue, the program, the material and the view space depth
+ * of the bounds center. DEPTH sorts by state, then front to back; TRANSPARENCY
+ * back to front first, as blending needs, then by state. The overlay queues
+ * keep the order they were given in. Keys are radix sorted, which is stable,
+ * so equal keys keep that order too.
+ * <p>
+ * Renderables of the same program share its glUseProgram; those of the same
+ * material also share the uniforms and textures, which are the same for all
+ * of them unless one is instanced and the other isn't. Program and material
+ * ids in the key may collide, which costs binds but never skips one: what is
+ * bound is compared by identity. Used on the render thread only; the counts
+ * of the last view can be read from anywhere.
+ */
+public final class StateSorter {
+	private static final int QUEUE_SHIFT = 60;
+	private static final int PROGRAM_BITS = 16;
+	private static final int MATERIAL_BITS = 20;
+	private static final int DEPTH_BITS = 24;
+	private static final int DEPTH_MAX = (1 << DEPTH_BITS) - 1;
+
+	private volatile boolean sorting = true;
+	private volatile int numDraws;
+	private volatile int numProgramBinds;
+	private volatile int numMaterialBinds;
+
+	private final List<Renderable> sorted = new ArrayList<>();
+	private long[] keys = new long[0];
+	private long[] keysTemp = new long[0];
+	private int[] order = new int[0];
+	private int[] orderTemp = new int[0];
+	private float[] depths = new float[0];
+	private final int[] counts = new int[256];
+
+	private int draws;
+	private int programBinds;
+	private int materialBinds;
+
+	public boolean isSorting() {
+		return sorting;
+	}
+
+	/**
+	 * Turns the sorting off or on; unsorted, binds are still skipped between
+	 * renderables that happen to follow one another.
+	 */
+	public void setSorting(boolean sorting) {
+		this.sorting = sorting;
+	}
+
+	/**
+	 * @return number of renderables drawn in the last view
+	 */
+	public int getNumDraws() {
+		return numDraws;
+	}
+
+	/**
+	 * @return number of glUseProgram calls in the last view
+	 */
+	public int getNumProgramBinds() {
+		return numProgramBinds;
+	}
+
+	/**
+	 * @return number of times the uniforms and textures of a material were
+	 *         set in the last view; the remaining draws used those already set
+	 */
+	public int getNumMaterialBinds() {
+		return numMaterialBinds;
+	}
+
+	/**
+	 * Starts counting the binds of a view.
+	 */
+	public void begin() {
+		draws = 0;
+		programBinds = 0;
+		materialBinds = 0;
+	}
+
+	/**
+	 * Publishes the counts of the view.
+	 */
+	public void end() {
+		numDraws = draws;
+		numProgramBinds = programBinds;
+		numMaterialBinds = materialBinds;
+	}
+
+	/**
+	 * Sorts and draws the renderables of the queue.
+	 */
+	public void render(GL3 gl, IViewCameraState vcs, Queue queue, List<Renderable> renderables) {
+		if (renderables.isEmpty())
+			return;
+		if (sorting && (queue == Queue.DEPTH || queue == Queue.TRANSPARENCY))
+			renderables = sort(vcs.getViewMatrix(), queue, renderables);
+
+		Renderable bound = null;
+		for (Renderable renderable : renderables) {
+			IShader shader = renderable.getShader();
+			Program program = shader.getProgram();
+			if (bound == null || program != bound.getShader().getProgram()) {
+				if (bound != null)
+					disableUniforms(gl, bound.getShader());
+				program.enable(gl);
+				programBinds++;
+				enableUniforms(gl, shader);
+			} else if (renderable.getMaterial() != bound.getMaterial() || renderable.isInstanced() != bound.isInstanced()) {
+				disableUniforms(gl, bound.getShader());
+				enableUniforms(gl, shader);
+			}
+			shader.render(gl, renderable.getBuffer());
+			draws++;
+			bound = renderable;
+		}
+		bound.getShader().disable(gl);
+		sorted.clear();
+	}
+
+	private void enableUniforms(GL3 gl, IShader shader) {
+		shader.getUniforms().forEach(uniform -> uniform.enable(gl, shader.getProgram()));
+		materialBinds++;
+	}
+
+	private static void disableUniforms(GL3 gl, IShader shader) {
+		shader.getUniforms().forEach(uniform -> uniform.disable(gl, shader.getProgram()));
+	}
+
+	private List<Renderable> sort(Mat4 view, Queue queue, List<Renderable> renderables) {
+		int n = renderables.size();
+		if (keys.length < n) {
+			int capacity = Math.max(n, 2 * keys.length);
+			keys = new long[capacity];
+			keysTemp = new long[capacity];
+			order = new int[capacity];
+			orderTemp = new int[capacity];
+			depths = new float[capacity];
+		}
+
+		// distance in front of the camera of the bounds centers, scaled to the keys
+		float min = Float.POSITIVE_INFINITY;
+		float max = Float.NEGATIVE_INFINITY;
+		for (int i = 0; i < n; ++i) {
+			float[] b = renderables.get(i).bounds;
+			float depth = 0;
+			if (b != null) {
+				float x = 0.5f * (b[0] + b[3]), y = 0.5f * (b[1] + b[4]), z = 0.5f * (b[2] + b[5]);
+				depth = -(view.m20 * x + view.m21 * y + view.m22 * z + view.m23);
+			}
+			depths[i] = depth;
+			min = Math.min(min, depth);
+			max = Math.max(max, depth);
+		}
+		float scale = max > min ? DEPTH_MAX / (max - min) : 0;
+
+		boolean backToFront = queue == Queue.TRANSPARENCY;
+		for (int i = 0; i < n; ++i) {
+			Renderable renderable = renderables.get(i);
+			Program program = renderable.getShader().getProgram();
+			long p = program == null ? 0 : program.getGlObject().getId() & ((1 << PROGRAM_BITS) - 1);
+			long m = (System.identityHashCode(renderable.getMaterial()) << 1 | (renderable.isInstanced() ? 1 : 0)) & ((1 << MATERIAL_BITS) - 1);
+			long d = Math.min(DEPTH_MAX, (int) ((depths[i] - min) * scale));
+			long key;
+			if (backToFront)
+				key = ((DEPTH_MAX - d) << (PROGRAM_BITS + MATERIAL_BITS)) | (p << MATERIAL_BITS) | m;
+			else
+				key = (p << (MATERIAL_BITS + DEPTH_BITS)) | (m << DEPTH_BITS) | d;
+			keys[i] = ((long) queue.ordinal() << QUEUE_SHIFT) | key;
+			order[i] = i;
+		}
+
+		radixSort(n);
+		for (int i = 0; i < n; ++i)
+			sorted.add(renderables.get(order[i]));
+		return sorted;
+	}
+
+	// least significant byte first, skipping the bytes all keys share
+	private void radixSort(int n) {
+		for (int shift = 0; shift < 64; shift += 8) {
+			Arrays.fill(counts, 0);
+			for (int i = 0; i < n; ++i)
+				counts[(int) (keys[i] >>> shift) & 0xff]++;
+			if (counts[(int) (keys[0] >>> shift) & 0xff] == n)
+				continue;
+			for (int b = 0, sum = 0; b < 256; ++b) {
+				int c = counts[b];
+				counts[b] = sum;
+				sum += c;
+			}
+			for (int i = 0; i < n; ++i) {
+				int b = (int) (keys[i] >>> shift) & 0xff;
+				int at = counts[b]++;
+				keysTemp[at] = keys[i];
+				orderTemp[at] = order[i];
+			}
+			long[] k = keys;
+			keys = keysTemp;
+			keysTemp = k;
+			int[] o = order;
+			order = orderTemp;
+			orderTemp = o;
+		}
+	}
+}
@@ -29,126 +29,498 @@
 
 package ch.fhnw.ether.render;
 
+import java.nio.Buffer;
 import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.function.IntUnaryOperator;
 
 import com.jogamp.opengl.GL;
 import com.jogamp.opengl.GL3;
 
 import ch.fhnw.ether.render.gl.FloatArrayBuffer;
 import ch.fhnw.ether.render.gl.IArrayBuffer;
+import ch.fhnw.ether.render.gl.IntElementBuffer;
 import ch.fhnw.ether.render.shader.IShader;
 import ch.fhnw.ether.render.variable.IShaderArray;
+import ch.fhnw.ether.scene.mesh.IMesh;
 import ch.fhnw.ether.scene.mesh.geometry.IGeometry.IGeometryAttribute;
 import ch.fhnw.util.BufferUtilities;
 
-// TODO: deal with max vbo size & multiple vbos, memory optimization, handle non-float arrays, indexed buffers
+// TODO: memory optimization, handle non-float arrays
 
+/**
+ * The interleaved vertex data of a renderable.
+ * <p>
+ * The vertices are split across VBOs of at most MAX_VBO_VERTICES each,
+ * always between primitives. The indices of an indexed geometry go to an
+ * element buffer as they are, with all vertices in one VBO; only if there
+ * are more vertices than that, the indices are split into runs of primitives
+ * and each VBO holds the vertices of its run.
+ * <p>
+ * The first upload of a VBO is GL_STATIC_DRAW. One that is updated again
+ * becomes GL_DYNAMIC_DRAW and keeps a copy of what it holds, so further
+ * updates only upload the ranges that changed, with glBufferSubData. One that
+ * keeps changing all over becomes GL_STREAM_DRAW and is replaced as a whole.
+ * <p>
+ * The vertices of an instanced mesh are drawn once per instance, with the
+ * instance arrays in a VBO of their own that is uploaded the same way.
+ */
 public final class VertexBuffer implements IVertexBuffer {
-	private static final ThreadLocal<FloatBuffer> TARGET = 
-			ThreadLocal.withInitial(() -> BufferUtilities.createDirectFloatBuffer(1024 * 1024));
+	// a multiple of the vertices of all primitives, so VBOs split between them
+	private static final int MAX_VBO_VERTICES = 3 << 18;
+	// changes closer than this (in floats or indices) are uploaded together
+	private static final int MERGE_GAP = 64;
+	// updates uploading more than half of a buffer in a row until it streams
+	private static final int STREAM_AFTER = 4;
+
+	private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
 
-	private final FloatArrayBuffer buffer = new FloatArrayBuffer();
+	private final List<Chunk> chunks = new ArrayList<>();
 
 	private final int stride;
 	private final int[] sizes;
 	private final int[] offsets;
 	private final int[] attributeIndices;
 
+	// the instance arrays, interleaved in a VBO of their own; null if not instanced
+	private final FloatArrayBuffer instances;
+	private final Upload instanceUpload;
+	private final int firstInstanceAttribute;
+	private final int instanceAttributeSize;
+	private final int instanceStride;
+	private final int[] instanceSizes;
+	private final int[] instanceOffsets;
+	private final int[] instanceAttributeIndices;
+
+	private int numVertices;
+	private int numInstances;
+	private int bound;
+	private long uploadedBytes;
+
 	public VertexBuffer(IShader shader, IGeometryAttribute[] attributes) {
+		this(shader, attributes, IMesh.NO_ATTRIBUTES);
+	}
+
+	/**
+	 * @param instanceAttributes attributes given once per instance, whose
+	 *                           data follows that of the vertices; the
+	 *                           vertices are drawn instanced unless empty
+	 */
+	public VertexBuffer(IShader shader, IGeometryAttribute[] attributes, IGeometryAttribute[] instanceAttributes) {
 		List<IShaderArray<?>> arrays = shader.getArrays();
 		if (arrays.isEmpty())
 			throw new IllegalArgumentException("shader " + shader + " does not define any vertex arrays");
 
-		sizes = new int[arrays.size()];
-		offsets = new int[arrays.size()];
-		attributeIndices = new int[arrays.size()];
+		List<IShaderArray<?>> vertexArrays = new ArrayList<>();
+		List<IShaderArray<?>> instanceArrays = new ArrayList<>();
+		for (IShaderArray<?> array : arrays)
+			(indexOf(instanceAttributes, array) < 0 ? vertexArrays : instanceArrays).add(array);
 
-		int stride = 0;
-		int bufferIndex = 0;
-		for (IShaderArray<?> array : arrays) {
-			int attributeIndex = 0;
-			for (IGeometryAttribute attribute : attributes) {
-				if (array.id().equals(attribute.id())) {
-					int size = attribute.getNumComponents();
-					sizes[bufferIndex] = size;
-					offsets[bufferIndex] = stride;
-					attributeIndices[bufferIndex] = attributeIndex;
-					array.setBufferIndex(bufferIndex);
-					bufferIndex++;
-					stride += size;
-					break;
-				}
-				attributeIndex++;
-			}
-			if (attributeIndex == attributes.length)
-				throw new IllegalArgumentException("shader " + shader + " requires attribute " + array.id());
+		sizes = new int[vertexArrays.size()];
+		offsets = new int[vertexArrays.size()];
+		attributeIndices = new int[vertexArrays.size()];
+		stride = layout(shader, vertexArrays, attributes, 0, 0, sizes, offsets, attributeIndices);
+
+		instanceSizes = new int[instanceArrays.size()];
+		instanceOffsets = new int[instanceArrays.size()];
+		instanceAttributeIndices = new int[instanceArrays.size()];
+		instanceStride = layout(shader, instanceArrays, instanceAttributes, sizes.length, attributes.length, instanceSizes,
+				instanceOffsets, instanceAttributeIndices);
+
+		if (instanceAttributes.length > 0) {
+			firstInstanceAttribute = attributes.length;
+			instanceAttributeSize = instanceAttributes[0].getNumComponents();
+			instances = new FloatArrayBuffer();
+			instanceUpload = new Upload(instances);
+		} else {
+			firstInstanceAttribute = -1;
+			instanceAttributeSize = 0;
+			instances = null;
+			instanceUpload = null;
 		}
-		this.stride = stride;
 	}
 
-	public void update(GL3 gl, float[][] data) {
+	/**
+	 * @param indices the vertices to draw, one per vertex of every primitive,
+	 *                or null to draw all vertices in order
+	 */
+	public void update(GL3 gl, float[][] data, int[] indices) {
 		float[][] sources = new float[attributeIndices.length][];
+		for (int attributeIndex = 0; attributeIndex < attributeIndices.length; ++attributeIndex)
+			sources[attributeIndex] = data[attributeIndices[attributeIndex]];
 
-		int size = 0;
-		for (int attributeIndex = 0; attributeIndex < attributeIndices.length; ++attributeIndex) {
-			float[] source = data[attributeIndices[attributeIndex]];
-			sources[attributeIndex] = source;
-			size += source.length;
+		Scratch scratch = SCRATCH.get();
+		numVertices = sources[0].length / sizes[0];
+		int numDrawn = indices == null ? numVertices : indices.length;
+		boolean whole = indices != null && numVertices <= MAX_VBO_VERTICES;
+		int numChunks = whole ? Math.min(1, numDrawn) : (numDrawn + MAX_VBO_VERTICES - 1) / MAX_VBO_VERTICES;
+		while (chunks.size() > numChunks)
+			chunks.remove(chunks.size() - 1);
+		for (int c = 0; c < numChunks; ++c) {
+			if (c == chunks.size())
+				chunks.add(new Chunk());
+			Chunk chunk = chunks.get(c);
+			if (whole) {
+				float[] vertices = scratch.interleaved(numVertices * stride);
+				interleave(vertices, sources, sizes, 0, numVertices);
+				uploadedBytes += chunk.load(gl, scratch, vertices, numVertices, stride, indices, numDrawn);
+				continue;
+			}
+			int first = c * MAX_VBO_VERTICES;
+			int count = Math.min(MAX_VBO_VERTICES, numDrawn - first);
+			if (indices == null) {
+				float[] vertices = scratch.interleaved(count * stride);
+				interleave(vertices, sources, sizes, first, count);
+				uploadedBytes += chunk.load(gl, scratch, vertices, count, stride, null, count);
+				continue;
+			}
+			// the vertices of this run, in the order it first uses them
+			int[] local = scratch.local(numVertices);
+			int[] used = scratch.used(count);
+			int[] runIndices = scratch.runIndices(count);
+			int numUsed = 0;
+			for (int i = 0; i < count; ++i) {
+				int v = indices[first + i];
+				if (local[v] < 0) {
+					local[v] = numUsed;
+					used[numUsed++] = v;
+				}
+				runIndices[i] = local[v];
+			}
+			for (int i = 0; i < numUsed; ++i)
+				local[used[i]] = -1;
+			float[] vertices = scratch.interleaved(numUsed * stride);
+			gather(vertices, sources, sizes, used, numUsed);
+			uploadedBytes += chunk.load(gl, scratch, vertices, numUsed, stride, runIndices, count);
 		}
-		FloatBuffer buffer = TARGET.get();
-		if (buffer.capacity() < size) {
-			buffer = BufferUtilities.createDirectFloatBuffer(2 * size);
-			TARGET.set(buffer);
+
+		if (instances != null) {
+			numInstances = data[firstInstanceAttribute].length / instanceAttributeSize;
+			if (numInstances > 0 && instanceStride > 0) {
+				float[][] instanceSources = new float[instanceAttributeIndices.length][];
+				for (int i = 0; i < instanceAttributeIndices.length; ++i)
+					instanceSources[i] = data[instanceAttributeIndices[i]];
+				float[] interleaved = scratch.interleaved(numInstances * instanceStride);
+				interleave(interleaved, instanceSources, instanceSizes, 0, numInstances);
+				FloatBuffer target = scratch.target(numInstances * instanceStride);
+				target.put(interleaved, 0, numInstances * instanceStride).flip();
+				uploadedBytes += instanceUpload.upload(gl, target, i -> Float.floatToRawIntBits(target.get(i)));
+			}
 		}
-		buffer.clear();
-		buffer.limit(size);
-		interleave(buffer, sources, sizes);
-		this.buffer.load(gl, buffer);
 	}
-	
+
 	@Override
 	public int getNumVertices() {
-		return buffer.size() / stride;
+		return numVertices;
+	}
+
+	/**
+	 * @return bytes sent to the GPU by all updates so far
+	 */
+	public long getUploadedBytes() {
+		return uploadedBytes;
+	}
+
+	/**
+	 * @return number of instances drawn, 0 unless instanced
+	 */
+	public int getNumInstances() {
+		return numInstances;
+	}
+
+	@Override
+	public int getNumBuffers() {
+		return chunks.size();
 	}
 
 	@Override
-	public void bind(GL3 gl) {
-		buffer.bind(gl);
+	public void bind(GL3 gl, int index) {
+		Chunk chunk = chunks.get(index);
+		chunk.vertices.bind(gl);
+		if (chunk.indices != null)
+			chunk.indices.bind(gl);
+		bound = index;
+	}
+
+	@Override
+	public void draw(GL3 gl, int mode, int index) {
+		Chunk chunk = chunks.get(index);
+		if (instances != null) {
+			if (numInstances == 0)
+				return;
+			if (chunk.indices != null)
+				gl.glDrawElementsInstanced(mode, chunk.count, GL.GL_UNSIGNED_INT, 0, numInstances);
+			else
+				gl.glDrawArraysInstanced(mode, 0, chunk.count, numInstances);
+		} else if (chunk.indices != null) {
+			gl.glDrawElements(mode, chunk.count, GL.GL_UNSIGNED_INT, 0);
+		} else {
+			gl.glDrawArrays(mode, 0, chunk.count);
+		}
 	}
 
 	@Override
 	public void unbind(GL3 gl) {
 		IArrayBuffer.unbind(gl);
+		IntElementBuffer.unbind(gl);
 	}
 
 	@Override
 	public void enableAttribute(GL3 gl, int bufferIndex, int shaderIndex) {
-		if (!buffer.isEmpty()) {
+		if (bufferIndex < sizes.length) {
 			gl.glEnableVertexAttribArray(shaderIndex);
 			gl.glVertexAttribPointer(shaderIndex, sizes[bufferIndex], GL.GL_FLOAT, false, stride * 4,
 					offsets[bufferIndex] * 4);
+			return;
+		}
+		if (shaderIndex < 0)
+			return;
+
+		// one location per column of up to four floats, advancing once per instance
+		int i = bufferIndex - sizes.length;
+		instances.bind(gl);
+		for (int column = 0; 4 * column < instanceSizes[i]; ++column) {
+			gl.glEnableVertexAttribArray(shaderIndex + column);
+			gl.glVertexAttribPointer(shaderIndex + column, Math.min(4, instanceSizes[i] - 4 * column), GL.GL_FLOAT, false,
+					instanceStride * 4, (instanceOffsets[i] + 4 * column) * 4);
+			gl.glVertexAttribDivisor(shaderIndex + column, 1);
 		}
+		chunks.get(bound).vertices.bind(gl);
 	}
 
 	@Override
 	public void disableAttribute(GL3 gl, int bufferIndex, int shaderIndex) {
-		if (!buffer.isEmpty()) {
+		if (bufferIndex < sizes.length) {
 			gl.glDisableVertexAttribArray(shaderIndex);
+			return;
+		}
+		if (shaderIndex < 0)
+			return;
+
+		int i = bufferIndex - sizes.length;
+		for (int column = 0; 4 * column < instanceSizes[i]; ++column) {
+			gl.glVertexAttribDivisor(shaderIndex + column, 0);
+			gl.glDisableVertexAttribArray(shaderIndex + column);
 		}
 	}
 
 	@Override
 	public String toString() {
-		return buffer.size() + " " + stride;
+		return numVertices + " " + stride + " " + chunks.size();
+	}
+
+	// assigns the arrays their buffer indices from firstBufferIndex on and
+	// returns the stride
+	private static int layout(IShader shader, List<IShaderArray<?>> arrays, IGeometryAttribute[] attributes, int firstBufferIndex,
+			int firstAttributeIndex, int[] sizes, int[] offsets, int[] attributeIndices) {
+		int stride = 0;
+		for (int i = 0; i < arrays.size(); ++i) {
+			IShaderArray<?> array = arrays.get(i);
+			int attributeIndex = indexOf(attributes, array);
+			if (attributeIndex < 0)
+				throw new IllegalArgumentException("shader " + shader + " requires attribute " + array.id());
+			sizes[i] = attributes[attributeIndex].getNumComponents();
+			offsets[i] = stride;
+			attributeIndices[i] = firstAttributeIndex + attributeIndex;
+			array.setBufferIndex(firstBufferIndex + i);
+			stride += sizes[i];
+		}
+		return stride;
+	}
+
+	private static int indexOf(IGeometryAttribute[] attributes, IShaderArray<?> array) {
+		for (int i = 0; i < attributes.length; ++i) {
+			if (array.id().equals(attributes[i].id()))
+				return i;
+		}
+		return -1;
 	}
 
-	private static void interleave(FloatBuffer target, float[][] data, int[] sizes) {
-		for (int i = 0; i < data[0].length / sizes[0]; ++i) {
+	private static void interleave(float[] target, float[][] data, int[] sizes, int first, int count) {
+		int t = 0;
+		for (int i = first; i < first + count; ++i) {
 			for (int j = 0; j < data.length; ++j) {
 				int k = (i * sizes[j]) % data[j].length;
-				target.put(data[j], k, sizes[j]);
+				System.arraycopy(data[j], k, target, t, sizes[j]);
+				t += sizes[j];
 			}
 		}
 	}
+
+	private static void gather(float[] target, float[][] data, int[] sizes, int[] vertices, int count) {
+		int t = 0;
+		for (int i = 0; i < count; ++i) {
+			for (int j = 0; j < data.length; ++j) {
+				int k = (vertices[i] * sizes[j]) % data[j].length;
+				System.arraycopy(data[j], k, target, t, sizes[j]);
+				t += sizes[j];
+			}
+		}
+	}
+
+	// one VBO, with its element buffer if indexed
+	private static final class Chunk {
+		final FloatArrayBuffer vertices = new FloatArrayBuffer();
+		final Upload vertexUpload = new Upload(vertices);
+		IntElementBuffer indices;
+		Upload indexUpload;
+		int count;
+
+		// draws count vertices, those given by elements unless null; returns the bytes uploaded
+		long load(GL3 gl, Scratch scratch, float[] data, int numVertices, int stride, int[] elements, int count) {
+			this.count = count;
+			long bytes = 0;
+			if (elements != null) {
+				if (indices == null) {
+					indices = new IntElementBuffer();
+					indexUpload = new Upload(indices);
+				}
+				IntBuffer target = scratch.indexTarget(count);
+				target.put(elements, 0, count).flip();
+				bytes += indexUpload.upload(gl, target, target::get);
+			} else {
+				indices = null;
+				indexUpload = null;
+			}
+			int length = numVertices * stride;
+			FloatBuffer target = scratch.target(length);
+			target.put(data, 0, length).flip();
+			bytes += vertexUpload.upload(gl, target, i -> Float.floatToRawIntBits(target.get(i)));
+			return bytes;
+		}
+	}
+
+	// uploads the contents of one buffer, with the usage and the ranges the
+	// updates so far call for
+	private static final class Upload {
+		final IArrayBuffer buffer;
+		int usage = GL.GL_STATIC_DRAW;
+		boolean loaded;
+		int fullUpdates;
+		// the contents as int bits, kept once the buffer is dynamic
+		int[] shadow;
+
+		Upload(IArrayBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		// returns the bytes uploaded
+		long upload(GL3 gl, Buffer data, IntUnaryOperator bits) {
+			int length = data.limit();
+			if (usage == GL3.GL_STREAM_DRAW || shadow == null || shadow.length != length) {
+				if (loaded && usage == GL.GL_STATIC_DRAW)
+					usage = GL.GL_DYNAMIC_DRAW;
+				loaded = true;
+				buffer.load(gl, data, usage);
+				if (usage == GL.GL_DYNAMIC_DRAW) {
+					shadow = new int[length];
+					for (int i = 0; i < length; ++i)
+						shadow[i] = bits.applyAsInt(i);
+				}
+				return 4L * length;
+			}
+
+			// changed ranges, as start and end pairs, merged across small gaps
+			int[] ranges = new int[16];
+			int numRanges = 0;
+			int span = 0;
+			for (int i = 0; i < length; ++i) {
+				int b = bits.applyAsInt(i);
+				if (b == shadow[i])
+					continue;
+				shadow[i] = b;
+				if (numRanges > 0 && i - ranges[2 * numRanges - 1] < MERGE_GAP) {
+					span += i + 1 - ranges[2 * numRanges - 1];
+					ranges[2 * numRanges - 1] = i + 1;
+				} else {
+					span++;
+					if (2 * numRanges == ranges.length)
+						ranges = Arrays.copyOf(ranges, 2 * ranges.length);
+					ranges[2 * numRanges] = i;
+					ranges[2 * numRanges + 1] = i + 1;
+					numRanges++;
+				}
+			}
+			if (numRanges == 0)
+				return 0;
+
+			if (2 * span > length) {
+				if (++fullUpdates == STREAM_AFTER) {
+					usage = GL3.GL_STREAM_DRAW;
+					shadow = null;
+					buffer.load(gl, data, usage);
+					return 4L * length;
+				}
+				// one range from the first to the last change
+				ranges[1] = ranges[2 * numRanges - 1];
+				numRanges = 1;
+			} else {
+				fullUpdates = 0;
+			}
+			long bytes = 0;
+			for (int r = 0; r < numRanges; ++r) {
+				int start = ranges[2 * r];
+				int end = ranges[2 * r + 1];
+				data.limit(end).position(start);
+				buffer.update(gl, data, start);
+				bytes += 4L * (end - start);
+			}
+			data.limit(length).position(0);
+			return bytes;
+		}
+	}
+
+	// per render thread, grown as needed
+	private static final class Scratch {
+		float[] interleaved = new float[0];
+		// -1 for every vertex between uses
+		int[] local = new int[0];
+		int[] used = new int[0];
+		int[] runIndices = new int[0];
+		FloatBuffer target = BufferUtilities.createDirectFloatBuffer(1024 * 1024);
+		IntBuffer indexTarget = BufferUtilities.createDirectIntBuffer(1024);
+
+		float[] interleaved(int size) {
+			if (interleaved.length < size)
+				interleaved = new float[size];
+			return interleaved;
+		}
+
+		int[] local(int size) {
+			if (local.length < size) {
+				local = new int[size];
+				Arrays.fill(local, -1);
+			}
+			return local;
+		}
+
+		int[] used(int size) {
+			if (used.length < size)
+				used = new int[size];
+			return used;
+		}
+
+		int[] runIndices(int size) {
+			if (runIndices.length < size)
+				runIndices = new int[size];
+			return runIndices;
+		}
+
+		FloatBuffer target(int size) {
+			if (target.capacity() < size)
+				target = BufferUtilities.createDirectFloatBuffer(2 * size);
+			target.clear();
+			return target;
+		}
+
+		IntBuffer indexTarget(int size) {
+			if (indexTarget.capacity() < size)
+				indexTarget = BufferUtilities.createDirectIntBuffer(2 * size);
+			indexTarget.clear();
+			return indexTarget;
+		}
+	}
 }
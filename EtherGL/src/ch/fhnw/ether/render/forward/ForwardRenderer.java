@@ -173,6 +173,8 @@ public final class ForwardRenderer extends AbstractRenderer {
 
 	private void render(GL3 gl, IRenderTargetState state) {
 
+		culler.cull(state.getViewCameraState(), state.getRenderables());
+		sorter.begin();
 		globals.viewInfo.setCameraSpace(gl);
 
 		// 1. DEPTH QUEUE (DEPTH WRITE&TEST ENABLED, BLEND OFF)
@@ -209,6 +211,7 @@ public final class ForwardRenderer extends AbstractRenderer {
 		// 6. CLEANUP: RETURN TO DEFAULTS
 		gl.glDisable(GL.GL_BLEND);
 		gl.glDepthMask(true);
+		sorter.end();
 	}
 
 	private void runRenderThread() {
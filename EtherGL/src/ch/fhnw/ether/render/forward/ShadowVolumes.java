@@ -73,7 +73,7 @@ public final class ShadowVolumes {
 		gl.glDepthMask(false);
 		gl.glEnable(GL3.GL_DEPTH_CLAMP);
 		
-		overlay.update(gl, OVERLAY_MESH.getMaterial().getData(), OVERLAY_MESH.getTransformedGeometryData());
+		overlay.update(gl, OVERLAY_MESH.getMaterial().getData(), OVERLAY_MESH.getTransformedGeometryData(), OVERLAY_MESH.getGeometry().getIndices());
 
 		for (lightIndex = 0; lightIndex < numLights; ++lightIndex) {
 			gl.glClear(GL.GL_STENCIL_BUFFER_BIT);
@@ -51,6 +51,11 @@ public final class FloatArrayBuffer implements IArrayBuffer {
 
 	@Override
 	public void load(GL3 gl, Buffer data) {
+		load(gl, data, GL.GL_STATIC_DRAW);
+	}
+
+	@Override
+	public void load(GL3 gl, Buffer data, int usage) {
 		if (vbo == null) {
 			vbo = new GLObject(gl, Type.BUFFER);
 		}
@@ -62,14 +67,23 @@ public final class FloatArrayBuffer implements IArrayBuffer {
 
 			// transfer data to VBO
 			int numBytes = size * 4;
-			gl.glBufferData(GL.GL_ARRAY_BUFFER, numBytes, data, GL.GL_STATIC_DRAW);
+			gl.glBufferData(GL.GL_ARRAY_BUFFER, numBytes, data, usage);
 		} else {
 			size = 0;
-			gl.glBufferData(GL.GL_ARRAY_BUFFER, 0, BufferUtilities.EMPTY_FLOAT_BUFFER, GL.GL_STATIC_DRAW);
+			gl.glBufferData(GL.GL_ARRAY_BUFFER, 0, BufferUtilities.EMPTY_FLOAT_BUFFER, usage);
 		}
 		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
 	}
 
+	@Override
+	public void update(GL3 gl, Buffer data, int offset) {
+		if (offset < 0 || offset + data.remaining() > size)
+			throw new IndexOutOfBoundsException("update " + offset + "+" + data.remaining() + " outside buffer of size " + size);
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vbo.getId());
+		gl.glBufferSubData(GL.GL_ARRAY_BUFFER, offset * 4L, data.remaining() * 4L, data);
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+	}
+
 	@Override
 	public void clear(GL3 gl) {
 		load(gl, null);
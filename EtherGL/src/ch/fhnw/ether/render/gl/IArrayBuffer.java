@@ -37,6 +37,18 @@ import com.jogamp.opengl.GL3;
 public interface IArrayBuffer {
 	void load(GL3 gl, Buffer data);
 
+	/**
+	 * Replaces the contents with the data up to its limit, with the given
+	 * usage hint: GL_STATIC_DRAW, GL_DYNAMIC_DRAW or GL_STREAM_DRAW.
+	 */
+	void load(GL3 gl, Buffer data, int usage);
+
+	/**
+	 * Overwrites part of the contents with the data from its position to its
+	 * limit, starting at offset (in elements). The size stays the same.
+	 */
+	void update(GL3 gl, Buffer data, int offset);
+
 	void clear(GL3 gl);
 
 	void bind(GL3 gl);
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2013 - 2015 Stefan Muller Arisona, Simon Schubiger, Samuel von Stachelski
+ * Copyright (c) 2013 - 2015 FHNW & ETH Zurich
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *  Neither the name of FHNW / ETH Zurich nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package ch.fhnw.ether.render.gl;
+
+import java.nio.Buffer;
+import java.nio.IntBuffer;
+
+import ch.fhnw.ether.render.gl.GLObject.Type;
+import ch.fhnw.util.BufferUtilities;
+
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL3;
+
+/**
+ * Element (index) buffer of unsigned ints, for glDrawElements.
+ */
+public final class IntElementBuffer implements IArrayBuffer {
+	private static final IntBuffer EMPTY_INT_BUFFER = BufferUtilities.createDirectIntBuffer(0);
+
+	private GLObject ibo;
+	private int      size;
+
+	public IntElementBuffer() {
+	}
+
+	@Override
+	public void load(GL3 gl, Buffer data) {
+		load(gl, data, GL.GL_STATIC_DRAW);
+	}
+
+	@Override
+	public void load(GL3 gl, Buffer data, int usage) {
+		if (ibo == null) {
+			ibo = new GLObject(gl, Type.BUFFER);
+		}
+
+		gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, ibo.getId());
+		if (data != null && data.limit() != 0) {
+			size = data.limit();
+			data.rewind();
+			gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER, size * 4, data, usage);
+		} else {
+			size = 0;
+			gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER, 0, EMPTY_INT_BUFFER, usage);
+		}
+		gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 0);
+	}
+
+	@Override
+	public void update(GL3 gl, Buffer data, int offset) {
+		if (offset < 0 || offset + data.remaining() > size)
+			throw new IndexOutOfBoundsException("update " + offset + "+" + data.remaining() + " outside buffer of size " + size);
+		gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, ibo.getId());
+		gl.glBufferSubData(GL.GL_ELEMENT_ARRAY_BUFFER, offset * 4L, data.remaining() * 4L, data);
+		gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 0);
+	}
+
+	@Override
+	public void clear(GL3 gl) {
+		load(gl, null);
+	}
+
+	@Override
+	public void bind(GL3 gl) {
+		if (size > 0) {
+			gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, ibo.getId());
+		}
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public static void unbind(GL3 gl) {
+		gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 0);
+	}
+}
@@ -156,6 +156,10 @@ public final class Program {
 		}
 	}
 
+	public GLObject getGlObject() {
+		return programObject;
+	}
+
 	public void enable(GL3 gl) {
 		gl.glUseProgram(programObject.getId());
 	}
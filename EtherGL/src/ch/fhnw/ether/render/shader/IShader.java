@@ -34,6 +34,7 @@ import java.util.List;
 import com.jogamp.opengl.GL3;
 
 import ch.fhnw.ether.render.IVertexBuffer;
+import ch.fhnw.ether.render.gl.Program;
 import ch.fhnw.ether.render.variable.IShaderArray;
 import ch.fhnw.ether.render.variable.IShaderUniform;
 
@@ -58,6 +59,12 @@ public interface IShader {
 
 	void disable(GL3 gl);
 
+	/**
+	 * @return the program enable() makes current, shared by all shaders built
+	 *         from the same sources; null before the first update
+	 */
+	Program getProgram();
+
 	List<IShaderUniform<?>> getUniforms();
 
 	List<IShaderArray<?>> getArrays();
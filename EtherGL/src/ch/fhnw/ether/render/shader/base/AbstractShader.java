@@ -113,13 +113,13 @@ public abstract class AbstractShader implements IShader {
 
 	@Override
 	public final void render(GL3 gl, IVertexBuffer buffer) {
-		buffer.bind(gl);
-		arrays.forEach(attr -> attr.enable(gl, program, buffer));
-
 		int mode = MODE[type.ordinal()];
-		gl.glDrawArrays(mode, 0, buffer.getNumVertices());
-
-		arrays.forEach(attr -> attr.disable(gl, program, buffer));
+		for (int i = 0; i < buffer.getNumBuffers(); ++i) {
+			buffer.bind(gl, i);
+			arrays.forEach(attr -> attr.enable(gl, program, buffer));
+			buffer.draw(gl, mode, i);
+			arrays.forEach(attr -> attr.disable(gl, program, buffer));
+		}
 		buffer.unbind(gl);
 	}
 
@@ -130,6 +130,11 @@ public abstract class AbstractShader implements IShader {
 		program.disable(gl);
 	}
 
+	@Override
+	public final Program getProgram() {
+		return program;
+	}
+
 	@Override
 	public final List<IShaderUniform<?>> getUniforms() {
 		return uniforms;
@@ -36,9 +36,12 @@ import ch.fhnw.ether.render.shader.base.AbstractShader;
 import ch.fhnw.ether.render.variable.base.BooleanUniform;
 import ch.fhnw.ether.render.variable.builtin.ColorArray;
 import ch.fhnw.ether.render.variable.builtin.ColorUniform;
+import ch.fhnw.ether.render.variable.builtin.InstanceColorArray;
+import ch.fhnw.ether.render.variable.builtin.InstanceTransformArray;
 import ch.fhnw.ether.render.variable.builtin.PositionArray;
 import ch.fhnw.ether.render.variable.builtin.ViewUniformBlock;
 import ch.fhnw.ether.scene.attribute.IAttribute;
+import ch.fhnw.ether.scene.mesh.InstancedMesh;
 import ch.fhnw.ether.scene.mesh.geometry.IGeometry;
 import ch.fhnw.ether.scene.mesh.geometry.IGeometry.Primitive;
 import ch.fhnw.ether.scene.mesh.material.IMaterial;
@@ -49,14 +52,21 @@ public class LineShader extends AbstractShader {
 		super(IShader.class, "builtin.shader.lines", "unshaded_vct", Primitive.LINES);
 
 		boolean useVertexColors = attributes.contains(IGeometry.COLOR_ARRAY);
+		boolean useInstances = attributes.contains(InstancedMesh.INSTANCE_TRANSFORM_ARRAY);
 		
 		addArray(new PositionArray());
 
 		if (useVertexColors)
 			addArray(new ColorArray());
 
+		if (useInstances) {
+			addArray(new InstanceTransformArray());
+			addArray(new InstanceColorArray());
+		}
+
 		addUniform(new BooleanUniform("shader.vertex_colors_flag", "useVertexColors", () -> useVertexColors));
 		addUniform(new BooleanUniform("shader.texture_flag", "useTexture", () -> false));
+		addUniform(new BooleanUniform("shader.instances_flag", "useInstances", () -> useInstances));
 
 		addUniform(new ColorUniform(attributes.contains(IMaterial.COLOR) ? null : () -> RGBA.WHITE));
 		
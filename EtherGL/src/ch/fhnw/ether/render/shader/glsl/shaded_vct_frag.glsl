@@ -87,6 +87,10 @@ void main() {
 
 	float alpha = material.alpha;
 
+	// vd.color is white unless vertex colors are used
+	scatteredLight *= vd.color.rgb;
+	alpha *= vd.color.a;
+
 	if (useColorMap) {
 		vec4 t = texture(colorMap, vd.texCoord);
 		scatteredLight *= t.rgb;
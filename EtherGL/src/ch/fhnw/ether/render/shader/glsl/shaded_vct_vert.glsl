@@ -11,21 +11,34 @@ struct VertexData {
 
 uniform bool useVertexColors;
 uniform bool useColorMap;
+uniform bool useInstances;
 
 in vec4 vertexPosition;
 in vec4 vertexNormal;
 in vec4 vertexColor;
 in vec2 vertexTexCoord;
+in mat4 instanceTransform;
+in vec4 instanceColor;
 
 out VertexData vd;
 
 void main() {
-	vd.position = view.viewMatrix * vertexPosition;
-	vd.normal = normalize(view.normalMatrix * vertexNormal.xyz);
+	vec4 position = vertexPosition;
+	vec3 normal = vertexNormal.xyz;
+	if (useInstances) {
+		// turned but not corrected for scale, see InstancedMesh
+		position = instanceTransform * position;
+		normal = mat3(instanceTransform) * normal;
+	}
+
+	vd.position = view.viewMatrix * position;
+	vd.normal = normalize(view.normalMatrix * normal);
 	vd.color = useVertexColors ? vertexColor : vec4(1);
+	if (useInstances)
+		vd.color *= instanceColor;
 
 	if (useColorMap)
 		vd.texCoord = vertexTexCoord;
 
-	gl_Position = view.viewProjMatrix * vertexPosition;
+	gl_Position = view.viewProjMatrix * position;
 }
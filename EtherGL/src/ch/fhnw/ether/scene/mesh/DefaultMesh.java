@@ -216,7 +216,7 @@ public final class DefaultMesh implements IMesh {
 		return name;
 	}
 
-	private static void checkAttributeConsistency(IMaterial material, IGeometry geometry) {
+	static void checkAttributeConsistency(IMaterial material, IGeometry geometry) {
 		// primitive types must match
 		Primitive m = material.getType();
 		Primitive g = geometry.getType();
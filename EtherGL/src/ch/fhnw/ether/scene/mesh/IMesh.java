@@ -33,6 +33,7 @@ import java.util.EnumSet;
 
 import ch.fhnw.ether.scene.I3DObject;
 import ch.fhnw.ether.scene.mesh.geometry.IGeometry;
+import ch.fhnw.ether.scene.mesh.geometry.IGeometry.IGeometryAttribute;
 import ch.fhnw.ether.scene.mesh.material.IMaterial;
 import ch.fhnw.util.math.Mat4;
 
@@ -56,6 +57,8 @@ public interface IMesh extends I3DObject {
 
 	EnumSet<Flag> NO_FLAGS = EnumSet.noneOf(Flag.class);
 
+	IGeometryAttribute[] NO_ATTRIBUTES = {};
+
 	Queue getQueue();
 
 	EnumSet<Flag> getFlags();
@@ -82,4 +85,13 @@ public interface IMesh extends I3DObject {
 	 * @return
 	 */
 	float[][] getTransformedGeometryData();
+
+	/**
+	 * Get the attributes given once per instance, whose data follows the
+	 * geometry data in {@link #getTransformedGeometryData()}. Empty unless the
+	 * mesh is drawn instanced, see {@link InstancedMesh}.
+	 */
+	default IGeometryAttribute[] getInstanceAttributes() {
+		return NO_ATTRIBUTES;
+	}
 }
@@ -0,0 +1,337 @@
+/*
+ * Copyright (c) 2013 - 2015 Stefan Muller Arisona, Simon Schubiger, Samuel von Stachelski
+ * Copyright (c) 2013 - 2015 FHNW & ETH Zurich
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ *  Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *  Neither the name of FHNW / ETH Zurich nor the names of its contributors may
+ *   be used to endorse or promote products derived from this software without
+ *   specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package ch.fhnw.ether.scene.mesh;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+
+import ch.fhnw.ether.scene.mesh.geometry.IGeometry;
+import ch.fhnw.ether.scene.mesh.geometry.IGeometry.GeometryAttribute;
+import ch.fhnw.ether.scene.mesh.geometry.IGeometry.IGeometryAttribute;
+import ch.fhnw.ether.scene.mesh.material.IMaterial;
+import ch.fhnw.util.UpdateRequest;
+import ch.fhnw.util.color.RGBA;
+import ch.fhnw.util.math.Mat4;
+import ch.fhnw.util.math.Vec3;
+import ch.fhnw.util.math.geometry.BoundingBox;
+
+/**
+ * A mesh drawing one geometry many times, each instance with its own
+ * transform and color, in a single draw call per VBO.
+ * <p>
+ * The geometry is uploaded once, as it is; the instances go to a buffer of
+ * their own, a column major 4x4 transform and an RGBA color each. The
+ * transform of the mesh is applied to the instance transforms, the color
+ * multiplies the material color. Normals are turned by the instance
+ * transforms without correcting for scale, so instances should be scaled
+ * alike along all axes if shaded. Changing instances only uploads the
+ * instances that changed.
+ * <p>
+ * The builtin triangle and line shaders draw instances; shadow volumes
+ * don't.
+ */
+public final class InstancedMesh implements IMesh {
+	// column major 4x4 transform of each instance, applied before the mesh transform
+	public static final IGeometryAttribute INSTANCE_TRANSFORM_ARRAY = new GeometryAttribute("builtin.mesh.instance_transform_array", 16);
+
+	// color of each instance, multiplied with the material color
+	public static final IGeometryAttribute INSTANCE_COLOR_ARRAY = new GeometryAttribute("builtin.mesh.instance_color_array", 4);
+
+	private static final IGeometryAttribute[] INSTANCE_ATTRIBUTES = { INSTANCE_TRANSFORM_ARRAY, INSTANCE_COLOR_ARRAY };
+	private static final int T = 16;
+	private static final int C = 4;
+
+	private final Queue queue;
+	private final EnumSet<Flag> flags;
+	private final IMaterial material;
+	private final IGeometry geometry;
+	private Vec3 position = Vec3.ZERO;
+	private Mat4 transform = Mat4.ID;
+	private BoundingBox bb;
+
+	private float[] transforms = new float[0];
+	private float[] colors = new float[0];
+	private int numInstances;
+
+	private String name = "unnamed_instanced_mesh";
+
+	private final UpdateRequest update = new UpdateRequest(true);
+
+	public InstancedMesh(IMaterial material, IGeometry geometry) {
+		this(material, geometry, Queue.DEPTH);
+	}
+
+	public InstancedMesh(IMaterial material, IGeometry geometry, Queue queue) {
+		this(material, geometry, queue, NO_FLAGS);
+	}
+
+	public InstancedMesh(IMaterial material, IGeometry geometry, Queue queue, EnumSet<Flag> flags) {
+		this.material = material;
+		this.geometry = geometry;
+		this.queue = queue;
+		this.flags = flags;
+		DefaultMesh.checkAttributeConsistency(material, geometry);
+	}
+
+	// instances
+
+	public int getNumInstances() {
+		return numInstances;
+	}
+
+	/**
+	 * Adds an instance and returns its index.
+	 */
+	public int addInstance(Mat4 transform, RGBA color) {
+		if (numInstances == transforms.length / T) {
+			int capacity = Math.max(16, 2 * numInstances);
+			transforms = Arrays.copyOf(transforms, capacity * T);
+			colors = Arrays.copyOf(colors, capacity * C);
+		}
+		setInstance(numInstances++, transform, color);
+		return numInstances - 1;
+	}
+
+	public void setInstance(int index, Mat4 transform, RGBA color) {
+		check(index);
+		System.arraycopy(transform.toArray(), 0, transforms, index * T, T);
+		System.arraycopy(color.toArray(), 0, colors, index * C, C);
+		changed();
+	}
+
+	public void setInstanceTransform(int index, Mat4 transform) {
+		check(index);
+		System.arraycopy(transform.toArray(), 0, transforms, index * T, T);
+		changed();
+	}
+
+	public void setInstanceColor(int index, RGBA color) {
+		check(index);
+		System.arraycopy(color.toArray(), 0, colors, index * C, C);
+		changed();
+	}
+
+	public Mat4 getInstanceTransform(int index) {
+		check(index);
+		return new Mat4(Arrays.copyOfRange(transforms, index * T, index * T + T));
+	}
+
+	public RGBA getInstanceColor(int index) {
+		check(index);
+		return new RGBA(Arrays.copyOfRange(colors, index * C, index * C + C));
+	}
+
+	/**
+	 * Removes an instance; the last instance takes its index.
+	 */
+	public void removeInstance(int index) {
+		check(index);
+		numInstances--;
+		System.arraycopy(transforms, numInstances * T, transforms, index * T, T);
+		System.arraycopy(colors, numInstances * C, colors, index * C, C);
+		changed();
+	}
+
+	public void clearInstances() {
+		numInstances = 0;
+		changed();
+	}
+
+	// I3DObject implementation
+
+	@Override
+	public BoundingBox getBounds() {
+		if (bb == null) {
+			bb = new BoundingBox();
+			BoundingBox local = new BoundingBox();
+			local.add(geometry.getData()[0]);
+			if (local.isValid()) {
+				float[] world = worldTransforms();
+				float[] corners = new float[24];
+				for (int i = 0; i < 8; ++i) {
+					corners[3 * i] = (i & 1) == 0 ? local.getMinX() : local.getMaxX();
+					corners[3 * i + 1] = (i & 2) == 0 ? local.getMinY() : local.getMaxY();
+					corners[3 * i + 2] = (i & 4) == 0 ? local.getMinZ() : local.getMaxZ();
+				}
+				for (int i = 0; i < numInstances; ++i)
+					bb.add(instance(world, i).transform(corners));
+			}
+		}
+		return bb;
+	}
+
+	@Override
+	public Vec3 getPosition() {
+		return position;
+	}
+
+	@Override
+	public void setPosition(Vec3 position) {
+		this.position = position;
+		changed();
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	// IMesh implementation
+
+	@Override
+	public Queue getQueue() {
+		return queue;
+	}
+
+	@Override
+	public EnumSet<Flag> getFlags() {
+		return flags;
+	}
+
+	@Override
+	public boolean hasFlag(Flag flag) {
+		return flags.contains(flag);
+	}
+
+	@Override
+	public IMaterial getMaterial() {
+		return material;
+	}
+
+	@Override
+	public IGeometry getGeometry() {
+		return geometry;
+	}
+
+	@Override
+	public Mat4 getTransform() {
+		return transform;
+	}
+
+	@Override
+	public void setTransform(Mat4 transform) {
+		if (this.transform != transform) {
+			this.transform = transform;
+			changed();
+		}
+	}
+
+	/**
+	 * Get the transformed positions of all instances, one after another.
+	 */
+	@Override
+	public float[] getTransformedPositionData() {
+		float[] positions = geometry.getData()[0];
+		float[] world = worldTransforms();
+		float[] result = new float[numInstances * positions.length];
+		float[] transformed = new float[positions.length];
+		for (int i = 0; i < numInstances; ++i) {
+			instance(world, i).transform(positions, transformed);
+			System.arraycopy(transformed, 0, result, i * positions.length, positions.length);
+		}
+		return result;
+	}
+
+	/**
+	 * Get a copy of the geometry data, as it is, followed by the world
+	 * transforms and the colors of the instances.
+	 */
+	@Override
+	public float[][] getTransformedGeometryData() {
+		float[][] src = geometry.getData();
+		float[][] dst = new float[src.length + INSTANCE_ATTRIBUTES.length][];
+		for (int i = 0; i < src.length; ++i)
+			dst[i] = Arrays.copyOf(src[i], src[i].length);
+		dst[src.length] = worldTransforms();
+		dst[src.length + 1] = Arrays.copyOf(colors, numInstances * C);
+		return dst;
+	}
+
+	@Override
+	public IGeometryAttribute[] getInstanceAttributes() {
+		return INSTANCE_ATTRIBUTES;
+	}
+
+	@Override
+	public UpdateRequest getUpdater() {
+		return update;
+	}
+
+	private void changed() {
+		bb = null;
+		update.request();
+	}
+
+	private void check(int index) {
+		if (index < 0 || index >= numInstances)
+			throw new IndexOutOfBoundsException("instance " + index + " of " + numInstances);
+	}
+
+	// the instance transforms with position and transform of the mesh applied
+	private float[] worldTransforms() {
+		Mat4 tp = Mat4.multiply(Mat4.translate(position), transform);
+		float[] world = Arrays.copyOf(transforms, numInstances * T);
+		if (tp.equals(Mat4.ID))
+			return world;
+		for (int i = 0; i < world.length; i += 4) {
+			float x = world[i], y = world[i + 1], z = world[i + 2], w = world[i + 3];
+			world[i] = tp.m00 * x + tp.m01 * y + tp.m02 * z + tp.m03 * w;
+			world[i + 1] = tp.m10 * x + tp.m11 * y + tp.m12 * z + tp.m13 * w;
+			world[i + 2] = tp.m20 * x + tp.m21 * y + tp.m22 * z + tp.m23 * w;
+			world[i + 3] = tp.m30 * x + tp.m31 * y + tp.m32 * z + tp.m33 * w;
+		}
+		return world;
+	}
+
+	private static Mat4 instance(float[] transforms, int index) {
+		return new Mat4(Arrays.copyOfRange(transforms, index * T, index * T + T));
+	}
+
+	// we purposely leave equals and hashcode at default (identity)
+	@Override
+	public boolean equals(Object obj) {
+		return super.equals(obj);
+	}
+
+	@Override
+	public int hashCode() {
+		return super.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
@@ -30,19 +30,26 @@
 package ch.fhnw.ether.scene.mesh;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 import ch.fhnw.ether.scene.mesh.IMesh.Flag;
 import ch.fhnw.ether.scene.mesh.geometry.DefaultGeometry;
+import ch.fhnw.ether.scene.mesh.geometry.IGeometry;
 import ch.fhnw.ether.scene.mesh.geometry.IGeometry.IGeometryAttribute;
 import ch.fhnw.ether.scene.mesh.geometry.IGeometry.Primitive;
 import ch.fhnw.ether.scene.mesh.material.ColorMaterial;
 import ch.fhnw.ether.scene.mesh.material.IMaterial;
 import ch.fhnw.ether.scene.mesh.material.ShadedMaterial;
-import ch.fhnw.util.FloatList;
 import ch.fhnw.util.color.RGB;
 import ch.fhnw.util.color.RGBA;
+import ch.fhnw.util.math.Mat3;
+import ch.fhnw.util.math.Mat4;
 import ch.fhnw.util.math.Vec3;
 import ch.fhnw.util.math.geometry.GeometryUtilities;
 
@@ -129,6 +136,14 @@ public final class MeshUtilities {
 	public static IMesh createCube(IMaterial material) {
 		return new DefaultMesh(material, CUBE_GEOMETRY.copy());
 	}
+
+	/**
+	 * Creates a mesh of unit cubes without any instances yet, which all share
+	 * one copy of the cube geometry.
+	 */
+	public static InstancedMesh createInstancedCubes(IMaterial material) {
+		return new InstancedMesh(material, CUBE_GEOMETRY.copy());
+	}
 	
 	public static IMesh createGroundPlane() {
 		return createGroundPlane(new ShadedMaterial(RGB.WHITE));
@@ -174,38 +189,182 @@ public final class MeshUtilities {
 		}
 	}
 	
+	/**
+	 * Merges all meshes with equal material, queue and flags into one mesh per
+	 * group. Groups keep the order of their first mesh, meshes within a group
+	 * keep their order. Positions and normals are transformed by each mesh's
+	 * position and transform.
+	 */
 	public static List<IMesh> mergeMeshes(List<IMesh> meshes) {
-		// make a copy of input because we're going to modify the list
-		meshes = new ArrayList<>(meshes);
-
-		final List<IMesh> result = new ArrayList<>();		
-		while (!meshes.isEmpty()) {
-			final IMesh first = meshes.get(0);
-			List<IMesh> same = meshes.stream().filter(m -> m.getMaterial().equals(first.getMaterial()) &&
-														   m.getQueue().equals(first.getQueue()) && 
-														   m.getFlags().equals(first.getFlags())).collect(Collectors.toList());
-			
-			IMaterial material = first.getMaterial();
-			IGeometryAttribute[] attributes = material.getGeometryAttributes();
-			FloatList data[] = new FloatList[attributes.length];
-			for (int i = 0; i < data.length; ++i)
-				data[i] = new FloatList();
-			
-			for (IMesh mesh : same) {
-				IGeometryAttribute[] ga = mesh.getGeometry().getAttributes();
-				float[][] gd = mesh.getTransformedGeometryData();
-				for (int i = 0; i < attributes.length; ++i) {
-					for (int j = 0; j < ga.length; j++) {
-						if (attributes[i].id().equals(ga[j].id())) {
-							data[i].addAll(gd[j]);
-							continue;
-						}
+		return mergeMeshes(meshes, false);
+	}
+
+	/**
+	 * Same as {@link #mergeMeshes(List)}, optionally building the groups in
+	 * parallel.
+	 */
+	public static List<IMesh> mergeMeshes(List<IMesh> meshes, boolean parallel) {
+		return mergeMeshes(meshes, parallel, false);
+	}
+
+	/**
+	 * Same as {@link #mergeMeshes(List, boolean)}, but welds identical
+	 * vertices (all attributes equal) of each group into one, so the merged
+	 * meshes are drawn through an index buffer with less vertex data.
+	 */
+	public static List<IMesh> mergeMeshesIndexed(List<IMesh> meshes, boolean parallel) {
+		return mergeMeshes(meshes, parallel, true);
+	}
+
+	private static List<IMesh> mergeMeshes(List<IMesh> meshes, boolean parallel, boolean indexed) {
+		final List<List<IMesh>> groups = groupMeshes(meshes);
+		final IMesh[] result = new IMesh[groups.size()];
+		forEachGroup(groups.size(), parallel, g -> {
+			final List<IMesh> same = groups.get(g);
+			final IMesh first = same.get(0);
+			final IMaterial material = first.getMaterial();
+			final IGeometryAttribute[] attributes = material.getGeometryAttributes();
+			float[][] data = mergeData(same);
+			int[] indices = null;
+			if (indexed) {
+				indices = new int[data[0].length / attributes[0].getNumComponents()];
+				data = weld(attributes, data, indices);
+			}
+			result[g] = new DefaultMesh(material, new DefaultGeometry(material.getType(), attributes, data, indices), first.getQueue(), first.getFlags());
+		});
+		return new ArrayList<>(Arrays.asList(result));
+	}
+
+	private static final class GroupKey {
+		final IMaterial material;
+		final IMesh.Queue queue;
+		final EnumSet<Flag> flags;
+
+		GroupKey(IMesh mesh) {
+			material = mesh.getMaterial();
+			queue = mesh.getQueue();
+			flags = mesh.getFlags();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof GroupKey))
+				return false;
+			GroupKey k = (GroupKey) obj;
+			return material.equals(k.material) && queue.equals(k.queue) && flags.equals(k.flags);
+		}
+
+		@Override
+		public int hashCode() {
+			return (material.hashCode() * 31 + queue.hashCode()) * 31 + flags.hashCode();
+		}
+	}
+
+	private static List<List<IMesh>> groupMeshes(List<IMesh> meshes) {
+		final Map<GroupKey, List<IMesh>> groups = new LinkedHashMap<>();
+		for (IMesh mesh : meshes)
+			groups.computeIfAbsent(new GroupKey(mesh), k -> new ArrayList<>()).add(mesh);
+		return new ArrayList<>(groups.values());
+	}
+
+	private static void forEachGroup(int n, boolean parallel, IntConsumer action) {
+		IntStream range = IntStream.range(0, n);
+		(parallel ? range.parallel() : range).forEach(action);
+	}
+
+	private static float[][] mergeData(List<IMesh> same) {
+		final IGeometryAttribute[] attributes = same.get(0).getMaterial().getGeometryAttributes();
+
+		// map material attributes to geometry attributes once per mesh and size the output
+		final int[][] sources = new int[same.size()][attributes.length];
+		final int[] sizes = new int[attributes.length];
+		for (int m = 0; m < same.size(); ++m) {
+			IGeometry geometry = same.get(m).getGeometry();
+			IGeometryAttribute[] ga = geometry.getAttributes();
+			float[][] gd = geometry.getData();
+			int[] indices = geometry.getIndices();
+			for (int i = 0; i < attributes.length; ++i) {
+				sources[m][i] = -1;
+				for (int j = 0; j < ga.length; j++) {
+					if (attributes[i].id().equals(ga[j].id())) {
+						sources[m][i] = j;
+						sizes[i] += indices == null ? gd[j].length : indices.length * ga[j].getNumComponents();
+						break;
 					}
 				}
-			}			
-			result.add(new DefaultMesh(material, new DefaultGeometry(material.getType(), attributes, data), first.getQueue(), first.getFlags()));
-			meshes.removeAll(same);
+			}
+		}
+
+		final float[][] data = new float[attributes.length][];
+		for (int i = 0; i < data.length; ++i)
+			data[i] = new float[sizes[i]];
+		final int[] offsets = new int[attributes.length];
+		for (int m = 0; m < same.size(); ++m) {
+			IMesh mesh = same.get(m);
+			float[][] gd = mesh.getGeometry().getData();
+			int[] indices = mesh.getGeometry().getIndices();
+			Mat4 tp = mesh.getPosition().equals(Vec3.ZERO) ? mesh.getTransform() : Mat4.multiply(Mat4.translate(mesh.getPosition()), mesh.getTransform());
+			for (int i = 0; i < attributes.length; ++i) {
+				int j = sources[m][i];
+				if (j < 0)
+					continue;
+				float[] src = gd[j];
+				if (tp != Mat4.ID && j == 0)
+					src = tp.transform(src);
+				else if (tp != Mat4.ID && attributes[i].equals(IGeometry.NORMAL_ARRAY))
+					src = new Mat3(tp).inverse().transpose().transform(src);
+				// indexed geometry is merged as drawn
+				if (indices != null)
+					src = GeometryUtilities.expand(src, attributes[i].getNumComponents(), indices);
+				System.arraycopy(src, 0, data[i], offsets[i], src.length);
+				offsets[i] += src.length;
+			}
+		}
+		return data;
+	}
+
+	private static float[][] weld(IGeometryAttribute[] attributes, float[][] data, int[] indices) {
+		final int n = indices.length;
+		final int[] components = new int[attributes.length];
+		for (int i = 0; i < attributes.length; ++i)
+			components[i] = attributes[i].getNumComponents();
+
+		// open addressing table of vertex numbers, sized to a power of two at least twice n
+		final int[] table = new int[Integer.highestOneBit(Math.max(1, n) * 2 - 1) << 1];
+		Arrays.fill(table, -1);
+		final int mask = table.length - 1;
+		final int[] unique = new int[n];
+		int count = 0;
+		for (int v = 0; v < n; ++v) {
+			int h = 1;
+			for (int i = 0; i < data.length; ++i)
+				for (int c = 0; c < components[i]; ++c)
+					h = 31 * h + Float.floatToIntBits(data[i][v * components[i] + c]);
+			h ^= h >>> 16;
+			int slot = h & mask;
+			while (table[slot] >= 0 && !sameVertex(data, components, unique[table[slot]], v))
+				slot = (slot + 1) & mask;
+			if (table[slot] < 0) {
+				table[slot] = count;
+				unique[count++] = v;
+			}
+			indices[v] = table[slot];
 		}
-		return result;
-	}	
+
+		final float[][] welded = new float[data.length][];
+		for (int i = 0; i < data.length; ++i) {
+			welded[i] = new float[count * components[i]];
+			for (int u = 0; u < count; ++u)
+				System.arraycopy(data[i], unique[u] * components[i], welded[i], u * components[i], components[i]);
+		}
+		return welded;
+	}
+
+	private static boolean sameVertex(float[][] data, int[] components, int a, int b) {
+		for (int i = 0; i < data.length; ++i)
+			for (int c = 0; c < components[i]; ++c)
+				if (Float.floatToIntBits(data[i][a * components[i] + c]) != Float.floatToIntBits(data[i][b * components[i] + c]))
+					return false;
+		return true;
+	}
 }
@@ -38,6 +38,7 @@ public final class DefaultGeometry extends AbstractGeometry {
 
 	private final IGeometryAttribute[] attributes;
 	private final float[][] data;
+	private int[] indices;
 
 	/**
 	 * Generates geometry from the given data with the given attribute-layout.
@@ -54,12 +55,36 @@ public final class DefaultGeometry extends AbstractGeometry {
 	 *            Vertex data, may contain positions, colors, normals, etc.
 	 */
 	public DefaultGeometry(Primitive type, IGeometryAttribute[] attributes, float[][] data) {
+		this(type, attributes, data, null);
+	}
+
+	/**
+	 * Generates indexed geometry from the given data with the given
+	 * attribute-layout. All data is copied. Changes on the passed arrays will
+	 * not affect this geometry.
+	 * 
+	 * @param type
+	 *            Primitive type of this geometry (points, lines, triangles)
+	 * 
+	 * @param attributes
+	 *            Kind of attributes, must be same order as attribData
+	 * 
+	 * @param data
+	 *            Vertex data, may contain positions, colors, normals, etc.
+	 * 
+	 * @param indices
+	 *            Vertices to draw, one per vertex of every primitive, or null
+	 *            to draw all vertices in order
+	 */
+	public DefaultGeometry(Primitive type, IGeometryAttribute[] attributes, float[][] data, int[] indices) {
 		super(type);
 		this.attributes = Arrays.copyOf(attributes, attributes.length);
 		this.data = new float[data.length][];
 		for (int i = 0; i < data.length; ++i)
 			this.data[i] = Arrays.copyOf(data[i], data[i].length);
+		this.indices = indices == null ? null : Arrays.copyOf(indices, indices.length);
 		checkAttributeConsistency(attributes, this.data);
+		checkIndices(type, this.data, this.indices);
 	}
 	
 	public DefaultGeometry(Primitive type, IGeometryAttribute[] attributes, FloatList[] data) {
@@ -77,6 +102,7 @@ public final class DefaultGeometry extends AbstractGeometry {
 		this.data = new float[g.data.length][];
 		for (int i = 0; i < g.data.length; ++i)
 			this.data[i] = Arrays.copyOf(g.data[i], g.data[i].length);
+		this.indices = g.indices == null ? null : Arrays.copyOf(g.indices, g.indices.length);
 	}
 
 	/**
@@ -85,7 +111,7 @@ public final class DefaultGeometry extends AbstractGeometry {
 	 * @return the copy
 	 */
 	public DefaultGeometry copy() {
-		return new DefaultGeometry(getType(), attributes, data);
+		return new DefaultGeometry(getType(), attributes, data, indices);
 	}
 	
 	@Override
@@ -98,6 +124,11 @@ public final class DefaultGeometry extends AbstractGeometry {
 		return data;
 	}
 
+	@Override
+	public int[] getIndices() {
+		return indices;
+	}
+
 	@Override
 	public void inspect(int index, IAttributeVisitor visitor) {
 		visitor.visit(attributes[index], data[index]);
@@ -118,6 +149,16 @@ public final class DefaultGeometry extends AbstractGeometry {
 	public void modify(IAttributesVisitor visitor) {
 		visitor.visit(attributes, data);
 		checkAttributeConsistency(attributes, data);
+		checkIndices(getType(), data, indices);
+		updateRequest();
+	}
+
+	@Override
+	public void modify(IAttributesVisitor visitor, int[] indices) {
+		visitor.visit(attributes, data);
+		checkAttributeConsistency(attributes, data);
+		checkIndices(getType(), data, indices);
+		this.indices = indices;
 		updateRequest();
 	}
 
@@ -143,6 +184,19 @@ public final class DefaultGeometry extends AbstractGeometry {
 		}
 	}
 
+	private static void checkIndices(Primitive type, float[][] data, int[] indices) {
+		if (indices == null)
+			return;
+		int verticesPerPrimitive = type == Primitive.TRIANGLES ? 3 : type == Primitive.LINES ? 2 : 1;
+		if (indices.length % verticesPerPrimitive != 0)
+			throw new IllegalArgumentException("# indices " + indices.length + " is not a multiple of " + verticesPerPrimitive + " for " + type);
+		int numElements = data[0].length / POSITION_ARRAY.getNumComponents();
+		for (int index : indices) {
+			if (index < 0 || index >= numElements)
+				throw new IllegalArgumentException("index " + index + " out of range of " + numElements + " vertices");
+		}
+	}
+
 	// ---- static helpers for simple geometry creation from arrays
 
 	public static DefaultGeometry createV(Primitive type, float[] vertices) {
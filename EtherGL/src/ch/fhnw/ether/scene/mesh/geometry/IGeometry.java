@@ -114,6 +114,13 @@ public interface IGeometry extends IUpdateTracker {
 	 */
 	float[][] getData();
 
+	/**
+	 * Get the vertices to draw, one index into the data per vertex of every
+	 * primitive, or null if all vertices are drawn in order. Warning: Does not
+	 * copy and returns internal array.
+	 */
+	int[] getIndices();
+
 	/**
 	 * Inspect specific attribute of this geometry through visitor.
 	 * 
@@ -155,4 +162,19 @@ public interface IGeometry extends IUpdateTracker {
 	 *             if geometry cannot be modified.
 	 */
 	void modify(IAttributesVisitor visitor);
+
+	/**
+	 * Modify all attributes of this geometry through visitor and replace its
+	 * indices, which are taken as they are, not copied.
+	 * 
+	 * @param visitor
+	 *            attributes visitor used for modification
+	 * @param indices
+	 *            indices into the modified data, or null to draw all
+	 *            vertices in order
+	 * 
+	 * @throws UnsupportedOperationException
+	 *             if geometry cannot be modified.
+	 */
+	void modify(IAttributesVisitor visitor, int[] indices);
 }
@@ -52,10 +52,22 @@ public final class ShadedMaterial extends AbstractMaterial {
 		this(emission, ambient, diffuse, specular, shininess, strength, alpha, null);
 	}
 
+	public ShadedMaterial(RGB emission, RGB ambient, RGB diffuse, RGB specular, float shininess, float strength, float alpha, boolean perVertexColor) {
+		this(emission, ambient, diffuse, specular, shininess, strength, alpha, null, perVertexColor);
+	}
+
 	public ShadedMaterial(RGB emission, RGB ambient, RGB diffuse, RGB specular, float shininess, float strength, float alpha, Texture colorMap) {
+		this(emission, ambient, diffuse, specular, shininess, strength, alpha, colorMap, false);
+	}
+
+	/**
+	 * With perVertexColor, the geometry carries a color per vertex which
+	 * modulates ambient and diffuse light, like the color map does.
+	 */
+	public ShadedMaterial(RGB emission, RGB ambient, RGB diffuse, RGB specular, float shininess, float strength, float alpha, Texture colorMap, boolean perVertexColor) {
 		super(material(IMaterial.EMISSION, IMaterial.AMBIENT, IMaterial.DIFFUSE, IMaterial.SPECULAR,
 					   IMaterial.SHININESS, IMaterial.STRENGTH, IMaterial.ALPHA, colorMap != null ? IMaterial.COLOR_MAP : null),
-			  geometry(IGeometry.POSITION_ARRAY, IGeometry.NORMAL_ARRAY, colorMap != null ? IGeometry.COLOR_MAP_ARRAY : null));
+			  geometry(IGeometry.POSITION_ARRAY, IGeometry.NORMAL_ARRAY, perVertexColor ? IGeometry.COLOR_ARRAY : null, colorMap != null ? IGeometry.COLOR_MAP_ARRAY : null));
 
 		this.emission = emission;
 		this.ambient = ambient;
@@ -29,6 +29,7 @@
 
 package ch.fhnw.util;
 
+import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -40,9 +41,19 @@ public final class UpdateRequest {
 	public interface IUpdateTracker {
 		UpdateRequest getUpdater();
 	}
-	
-	
+
+	/**
+	 * Told when a request is made while none is pending, on the thread making
+	 * it. Must be quick and thread safe, e.g. put the tracker in a queue.
+	 */
+	public interface IUpdateListener {
+		void updateRequested(UpdateRequest request);
+	}
+
+	private static final IUpdateListener[] NO_LISTENERS = {};
+
 	private final AtomicBoolean update = new AtomicBoolean();
+	private volatile IUpdateListener[] listeners = NO_LISTENERS;
 
 	public UpdateRequest() {
 	}
@@ -56,7 +67,35 @@ public final class UpdateRequest {
 	 * Request an update.
 	 */
 	public void request() {
-		update.set(true);
+		if (!update.getAndSet(true)) {
+			for (IUpdateListener listener : listeners)
+				listener.updateRequested(this);
+		}
+	}
+
+	/**
+	 * Add a listener, told about requests from now on; a request already
+	 * pending is not reported.
+	 */
+	public synchronized void addListener(IUpdateListener listener) {
+		IUpdateListener[] l = Arrays.copyOf(listeners, listeners.length + 1);
+		l[listeners.length] = listener;
+		listeners = l;
+	}
+
+	/**
+	 * Remove a listener added before.
+	 */
+	public synchronized void removeListener(IUpdateListener listener) {
+		for (int i = 0; i < listeners.length; ++i) {
+			if (listeners[i] == listener) {
+				IUpdateListener[] l = new IUpdateListener[listeners.length - 1];
+				System.arraycopy(listeners, 0, l, 0, i);
+				System.arraycopy(listeners, i + 1, l, i, l.length - i);
+				listeners = l;
+				return;
+			}
+		}
 	}
 
 	/**
@@ -213,6 +213,33 @@ public final class GeometryUtilities {
 		return normals;
 	}
 
+	/**
+	 * Expands indexed attribute data of the given number of components into
+	 * one value per index, the vertices as drawn.
+	 */
+	public static float[] expand(float[] values, int size, int[] indices) {
+		return expand(values, size, indices, values.length / size);
+	}
+
+	/**
+	 * Same as {@link #expand(float[], int, int[])} for values holding several
+	 * copies of numVertices indexed vertices one after another, such as the
+	 * positions of all instances of a mesh; each copy is expanded in turn.
+	 */
+	public static float[] expand(float[] values, int size, int[] indices, int numVertices) {
+		int copies = numVertices == 0 ? 0 : values.length / (numVertices * size);
+		float[] expanded = new float[copies * indices.length * size];
+		int e = 0;
+		for (int c = 0; c < copies; ++c) {
+			int base = c * numVertices;
+			for (int index : indices) {
+				System.arraycopy(values, (base + index) * size, expanded, e, size);
+				e += size;
+			}
+		}
+		return expanded;
+	}
+
 	public static float intersectRayWithTriangle(Vec3 rayOrigin, Vec3 rayDirection, float[] triangle, int index) {
 		return intersectRayWithTriangleOrPlane(rayOrigin, rayDirection, triangle, index, true);
 	}
@@ -0,0 +1,150 @@
+package benchmark;
+
+import ch.fhnw.ether.scene.mesh.DefaultMesh;
+import ch.fhnw.ether.scene.mesh.IMesh;
+import ch.fhnw.ether.scene.mesh.MeshUtilities;
+import ch.fhnw.ether.scene.mesh.geometry.DefaultGeometry;
+import ch.fhnw.ether.scene.mesh.geometry.IGeometry.IGeometryAttribute;
+import ch.fhnw.ether.scene.mesh.geometry.IGeometry.Primitive;
+import ch.fhnw.ether.scene.mesh.material.ColorMaterial;
+import ch.fhnw.ether.scene.mesh.material.IMaterial;
+import ch.fhnw.util.FloatList;
+import ch.fhnw.util.color.RGBA;
+import ch.fhnw.util.math.Vec3;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * JMH benchmarks of MeshUtilities.mergeMeshes. Merges single triangle meshes
+ * spread over a number of materials, every tenth one translated: grouped,
+ * grouped in parallel, and grouped in parallel with welded vertices drawn
+ * through an index buffer. The implementation mergeMeshes replaced runs as
+ * well for comparison, only up to 100000 meshes as it is quadratic in their
+ * number.
+ * <p>
+ * Runs with the benchmark profile like {@link PipelineBenchmark}, e.g.
+ * mvn -Pbenchmark test-compile exec:exec -Djmh.args="-prof gc MergeMeshesBenchmark".
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class MergeMeshesBenchmark {
+
+    private static final int NUM_MATERIALS = 32;
+
+    @State(Scope.Benchmark)
+    public static class Meshes {
+        @Param({"10000", "50000", "100000", "500000"})
+        public int meshes;
+
+        List<IMesh> input;
+
+        @Setup
+        public void prepare() {
+            input = createMeshes(meshes);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class LegacyMeshes {
+        @Param({"10000", "50000", "100000"})
+        public int legacyMeshes;
+
+        List<IMesh> input;
+
+        @Setup
+        public void prepare() {
+            input = createMeshes(legacyMeshes);
+        }
+    }
+
+    @Benchmark
+    public List<IMesh> legacy(LegacyMeshes meshes) {
+        return legacyMerge(meshes.input);
+    }
+
+    @Benchmark
+    public List<IMesh> grouped(Meshes meshes) {
+        return MeshUtilities.mergeMeshes(meshes.input, false);
+    }
+
+    @Benchmark
+    public List<IMesh> parallel(Meshes meshes) {
+        return MeshUtilities.mergeMeshes(meshes.input, true);
+    }
+
+    @Benchmark
+    public List<IMesh> indexed(Meshes meshes) {
+        return MeshUtilities.mergeMeshesIndexed(meshes.input, true);
+    }
+
+    private static List<IMesh> createMeshes(int n) {
+        IMaterial[] materials = new IMaterial[NUM_MATERIALS];
+        for (int i = 0; i < materials.length; i++) {
+            materials[i] = new ColorMaterial(new RGBA(i / (float) NUM_MATERIALS, 0, 0, 1));
+        }
+        Random random = new Random(n);
+        List<IMesh> meshes = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            float x = random.nextInt(100);
+            float y = random.nextInt(100);
+            float[] v = {x, y, 0, x + 1, y, 0, x, y + 1, 0};
+            float[] normals = {0, 0, 1, 0, 0, 1, 0, 0, 1};
+            IMesh mesh = new DefaultMesh(materials[random.nextInt(materials.length)], DefaultGeometry.createVN(Primitive.TRIANGLES, v, normals));
+            if (i % 10 == 0) {
+                mesh.setPosition(new Vec3(0, 0, 1));
+            }
+            meshes.add(mesh);
+        }
+        return meshes;
+    }
+
+    // the implementation mergeMeshes replaced, kept for comparison
+    private static List<IMesh> legacyMerge(List<IMesh> meshes) {
+        meshes = new ArrayList<>(meshes);
+        final List<IMesh> result = new ArrayList<>();
+        while (!meshes.isEmpty()) {
+            final IMesh first = meshes.get(0);
+            List<IMesh> same = meshes.stream().filter(m -> m.getMaterial().equals(first.getMaterial())
+                    && m.getQueue().equals(first.getQueue())
+                    && m.getFlags().equals(first.getFlags())).collect(Collectors.toList());
+            IMaterial material = first.getMaterial();
+            IGeometryAttribute[] attributes = material.getGeometryAttributes();
+            FloatList[] data = new FloatList[attributes.length];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = new FloatList();
+            }
+            for (IMesh mesh : same) {
+                IGeometryAttribute[] ga = mesh.getGeometry().getAttributes();
+                float[][] gd = mesh.getTransformedGeometryData();
+                for (int i = 0; i < attributes.length; i++) {
+                    for (int j = 0; j < ga.length; j++) {
+                        if (attributes[i].id().equals(ga[j].id())) {
+                            data[i].addAll(gd[j]);
+                        }
+                    }
+                }
+            }
+            result.add(new DefaultMesh(material, new DefaultGeometry(material.getType(), attributes, data), first.getQueue(), first.getFlags()));
+            meshes.removeAll(same);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,203 @@
+package benchmark;
+
+import ch.fhnw.util.color.RGBA;
+import com.hoten.delaunay.geom.Point;
+import com.hoten.delaunay.geom.Rectangle;
+import com.hoten.delaunay.voronoi.LloydRelaxation;
+import com.hoten.delaunay.voronoi.PassTimings;
+import com.hoten.delaunay.voronoi.VoronoiGraph;
+import com.hoten.delaunay.voronoi.nodename.as3delaunay.Voronoi;
+import model.DefaultVoronoiGraph;
+import model.GraphToMeshConverter;
+import model.TerrainLod;
+import model.TerrainMesh;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks of the map generation stages, one map per number of sites
+ * with a fixed seed, so runs can be compared between versions. Nothing needs
+ * an OpenGL context.
+ * <p>
+ * The stages: random sites, the Voronoi diagram (backend as set by
+ * -Dvoronoi.backend), two Lloyd relaxations, graph and terrain passes,
+ * terrain mesh and its levels of detail. The graph benchmark also reports
+ * the time of each group of its {@link PassTimings passes} as secondary
+ * results. Every stage gets its input prepared outside the measurement.
+ * <p>
+ * A stage at the larger sizes runs for seconds, so each iteration is a
+ * single run, after one warmup run, in a single fork.
+ * <p>
+ * Lives in src/benchmark/java, built only with the benchmark profile:
+ * mvn -Pbenchmark test-compile exec:exec runs all of them with the GC
+ * profiler for the allocation rate; other JMH options go in -Djmh.args,
+ * e.g. -Djmh.args="-prof gc -p sites=5000 PipelineBenchmark.graph".
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@State(Scope.Benchmark)
+public class PipelineBenchmark {
+
+    private static final double BOUNDS = 1000;
+    private static final int NUM_LLOYD_RELAXATIONS = 2;
+    // the passes of the graph benchmark, grouped like the generation stages
+    private static final String[] GRAPH_PASSES = {PassTimings.GRAPH, PassTimings.IMPROVE_CORNERS};
+    private static final String[] ELEVATION_PASSES = {PassTimings.SHAPE, PassTimings.CORNER_ELEVATIONS,
+            PassTimings.OCEAN_COAST_LAND, PassTimings.REDISTRIBUTE_ELEVATIONS, PassTimings.POLYGON_ELEVATIONS};
+    private static final String[] RIVER_PASSES = {PassTimings.DOWNSLOPES, PassTimings.WATERSHEDS, PassTimings.RIVERS};
+    private static final String[] MOISTURE_PASSES = {PassTimings.CORNER_MOISTURE, PassTimings.REDISTRIBUTE_MOISTURE,
+            PassTimings.POLYGON_MOISTURE};
+    private static final String[] BIOME_PASSES = {PassTimings.PUBLISH, PassTimings.BIOMES};
+
+    @Param({"5000", "15000", "45000", "150000"})
+    public int sites;
+
+    @Param({"1"})
+    public long seed;
+
+    private Rectangle bounds;
+    private ArrayList<Point> points;
+    private Voronoi relaxed;
+    private VoronoiGraph graph;
+    private RGBA[] colors;
+    private TerrainMesh mesh;
+    private double spacing;
+
+    /**
+     * The input the Voronoi and relaxation stages work on, which they use
+     * up, so it is made again for every run.
+     */
+    @State(Scope.Thread)
+    public static class Input {
+        ArrayList<Point> points;
+        Voronoi diagram;
+
+        @Setup(Level.Iteration)
+        public void prepare(PipelineBenchmark map) {
+            points = copy(map.points);
+            diagram = new Voronoi(copy(map.points), null, map.bounds);
+        }
+    }
+
+    /**
+     * Milliseconds of the groups of passes in the graph runs. JMH adds these
+     * up over the measurement iterations, so each run gives its share of the
+     * mean.
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Passes {
+        public double graphMs;
+        public double elevationMs;
+        public double riversMs;
+        public double moistureMs;
+        public double biomesMs;
+        private int iterations;
+
+        @Setup(Level.Trial)
+        public void prepare(BenchmarkParams params) {
+            iterations = params.getMeasurement().getCount();
+        }
+
+        void set(PassTimings timings) {
+            graphMs = millis(timings, GRAPH_PASSES) / iterations;
+            elevationMs = millis(timings, ELEVATION_PASSES) / iterations;
+            riversMs = millis(timings, RIVER_PASSES) / iterations;
+            moistureMs = millis(timings, MOISTURE_PASSES) / iterations;
+            biomesMs = millis(timings, BIOME_PASSES) / iterations;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void prepare() {
+        bounds = new Rectangle(0, 0, BOUNDS, BOUNDS);
+        points = randomSites(sites, seed);
+        relaxed = new LloydRelaxation().relax(new Voronoi(copy(points), null, bounds), NUM_LLOYD_RELAXATIONS);
+        graph = graph(relaxed, seed);
+        colors = GraphToMeshConverter.cellColors(graph);
+        mesh = TerrainMesh.build(graph, colors, GraphToMeshConverter.HEIGHTFACTOR);
+        spacing = Math.sqrt(BOUNDS * BOUNDS / graph.centers.size());
+    }
+
+    @Benchmark
+    public ArrayList<Point> sites() {
+        return randomSites(sites, seed);
+    }
+
+    @Benchmark
+    public Voronoi voronoi(Input input) {
+        return new Voronoi(input.points, null, bounds);
+    }
+
+    @Benchmark
+    public Voronoi lloyd(Input input) {
+        return new LloydRelaxation().relax(input.diagram, NUM_LLOYD_RELAXATIONS);
+    }
+
+    @Benchmark
+    public VoronoiGraph graph(Passes passes) {
+        final VoronoiGraph result = graph(relaxed, seed);
+        passes.set(result.passes);
+        return result;
+    }
+
+    @Benchmark
+    public TerrainMesh mesh() {
+        return TerrainMesh.build(graph, colors, GraphToMeshConverter.HEIGHTFACTOR);
+    }
+
+    @Benchmark
+    public TerrainLod lod() {
+        return TerrainLod.build(mesh, graph.bounds, spacing, GraphToMeshConverter.TERRAIN_MATERIAL);
+    }
+
+    private static VoronoiGraph graph(Voronoi relaxed, long seed) {
+        // already relaxed, the same Random as a map of this seed would get for its island
+        return new DefaultVoronoiGraph(relaxed, 0, new Random(seed), VoronoiGraph.Generation_Type.RANDOM);
+    }
+
+    private static double millis(PassTimings timings, String[] passes) {
+        long nanos = 0;
+        for (String pass : passes) {
+            nanos += timings.getNanos(pass);
+        }
+        return nanos / 1e6;
+    }
+
+    private static ArrayList<Point> randomSites(int numSites, long seed) {
+        Random r = new Random(seed);
+        ArrayList<Point> points = new ArrayList<>(numSites);
+        for (int i = 0; i < numSites; i++) {
+            points.add(new Point(r.nextDouble() * BOUNDS, r.nextDouble() * BOUNDS));
+        }
+        return points;
+    }
+
+    // the relaxation moves the sites in place
+    private static ArrayList<Point> copy(ArrayList<Point> points) {
+        ArrayList<Point> copy = new ArrayList<>(points.size());
+        for (Point p : points) {
+            copy.add(new Point(p.x, p.y));
+        }
+        return copy;
+    }
+}
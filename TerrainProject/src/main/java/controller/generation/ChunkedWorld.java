@@ -0,0 +1,267 @@
+package controller.generation;
+
+import ch.fhnw.ether.controller.IController;
+import ch.fhnw.util.math.Vec3;
+import com.hoten.delaunay.voronoi.GenerationListener;
+import com.hoten.delaunay.voronoi.TerrainField;
+import model.NoiseField;
+import model.WorldChunk;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Streams the endless tiled world around the camera, one {@link WorldChunk}
+ * at a time.
+ * <p>
+ * The chunks within radius of the one under the camera target are shown;
+ * missing ones are generated on a worker pool, nearest first, and added when
+ * they are done. Chunks that leave the window are hidden but stay in an LRU
+ * cache of one more ring, so walking back is free. What falls out of the
+ * cache is written to the spill directory, if there is one, and loaded from
+ * there instead of being generated again. The memory used thus depends on the
+ * radius only, not on how far the camera has travelled.
+ * <p>
+ * Everything but the generation and the spilling runs on the scene thread.
+ */
+public class ChunkedWorld {
+
+    private static final double FEATURE_SIZE = 600;
+
+    private final IController controller;
+    private final long seed;
+    private final int resolution;
+    private final int radius;
+    private final TerrainField field;
+    private final Path spillDirectory;
+    private final ExecutorService workers;
+    private final ExecutorService spiller = Executors.newSingleThreadExecutor(runnable -> daemon(runnable, "chunk-spill"));
+
+    private final Map<Long, WorldChunk> cache;
+    private final Map<Long, WorldChunk> shown = new HashMap<>();
+    private final Map<Long, Future<?>> pending = new HashMap<>();
+    // chunks written to the spill directory, with the write that may still be going on
+    private final Map<Long, Future<?>> spilled = new ConcurrentHashMap<>();
+    private volatile boolean disposed;
+    private boolean started;
+    private int focusX;
+    private int focusY;
+
+    /**
+     * @param resolution     Voronoi cells per chunk
+     * @param radius         number of chunks shown on each side of the one
+     *                       under the camera
+     * @param spillDirectory where chunks evicted from the cache go, or null
+     *                       to drop them and generate them again if needed
+     */
+    public ChunkedWorld(IController controller, long seed, int resolution, int radius, Path spillDirectory) {
+        this.controller = controller;
+        this.seed = seed;
+        this.resolution = resolution;
+        this.radius = radius;
+        this.field = new NoiseField(seed, FEATURE_SIZE);
+        this.spillDirectory = spillDirectory;
+
+        final AtomicInteger threads = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1),
+                runnable -> daemon(runnable, "chunk-generation-" + threads.incrementAndGet()));
+
+        final int capacity = (2 * radius + 3) * (2 * radius + 3);
+        cache = new LinkedHashMap<Long, WorldChunk>(2 * capacity, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, WorldChunk> eldest) {
+                if (size() <= capacity || shown.containsKey(eldest.getKey())) {
+                    return false;
+                }
+                spill(eldest.getKey(), eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Brings the shown chunks up to date with the camera target; cheap unless
+     * the target moved to another chunk, so it can be called every frame.
+     */
+    public void update(Vec3 target) {
+        if (disposed) {
+            return;
+        }
+        final int x = (int) Math.floor((target.x + WorldChunk.SIZE / 2) / WorldChunk.SIZE);
+        final int y = (int) Math.floor((target.y + WorldChunk.SIZE / 2) / WorldChunk.SIZE);
+        if (started && x == focusX && y == focusY) {
+            return;
+        }
+        started = true;
+        focusX = x;
+        focusY = y;
+
+        shown.values().removeIf(chunk -> {
+            if (inWindow(chunk.x, chunk.y)) {
+                return false;
+            }
+            controller.getScene().remove3DObject(chunk.mesh);
+            return true;
+        });
+        pending.entrySet().removeIf(entry -> {
+            if (inWindow((int) (entry.getKey() >> 32), (int) (long) entry.getKey())) {
+                return false;
+            }
+            entry.getValue().cancel(true);
+            return true;
+        });
+
+        for (int ring = 0; ring <= radius; ring++) {
+            for (int dy = -ring; dy <= ring; dy++) {
+                for (int dx = -ring; dx <= ring; dx++) {
+                    if (Math.max(Math.abs(dx), Math.abs(dy)) == ring) {
+                        request(x + dx, y + dy);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the chunks from the scene, stops all work and deletes the
+     * spilled chunks. The world can't be used afterwards.
+     */
+    public void dispose() {
+        disposed = true;
+        shown.values().forEach(chunk -> controller.getScene().remove3DObject(chunk.mesh));
+        shown.clear();
+        pending.values().forEach(future -> future.cancel(true));
+        pending.clear();
+        cache.clear();
+        workers.shutdownNow();
+        if (spillDirectory != null) {
+            spiller.submit(() -> {
+                for (long key : spilled.keySet()) {
+                    try {
+                        Files.deleteIfExists(spillFile(key));
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+        }
+        spiller.shutdown();
+    }
+
+    private boolean inWindow(int x, int y) {
+        return Math.abs(x - focusX) <= radius && Math.abs(y - focusY) <= radius;
+    }
+
+    private void request(int x, int y) {
+        final long key = WorldChunk.key(x, y);
+        final WorldChunk chunk = cache.get(key);
+        if (chunk != null) {
+            show(key, chunk);
+        } else if (!pending.containsKey(key)) {
+            // the build gets its own future, to tell whether it is still the pending one when done
+            final FutureTask<?>[] build = new FutureTask<?>[1];
+            build[0] = new FutureTask<>(() -> build(key, x, y, build[0]), null);
+            pending.put(key, build[0]);
+            workers.execute(build[0]);
+        }
+    }
+
+    private void show(long key, WorldChunk chunk) {
+        if (!shown.containsKey(key)) {
+            shown.put(key, chunk);
+            controller.getScene().add3DObject(chunk.mesh);
+        }
+    }
+
+    // on a worker: loads the chunk if it was spilled, generates it otherwise
+    private void build(long key, int x, int y, Future<?> future) {
+        final GenerationListener listener = stage -> {
+            if (disposed || Thread.currentThread().isInterrupted()) {
+                throw new CancellationException("chunk " + x + ", " + y + " no longer needed");
+            }
+        };
+        try {
+            WorldChunk chunk = load(key, x, y);
+            if (chunk == null) {
+                chunk = WorldChunk.generate(seed, resolution, field, x, y, spillDirectory != null, listener);
+            }
+            listener.stage(GenerationListener.Stage.MESH);
+            final WorldChunk done = chunk;
+            controller.run(time -> deliver(key, future, done));
+        } catch (CancellationException e) {
+            // left the window before it was done
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            controller.run(time -> failed(key, future));
+        }
+    }
+
+    private WorldChunk load(long key, int x, int y) {
+        final Future<?> write = spilled.get(key);
+        if (write == null) {
+            return null;
+        }
+        try {
+            write.get();
+            return WorldChunk.load(spillFile(key), x, y, false);
+        } catch (InterruptedException e) {
+            throw new CancellationException("chunk " + x + ", " + y + " no longer needed");
+        } catch (ExecutionException | IOException e) {
+            // generate it again
+            spilled.remove(key);
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // drops the chunk unless its build is still the pending one, not one cancelled and replaced by a newer request
+    private void deliver(long key, Future<?> future, WorldChunk chunk) {
+        if (disposed || !pending.remove(key, future)) {
+            return;
+        }
+        cache.put(key, chunk);
+        if (inWindow(chunk.x, chunk.y)) {
+            show(key, chunk);
+        }
+    }
+
+    // forgets the failed build, so the chunk is requested again when the camera moves to another chunk
+    private void failed(long key, Future<?> future) {
+        if (!disposed) {
+            pending.remove(key, future);
+        }
+    }
+
+    // on the scene thread, while the chunk is evicted from the cache
+    private void spill(long key, WorldChunk chunk) {
+        if (spillDirectory == null || spilled.containsKey(key)) {
+            return;
+        }
+        spilled.put(key, spiller.submit(() -> {
+            chunk.save(spillFile(key), seed);
+            return null;
+        }));
+    }
+
+    private Path spillFile(long key) {
+        return spillDirectory.resolve("chunk_" + (int) (key >> 32) + "_" + (int) key + ".vgraph");
+    }
+
+    private static Thread daemon(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+}
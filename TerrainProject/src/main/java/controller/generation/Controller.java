@@ -19,13 +19,22 @@ import ch.fhnw.ether.view.gl.DefaultView;
 import ch.fhnw.util.color.RGB;
 import ch.fhnw.util.math.Mat4;
 import ch.fhnw.util.math.Vec3;
+import model.GenerationStats;
 import model.GraphManager;
-import model.GraphToMeshConverter;
+import model.TerrainLod;
 
 import java.awt.event.KeyEvent;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Random;
 
@@ -35,10 +44,14 @@ import java.util.Random;
  * Created by P on 04.12.2015.
  */
 public class Controller {
+    private static final String MAP_SUFFIX = ".vgraph";
+    private static final int WORLD_RADIUS = 1;
+
     final long seed;
     //final long seed = 177470702879216; //nice value, for debugging :)
 
     List<IMesh> world = null;
+    TerrainLod terrain = null;
     IScene scene;
 
     int resolution = 5000;
@@ -46,9 +59,13 @@ public class Controller {
     private boolean drawByHandToggle = false;
     IslandDrawTool islandDrawTool;
     IController controller;
+    IView view;
+    ICamera camera;
+    ChunkedWorld tiledWorld;
 
 
     GraphManager graphManager;
+    MapGenerationPipeline pipeline;
 
     public Controller() {
         seed = System.nanoTime();
@@ -61,19 +78,20 @@ public class Controller {
         // Create controller
         controller = new DefaultController();
         islandDrawTool = new IslandDrawTool(controller,1000,1000);
+        pipeline = new MapGenerationPipeline(controller);
 
         controller.run(time -> {
-            IView view = new DefaultView(controller, 100, 100, 800, 800, IView.INTERACTIVE_VIEW, "Map_Generation");
+            view = new DefaultView(controller, 100, 100, 800, 800, IView.INTERACTIVE_VIEW, "Map_Generation");
 
             // Create scene
             scene = new DefaultScene(controller);
             controller.setScene(scene);
 
             // Create and add camera
-            ICamera camera = new Camera(new Vec3(0, -5, 5), Vec3.ZERO);
+            camera = new Camera(new Vec3(0, -5, 5), Vec3.ZERO);
             scene.add3DObject(camera);
             generateGraph();
-            ILight light0 = new DirectionalLight(new Vec3(0, -1f, 0), RGB.GRAY, RGB.WHITE);
+            ILight light0 = new DirectionalLight(new Vec3(1, -1, 2), RGB.GRAY, RGB.WHITE);
 
             scene.add3DObject(light0);
 
@@ -86,6 +104,11 @@ public class Controller {
             controller.getUI().addWidget(new Button(0, 2, "changeResolution", String.valueOf(resolution), KeyEvent.VK_R, (button, v) -> resolutionSteps()));
             controller.getUI().addWidget(new Button(0, 3, "export", "export", KeyEvent.VK_S, (button, v) -> saveObj()));
             controller.getUI().addWidget(new Button(0, 4, "drawByHandToggle", "drawByHandToggle", KeyEvent.VK_D, (button, v) -> drawByHandToggle(!drawByHandToggle)));
+            controller.getUI().addWidget(new Button(0, 5, "saveMap", "saveMap", KeyEvent.VK_M, (button, v) -> saveMap()));
+            controller.getUI().addWidget(new Button(0, 6, "loadMap", "loadMap", KeyEvent.VK_L, (button, v) -> loadMap()));
+            controller.getUI().addWidget(new Button(0, 7, "tiledWorld", "tiledWorld", KeyEvent.VK_W, (button, v) -> tiledWorld(tiledWorld == null)));
+            controller.getUI().addWidget(new Button(0, 8, "stats", "stats", KeyEvent.VK_T, (button, v) -> statsToggle(button)));
+            controller.getUI().addWidget(new StatsOverlay(GenerationStats.get()));
 
         });
 
@@ -93,26 +116,46 @@ public class Controller {
             @Override
             public void run(double time, double interval) {
                 islandDrawTool.update((float)interval);
+                if (tiledWorld != null) {
+                    tiledWorld.update(camera.getTarget());
+                } else if (terrain != null && !drawByHandToggle && view.getViewport() != null) {
+                    terrain.update(camera.getPosition(), camera.getFov(), view.getViewport().h);
+                }
             }
         });
     }
 
+    /**
+     * Starts building a new map in the background; a build still in progress
+     * is cancelled. The current map stays visible until the new one is done.
+     * While drawing on a map that was drawn before, at the same resolution,
+     * only its island is redrawn, on the sites it already has.
+     */
     private void generateGraph() {
-        if (world != null && drawByHandToggle == false) {
-            scene.remove3DObjects(world);
-        }
-
         Random rngesus = new Random();
 
         if(drawByHandToggle){
-            graphManager = new GraphManager(rngesus, seed, resolution, VoronoiGraph.Generation_Type.DRAWNCIRCLES, islandDrawTool.getCircles());
+            // copy, the tool keeps adding circles while we generate
+            List<TerrainCircle> circles = new ArrayList<>(islandDrawTool.getCircles());
+            if (graphManager != null && graphManager.getGraph().canRedraw() && graphManager.getResolution() == resolution) {
+                pipeline.redraw(graphManager, terrain, circles, this::showWorld);
+            } else {
+                pipeline.start(rngesus, seed, resolution, VoronoiGraph.Generation_Type.DRAWNCIRCLES, circles, this::showWorld);
+            }
         }else{
-            graphManager = new GraphManager(rngesus, seed, resolution);
+            pipeline.start(rngesus, seed, resolution, VoronoiGraph.Generation_Type.RANDOM, null, this::showWorld);
         }
+    }
 
-        long seed = System.nanoTime();
-
-        world = GraphToMeshConverter.createMapAsMesh(graphManager.getGraph(), true, false, false, false, false, false);
+    // called on the scene thread: swaps the old map for the new one within one frame
+    private void showWorld(GraphManager manager, TerrainLod lod) {
+        tiledWorld(false);
+        if (world != null && drawByHandToggle == false) {
+            scene.remove3DObjects(world);
+        }
+        graphManager = manager;
+        terrain = lod;
+        world = lod.getMeshes();
 
         Mat4 translateToCenter = Mat4.translate(-500, -500, 0);
         world.forEach(iMesh -> iMesh.setTransform(translateToCenter));
@@ -139,9 +182,12 @@ public class Controller {
     }
 
     private boolean saveObj() {
+        if (terrain == null) {
+            return false;
+        }
         try {
             ObjWriter out = new ObjWriter(new File("ModelSaves_" + Instant.now().toString().replace("-", "_").replace(":", "_").replace(".", "_")));
-            world.forEach(out::addMesh);
+            out.addMesh(terrain.getFullDetail());
             out.write();
             return true;
         } catch (FileNotFoundException e) {
@@ -150,35 +196,77 @@ public class Controller {
         }
     }
 
-    private void generateGraphInSeperateThread() {
-//        Future<List<IMesh>> loadedMeshes = new Future<List<IMesh>>().
-//
-//
-//
-//
-//        if(world!= null){
-//            scene.remove3DObjects(world);
-//        }
-//
-//
-//
-//        long seed = System.nanoTime();
-//        Random rngesus = new Random(seed);
-//        graphManager = new GraphManager(rngesus,seed,resolution);
-//        world = GraphToMeshConverter.createMapAsMesh(graphManager.getGraph(), true, false, false, false, false, false);
-//
-//        scene.add3DObjects(world);
-//        Mat4 translateToCenter = Mat4.translate(-400, 0, -400);
-//        world.forEach(iMesh -> iMesh.setTransform(translateToCenter));
+    // binary save of the whole graph, can be loaded again without regenerating; written by the pipeline, see its save
+    private void saveMap() {
+        if (graphManager == null) {
+            return;
+        }
+        Path path = Paths.get("MapSave_" + Instant.now().toString().replace("-", "_").replace(":", "_").replace(".", "_") + MAP_SUFFIX);
+        pipeline.save(graphManager, path);
+    }
+
+    // loads the most recent map save of the working directory
+    private void loadMap() {
+        File[] saves = new File(".").listFiles((dir, name) -> name.endsWith(MAP_SUFFIX));
+        if (saves == null || saves.length == 0) {
+            controller.getUI().setMessage("no " + MAP_SUFFIX + " file to load");
+            return;
+        }
+        File newest = Collections.max(Arrays.asList(saves), Comparator.comparingLong(File::lastModified));
+        pipeline.load(newest.toPath(), this::showWorld);
+    }
+
+    // records the passes of the maps from now on and shows them, see GenerationStats
+    private void statsToggle(Button button) {
+        GenerationStats stats = GenerationStats.get();
+        stats.setEnabled(!stats.isEnabled());
+        button.setState(stats.isEnabled());
+    }
+
+    // the endless world streamed around the camera, instead of the single map
+    private void tiledWorld(boolean flag) {
+        if (flag == (tiledWorld != null)) {
+            return;
+        }
+        if (flag) {
+            if (drawByHandToggle) {
+                // the map is not in the scene while drawing
+                drawByHandToggle = false;
+                controller.setCurrentTool(null);
+            } else if (world != null) {
+                scene.remove3DObjects(world);
+            }
+            Path spill = null;
+            try {
+                spill = Files.createTempDirectory("chunks");
+                spill.toFile().deleteOnExit();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            tiledWorld = new ChunkedWorld(controller, seed, resolution, WORLD_RADIUS, spill);
+        } else {
+            tiledWorld.dispose();
+            tiledWorld = null;
+            if (world != null && !drawByHandToggle) {
+                scene.add3DObjects(world);
+            }
+        }
     }
 
     private void drawByHandToggle(boolean flag){
+        if (flag) {
+            tiledWorld(false);
+        }
         drawByHandToggle = flag;
         if(drawByHandToggle){
-            scene.remove3DObjects(world);
+            if (world != null) {
+                scene.remove3DObjects(world);
+            }
             controller.setCurrentTool(islandDrawTool);
         }else{
-            scene.add3DObjects(world);
+            if (world != null) {
+                scene.add3DObjects(world);
+            }
             controller.setCurrentTool(null);
         }
 
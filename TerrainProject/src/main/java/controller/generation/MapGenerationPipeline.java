@@ -0,0 +1,218 @@
+package controller.generation;
+
+import ch.fhnw.ether.controller.IController;
+import com.hoten.delaunay.voronoi.GenerationListener;
+import com.hoten.delaunay.voronoi.PassTimings;
+import com.hoten.delaunay.voronoi.VoronoiGraph;
+import model.GenerationStats;
+import model.GraphManager;
+import model.GraphToMeshConverter;
+import model.TerrainLod;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Builds maps (points, relaxation, graph, elevation, rivers, moisture, biomes,
+ * mesh) on a background thread.
+ * <p>
+ * Every call to {@link #start} supersedes the previous one: the older run is
+ * cancelled at its next stage boundary and never delivers anything. Progress
+ * is shown as UI message; the finished meshes are handed to the result
+ * handler on the scene thread, so it can swap them into the scene in one go.
+ * The terrain comes with levels of detail, see {@link TerrainLod}. A map
+ * drawn from circles can also be redrawn in place, see {@link #redraw}. The
+ * passes of every map delivered go to {@link GenerationStats}.
+ */
+public class MapGenerationPipeline {
+
+    /**
+     * Receives the latest finished map, called on the scene thread.
+     */
+    public interface IResultHandler {
+        void done(GraphManager graphManager, TerrainLod terrain);
+    }
+
+    private final IController controller;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "map-generation");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicLong latest = new AtomicLong();
+    private Future<?> pending;
+
+    public MapGenerationPipeline(IController controller) {
+        this.controller = controller;
+    }
+
+    /**
+     * Starts a new map build and cancels the one in flight, if any. The
+     * arguments are those of {@link GraphManager}; circles must not be
+     * modified while the build runs.
+     */
+    public synchronized void start(Random r, long seed, int resolution, VoronoiGraph.Generation_Type generationType,
+            List<TerrainCircle> circles, IResultHandler handler) {
+        final long run = latest.incrementAndGet();
+        if (pending != null) {
+            pending.cancel(true);
+        }
+        pending = executor.submit(() -> generate(run, r, seed, resolution, generationType, circles, handler));
+    }
+
+    /**
+     * Loads a map saved by {@link GraphManager#save} instead of generating
+     * one; it supersedes and is superseded like a build.
+     */
+    public synchronized void load(Path file, IResultHandler handler) {
+        final long run = latest.incrementAndGet();
+        if (pending != null) {
+            pending.cancel(true);
+        }
+        pending = executor.submit(() -> load(run, file, handler));
+    }
+
+    /**
+     * Draws the island of a map made from circles again for an edited list
+     * of them, keeping its graph (see {@link VoronoiGraph#redraw}), and
+     * rebuilds the tiles of its terrain that changed. It supersedes and is
+     * superseded like a build, with one exception: once it has started to
+     * change the graph, the rebuilt tiles are swapped in even if a newer run
+     * came along, so the terrain on screen never falls behind the graph. The
+     * handler gets the same graph manager and terrain back.
+     */
+    public synchronized void redraw(GraphManager graphManager, TerrainLod terrain, List<TerrainCircle> circles, IResultHandler handler) {
+        final long run = latest.incrementAndGet();
+        if (pending != null) {
+            pending.cancel(true);
+        }
+        pending = executor.submit(() -> redraw(run, graphManager, terrain, circles, handler));
+    }
+
+    /**
+     * Saves the map on the build thread, after the runs queued before it, so
+     * that a redraw never changes the graph while it is being written. It
+     * neither supersedes nor is superseded.
+     */
+    public void save(GraphManager graphManager, Path file) {
+        executor.submit(() -> {
+            try {
+                graphManager.save(file);
+                System.out.println("saved map to " + file);
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * @return true while a build is queued or running
+     */
+    public synchronized boolean isBusy() {
+        return pending != null && !pending.isDone();
+    }
+
+    private void generate(long run, Random r, long seed, int resolution, VoronoiGraph.Generation_Type generationType,
+            List<TerrainCircle> circles, IResultHandler handler) {
+        final long t0 = System.nanoTime();
+        final GenerationListener listener = stage -> {
+            checkCancelled(run);
+            showMessage(run, String.format("generating %d sites: %s (%d/%d)",
+                    resolution, stage, stage.ordinal() + 1, GenerationListener.Stage.values().length));
+        };
+
+        try {
+            GraphManager graphManager = new GraphManager(r, seed, resolution, generationType, circles, listener);
+            listener.stage(GenerationListener.Stage.MESH);
+            TerrainLod terrain = GraphToMeshConverter.createLodTerrain(graphManager.getGraph(), graphManager.getPasses());
+            checkCancelled(run);
+            GenerationStats.get().record("generate", resolution, graphManager.getPasses(), System.nanoTime() - t0);
+            deliver(run, graphManager, terrain, handler);
+        } catch (CancellationException e) {
+            // superseded, the newer run shows its own progress
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            showMessage(run, "generation failed: " + e);
+        }
+    }
+
+    private void redraw(long run, GraphManager graphManager, TerrainLod terrain, List<TerrainCircle> circles, IResultHandler handler) {
+        final long t0 = System.nanoTime();
+        try {
+            checkCancelled(run);
+            showMessage(run, "redrawing " + circles.size() + " circles");
+            VoronoiGraph graph = graphManager.getGraph();
+            BitSet changed = graph.redraw(circles);
+            final PassTimings passes = new PassTimings();
+            passes.addAll(graph.passes);
+            Runnable update = passes.time(PassTimings.TERRAIN_UPDATE, () -> GraphToMeshConverter.updateLodTerrain(terrain, graph, changed));
+            GenerationStats.get().record("redraw", graphManager.getResolution(), passes, System.nanoTime() - t0);
+            controller.run(time -> {
+                update.run();
+                if (latest.get() == run) {
+                    handler.done(graphManager, terrain);
+                    controller.getUI().setMessage(null);
+                    controller.getUI().updateRequest();
+                }
+            });
+        } catch (CancellationException e) {
+            // superseded before the graph was touched
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            showMessage(run, "redrawing failed: " + e);
+        }
+    }
+
+    private void load(long run, Path file, IResultHandler handler) {
+        final long t0 = System.nanoTime();
+        try {
+            showMessage(run, "loading " + file.getFileName());
+            GraphManager graphManager = GraphManager.load(file);
+            checkCancelled(run);
+            TerrainLod terrain = GraphToMeshConverter.createLodTerrain(graphManager.getGraph(), graphManager.getPasses());
+            checkCancelled(run);
+            GenerationStats.get().record("load", graphManager.getResolution(), graphManager.getPasses(), System.nanoTime() - t0);
+            deliver(run, graphManager, terrain, handler);
+        } catch (CancellationException e) {
+            // superseded, the newer run shows its own progress
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            showMessage(run, "loading failed: " + e);
+        }
+    }
+
+    private void deliver(long run, GraphManager graphManager, TerrainLod terrain, IResultHandler handler) {
+        controller.run(time -> {
+            // a newer run may have been started while this one was queued on the scene thread
+            if (latest.get() != run) {
+                return;
+            }
+            handler.done(graphManager, terrain);
+            controller.getUI().setMessage(null);
+            // for the stats overlay
+            controller.getUI().updateRequest();
+        });
+    }
+
+    private void checkCancelled(long run) {
+        if (latest.get() != run || Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("generation #" + run + " superseded");
+        }
+    }
+
+    private void showMessage(long run, String message) {
+        controller.run(time -> {
+            if (latest.get() == run) {
+                controller.getUI().setMessage(message);
+            }
+        });
+    }
+}
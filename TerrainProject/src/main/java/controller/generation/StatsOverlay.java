@@ -0,0 +1,42 @@
+package controller.generation;
+
+import ch.fhnw.ether.ui.AbstractWidget;
+import ch.fhnw.ether.ui.GraphicsPlane;
+import ch.fhnw.ether.view.IView;
+import model.GenerationStats;
+
+import java.util.List;
+
+/**
+ * Shows the passes of the last map, see {@link GenerationStats}, next to the
+ * buttons while recording is on.
+ */
+public class StatsOverlay extends AbstractWidget {
+
+    private static final int LEFT = 64;
+    private static final int TOP = 24;
+
+    private final GenerationStats stats;
+
+    public StatsOverlay(GenerationStats stats) {
+        super(1, 0, null, null, null);
+        this.stats = stats;
+    }
+
+    @Override
+    public void draw(GraphicsPlane surface) {
+        if (!stats.isEnabled()) {
+            return;
+        }
+        final List<String> lines = stats.lines();
+        if (lines.isEmpty()) {
+            lines.add("stats: waiting for the next map");
+        }
+        surface.drawStrings(TEXT_COLOR, lines.toArray(new String[0]), LEFT, TOP);
+    }
+
+    @Override
+    public void fire(IView view) {
+        // nothing to click
+    }
+}
@@ -6,6 +6,9 @@ import ch.fhnw.util.color.RGBA;
 import controller.generation.TerrainCircle;
 
 import com.hoten.delaunay.voronoi.Center;
+import com.hoten.delaunay.voronoi.GenerationListener;
+import com.hoten.delaunay.voronoi.GraphFile;
+import com.hoten.delaunay.voronoi.TerrainField;
 import com.hoten.delaunay.voronoi.VoronoiGraph;
 import com.hoten.delaunay.voronoi.nodename.as3delaunay.Voronoi;
 
@@ -26,6 +29,19 @@ public class DefaultVoronoiGraph extends VoronoiGraph {
         super(v, numLloydRelaxations, r, generation_type, circles);
     }
 
+    public DefaultVoronoiGraph(Voronoi v, int numLloydRelaxations, Random r, Generation_Type generation_type, List<TerrainCircle> circles,
+            GenerationListener listener) {
+        super(v, numLloydRelaxations, r, generation_type, circles, listener);
+    }
+
+    public DefaultVoronoiGraph(Voronoi v, int numLloydRelaxations, TerrainField field, GenerationListener listener) {
+        super(v, numLloydRelaxations, field, listener);
+    }
+
+    public DefaultVoronoiGraph(GraphFile file) {
+        super(file, ColorData.class);
+    }
+
 
         @Override
     public Color getColor(Enum biome) {
@@ -0,0 +1,134 @@
+package model;
+
+import com.hoten.delaunay.voronoi.PassTimings;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The passes of the last map generated, redrawn or loaded, with the time they
+ * took and the bytes they allocated. Queried directly, over JMX as
+ * {@value #OBJECT_NAME}, or on screen through the stats overlay.
+ * <p>
+ * Recording is off by default. While it is off, {@link #record} returns at
+ * once and the passes only take their time, as they always did; turning it on
+ * also makes them count allocations, see {@link PassTimings}.
+ */
+public final class GenerationStats implements GenerationStatsMBean {
+
+    public static final String OBJECT_NAME = "comgr_terrainProject:type=GenerationStats";
+
+    private static final GenerationStats INSTANCE = register(new GenerationStats());
+
+    private volatile boolean enabled;
+    private long mapsRecorded;
+    private String lastMap;
+    private long lastTotalNanos;
+    private final PassTimings lastPasses = new PassTimings();
+
+    private GenerationStats() {
+    }
+
+    public static GenerationStats get() {
+        return INSTANCE;
+    }
+
+    private static GenerationStats register(GenerationStats stats) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(stats, new ObjectName(OBJECT_NAME));
+        } catch (JMException | SecurityException e) {
+            // still usable, just not over JMX
+            e.printStackTrace();
+        }
+        return stats;
+    }
+
+    /**
+     * Keeps the passes of a map, unless recording is off.
+     *
+     * @param kind       how the map was made, "generate", "redraw" or "load"
+     * @param totalNanos the whole run, the passes and what lies between them
+     */
+    public void record(String kind, int sites, PassTimings passes, long totalNanos) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (this) {
+            mapsRecorded++;
+            lastMap = kind + " " + sites + " sites";
+            lastTotalNanos = totalNanos;
+            lastPasses.clear();
+            lastPasses.addAll(passes);
+        }
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public synchronized void setEnabled(boolean enabled) {
+        if (enabled && !this.enabled) {
+            mapsRecorded = 0;
+        }
+        this.enabled = enabled;
+        PassTimings.setCountingAllocations(enabled);
+    }
+
+    @Override
+    public synchronized long getMapsRecorded() {
+        return mapsRecorded;
+    }
+
+    @Override
+    public synchronized String getLastMap() {
+        return lastMap;
+    }
+
+    @Override
+    public synchronized double getLastTotalMillis() {
+        return lastTotalNanos / 1e6;
+    }
+
+    @Override
+    public synchronized String[] getPassNames() {
+        return lastPasses.asMap().keySet().toArray(new String[0]);
+    }
+
+    @Override
+    public synchronized double[] getPassMillis() {
+        return lastPasses.asMap().values().stream().mapToDouble(t -> t / 1e6).toArray();
+    }
+
+    @Override
+    public synchronized long[] getPassBytes() {
+        return lastPasses.asMap().keySet().stream().mapToLong(lastPasses::getBytes).toArray();
+    }
+
+    @Override
+    public String getSummary() {
+        return String.join("\n", lines());
+    }
+
+    /**
+     * @return the last map and one line per pass, empty before the first map
+     */
+    public synchronized List<String> lines() {
+        final List<String> lines = new ArrayList<>();
+        if (lastMap == null) {
+            return lines;
+        }
+        lines.add(String.format("%s: %.1f ms", lastMap, lastTotalNanos / 1e6));
+        for (Map.Entry<String, Long> pass : lastPasses.asMap().entrySet()) {
+            final long bytes = lastPasses.getBytes(pass.getKey());
+            lines.add(String.format("  %s %.1f ms%s", pass.getKey(), pass.getValue() / 1e6,
+                    bytes < 0 ? "" : String.format(", %.1f MB", bytes / 1e6)));
+        }
+        return lines;
+    }
+}
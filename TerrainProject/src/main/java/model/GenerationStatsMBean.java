@@ -0,0 +1,36 @@
+package model;
+
+/**
+ * What {@link GenerationStats} shows over JMX.
+ */
+public interface GenerationStatsMBean {
+
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    /**
+     * @return number of maps recorded since the recording was turned on
+     */
+    long getMapsRecorded();
+
+    /**
+     * @return how the last map was made and how many sites it has, e.g.
+     * "generate 5000 sites", or null before the first one
+     */
+    String getLastMap();
+
+    double getLastTotalMillis();
+
+    String[] getPassNames();
+
+    double[] getPassMillis();
+
+    /**
+     * @return bytes allocated by each pass of {@link #getPassNames}, -1 where
+     * they weren't counted
+     */
+    long[] getPassBytes();
+
+    String getSummary();
+}
@@ -1,8 +1,13 @@
 package model;
 
+import com.hoten.delaunay.voronoi.GenerationListener;
+import com.hoten.delaunay.voronoi.GraphFile;
+import com.hoten.delaunay.voronoi.PassTimings;
 import com.hoten.delaunay.voronoi.VoronoiGraph;
 import com.hoten.delaunay.voronoi.nodename.as3delaunay.Voronoi;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Random;
 
@@ -16,7 +21,11 @@ public class GraphManager {
 
     final int bounds = 1000;
     final int numSites;
-    final int numLloydRelaxations = 2;
+    final int numLloydRelaxations;
+    final long seed;
+    final Voronoi.Backend backend;
+    // the graph's passes and what was done around them
+    final PassTimings passes = new PassTimings();
     private VoronoiGraph graph;
     private Voronoi voronoi;
 
@@ -25,15 +34,65 @@ public class GraphManager {
     }
 
     public GraphManager(Random r, long seed, int resolution, VoronoiGraph.Generation_Type generation_type, List<TerrainCircle> circles) {
+        this(r, seed, resolution, generation_type, circles, GenerationListener.NONE);
+    }
+
+    /**
+     * Builds the graph on the calling thread, reporting each stage to the
+     * listener (which may cancel by throwing a CancellationException).
+     */
+    public GraphManager(Random r, long seed, int resolution, VoronoiGraph.Generation_Type generation_type, List<TerrainCircle> circles,
+            GenerationListener listener) {
         this.numSites = resolution;
+        this.numLloydRelaxations = 2;
+        this.seed = seed;
 
-        voronoi = new Voronoi(numSites, bounds, bounds, r, null);
-        graph = new DefaultVoronoiGraph(voronoi, numLloydRelaxations, r, generation_type, circles);
+        listener.stage(GenerationListener.Stage.POINTS);
+        voronoi = passes.time(PassTimings.POINTS, () -> new Voronoi(numSites, bounds, bounds, r, null));
+        backend = voronoi.getBackend();
+        graph = new DefaultVoronoiGraph(voronoi, numLloydRelaxations, r, generation_type, circles, listener);
+        passes.addAll(graph.passes);
 
         // Save the Map to a file
         System.out.printf("seed-%s sites-%d lloyds-%d\n", seed, numSites, numLloydRelaxations);
     }
 
+    /**
+     * Restores a map written by {@link #save}; nothing is regenerated, so
+     * there is no Voronoi diagram.
+     */
+    public GraphManager(GraphFile file) {
+        this.numSites = file.numCenters;
+        this.numLloydRelaxations = file.numLloydRelaxations;
+        this.seed = file.seed;
+        this.backend = file.backend;
+        graph = new DefaultVoronoiGraph(file);
+        passes.addAll(graph.passes);
+    }
+
+    public static GraphManager load(Path path) throws IOException {
+        return new GraphManager(GraphFile.open(path));
+    }
+
+    public void save(Path path) throws IOException {
+        GraphFile.write(path, graph, seed, numLloydRelaxations, backend);
+    }
+
+    /**
+     * @return the number of sites the map was made with
+     */
+    public int getResolution() {
+        return numSites;
+    }
+
+    /**
+     * The passes that made the map, the creation of the Voronoi diagram
+     * included; the pipeline adds the meshing to them.
+     */
+    public PassTimings getPasses() {
+        return passes;
+    }
+
     public VoronoiGraph getGraph() {
         return graph;
     }
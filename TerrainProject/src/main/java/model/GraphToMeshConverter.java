@@ -1,154 +1,122 @@
 package model;
 
-import ch.fhnw.ether.scene.mesh.DefaultMesh;
 import ch.fhnw.ether.scene.mesh.IMesh;
-import ch.fhnw.ether.scene.mesh.MeshUtilities;
-import ch.fhnw.ether.scene.mesh.geometry.DefaultGeometry;
-import ch.fhnw.ether.scene.mesh.geometry.IGeometry;
 import ch.fhnw.ether.scene.mesh.material.ColorMaterial;
 import ch.fhnw.ether.scene.mesh.material.IMaterial;
+import ch.fhnw.ether.scene.mesh.material.ShadedMaterial;
+import ch.fhnw.util.color.RGB;
 import ch.fhnw.util.color.RGBA;
 import com.hoten.delaunay.voronoi.Center;
 import com.hoten.delaunay.voronoi.Corner;
-import com.hoten.delaunay.voronoi.Edge;
+import com.hoten.delaunay.voronoi.PassTimings;
 import com.hoten.delaunay.voronoi.VoronoiGraph;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.BitSet;
 
 /**
  * Created by P on 04.12.2015.
  */
 public class GraphToMeshConverter {
-    final private static int HEIGHTFACTOR = 140;
-    final private static int NMESHES = 35000;
-
-
-    public static List<IMesh> createMapAsMesh(VoronoiGraph v, boolean drawBiomes, boolean drawRivers, boolean drawSites, boolean drawCorners, boolean drawDelaunay, boolean drawVoronoi) {
+    final public static int HEIGHTFACTOR = 140;
+    //lit by the scene lights, the biome colors come with the vertices
+    final public static IMaterial TERRAIN_MATERIAL = new ShadedMaterial(RGB.BLACK, RGB.WHITE, RGB.GRAY, RGB.BLACK, 0, 0, 1, true);
+
+    /**
+     * The biome colored terrain of the whole map with levels of detail, see
+     * {@link TerrainLod}.
+     */
+    public static TerrainLod createLodTerrain(VoronoiGraph v) {
+        return createLodTerrain(v, new PassTimings());
+    }
 
-        IMaterial[] colors = null;
-        if (!drawBiomes) {
-            colors = new ColorMaterial[100];
-            for (int i = 0; i < colors.length; i++) {
-                colors[i] = new ColorMaterial(new RGBA((float) Math.random(), (float) Math.random(), (float) Math.random(), 1.f));
-            }
-        }
-        List<IMesh> meshes = new ArrayList<>(NMESHES); //currently there are 30'000 meshes
+    /**
+     * Like {@link #createLodTerrain(VoronoiGraph)}, recording the mesh and
+     * its levels as the passes {@link PassTimings#TERRAIN_MESH} and
+     * {@link PassTimings#TERRAIN_LOD}.
+     */
+    public static TerrainLod createLodTerrain(VoronoiGraph v, PassTimings passes) {
+        RGBA[] cellColors = cellColors(v);
+        TerrainMesh full = passes.time(PassTimings.TERRAIN_MESH, () -> TerrainMesh.build(v, cellColors, HEIGHTFACTOR));
+        double spacing = Math.sqrt(v.bounds.width * v.bounds.height / v.centers.size());
+        return passes.time(PassTimings.TERRAIN_LOD, () -> TerrainLod.build(full, v.bounds, spacing, TERRAIN_MATERIAL));
+    }
 
-        //draw via triangles
+    /**
+     * @return the biome color of every cell, indexed by Center.index
+     */
+    public static RGBA[] cellColors(VoronoiGraph v) {
+        RGBA[] cellColors = new RGBA[v.centers.size()];
         for (Center c : v.centers) {
-            meshes.addAll(drawPolygonAsMesh(v, c, drawBiomes ? v.getColorAsMaterial(c.biome) : colors[c.index % 100], HEIGHTFACTOR));
-            //drawPolygon(g, c, drawBiomes ? getColor(c.biome) : defaultColors[c.index]);
-            //drawPolygon(pixelCenterGraphics, c, new Color(c.index)); no equivalent implemented
+            cellColors[c.index] = colorOf(v.getColorAsMaterial(c.biome));
         }
-        List<IMesh> merged = MeshUtilities.mergeMeshes(meshes);
-
-        System.out.println("#meshes after merge: " + merged.size());
-
-        return merged;
-        //return meshes;
+        return cellColors;
     }
 
-
-    private static List<IMesh> drawPolygonAsMesh(VoronoiGraph v, Center c, IMaterial color, int HEIGHTFACTOR) {
-
-        List<IMesh> polygon = new ArrayList<>();
-
-        //only used if Center c is on the edge of the graph. allows for completely filling in the outer polygons
-        Corner edgeCorner1 = null;
-        Corner edgeCorner2 = null;
-        c.area = 0;
-        for (Center n : c.neighbors) {
-            Edge e = v.edgeWithCenters(c, n);
-
-            if (e.v0 == null) {
-                //outermost voronoi edges aren't stored in the graph
-                continue;
-            }
-
-            //find a corner on the exterior of the graph
-            //if this Edge e has one, then it must have two,
-            //finding these two corners will give us the missing
-            //triangle to render. this special triangle is handled
-            //outside this for loop
-            Corner cornerWithOneAdjacent = e.v0.border ? e.v0 : e.v1;
-            if (cornerWithOneAdjacent.border) {
-                if (edgeCorner1 == null) {
-                    edgeCorner1 = cornerWithOneAdjacent;
-                } else {
-                    edgeCorner2 = cornerWithOneAdjacent;
+    /**
+     * Brings the terrain made by {@link #createLodTerrain} up to date after
+     * {@link VoronoiGraph#redraw}. Only the tiles around the changed cells
+     * are built again, from a mesh of the cells near them; the returned task
+     * swaps them in and must run on the scene thread.
+     */
+    public static Runnable updateLodTerrain(TerrainLod lod, VoronoiGraph v, BitSet changed) {
+        // a changed cell moves the normals of its corners, which reach two rings of cells
+        BitSet affected = (BitSet) changed.clone();
+        for (int ring = 0; ring < 2; ring++) {
+            BitSet next = (BitSet) affected.clone();
+            for (int i = affected.nextSetBit(0); i >= 0; i = affected.nextSetBit(i + 1)) {
+                for (Center n : v.centers.get(i).neighbors) {
+                    next.set(n.index);
                 }
             }
-
-            polygon.add(createTriangle(e.v0, e.v1, c, color, HEIGHTFACTOR));
-            c.area += Math.abs(c.loc.x * (e.v0.loc.y - e.v1.loc.y)
-                    + e.v0.loc.x * (e.v1.loc.y - c.loc.y)
-                    + e.v1.loc.x * (c.loc.y - e.v0.loc.y)) / 2;
+            affected = next;
+        }
+        BitSet tiles = new BitSet();
+        double[] box = new double[4];
+        for (int i = affected.nextSetBit(0); i >= 0; i = affected.nextSetBit(i + 1)) {
+            boundingBox(v.centers.get(i), box);
+            lod.markTiles(tiles, box[0], box[1], box[2], box[3]);
+        }
+        if (tiles.isEmpty()) {
+            return () -> {
+            };
         }
 
-        //handle the missing triangle
-        if (edgeCorner2 != null) {
-            //if these two outer corners are NOT on the same exterior edge of the graph,
-            //then we actually must render a polygon (w/ 4 points) and take into consideration
-            //one of the four corners (either 0,0 or 0,height or width,0 or width,height)
-            //note: the 'missing polygon' may have more than just 4 points. this
-            //is common when the number of sites are quite low (less than 5), but not a problem
-            //with a more useful number of sites.
-            //TODO: find a way to fix this
-
-            if (v.closeEnough(edgeCorner1.loc.x, edgeCorner2.loc.x, 1)) {
-                polygon.add(createTriangle(edgeCorner1, edgeCorner2, c, color, HEIGHTFACTOR));
-            } else {
-                float[] tr0 = {
-                        (float) c.loc.x, (float) c.loc.y, (float) c.elevation * HEIGHTFACTOR,
-                        (float) edgeCorner2.loc.x, (float) edgeCorner2.loc.y, (float) edgeCorner2.elevation * HEIGHTFACTOR,
-                        (float) edgeCorner1.loc.x, (float) edgeCorner1.loc.y, (float) edgeCorner1.elevation * HEIGHTFACTOR
-                };
-
-                float[] tr1 = {
-                        (float) edgeCorner2.loc.x, (float) edgeCorner2.loc.y, (float) edgeCorner2.elevation * HEIGHTFACTOR,
-                        (float) ((v.closeEnough(edgeCorner1.loc.x, v.bounds.x, 1) || v.closeEnough(edgeCorner2.loc.x, v.bounds.x, .5)) ? v.bounds.x : v.bounds.right),
-                        (float) ((v.closeEnough(edgeCorner1.loc.y, v.bounds.y, 1) || v.closeEnough(edgeCorner2.loc.y, v.bounds.y, .5)) ? v.bounds.y : v.bounds.bottom),
-                        (float) edgeCorner2.elevation * HEIGHTFACTOR, //TODO: almost certainly wrong :/
-                        (float) edgeCorner1.loc.x, (float) edgeCorner1.loc.y, (float) edgeCorner1.elevation * HEIGHTFACTOR
-                };
-                float[] normals = {
-                        0, 1, 0,
-                        0, 1, 0,
-                        0, 1, 0
-                };
-
-                float[] colors = {1, 0, 0, 1, 0, 1, 0, 1, 0, 0, 1, 1};
-
-                DefaultGeometry g = DefaultGeometry.createVNC(IGeometry.Primitive.TRIANGLES, tr0, normals, colors);
-                DefaultGeometry g1 = DefaultGeometry.createVNC(IGeometry.Primitive.TRIANGLES, tr1, normals, colors);
-
-                polygon.add(new DefaultMesh(color, g));
-                polygon.add(new DefaultMesh(color, g1));
-                c.area += 0; //TODO: area of polygon given vertices
+        RGBA[] cellColors = new RGBA[v.centers.size()];
+        for (Center c : v.centers) {
+            boundingBox(c, box);
+            if (lod.isNeeded(tiles, box[0], box[1], box[2], box[3])) {
+                cellColors[c.index] = colorOf(v.getColorAsMaterial(c.biome));
             }
-
         }
-
-        //return polygon;
-        return MeshUtilities.mergeMeshes(polygon);
+        return lod.rebuild(TerrainMesh.build(v, cellColors, HEIGHTFACTOR), tiles);
     }
 
-    private static IMesh createTriangle(Corner c1, Corner c2, Center center, IMaterial color, int HEIGHTFACTOR) {
-        float[] vertices = {
-                (float) center.loc.x, (float) center.loc.y, (float) center.elevation * HEIGHTFACTOR,
-                (float) c1.loc.x, (float) c1.loc.y, (float) c1.elevation * HEIGHTFACTOR,
-                (float) c2.loc.x, (float) c2.loc.y, (float) c2.elevation * HEIGHTFACTOR
-        };
-        float[] normals = {
-                0, 1, 0,
-                0, 1, 0,
-                0, 1, 0
-        };
-        float[] colors = {1, 0, 0, 1, 0, 1, 0, 1, 0, 0, 1, 1};
+    //minX, minY, maxX, maxY of the center and the corners of the cell
+    private static void boundingBox(Center c, double[] box) {
+        box[0] = box[2] = c.loc.x;
+        box[1] = box[3] = c.loc.y;
+        for (Corner k : c.corners) {
+            box[0] = Math.min(box[0], k.loc.x);
+            box[1] = Math.min(box[1], k.loc.y);
+            box[2] = Math.max(box[2], k.loc.x);
+            box[3] = Math.max(box[3], k.loc.y);
+        }
+    }
 
+    /**
+     * The biome colored terrain of the given cells only, for one chunk of a
+     * tiled world. The other cells still shape the normals along the border,
+     * so neighboring chunks shade alike where they meet.
+     */
+    public static IMesh createTerrainMesh(VoronoiGraph v, BitSet cells) {
+        RGBA[] cellColors = new RGBA[v.centers.size()];
+        for (int i = cells.nextSetBit(0); i >= 0; i = cells.nextSetBit(i + 1)) {
+            cellColors[i] = colorOf(v.getColorAsMaterial(v.centers.get(i).biome));
+        }
+        return TerrainMesh.build(v, cellColors, HEIGHTFACTOR).toMesh(TERRAIN_MATERIAL);
+    }
 
-        DefaultGeometry g = DefaultGeometry.createVNC(IGeometry.Primitive.TRIANGLES, vertices, normals, colors);
-        return new DefaultMesh(color, g);
+    private static RGBA colorOf(IMaterial material) {
+        return material instanceof ColorMaterial ? ((ColorMaterial) material).getColor() : RGBA.WHITE;
     }
 }
@@ -0,0 +1,96 @@
+package model;
+
+import com.hoten.delaunay.voronoi.TerrainField;
+
+/**
+ * Endless terrain for the tiled world: a few octaves of value noise, seeded,
+ * so a position gets the same elevation and moisture whichever chunk asks
+ * for it. The lattice values are hashed from (seed, x, y), nothing is stored.
+ */
+public final class NoiseField implements TerrainField {
+
+    private static final int OCTAVES = 5;
+    private static final double SEA_LEVEL = 0.5;
+    // the sum of the octaves rarely strays far from 0.5, stretch it to about 0 .. 1
+    private static final double CONTRAST = 1.8;
+    // > 1 favors lowlands over mountains, like the redistribution of a single map
+    private static final double LOWLANDS = 1.5;
+    private static final long MOISTURE_SALT = 0x5DEECE66DL;
+
+    private final long seed;
+    private final double scale;
+
+    /**
+     * @param scale size of the coarsest features in world units
+     */
+    public NoiseField(long seed, double scale) {
+        this.seed = seed;
+        this.scale = scale;
+    }
+
+    @Override
+    public double elevation(double x, double y) {
+        final double n = fractal(seed, x / scale, y / scale);
+        final double height = CONTRAST * (n - SEA_LEVEL) / (1 - SEA_LEVEL);
+        return height < 0 ? height : Math.pow(height, LOWLANDS);
+    }
+
+    @Override
+    public double moisture(double x, double y) {
+        final double n = fractal(seed ^ MOISTURE_SALT, x / scale, y / scale);
+        return Math.min(Math.max(0.5 + 2 * CONTRAST * (n - 0.5), 0), 1);
+    }
+
+    /**
+     * @return a well mixed 64 bit hash of the lattice point (x, y)
+     */
+    static long hash(long seed, long x, long y) {
+        long h = seed ^ (x * 0x9E3779B97F4A7C15L) ^ (y * 0xC2B2AE3D27D4EB4FL);
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb93fe53a87ebL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * @return the top 53 bits of h as a double in 0 .. 1
+     */
+    static double unit(long h) {
+        return (h >>> 11) * 0x1.0p-53;
+    }
+
+    //octaves of halving size and weight, normalized to 0 .. 1
+    private static double fractal(long seed, double x, double y) {
+        double total = 0;
+        double weight = 1;
+        double weights = 0;
+        for (int octave = 0; octave < OCTAVES; octave++) {
+            total += weight * valueNoise(seed + octave, x, y);
+            weights += weight;
+            weight *= 0.5;
+            x *= 2;
+            y *= 2;
+        }
+        return total / weights;
+    }
+
+    private static double valueNoise(long seed, double x, double y) {
+        final double fx = Math.floor(x);
+        final double fy = Math.floor(y);
+        final long ix = (long) fx;
+        final long iy = (long) fy;
+        final double u = fade(x - fx);
+        final double v = fade(y - fy);
+        final double a = unit(hash(seed, ix, iy));
+        final double b = unit(hash(seed, ix + 1, iy));
+        final double c = unit(hash(seed, ix, iy + 1));
+        final double d = unit(hash(seed, ix + 1, iy + 1));
+        return (a + (b - a) * u) + ((c + (d - c) * u) - (a + (b - a) * u)) * v;
+    }
+
+    private static double fade(double t) {
+        return t * t * t * (t * (t * 6 - 15) + 10);
+    }
+}
@@ -0,0 +1,517 @@
+package model;
+
+import ch.fhnw.ether.scene.mesh.DefaultMesh;
+import ch.fhnw.ether.scene.mesh.IMesh;
+import ch.fhnw.ether.scene.mesh.geometry.DefaultGeometry;
+import ch.fhnw.ether.scene.mesh.geometry.IGeometry;
+import ch.fhnw.ether.scene.mesh.material.IMaterial;
+import ch.fhnw.util.math.Vec3;
+import com.hoten.delaunay.geom.Rectangle;
+import com.hoten.delaunay.voronoi.LongIntHashMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Level of detail for the terrain of large maps.
+ * <p>
+ * The full {@link TerrainMesh} is simplified into coarser levels by vertex
+ * clustering: the vertices within one square of a level's grid become one
+ * vertex with their mean position, normal and color, and triangles that lose
+ * a corner that way are dropped. Each level doubles the grid size of the one
+ * before. The clustering runs over the whole map, so tiles showing the same
+ * level share their border vertices; where neighbors show different levels
+ * a skirt, hanging down from the border by the largest error of any level,
+ * covers the gap.
+ * <p>
+ * The map is cut into TILES x TILES tiles by triangle centroid, with one
+ * IMesh per tile. {@link #update} gives every tile the coarsest level whose
+ * error (how far the clustering moved any vertex) stays below PIXEL_TOLERANCE
+ * on screen, and swaps the geometry of the tiles that changed level. As the
+ * error of a level grows with its grid size, the triangles of a tile grow
+ * with its size on screen rather than with the number of sites, which keeps
+ * the total bounded by the viewport.
+ * <p>
+ * After an edit of the map, {@link #rebuild} makes the levels of the tiles
+ * that changed again from a mesh of just their region; the other tiles
+ * keep theirs.
+ */
+public final class TerrainLod {
+
+    private static final int TILES = 8;
+    private static final float PIXEL_TOLERANCE = 2;
+    // the coarsest level has about this many grid squares along a tile side
+    private static final int MIN_CLUSTERS_PER_TILE = 4;
+    private static final int NO_VERTEX = -1;
+
+    private static final class Tile {
+        final TerrainMesh[] levels;
+        // triangles of each level before its skirt
+        final int[] surfaceTriangles;
+        final float[] min = {Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE};
+        final float[] max = {-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+        IMesh mesh;
+        int level;
+
+        Tile(int numLevels) {
+            levels = new TerrainMesh[numLevels];
+            surfaceTriangles = new int[numLevels];
+        }
+    }
+
+    private final List<Tile> tiles;
+    // the used tiles by grid position, null where there are no triangles
+    private final Tile[] grid;
+    private final float[] errors;
+    // the grid size of each simplified level
+    private final double[] sizes;
+    private final Rectangle bounds;
+    private final double tileSize;
+    // how far from a tile the vertices of its triangles and clusters may lie
+    private final double reach;
+    private final float skirt;
+    private final List<IMesh> meshes;
+
+    private TerrainLod(List<Tile> tiles, Tile[] grid, float[] errors, double[] sizes, Rectangle bounds, double tileSize, double spacing) {
+        this.tiles = tiles;
+        this.grid = grid;
+        this.errors = errors;
+        this.sizes = sizes;
+        this.bounds = bounds;
+        this.tileSize = tileSize;
+        // a triangle lies within a few cells of its centroid; a coarse one
+        // joins clusters next to each other, whose vertices lie within their squares
+        this.reach = 4 * spacing + 3 * sizes[sizes.length - 1];
+        this.skirt = errors[errors.length - 1];
+        final List<IMesh> meshes = new ArrayList<>();
+        for (Tile tile : tiles) {
+            meshes.add(tile.mesh);
+        }
+        this.meshes = Collections.unmodifiableList(meshes);
+    }
+
+    /**
+     * Builds all levels and tiles, initially showing the full detail.
+     *
+     * @param full    the terrain of the whole map
+     * @param bounds  the map bounds, cut into the tiles
+     * @param spacing the mean distance between neighboring sites, the grid
+     *                size of the finest simplified level
+     */
+    public static TerrainLod build(TerrainMesh full, Rectangle bounds, double spacing, IMaterial material) {
+        final double tileSize = Math.max(bounds.width, bounds.height) / TILES;
+        final List<TerrainMesh> levels = new ArrayList<>();
+        final List<Float> levelErrors = new ArrayList<>();
+        final List<Double> levelSizes = new ArrayList<>();
+        levels.add(full);
+        levelErrors.add(0f);
+        levelSizes.add(0.0);
+        for (double size = spacing; size <= tileSize / MIN_CLUSTERS_PER_TILE; size *= 2) {
+            final float[] error = new float[1];
+            levels.add(cluster(full, size, error));
+            levelErrors.add(error[0]);
+            levelSizes.add(size);
+        }
+        final float[] errors = new float[levels.size()];
+        final double[] sizes = new double[levels.size()];
+        for (int i = 0; i < errors.length; i++) {
+            errors[i] = levelErrors.get(i);
+            sizes[i] = levelSizes.get(i);
+        }
+        final float skirt = errors[errors.length - 1];
+
+        final List<Tile> tiles = new ArrayList<>();
+        for (int t = 0; t < TILES * TILES; t++) {
+            tiles.add(new Tile(levels.size()));
+        }
+        for (int l = 0; l < levels.size(); l++) {
+            split(levels.get(l), l, bounds, tileSize, skirt, tiles);
+        }
+        final List<Tile> used = new ArrayList<>();
+        final Tile[] grid = new Tile[tiles.size()];
+        for (int t = 0; t < tiles.size(); t++) {
+            final Tile tile = tiles.get(t);
+            if (tile.surfaceTriangles[0] == 0) {
+                continue;
+            }
+            measure(tile);
+            tile.mesh = new DefaultMesh(material, tile.levels[0].toGeometry());
+            grid[t] = tile;
+            used.add(tile);
+        }
+        return new TerrainLod(used, grid, errors, sizes, bounds, tileSize, spacing);
+    }
+
+    /**
+     * Marks the tiles that hold triangles within the given rectangle, such
+     * as the bounding box of a cell whose terrain changed.
+     */
+    public void markTiles(BitSet marked, double minX, double minY, double maxX, double maxY) {
+        for (int ty = tileOf(minY - bounds.y); ty <= tileOf(maxY - bounds.y); ty++) {
+            for (int tx = tileOf(minX - bounds.x); tx <= tileOf(maxX - bounds.x); tx++) {
+                marked.set(ty * TILES + tx);
+            }
+        }
+    }
+
+    /**
+     * @return whether a cell with the given bounding box has to be in the
+     * mesh passed to {@link #rebuild} for the given tiles, because its
+     * vertices may end up in their triangles or clusters
+     */
+    public boolean isNeeded(BitSet marked, double minX, double minY, double maxX, double maxY) {
+        for (int t = marked.nextSetBit(0); t >= 0; t = marked.nextSetBit(t + 1)) {
+            final double x = bounds.x + (t % TILES) * tileSize;
+            final double y = bounds.y + (t / TILES) * tileSize;
+            if (maxX >= x - reach && minX <= x + tileSize + reach && maxY >= y - reach && minY <= y + tileSize + reach) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Makes all levels of the marked tiles again, off the scene thread. The
+     * mesh must hold at least the cells {@link #isNeeded} for them, with
+     * their vertices where the full mesh has them, and the number of
+     * triangles of a tile must not have changed from nothing to some or
+     * back; the errors of the levels are kept. The returned task puts the
+     * new levels in place and must run on the scene thread.
+     */
+    public Runnable rebuild(TerrainMesh region, BitSet marked) {
+        final List<Tile> fresh = new ArrayList<>();
+        for (int t = 0; t < TILES * TILES; t++) {
+            fresh.add(new Tile(errors.length));
+        }
+        for (int l = 0; l < errors.length; l++) {
+            split(l == 0 ? region : cluster(region, sizes[l], new float[1]), l, bounds, tileSize, skirt, fresh);
+        }
+        return () -> {
+            for (int t = marked.nextSetBit(0); t >= 0; t = marked.nextSetBit(t + 1)) {
+                final Tile tile = grid[t];
+                if (tile == null) {
+                    continue;
+                }
+                System.arraycopy(fresh.get(t).levels, 0, tile.levels, 0, errors.length);
+                System.arraycopy(fresh.get(t).surfaceTriangles, 0, tile.surfaceTriangles, 0, errors.length);
+                measure(tile);
+                show(tile);
+            }
+        };
+    }
+
+    /**
+     * The tile meshes to put into the scene; their transforms may be set.
+     */
+    public List<IMesh> getMeshes() {
+        return meshes;
+    }
+
+    /**
+     * @return the number of levels, the full detail included
+     */
+    public int getLevelCount() {
+        return errors.length;
+    }
+
+    /**
+     * @return the number of triangles shown right now, skirts included
+     */
+    public int getTriangleCount() {
+        int triangles = 0;
+        for (Tile tile : tiles) {
+            triangles += tile.levels[tile.level].getTriangleCount();
+        }
+        return triangles;
+    }
+
+    /**
+     * The whole map at full detail and without skirts, as one new mesh with
+     * the transform of the tiles, e.g. for exporting.
+     */
+    public IMesh getFullDetail() {
+        int triangles = 0;
+        for (Tile tile : tiles) {
+            triangles += tile.surfaceTriangles[0];
+        }
+        final float[][] all = {new float[9 * triangles], new float[9 * triangles], new float[12 * triangles]};
+        final int[] offset = new int[all.length];
+        for (Tile tile : tiles) {
+            final float[][] data = tile.levels[0].expand(0, tile.surfaceTriangles[0]);
+            for (int i = 0; i < all.length; i++) {
+                System.arraycopy(data[i], 0, all[i], offset[i], data[i].length);
+                offset[i] += data[i].length;
+            }
+        }
+        final IMesh mesh = new DefaultMesh(tiles.get(0).mesh.getMaterial(),
+                DefaultGeometry.createVNC(IGeometry.Primitive.TRIANGLES, all[0], all[1], all[2]));
+        mesh.setTransform(tiles.get(0).mesh.getTransform());
+        return mesh;
+    }
+
+    /**
+     * Chooses the level of every tile for the given view and swaps the
+     * geometry of the tiles whose level changed. Cheap if none did, so it
+     * can run every frame.
+     *
+     * @param eye            camera position in world coordinates
+     * @param fov            vertical field of view in degrees
+     * @param viewportHeight in pixels
+     * @return whether any tile changed its level
+     */
+    public boolean update(Vec3 eye, float fov, int viewportHeight) {
+        final Vec3 local = tiles.get(0).mesh.getTransform().inverse().transform(eye);
+        final double pixelsPerUnitAtDistance1 = viewportHeight / (2 * Math.tan(Math.toRadians(fov) / 2));
+        boolean changed = false;
+        for (Tile tile : tiles) {
+            final double dx = Math.max(0, Math.max(tile.min[0] - local.x, local.x - tile.max[0]));
+            final double dy = Math.max(0, Math.max(tile.min[1] - local.y, local.y - tile.max[1]));
+            final double dz = Math.max(0, Math.max(tile.min[2] - local.z, local.z - tile.max[2]));
+            final double distance = Math.sqrt(dx * dx + dy * dy + dz * dz);
+            int level = 0;
+            while (level + 1 < errors.length && errors[level + 1] * pixelsPerUnitAtDistance1 <= PIXEL_TOLERANCE * distance) {
+                level++;
+            }
+            if (level != tile.level) {
+                tile.level = level;
+                show(tile);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    //swaps in the geometry of the tile's current level, whose arrays are never modified
+    private static void show(Tile tile) {
+        final TerrainMesh mesh = tile.levels[tile.level];
+        final float[][] data = mesh.getData();
+        tile.mesh.getGeometry().modify((attributes, arrays) -> System.arraycopy(data, 0, arrays, 0, data.length), mesh.indices);
+    }
+
+    //the bounding box of the tile's full detail
+    private static void measure(Tile tile) {
+        final TerrainMesh detail = tile.levels[0];
+        Arrays.fill(tile.min, Float.MAX_VALUE);
+        Arrays.fill(tile.max, -Float.MAX_VALUE);
+        for (int v = 0; v < detail.getVertexCount(); v++) {
+            for (int k = 0; k < 3; k++) {
+                tile.min[k] = Math.min(tile.min[k], detail.positions[3 * v + k]);
+                tile.max[k] = Math.max(tile.max[k], detail.positions[3 * v + k]);
+            }
+        }
+    }
+
+    private int tileOf(double offset) {
+        return Math.min(Math.max((int) (offset / tileSize), 0), TILES - 1);
+    }
+
+    //one vertex per occupied grid square, at the mean of the vertices in it that triangles use
+    private static TerrainMesh cluster(TerrainMesh full, double size, float[] error) {
+        final int numVertices = full.getVertexCount();
+        final float[] p = full.positions;
+        final BitSet used = new BitSet(numVertices);
+        for (int i : full.indices) {
+            used.set(i);
+        }
+        final int[] clusterOf = new int[numVertices];
+        Arrays.fill(clusterOf, NO_VERTEX);
+        final LongIntHashMap ids = new LongIntHashMap(numVertices / 4);
+        int numClusters = 0;
+        for (int v = used.nextSetBit(0); v >= 0; v = used.nextSetBit(v + 1)) {
+            final long x = (long) Math.floor(p[3 * v] / size);
+            final long y = (long) Math.floor(p[3 * v + 1] / size);
+            clusterOf[v] = ids.putIfAbsent((x << 32) | (y & 0xffffffffL), numClusters);
+            if (clusterOf[v] == numClusters) {
+                numClusters++;
+            }
+        }
+
+        final double[] sum = new double[10 * numClusters];
+        final int[] count = new int[numClusters];
+        for (int v = used.nextSetBit(0); v >= 0; v = used.nextSetBit(v + 1)) {
+            final int c = clusterOf[v];
+            for (int k = 0; k < 3; k++) {
+                sum[10 * c + k] += p[3 * v + k];
+                sum[10 * c + 3 + k] += full.normals[3 * v + k];
+            }
+            for (int k = 0; k < 4; k++) {
+                sum[10 * c + 6 + k] += full.colors[4 * v + k];
+            }
+            count[c]++;
+        }
+        final float[] positions = new float[3 * numClusters];
+        final float[] normals = new float[3 * numClusters];
+        final float[] colors = new float[4 * numClusters];
+        for (int c = 0; c < numClusters; c++) {
+            for (int k = 0; k < 3; k++) {
+                positions[3 * c + k] = (float) (sum[10 * c + k] / count[c]);
+            }
+            final double length = Math.sqrt(sum[10 * c + 3] * sum[10 * c + 3] + sum[10 * c + 4] * sum[10 * c + 4] + sum[10 * c + 5] * sum[10 * c + 5]);
+            for (int k = 0; k < 3; k++) {
+                normals[3 * c + k] = length == 0 ? (k == 2 ? 1 : 0) : (float) (sum[10 * c + 3 + k] / length);
+            }
+            for (int k = 0; k < 4; k++) {
+                colors[4 * c + k] = (float) (sum[10 * c + 6 + k] / count[c]);
+            }
+        }
+        float maxDistance = 0;
+        for (int v = used.nextSetBit(0); v >= 0; v = used.nextSetBit(v + 1)) {
+            final int c = clusterOf[v];
+            final float dx = p[3 * v] - positions[3 * c];
+            final float dy = p[3 * v + 1] - positions[3 * c + 1];
+            final float dz = p[3 * v + 2] - positions[3 * c + 2];
+            maxDistance = Math.max(maxDistance, dx * dx + dy * dy + dz * dz);
+        }
+        error[0] = (float) Math.sqrt(maxDistance);
+
+        // triangles whose corners ended up in three clusters, each once; the key needs 21 bits per cluster
+        final boolean dedup = numClusters <= 1 << 21;
+        final LongIntHashMap seen = new LongIntHashMap(dedup ? full.getTriangleCount() / 4 : 0);
+        final int[] indices = new int[full.indices.length];
+        int n = 0;
+        for (int i = 0; i < full.indices.length; i += 3) {
+            final int a = clusterOf[full.indices[i]];
+            final int b = clusterOf[full.indices[i + 1]];
+            final int c = clusterOf[full.indices[i + 2]];
+            if (a == b || b == c || a == c) {
+                continue;
+            }
+            if (dedup) {
+                final int lo = Math.min(a, Math.min(b, c));
+                final int hi = Math.max(a, Math.max(b, c));
+                final int mid = a + b + c - lo - hi;
+                if (seen.putIfAbsent(((long) lo << 42) | ((long) mid << 21) | hi, n) != n) {
+                    continue;
+                }
+            }
+            indices[n++] = a;
+            indices[n++] = b;
+            indices[n++] = c;
+        }
+        return new TerrainMesh(positions, normals, colors, Arrays.copyOf(indices, n));
+    }
+
+    //cuts one level into the tiles by triangle centroid, with a skirt along the edges shared with other tiles
+    private static void split(TerrainMesh mesh, int level, Rectangle bounds, double tileSize, float skirt, List<Tile> tiles) {
+        final int numTriangles = mesh.getTriangleCount();
+        final float[] p = mesh.positions;
+        final int[] tileOf = new int[numTriangles];
+        final int[] start = new int[tiles.size() + 1];
+        for (int t = 0; t < numTriangles; t++) {
+            double x = 0;
+            double y = 0;
+            for (int k = 0; k < 3; k++) {
+                x += p[3 * mesh.indices[3 * t + k]];
+                y += p[3 * mesh.indices[3 * t + k] + 1];
+            }
+            final int tx = Math.min(Math.max((int) ((x / 3 - bounds.x) / tileSize), 0), TILES - 1);
+            final int ty = Math.min(Math.max((int) ((y / 3 - bounds.y) / tileSize), 0), TILES - 1);
+            tileOf[t] = ty * TILES + tx;
+            start[tileOf[t] + 1]++;
+        }
+
+        // edges whose two triangles lie in different tiles, as (v0, v1, tile) for both tiles
+        final LongIntHashMap firstTriangle = new LongIntHashMap(numTriangles * 3 / 2);
+        int[] seams = new int[0];
+        int numSeams = 0;
+        final int[] seamStart = new int[tiles.size() + 1];
+        for (int t = 0; t < numTriangles; t++) {
+            for (int k = 0; k < 3; k++) {
+                final int a = mesh.indices[3 * t + k];
+                final int b = mesh.indices[3 * t + (k + 1) % 3];
+                final int other = firstTriangle.putIfAbsent(LongIntHashMap.pair(a, b), t);
+                if (other != t && tileOf[other] != tileOf[t] && skirt > 0) {
+                    if (3 * numSeams + 6 > seams.length) {
+                        seams = Arrays.copyOf(seams, Math.max(96, 2 * seams.length));
+                    }
+                    seams[3 * numSeams++] = a;
+                    seams[3 * numSeams - 2] = b;
+                    seams[3 * numSeams - 1] = tileOf[t];
+                    seams[3 * numSeams++] = a;
+                    seams[3 * numSeams - 2] = b;
+                    seams[3 * numSeams - 1] = tileOf[other];
+                    seamStart[tileOf[t] + 1]++;
+                    seamStart[tileOf[other] + 1]++;
+                }
+            }
+        }
+
+        // counting sorts of the triangles and the seams by tile
+        for (int i = 0; i < tiles.size(); i++) {
+            start[i + 1] += start[i];
+            seamStart[i + 1] += seamStart[i];
+        }
+        final int[] byTile = new int[numTriangles];
+        final int[] fill = Arrays.copyOf(start, tiles.size());
+        for (int t = 0; t < numTriangles; t++) {
+            byTile[fill[tileOf[t]]++] = t;
+        }
+        final int[] seamsByTile = new int[numSeams];
+        final int[] seamFill = Arrays.copyOf(seamStart, tiles.size());
+        for (int s = 0; s < numSeams; s++) {
+            seamsByTile[seamFill[seams[3 * s + 2]]++] = s;
+        }
+
+        final int[] local = new int[mesh.getVertexCount()];
+        final int[] lowered = new int[mesh.getVertexCount()];
+        Arrays.fill(local, NO_VERTEX);
+        Arrays.fill(lowered, NO_VERTEX);
+        for (int i = 0; i < tiles.size(); i++) {
+            final int surface = start[i + 1] - start[i];
+            final int numTileSeams = seamStart[i + 1] - seamStart[i];
+            final int[] indices = new int[3 * (surface + 2 * numTileSeams)];
+            final int[] used = new int[indices.length];
+            int numUsed = 0;
+            int n = 0;
+            for (int k = start[i]; k < start[i + 1]; k++) {
+                for (int j = 0; j < 3; j++) {
+                    final int v = mesh.indices[3 * byTile[k] + j];
+                    if (local[v] == NO_VERTEX) {
+                        local[v] = numUsed;
+                        used[numUsed++] = v;
+                    }
+                    indices[n++] = local[v];
+                }
+            }
+            final int numSurfaceVertices = numUsed;
+            for (int k = seamStart[i]; k < seamStart[i + 1]; k++) {
+                final int a = seams[3 * seamsByTile[k]];
+                final int b = seams[3 * seamsByTile[k] + 1];
+                for (int v : new int[]{a, b}) {
+                    if (lowered[v] == NO_VERTEX) {
+                        lowered[v] = numUsed;
+                        used[numUsed++] = v;
+                    }
+                }
+                indices[n++] = local[a];
+                indices[n++] = local[b];
+                indices[n++] = lowered[b];
+                indices[n++] = local[a];
+                indices[n++] = lowered[b];
+                indices[n++] = lowered[a];
+            }
+
+            final float[] positions = new float[3 * numUsed];
+            final float[] normals = new float[3 * numUsed];
+            final float[] colors = new float[4 * numUsed];
+            for (int u = 0; u < numUsed; u++) {
+                final int v = used[u];
+                System.arraycopy(p, 3 * v, positions, 3 * u, 3);
+                System.arraycopy(mesh.normals, 3 * v, normals, 3 * u, 3);
+                System.arraycopy(mesh.colors, 4 * v, colors, 4 * u, 4);
+                if (u >= numSurfaceVertices) {
+                    positions[3 * u + 2] -= skirt;
+                }
+            }
+            for (int u = 0; u < numUsed; u++) {
+                local[used[u]] = NO_VERTEX;
+                lowered[used[u]] = NO_VERTEX;
+            }
+            tiles.get(i).levels[level] = new TerrainMesh(positions, normals, colors, indices);
+            tiles.get(i).surfaceTriangles[level] = surface;
+        }
+    }
+}
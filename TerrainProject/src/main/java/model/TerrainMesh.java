@@ -0,0 +1,399 @@
+package model;
+
+import ch.fhnw.ether.scene.mesh.DefaultMesh;
+import ch.fhnw.ether.scene.mesh.IMesh;
+import ch.fhnw.ether.scene.mesh.geometry.DefaultGeometry;
+import ch.fhnw.ether.scene.mesh.geometry.IGeometry;
+import ch.fhnw.ether.scene.mesh.material.IMaterial;
+import ch.fhnw.util.color.RGBA;
+import com.hoten.delaunay.voronoi.Center;
+import com.hoten.delaunay.voronoi.Corner;
+import com.hoten.delaunay.voronoi.Edge;
+import com.hoten.delaunay.voronoi.VoronoiGraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Indexed terrain geometry of a VoronoiGraph: positions, smooth normals and
+ * per-vertex colors for the whole map in one triangle list.
+ * <p>
+ * Every cell is a triangle fan around its center. A corner is stored once per
+ * color of the cells around it, so biome borders stay sharp while cells of
+ * the same color share their corners through the index buffer. Normals are
+ * area weighted averages over all fan triangles touching a vertex and thus
+ * continuous across biome borders. All buffers are sized exactly in a
+ * counting pass before they are filled, nothing is allocated per triangle.
+ */
+public final class TerrainMesh {
+
+    /**
+     * Below this many corners the normals are computed on the calling thread.
+     */
+    private static final int PARALLEL_THRESHOLD = 10000;
+
+    private static final IGeometry.IGeometryAttribute[] ATTRIBUTES = {IGeometry.POSITION_ARRAY, IGeometry.NORMAL_ARRAY, IGeometry.COLOR_ARRAY};
+
+    final public float[] positions;
+    final public float[] normals;
+    final public float[] colors;
+    final public int[] indices;
+
+    TerrainMesh(float[] positions, float[] normals, float[] colors, int[] indices) {
+        this.positions = positions;
+        this.normals = normals;
+        this.colors = colors;
+        this.indices = indices;
+    }
+
+    /**
+     * Builds the mesh. Cells are emitted grouped by color, in the order a color
+     * is first used, and in center order within a color. Also (re)computes
+     * Center.area like the triangle based converter did.
+     *
+     * @param cellColors the color of each center, indexed by Center.index;
+     *                   cells without a color are left out, but still shape
+     *                   the normals of the corners they share
+     */
+    public static TerrainMesh build(VoronoiGraph graph, RGBA[] cellColors, int heightFactor) {
+        final List<Center> centers = graph.centers;
+
+        // group cells by color, first use first
+        final HashMap<RGBA, Integer> groupOf = new HashMap<>();
+        final List<RGBA> groupColors = new ArrayList<>();
+        final int[] cellGroup = new int[centers.size()];
+        for (Center c : centers) {
+            if (cellColors[c.index] == null) {
+                cellGroup[c.index] = -1;
+                continue;
+            }
+            Integer g = groupOf.get(cellColors[c.index]);
+            if (g == null) {
+                g = groupColors.size();
+                groupOf.put(cellColors[c.index], g);
+                groupColors.add(cellColors[c.index]);
+            }
+            cellGroup[c.index] = g;
+        }
+
+        // counting sort of the cells by group, stable
+        final int[] start = new int[groupColors.size() + 1];
+        for (int g : cellGroup) {
+            if (g >= 0) {
+                start[g + 1]++;
+            }
+        }
+        for (int g = 0; g < groupColors.size(); g++) {
+            start[g + 1] += start[g];
+        }
+        final int[] cells = new int[start[groupColors.size()]];
+        final int[] fill = Arrays.copyOf(start, groupColors.size());
+        for (int i = 0; i < cellGroup.length; i++) {
+            if (cellGroup[i] >= 0) {
+                cells[fill[cellGroup[i]]++] = i;
+            }
+        }
+
+        final FanWriter writer = new FanWriter(graph, heightFactor);
+        for (int g = 0; g < groupColors.size(); g++) {
+            writer.group(g, groupColors.get(g));
+            for (int k = start[g]; k < start[g + 1]; k++) {
+                writer.cell(centers.get(cells[k]));
+            }
+        }
+        writer.allocate();
+        final int[] groupEnds = new int[groupColors.size()];
+        for (int g = 0; g < groupColors.size(); g++) {
+            writer.group(g, groupColors.get(g));
+            for (int k = start[g]; k < start[g + 1]; k++) {
+                writer.cell(centers.get(cells[k]));
+            }
+            groupEnds[g] = writer.triangles;
+        }
+        assert writer.consistent(groupColors, groupEnds);
+        return new TerrainMesh(writer.positions, writer.normals, writer.colors, writer.indices);
+    }
+
+    public int getVertexCount() {
+        return positions.length / 3;
+    }
+
+    public int getTriangleCount() {
+        return indices.length / 3;
+    }
+
+    /**
+     * The whole terrain as one mesh, drawn through the index buffer. The
+     * material must take positions, normals and colors.
+     */
+    public IMesh toMesh(IMaterial material) {
+        return new DefaultMesh(material, toGeometry());
+    }
+
+    /**
+     * Indexed geometry of positions, normals and colors, in the attribute
+     * order of DefaultGeometry.createVNC.
+     */
+    IGeometry toGeometry() {
+        return new DefaultGeometry(IGeometry.Primitive.TRIANGLES, ATTRIBUTES, getData(), indices);
+    }
+
+    /**
+     * Positions, normals and colors, the data of {@link #toGeometry}; not
+     * copied.
+     */
+    float[][] getData() {
+        return new float[][]{positions, normals, colors};
+    }
+
+    /**
+     * Positions, normals and colors of the triangles first .. end - 1, one
+     * vertex per index, in the attribute order of DefaultGeometry.createVNC.
+     */
+    float[][] expand(int first, int end) {
+        final int count = 3 * (end - first);
+        final float[] p = new float[3 * count];
+        final float[] n = new float[3 * count];
+        final float[] c = new float[4 * count];
+        for (int i = 0; i < count; i++) {
+            final int v = indices[3 * first + i];
+            System.arraycopy(positions, 3 * v, p, 3 * i, 3);
+            System.arraycopy(normals, 3 * v, n, 3 * i, 3);
+            System.arraycopy(colors, 4 * v, c, 4 * i, 4);
+        }
+        return new float[][]{p, n, c};
+    }
+
+    /**
+     * Area weighted normals of all corners and centers, from the fan
+     * triangles (center, v0, v1) of each Voronoi edge. Every vertex only
+     * reads the graph, so both loops run in parallel for larger maps.
+     */
+    private static void computeNormals(VoronoiGraph graph, int heightFactor, float[] cornerNormals, float[] centerNormals) {
+        final boolean parallel = graph.corners.size() >= PARALLEL_THRESHOLD;
+        IntStream corners = IntStream.range(0, graph.corners.size());
+        (parallel ? corners.parallel() : corners).forEach(i -> {
+            final Corner k = graph.corners.get(i);
+            final double[] n = new double[3];
+            for (Edge e : k.protrudes) {
+                addFaceNormal(e.d0, e, heightFactor, n);
+                addFaceNormal(e.d1, e, heightFactor, n);
+            }
+            putNormal(n, cornerNormals, k.index);
+        });
+        IntStream centers = IntStream.range(0, graph.centers.size());
+        (parallel ? centers.parallel() : centers).forEach(i -> {
+            final Center c = graph.centers.get(i);
+            final double[] n = new double[3];
+            for (Edge e : c.borders) {
+                addFaceNormal(c, e, heightFactor, n);
+            }
+            putNormal(n, centerNormals, c.index);
+        });
+    }
+
+    /**
+     * Adds the upward facing normal of triangle (c, e.v0, e.v1), with a
+     * length of twice its area.
+     */
+    private static void addFaceNormal(Center c, Edge e, int heightFactor, double[] n) {
+        if (c == null || e.v0 == null || e.v1 == null) {
+            return;
+        }
+        final double ax = e.v0.loc.x - c.loc.x;
+        final double ay = e.v0.loc.y - c.loc.y;
+        final double az = (e.v0.elevation - c.elevation) * heightFactor;
+        final double bx = e.v1.loc.x - c.loc.x;
+        final double by = e.v1.loc.y - c.loc.y;
+        final double bz = (e.v1.elevation - c.elevation) * heightFactor;
+        double nx = ay * bz - az * by;
+        double ny = az * bx - ax * bz;
+        double nz = ax * by - ay * bx;
+        if (nz < 0) {
+            nx = -nx;
+            ny = -ny;
+            nz = -nz;
+        }
+        n[0] += nx;
+        n[1] += ny;
+        n[2] += nz;
+    }
+
+    private static void putNormal(double[] n, float[] normals, int index) {
+        final double length = Math.sqrt(n[0] * n[0] + n[1] * n[1] + n[2] * n[2]);
+        if (length == 0) {
+            normals[3 * index + 2] = 1;
+            return;
+        }
+        normals[3 * index] = (float) (n[0] / length);
+        normals[3 * index + 1] = (float) (n[1] / length);
+        normals[3 * index + 2] = (float) (n[2] / length);
+    }
+
+    /**
+     * Walks the fans of the cells, group by group. The first walk only counts
+     * vertices and triangles; after allocate() the second walk writes them,
+     * numbering them in the same order. A corner gets a new vertex the first
+     * time a group uses it, so its slot is only valid within that group.
+     */
+    private static final class FanWriter {
+
+        private final VoronoiGraph graph;
+        private final int heightFactor;
+        private final float[] cornerNormals;
+        private final float[] centerNormals;
+        private final int[] slot;
+        private final int[] assigned;
+        private final int[] written;
+
+        private int group;
+        private RGBA color;
+        float[] positions;
+        float[] normals;
+        float[] colors;
+        int[] indices;
+        private int vertices;
+        int triangles;
+
+        FanWriter(VoronoiGraph graph, int heightFactor) {
+            this.graph = graph;
+            this.heightFactor = heightFactor;
+            cornerNormals = new float[3 * graph.corners.size()];
+            centerNormals = new float[3 * graph.centers.size()];
+            computeNormals(graph, heightFactor, cornerNormals, centerNormals);
+            slot = new int[graph.corners.size()];
+            assigned = new int[graph.corners.size()];
+            written = new int[graph.corners.size()];
+            Arrays.fill(assigned, -1);
+            Arrays.fill(written, -1);
+        }
+
+        void group(int group, RGBA color) {
+            this.group = group;
+            this.color = color;
+        }
+
+        void allocate() {
+            positions = new float[3 * vertices];
+            normals = new float[3 * vertices];
+            colors = new float[4 * vertices];
+            indices = new int[3 * triangles];
+            vertices = 0;
+            triangles = 0;
+        }
+
+        void cell(Center c) {
+            final int center = vertex(c.loc.x, c.loc.y, c.elevation, centerNormals, c.index);
+
+            //only used if Center c is on the edge of the graph. allows for completely filling in the outer polygons
+            Corner edgeCorner1 = null;
+            Corner edgeCorner2 = null;
+            c.area = 0;
+            for (Edge e : c.borders) {
+                if (e.v0 == null) {
+                    //outermost voronoi edges aren't stored in the graph
+                    continue;
+                }
+
+                Corner cornerWithOneAdjacent = e.v0.border ? e.v0 : e.v1;
+                if (cornerWithOneAdjacent.border) {
+                    if (edgeCorner1 == null) {
+                        edgeCorner1 = cornerWithOneAdjacent;
+                    } else {
+                        edgeCorner2 = cornerWithOneAdjacent;
+                    }
+                }
+
+                triangle(center, corner(e.v0), corner(e.v1));
+                c.area += Math.abs(c.loc.x * (e.v0.loc.y - e.v1.loc.y)
+                        + e.v0.loc.x * (e.v1.loc.y - c.loc.y)
+                        + e.v1.loc.x * (c.loc.y - e.v0.loc.y)) / 2;
+            }
+
+            //the missing triangle of a border cell, or two if it covers a corner of the bounds
+            if (edgeCorner2 != null) {
+                if (graph.closeEnough(edgeCorner1.loc.x, edgeCorner2.loc.x, 1)) {
+                    triangle(center, corner(edgeCorner1), corner(edgeCorner2));
+                } else {
+                    final int corner1 = corner(edgeCorner1);
+                    final int corner2 = corner(edgeCorner2);
+                    final double x = (graph.closeEnough(edgeCorner1.loc.x, graph.bounds.x, 1) || graph.closeEnough(edgeCorner2.loc.x, graph.bounds.x, .5))
+                            ? graph.bounds.x : graph.bounds.right;
+                    final double y = (graph.closeEnough(edgeCorner1.loc.y, graph.bounds.y, 1) || graph.closeEnough(edgeCorner2.loc.y, graph.bounds.y, .5))
+                            ? graph.bounds.y : graph.bounds.bottom;
+                    final int boundsCorner = vertex(x, y, edgeCorner2.elevation, centerNormals, c.index); //TODO: elevation almost certainly wrong :/
+                    triangle(center, corner2, corner1);
+                    triangle(corner2, boundsCorner, corner1);
+                }
+            }
+        }
+
+        private int corner(Corner k) {
+            final int[] seen = positions == null ? assigned : written;
+            if (seen[k.index] != group) {
+                seen[k.index] = group;
+                slot[k.index] = vertices++;
+                if (positions != null) {
+                    put(slot[k.index], k.loc.x, k.loc.y, k.elevation, cornerNormals, k.index);
+                }
+            }
+            return slot[k.index];
+        }
+
+        private int vertex(double x, double y, double elevation, float[] normalSource, int normalIndex) {
+            final int v = vertices++;
+            if (positions != null) {
+                put(v, x, y, elevation, normalSource, normalIndex);
+            }
+            return v;
+        }
+
+        private void put(int v, double x, double y, double elevation, float[] normalSource, int normalIndex) {
+            positions[3 * v] = (float) x;
+            positions[3 * v + 1] = (float) y;
+            positions[3 * v + 2] = (float) elevation * heightFactor;
+            System.arraycopy(normalSource, 3 * normalIndex, normals, 3 * v, 3);
+            colors[4 * v] = color.r;
+            colors[4 * v + 1] = color.g;
+            colors[4 * v + 2] = color.b;
+            colors[4 * v + 3] = color.a;
+        }
+
+        /**
+         * For assertions: whether the write pass numbered as many vertices as
+         * the counting pass and every triangle has the color of its group on
+         * all three vertices; the triangles of group g end before groupEnds[g].
+         */
+        boolean consistent(List<RGBA> groupColors, int[] groupEnds) {
+            if (vertices != positions.length / 3) {
+                return false;
+            }
+            int g = 0;
+            for (int t = 0; t < triangles; t++) {
+                while (t >= groupEnds[g]) {
+                    g++;
+                }
+                final RGBA color = groupColors.get(g);
+                for (int i = 3 * t; i < 3 * t + 3; i++) {
+                    final int v = 4 * indices[i];
+                    if (colors[v] != color.r || colors[v + 1] != color.g || colors[v + 2] != color.b || colors[v + 3] != color.a) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        private void triangle(int a, int b, int c) {
+            if (indices != null) {
+                indices[3 * triangles] = a;
+                indices[3 * triangles + 1] = b;
+                indices[3 * triangles + 2] = c;
+            }
+            triangles++;
+        }
+    }
+}
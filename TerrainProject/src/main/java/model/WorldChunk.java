@@ -0,0 +1,133 @@
+package model;
+
+import ch.fhnw.ether.scene.mesh.IMesh;
+import ch.fhnw.util.math.Mat4;
+import com.hoten.delaunay.geom.Point;
+import com.hoten.delaunay.geom.Rectangle;
+import com.hoten.delaunay.voronoi.Center;
+import com.hoten.delaunay.voronoi.GenerationListener;
+import com.hoten.delaunay.voronoi.GraphFile;
+import com.hoten.delaunay.voronoi.TerrainField;
+import com.hoten.delaunay.voronoi.VoronoiGraph;
+import com.hoten.delaunay.voronoi.nodename.as3delaunay.Voronoi;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+
+/**
+ * One square of the endless tiled world, SIZE world units wide.
+ * <p>
+ * The sites come from a jittered grid over the whole world, every grid cell
+ * holding one site hashed from (seed, cell). A chunk builds its graph over
+ * its own square plus a margin on all sides, so the cells of its square
+ * have the same neighbors they have in the chunks next to it; the margin is
+ * wide enough that the Lloyd relaxation, which moves the cells along the
+ * clipped outer border, doesn't reach into the square. The terrain comes from
+ * a {@link TerrainField} at world positions. A cell belongs to the chunk
+ * whose square holds its site, so neighboring chunks meet along shared
+ * corners, with the same elevations on both sides.
+ * <p>
+ * The graph is in chunk coordinates, with the origin at the corner of the
+ * margin, which is a whole number of world units so corners merge alike in
+ * all chunks. The mesh is moved into place by its transform, with chunk
+ * (0, 0) covering the area of a single generated map.
+ */
+public final class WorldChunk {
+
+    /**
+     * Width and height of a chunk in world units, the size of a single map.
+     */
+    public static final int SIZE = 1000;
+    private static final int NUM_LLOYD_RELAXATIONS = 2;
+
+    final public int x;
+    final public int y;
+    final public IMesh mesh;
+    final private VoronoiGraph graph;
+    final private Voronoi.Backend backend;
+
+    private WorldChunk(int x, int y, VoronoiGraph graph, Voronoi.Backend backend, boolean keepGraph) {
+        this.x = x;
+        this.y = y;
+        this.graph = keepGraph ? graph : null;
+        this.backend = backend;
+
+        final int margin = (int) (graph.bounds.width - SIZE) / 2;
+        final BitSet owned = new BitSet(graph.centers.size());
+        for (Center c : graph.centers) {
+            if (c.loc.x >= margin && c.loc.x < margin + SIZE && c.loc.y >= margin && c.loc.y < margin + SIZE) {
+                owned.set(c.index);
+            }
+        }
+        mesh = GraphToMeshConverter.createTerrainMesh(graph, owned);
+        mesh.setTransform(Mat4.translate((float) ((long) x * SIZE - margin - SIZE / 2),
+                (float) ((long) y * SIZE - margin - SIZE / 2), 0));
+    }
+
+    /**
+     * Packs the chunk coordinates into one key.
+     */
+    public static long key(int x, int y) {
+        return ((long) x << 32) | (y & 0xffffffffL);
+    }
+
+    /**
+     * Builds the chunk at (x, y). Only the mesh is kept unless keepGraph is
+     * set, which {@link #save} needs.
+     *
+     * @param sitesPerChunk Voronoi cells per chunk, like the resolution of a
+     *                      single map
+     * @param listener      told about the stages like for a single map; may
+     *                      cancel by throwing a CancellationException
+     */
+    public static WorldChunk generate(long seed, int sitesPerChunk, TerrainField field, int x, int y, boolean keepGraph,
+            GenerationListener listener) {
+        final int grid = Math.max(1, (int) Math.round(Math.sqrt(sitesPerChunk)));
+        final double cell = (double) SIZE / grid;
+        final int margin = (int) Math.ceil((NUM_LLOYD_RELAXATIONS + 3) * cell);
+        final int width = SIZE + 2 * margin;
+        final long originX = (long) x * SIZE - margin;
+        final long originY = (long) y * SIZE - margin;
+
+        listener.stage(GenerationListener.Stage.POINTS);
+        final ArrayList<Point> sites = new ArrayList<>();
+        final long firstX = (long) Math.floor(originX / cell);
+        final long firstY = (long) Math.floor(originY / cell);
+        final long lastX = (long) Math.floor((originX + width) / cell);
+        final long lastY = (long) Math.floor((originY + width) / cell);
+        for (long gy = firstY; gy <= lastY; gy++) {
+            for (long gx = firstX; gx <= lastX; gx++) {
+                final long h = NoiseField.hash(seed, gx, gy);
+                final double wx = (gx + NoiseField.unit(h)) * cell;
+                final double wy = (gy + NoiseField.unit(NoiseField.hash(h, gx, gy))) * cell;
+                if (wx >= originX && wx < originX + width && wy >= originY && wy < originY + width) {
+                    sites.add(new Point(wx - originX, wy - originY));
+                }
+            }
+        }
+        final Voronoi voronoi = new Voronoi(sites, null, new Rectangle(0, 0, width, width));
+        final VoronoiGraph graph = new DefaultVoronoiGraph(voronoi, NUM_LLOYD_RELAXATIONS, field.translate(originX, originY), listener);
+        listener.stage(GenerationListener.Stage.MESH);
+        return new WorldChunk(x, y, graph, voronoi.getBackend(), keepGraph);
+    }
+
+    /**
+     * Restores a chunk written by {@link #save}.
+     */
+    public static WorldChunk load(Path path, int x, int y, boolean keepGraph) throws IOException {
+        final GraphFile file = GraphFile.open(path);
+        return new WorldChunk(x, y, new DefaultVoronoiGraph(file), file.backend, keepGraph);
+    }
+
+    /**
+     * Writes the graph of the chunk, which must have been kept.
+     */
+    public void save(Path path, long seed) throws IOException {
+        if (graph == null) {
+            throw new IllegalStateException("the graph of chunk " + x + ", " + y + " was not kept");
+        }
+        GraphFile.write(path, graph, seed, NUM_LLOYD_RELAXATIONS, backend);
+    }
+}